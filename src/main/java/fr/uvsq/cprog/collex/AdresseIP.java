@@ -1,22 +1,25 @@
 package fr.uvsq.cprog.collex;
 
-import java.util.Objects;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
 
 /**
- * Represents an IP address with validation and comparison capabilities.
+ * Represents an IPv4 or IPv6 address with validation and comparison capabilities.
+ * The address is stored as two longs (the high and low 64 bits; an IPv4 address uses
+ * the low 32 bits only), so comparison and hashing never allocate.
+ * IPv6 addresses are printed in the canonical text form of RFC 5952.
  */
 public class AdresseIP implements Comparable<AdresseIP> {
   
-  private static final Pattern IP_PATTERN = Pattern.compile(
-      "^((25[0-5]|(2[0-4]|1\\d|[1-9]|)\\d)\\.?\\b){4}$");
+  private static final long PREFIXE_IPV4_MAPPEE = 0xffffL << 32;
   
-  private final String adresse;
+  private final long haut;
+  private final long bas;
+  private final boolean ipv6;
   
   /**
    * Creates a new IP address.
-   * 
-   * @param adresse the IP address string
+   *
+   * @param adresse the IPv4 (dotted) or IPv6 (RFC 4291 text form) address string
    * @throws IllegalArgumentException if the IP address format is invalid
    */
   public AdresseIP(String adresse) {
@@ -25,20 +28,138 @@ public class AdresseIP implements Comparable<AdresseIP> {
     }
     
     String trimmedAddress = adresse.trim();
-    if (!IP_PATTERN.matcher(trimmedAddress).matches()) {
-      throw new IllegalArgumentException("Format d'adresse IP invalide: " + trimmedAddress);
+    if (trimmedAddress.indexOf(':') < 0) {
+      long valeur = parserIpv4(trimmedAddress, 0, trimmedAddress.length());
+      if (valeur < 0) {
+        throw new IllegalArgumentException("Format d'adresse IP invalide: " + trimmedAddress);
+      }
+      this.haut = 0;
+      this.bas = valeur;
+      this.ipv6 = false;
+    } else {
+      long[] valeur = new long[2];
+      if (!parserIpv6(trimmedAddress, valeur)) {
+        throw new IllegalArgumentException("Format d'adresse IP invalide: " + trimmedAddress);
+      }
+      this.haut = valeur[0];
+      this.bas = valeur[1];
+      this.ipv6 = true;
     }
-    
-    this.adresse = trimmedAddress;
   }
   
   /**
-   * Returns the IP address string.
-   * 
+   * Creates an IP address from its bits, as returned by {@link #getHaut()} and
+   * {@link #getBas()}.
+   *
+   * @param haut the 64 high bits, 0 for IPv4
+   * @param bas the 64 low bits
+   * @param ipv6 true for an IPv6 address
+   */
+  AdresseIP(long haut, long bas, boolean ipv6) {
+    this.haut = haut;
+    this.bas = bas;
+    this.ipv6 = ipv6;
+  }
+  
+  /**
+   * Parses an IP address without throwing, for callers going through many strings that
+   * may not be addresses.
+   *
+   * @param adresse the string to parse, already trimmed
+   * @return the address, or null if the string is not a valid IP address
+   */
+  static AdresseIP analyser(String adresse) {
+    if (adresse.indexOf(':') < 0) {
+      long valeur = parserIpv4(adresse, 0, adresse.length());
+      return valeur < 0 ? null : new AdresseIP(0, valeur, false);
+    }
+    long[] valeur = new long[2];
+    return parserIpv6(adresse, valeur) ? new AdresseIP(valeur[0], valeur[1], true) : null;
+  }
+  
+  /**
+   * Checks if a string is a valid IPv4 or IPv6 address, without throwing.
+   *
+   * @param adresse the string to check
+   * @return true if the string can be parsed as an IP address
+   */
+  public static boolean estValide(String adresse) {
+    if (adresse == null) {
+      return false;
+    }
+    String trimmedAddress = adresse.trim();
+    if (trimmedAddress.indexOf(':') < 0) {
+      return parserIpv4(trimmedAddress, 0, trimmedAddress.length()) >= 0;
+    }
+    return parserIpv6(trimmedAddress, new long[2]);
+  }
+  
+  /**
+   * Returns the IP address string, in canonical form.
+   *
    * @return the IP address
    */
   public String getAdresse() {
-    return adresse;
+    if (!ipv6) {
+      return formaterIpv4(new StringBuilder(15), bas).toString();
+    }
+    return formaterIpv6();
+  }
+  
+  /**
+   * Writes the canonical form of the address as ASCII bytes, without building a string
+   * for IPv4 addresses.
+   *
+   * @param tampon the buffer to write to, with at least 45 bytes remaining
+   */
+  void ecrire(ByteBuffer tampon) {
+    if (ipv6) {
+      String adresse = formaterIpv6();
+      for (int i = 0; i < adresse.length(); i++) {
+        tampon.put((byte) adresse.charAt(i));
+      }
+      return;
+    }
+    for (int decalage = 24; decalage >= 0; decalage -= 8) {
+      int octet = (int) (bas >>> decalage) & 0xff;
+      if (octet >= 100) {
+        tampon.put((byte) ('0' + octet / 100));
+      }
+      if (octet >= 10) {
+        tampon.put((byte) ('0' + octet / 10 % 10));
+      }
+      tampon.put((byte) ('0' + octet % 10));
+      if (decalage > 0) {
+        tampon.put((byte) '.');
+      }
+    }
+  }
+  
+  /**
+   * Checks if this address is an IPv6 address.
+   *
+   * @return true for IPv6, false for IPv4
+   */
+  public boolean estIpv6() {
+    return ipv6;
+  }
+  
+  /**
+   * Returns the high 64 bits of the address (always 0 for IPv4).
+   *
+   * @return the high bits
+   */
+  public long getHaut() {
+    return haut;
+  }
+  
+  /**
+   * Returns the low 64 bits of the address (the 32-bit value for IPv4).
+   *
+   * @return the low bits
+   */
+  public long getBas() {
+    return bas;
   }
   
   @Override
@@ -50,38 +171,265 @@ public class AdresseIP implements Comparable<AdresseIP> {
       return false;
     }
     AdresseIP other = (AdresseIP) obj;
-    return Objects.equals(adresse, other.adresse);
+    return haut == other.haut && bas == other.bas && ipv6 == other.ipv6;
   }
   
   @Override
   public int hashCode() {
-    return Objects.hash(adresse);
+    int hash = 31 * Long.hashCode(haut) + Long.hashCode(bas);
+    return ipv6 ? 31 * hash + 1 : hash;
   }
   
   @Override
   public String toString() {
-    return adresse;
+    return getAdresse();
   }
   
+  /**
+   * Compares two addresses: IPv4 addresses come before IPv6 addresses, and addresses
+   * of the same family are ordered numerically.
+   */
   @Override
   public int compareTo(AdresseIP other) {
     if (other == null) {
       return 1;
     }
+    if (ipv6 != other.ipv6) {
+      return ipv6 ? 1 : -1;
+    }
+    int comparison = Long.compareUnsigned(haut, other.haut);
+    if (comparison != 0) {
+      return comparison;
+    }
+    return Long.compareUnsigned(bas, other.bas);
+  }
+  
+  /**
+   * Parses a dotted IPv4 address. Octets are decimal, between 0 and 255, without
+   * leading zeros.
+   *
+   * @param str the string containing the address
+   * @param debut the index of the first character
+   * @param fin the index after the last character
+   * @return the 32-bit address, or -1 if the text is not a valid IPv4 address
+   */
+  private static long parserIpv4(String str, int debut, int fin) {
+    long valeur = 0;
+    int octets = 0;
+    int i = debut;
+    while (octets < 4) {
+      int chiffres = 0;
+      int octet = 0;
+      while (i < fin && chiffres < 4) {
+        char c = str.charAt(i);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        if (chiffres == 1 && octet == 0) {
+          return -1; // leading zero
+        }
+        octet = octet * 10 + (c - '0');
+        chiffres++;
+        i++;
+      }
+      if (chiffres == 0 || octet > 255) {
+        return -1;
+      }
+      valeur = (valeur << 8) | octet;
+      octets++;
+      if (octets < 4) {
+        if (i >= fin || str.charAt(i) != '.') {
+          return -1;
+        }
+        i++;
+      }
+    }
+    return i == fin ? valeur : -1;
+  }
+  
+  /**
+   * Parses an IPv6 address in any RFC 4291 text form: full, compressed with "::",
+   * or with an embedded dotted IPv4 address in the last 32 bits.
+   *
+   * @param str the string containing the address
+   * @param resultat array receiving the high and low 64 bits
+   * @return true if the string is a valid IPv6 address
+   */
+  private static boolean parserIpv6(String str, long[] resultat) {
+    int[] groupes = new int[8];
+    int compression = str.indexOf("::");
+    if (compression < 0) {
+      if (parserGroupes(str, 0, str.length(), groupes, true) != 8) {
+        return false;
+      }
+    } else {
+      if (str.indexOf("::", compression + 1) >= 0) {
+        return false;
+      }
+      int gauche = parserGroupes(str, 0, compression, groupes, false);
+      if (gauche < 0) {
+        return false;
+      }
+      int[] droite = new int[8];
+      int nombreDroite = parserGroupes(str, compression + 2, str.length(), droite, true);
+      if (nombreDroite < 0 || gauche + nombreDroite > 7) {
+        return false;
+      }
+      System.arraycopy(droite, 0, groupes, 8 - nombreDroite, nombreDroite);
+    }
     
-    String[] thisParts = this.adresse.split("\\.");
-    String[] otherParts = other.adresse.split("\\.");
-    
+    long h = 0;
+    long b = 0;
     for (int i = 0; i < 4; i++) {
-      int thisOctet = Integer.parseInt(thisParts[i]);
-      int otherOctet = Integer.parseInt(otherParts[i]);
-      
-      int comparison = Integer.compare(thisOctet, otherOctet);
-      if (comparison != 0) {
-        return comparison;
+      h = (h << 16) | groupes[i];
+      b = (b << 16) | groupes[i + 4];
+    }
+    resultat[0] = h;
+    resultat[1] = b;
+    return true;
+  }
+  
+  /**
+   * Parses colon-separated hexadecimal groups. When the groups end the address, the
+   * last one may be a dotted IPv4 address, which counts as two groups.
+   *
+   * @param str the string containing the groups
+   * @param debut the index of the first character
+   * @param fin the index after the last character
+   * @param groupes array receiving the 16-bit groups
+   * @param finale true if the groups are at the end of the address
+   * @return the number of groups read, or -1 if the text is invalid
+   */
+  private static int parserGroupes(String str, int debut, int fin, int[] groupes,
+      boolean finale) {
+    if (debut == fin) {
+      return 0;
+    }
+    int nombre = 0;
+    int i = debut;
+    while (true) {
+      int finGroupe = str.indexOf(':', i);
+      if (finGroupe < 0 || finGroupe > fin) {
+        finGroupe = fin;
+      }
+      if (finale && finGroupe == fin && str.lastIndexOf('.', fin - 1) >= i) {
+        if (nombre > 6) {
+          return -1;
+        }
+        long ipv4 = parserIpv4(str, i, fin);
+        if (ipv4 < 0) {
+          return -1;
+        }
+        groupes[nombre++] = (int) (ipv4 >>> 16);
+        groupes[nombre++] = (int) (ipv4 & 0xffff);
+        return nombre;
+      }
+      int longueur = finGroupe - i;
+      if (longueur < 1 || longueur > 4 || nombre >= 8) {
+        return -1;
+      }
+      int groupe = 0;
+      for (int j = i; j < finGroupe; j++) {
+        int chiffre = chiffreHexadecimal(str.charAt(j));
+        if (chiffre < 0) {
+          return -1;
+        }
+        groupe = (groupe << 4) | chiffre;
+      }
+      groupes[nombre++] = groupe;
+      if (finGroupe == fin) {
+        return nombre;
+      }
+      i = finGroupe + 1;
+    }
+  }
+  
+  /**
+   * Returns the value of an ASCII hexadecimal digit.
+   *
+   * @param c the character
+   * @return the digit value, or -1 if the character is not a hexadecimal digit
+   */
+  private static int chiffreHexadecimal(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+  
+  /**
+   * Appends a 32-bit address in dotted notation.
+   *
+   * @param sb the builder to append to
+   * @param valeur the 32-bit address
+   * @return the builder
+   */
+  private static StringBuilder formaterIpv4(StringBuilder sb, long valeur) {
+    sb.append((valeur >>> 24) & 0xff).append('.')
+        .append((valeur >>> 16) & 0xff).append('.')
+        .append((valeur >>> 8) & 0xff).append('.')
+        .append(valeur & 0xff);
+    return sb;
+  }
+  
+  /**
+   * Formats this IPv6 address following RFC 5952: lower-case hexadecimal without
+   * leading zeros, the longest run of two or more zero groups (the first one on ties)
+   * replaced by "::", and IPv4-mapped addresses printed with a dotted suffix.
+   *
+   * @return the canonical text form
+   */
+  private String formaterIpv6() {
+    StringBuilder sb = new StringBuilder(39);
+    if (haut == 0 && (bas & 0xffffffff00000000L) == PREFIXE_IPV4_MAPPEE) {
+      return formaterIpv4(sb.append("::ffff:"), bas & 0xffffffffL).toString();
+    }
+    
+    int debutMax = -1;
+    int longueurMax = 1;
+    int debut = -1;
+    for (int i = 0; i <= 8; i++) {
+      if (i < 8 && groupe(i) == 0) {
+        if (debut < 0) {
+          debut = i;
+        }
+      } else if (debut >= 0) {
+        if (i - debut > longueurMax) {
+          debutMax = debut;
+          longueurMax = i - debut;
+        }
+        debut = -1;
       }
     }
     
-    return 0;
+    for (int i = 0; i < 8; i++) {
+      if (i == debutMax) {
+        sb.append("::");
+        i += longueurMax - 1;
+        continue;
+      }
+      if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+        sb.append(':');
+      }
+      sb.append(Integer.toHexString(groupe(i)));
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Returns one of the eight 16-bit groups of the address.
+   *
+   * @param index the group index, from 0 (most significant) to 7
+   * @return the group value
+   */
+  private int groupe(int index) {
+    long mot = index < 4 ? haut : bas;
+    return (int) (mot >>> (48 - 16 * (index & 3))) & 0xffff;
   }
 }
@@ -0,0 +1,480 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * B+tree of byte keys and values stored in the pages of a {@link PoolPages}, so that a
+ * lookup reads one page per level whatever the number of entries. Keys are compared as
+ * unsigned bytes; the leaves are chained in key order for range scans.
+ *
+ * <p>A node is a slotted page: a header, then the offsets of its records sorted by key,
+ * growing from the start of the page, while the records grow from its end. A leaf record
+ * holds a key and a value; an internal record holds a key and the child of the keys
+ * greater than or equal to it, the child of the smaller keys being in the header. A
+ * full node is split in two halves of about the same size, and the first key of the
+ * right half is inserted in the parent. Entries are never removed.
+ *
+ * <p>The page number of the root is kept at a given position of a page, so that several
+ * trees share one file. Not thread-safe: lookups may run together, but an insertion
+ * must run alone.
+ */
+final class ArbreBPlus {
+  
+  /** Largest size of a key and its value, so that a page always holds four records. */
+  static final int TAILLE_MAX_ENTREE = (PoolPages.TAILLE_PAGE - 9) / 4 - 8;
+  
+  private static final byte FEUILLE = 1;
+  private static final byte INTERNE = 2;
+  
+  private static final int TYPE = 0;
+  private static final int NOMBRE = 1;
+  private static final int LIEN = 3;
+  private static final int DEBUT_DONNEES = 7;
+  private static final int ENTETE = 9;
+  
+  private final PoolPages pool;
+  private final int pageRacine;
+  private final int positionRacine;
+  
+  /**
+   * Opens a tree whose root is recorded in a page.
+   *
+   * @param pool the pages of the file
+   * @param pageRacine the page recording the root
+   * @param positionRacine the position of the root page number in that page
+   */
+  ArbreBPlus(PoolPages pool, int pageRacine, int positionRacine) {
+    this.pool = pool;
+    this.pageRacine = pageRacine;
+    this.positionRacine = positionRacine;
+  }
+  
+  /**
+   * Creates an empty tree in the current transaction and records its root in a page.
+   *
+   * @param pool the pages of the file
+   * @param pageRacine the page recording the root
+   * @param positionRacine the position of the root page number in that page
+   * @return the tree
+   * @throws IOException if the pages cannot be written
+   */
+  static ArbreBPlus creer(PoolPages pool, int pageRacine, int positionRacine)
+      throws IOException {
+    ArbreBPlus arbre = new ArbreBPlus(pool, pageRacine, positionRacine);
+    int racine = pool.allouer();
+    ByteBuffer page = pool.epingler(racine);
+    try {
+      reecrire(page, FEUILLE, -1, new ArrayList<>());
+    } finally {
+      pool.relacher(racine);
+    }
+    arbre.changerRacine(racine);
+    return arbre;
+  }
+  
+  /**
+   * Returns the value of a key.
+   *
+   * @param cle the key
+   * @return a copy of the value, or null if the key is absent
+   * @throws IOException if a page cannot be read
+   */
+  byte[] chercher(byte[] cle) throws IOException {
+    int numero = racine();
+    while (true) {
+      ByteBuffer page = pool.epingler(numero);
+      int enfant;
+      try {
+        if (page.get(TYPE) == FEUILLE) {
+          int rang = rechercher(page, cle);
+          return rang < 0 ? null : valeur(page, enregistrement(page, rang));
+        }
+        enfant = enfant(page, cle);
+      } finally {
+        pool.relacher(numero);
+      }
+      numero = enfant;
+    }
+  }
+  
+  /**
+   * Inserts a key and its value in the current transaction, unless the key is present.
+   *
+   * @param cle the key
+   * @param valeur the value
+   * @return false if the key was already present, the tree being unchanged
+   * @throws IOException if a page cannot be read or written
+   * @throws IllegalArgumentException if the key and value exceed {@link #TAILLE_MAX_ENTREE}
+   */
+  boolean inserer(byte[] cle, byte[] valeur) throws IOException {
+    if (cle.length + valeur.length > TAILLE_MAX_ENTREE) {
+      throw new IllegalArgumentException("Entrée trop grande: " + (cle.length + valeur.length)
+          + " octets");
+    }
+    List<Integer> chemin = new ArrayList<>();
+    int numero = racine();
+    while (true) {
+      chemin.add(numero);
+      ByteBuffer page = pool.epingler(numero);
+      try {
+        if (page.get(TYPE) == FEUILLE) {
+          int rang = rechercher(page, cle);
+          if (rang >= 0) {
+            return false;
+          }
+          break;
+        }
+        numero = enfant(page, cle);
+      } finally {
+        pool.relacher(chemin.get(chemin.size() - 1));
+      }
+    }
+    
+    byte[] enregistrement = ByteBuffer.allocate(4 + cle.length + valeur.length)
+        .putShort((short) cle.length).put(cle).putShort((short) valeur.length).put(valeur)
+        .array();
+    Scission scission = inserer(chemin.get(chemin.size() - 1), enregistrement);
+    for (int niveau = chemin.size() - 2; scission != null && niveau >= 0; niveau--) {
+      scission = inserer(chemin.get(niveau), scission.enregistrement());
+    }
+    if (scission != null) {
+      int racine = pool.allouer();
+      ByteBuffer page = pool.epingler(racine);
+      try {
+        List<byte[]> enregistrements = new ArrayList<>();
+        enregistrements.add(scission.enregistrement());
+        reecrire(page, INTERNE, chemin.get(0), enregistrements);
+      } finally {
+        pool.relacher(racine);
+      }
+      changerRacine(racine);
+    }
+    return true;
+  }
+  
+  /**
+   * Visits the entries in key order, from the first key greater than or equal to a
+   * key, until the visitor stops. One leaf is pinned at a time.
+   *
+   * @param debut the first key to visit
+   * @param visiteur the visitor of the entries
+   * @throws IOException if a page cannot be read
+   */
+  void parcourir(byte[] debut, Visiteur visiteur) throws IOException {
+    int numero = racine();
+    int rang = 0;
+    while (true) {
+      ByteBuffer page = pool.epingler(numero);
+      int enfant;
+      try {
+        if (page.get(TYPE) == FEUILLE) {
+          rang = rechercher(page, debut);
+          rang = rang < 0 ? -rang - 1 : rang;
+          break;
+        }
+        enfant = enfant(page, debut);
+      } finally {
+        pool.relacher(numero);
+      }
+      numero = enfant;
+    }
+    
+    while (numero >= 0) {
+      ByteBuffer page = pool.epingler(numero);
+      int suivante;
+      try {
+        for (int i = rang; i < nombre(page); i++) {
+          int position = enregistrement(page, i);
+          if (!visiteur.visiter(cle(page, position), valeur(page, position))) {
+            return;
+          }
+        }
+        suivante = page.getInt(LIEN);
+      } finally {
+        pool.relacher(numero);
+      }
+      numero = suivante;
+      rang = 0;
+    }
+  }
+  
+  /**
+   * Returns the number of levels of the tree.
+   *
+   * @return 1 for a tree whose root is a leaf
+   * @throws IOException if a page cannot be read
+   */
+  int hauteur() throws IOException {
+    int hauteur = 1;
+    int numero = racine();
+    while (true) {
+      ByteBuffer page = pool.epingler(numero);
+      int enfant;
+      try {
+        if (page.get(TYPE) == FEUILLE) {
+          return hauteur;
+        }
+        enfant = page.getInt(LIEN);
+      } finally {
+        pool.relacher(numero);
+      }
+      numero = enfant;
+      hauteur++;
+    }
+  }
+  
+  /**
+   * Visitor of the entries of a range scan.
+   */
+  @FunctionalInterface
+  interface Visiteur {
+    /**
+     * Visits an entry.
+     *
+     * @param cle the key
+     * @param valeur the value
+     * @return false to stop the scan
+     */
+    boolean visiter(byte[] cle, byte[] valeur);
+  }
+  
+  /**
+   * Key moved up to the parent by a split, with the new right node.
+   */
+  private static final class Scission {
+    private final byte[] cle;
+    private final int droite;
+    
+    Scission(byte[] cle, int droite) {
+      this.cle = cle;
+      this.droite = droite;
+    }
+    
+    byte[] enregistrement() {
+      return ByteBuffer.allocate(6 + cle.length).putShort((short) cle.length).put(cle)
+          .putInt(droite).array();
+    }
+  }
+  
+  private int racine() throws IOException {
+    ByteBuffer page = pool.epingler(pageRacine);
+    try {
+      return page.getInt(positionRacine);
+    } finally {
+      pool.relacher(pageRacine);
+    }
+  }
+  
+  private void changerRacine(int racine) throws IOException {
+    ByteBuffer page = pool.epingler(pageRacine);
+    try {
+      pool.modifier(pageRacine);
+      page.putInt(positionRacine, racine);
+    } finally {
+      pool.relacher(pageRacine);
+    }
+  }
+  
+  /**
+   * Inserts a record in a node, splitting it if it is full.
+   *
+   * @param numero the node
+   * @param enregistrement the record, whose key is absent from the node
+   * @return the split to apply to the parent, or null if the node was not split
+   * @throws IOException if a page cannot be read or written
+   */
+  private Scission inserer(int numero, byte[] enregistrement) throws IOException {
+    ByteBuffer page = pool.epingler(numero);
+    try {
+      pool.modifier(numero);
+      byte[] cle = cle(enregistrement);
+      int rang = -rechercher(page, cle) - 1;
+      int nombre = nombre(page);
+      int debutDonnees = debutDonnees(page);
+      if (debutDonnees - ENTETE - 2 * nombre >= enregistrement.length + 2) {
+        debutDonnees -= enregistrement.length;
+        page.put(debutDonnees, enregistrement);
+        for (int i = nombre; i > rang; i--) {
+          page.putShort(ENTETE + 2 * i, page.getShort(ENTETE + 2 * (i - 1)));
+        }
+        page.putShort(ENTETE + 2 * rang, (short) debutDonnees);
+        page.putShort(NOMBRE, (short) (nombre + 1));
+        page.putShort(DEBUT_DONNEES, (short) debutDonnees);
+        return null;
+      }
+      return scinder(numero, page, rang, enregistrement);
+    } finally {
+      pool.relacher(numero);
+    }
+  }
+  
+  /**
+   * Splits a full node in two halves of about the same size, with a new record.
+   */
+  private Scission scinder(int numero, ByteBuffer page, int rang, byte[] nouveau)
+      throws IOException {
+    boolean feuille = page.get(TYPE) == FEUILLE;
+    List<byte[]> enregistrements = new ArrayList<>();
+    int total = 0;
+    for (int i = 0; i < nombre(page); i++) {
+      if (i == rang) {
+        enregistrements.add(nouveau);
+      }
+      int position = enregistrement(page, i);
+      byte[] enregistrement = new byte[taille(page, position)];
+      page.get(position, enregistrement);
+      enregistrements.add(enregistrement);
+    }
+    if (rang == nombre(page)) {
+      enregistrements.add(nouveau);
+    }
+    for (byte[] enregistrement : enregistrements) {
+      total += enregistrement.length + 2;
+    }
+    
+    int milieu = 0;
+    for (int cumul = 0; milieu < enregistrements.size() - 2 && cumul < total / 2; milieu++) {
+      cumul += enregistrements.get(milieu).length + 2;
+    }
+    milieu = Math.max(1, milieu);
+    
+    int droite = pool.allouer();
+    ByteBuffer pageDroite = pool.epingler(droite);
+    try {
+      byte[] separateur = cle(enregistrements.get(milieu));
+      if (feuille) {
+        reecrire(pageDroite, FEUILLE, page.getInt(LIEN),
+            enregistrements.subList(milieu, enregistrements.size()));
+        reecrire(page, FEUILLE, droite, enregistrements.subList(0, milieu));
+      } else {
+        // The middle key moves up; its child holds the keys between it and the next one
+        byte[] median = enregistrements.get(milieu);
+        int enfant = ByteBuffer.wrap(median).getInt(median.length - 4);
+        reecrire(pageDroite, INTERNE, enfant,
+            enregistrements.subList(milieu + 1, enregistrements.size()));
+        reecrire(page, INTERNE, page.getInt(LIEN), enregistrements.subList(0, milieu));
+      }
+      return new Scission(separateur, droite);
+    } finally {
+      pool.relacher(droite);
+    }
+  }
+  
+  /**
+   * Rewrites a node with its records packed at the end of the page.
+   */
+  private static void reecrire(ByteBuffer page, byte type, int lien,
+      List<byte[]> enregistrements) {
+    List<byte[]> copie = new ArrayList<>(enregistrements);
+    int debutDonnees = PoolPages.TAILLE_PAGE;
+    page.put(TYPE, type);
+    page.putShort(NOMBRE, (short) copie.size());
+    page.putInt(LIEN, lien);
+    for (int i = 0; i < copie.size(); i++) {
+      byte[] enregistrement = copie.get(i);
+      debutDonnees -= enregistrement.length;
+      page.put(debutDonnees, enregistrement);
+      page.putShort(ENTETE + 2 * i, (short) debutDonnees);
+    }
+    page.putShort(DEBUT_DONNEES, (short) debutDonnees);
+  }
+  
+  /**
+   * Returns the child of an internal node holding a key: the child of its last record
+   * whose key is lower than or equal to it, or the first child.
+   */
+  private static int enfant(ByteBuffer page, byte[] cle) {
+    int rang = rechercher(page, cle);
+    int dernier = rang >= 0 ? rang : -rang - 2;
+    if (dernier < 0) {
+      return page.getInt(LIEN);
+    }
+    int position = enregistrement(page, dernier);
+    return page.getInt(position + 2 + longueurCle(page, position));
+  }
+  
+  /**
+   * Searches a key among the records of a node.
+   *
+   * @return the rank of the key, or (-(insertion rank) - 1) if it is absent
+   */
+  private static int rechercher(ByteBuffer page, byte[] cle) {
+    int bas = 0;
+    int haut = nombre(page) - 1;
+    while (bas <= haut) {
+      int milieu = (bas + haut) >>> 1;
+      int comparaison = comparer(page, enregistrement(page, milieu), cle);
+      if (comparaison < 0) {
+        bas = milieu + 1;
+      } else if (comparaison > 0) {
+        haut = milieu - 1;
+      } else {
+        return milieu;
+      }
+    }
+    return -bas - 1;
+  }
+  
+  /**
+   * Compares the key of a record with a key, as unsigned bytes.
+   */
+  private static int comparer(ByteBuffer page, int position, byte[] cle) {
+    int longueur = longueurCle(page, position);
+    int commun = Math.min(longueur, cle.length);
+    for (int i = 0; i < commun; i++) {
+      int difference = (page.get(position + 2 + i) & 0xff) - (cle[i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return longueur - cle.length;
+  }
+  
+  private static int nombre(ByteBuffer page) {
+    return page.getShort(NOMBRE) & 0xffff;
+  }
+  
+  private static int debutDonnees(ByteBuffer page) {
+    int debut = page.getShort(DEBUT_DONNEES) & 0xffff;
+    return debut == 0 ? PoolPages.TAILLE_PAGE : debut;
+  }
+  
+  private static int enregistrement(ByteBuffer page, int rang) {
+    return page.getShort(ENTETE + 2 * rang) & 0xffff;
+  }
+  
+  private static int longueurCle(ByteBuffer page, int position) {
+    return page.getShort(position) & 0xffff;
+  }
+  
+  private static int taille(ByteBuffer page, int position) {
+    int longueur = longueurCle(page, position);
+    if (page.get(TYPE) == INTERNE) {
+      return 2 + longueur + 4;
+    }
+    return 2 + longueur + 2 + (page.getShort(position + 2 + longueur) & 0xffff);
+  }
+  
+  private static byte[] cle(ByteBuffer page, int position) {
+    byte[] cle = new byte[longueurCle(page, position)];
+    page.get(position + 2, cle);
+    return cle;
+  }
+  
+  private static byte[] valeur(ByteBuffer page, int position) {
+    int longueur = longueurCle(page, position);
+    byte[] valeur = new byte[page.getShort(position + 2 + longueur) & 0xffff];
+    page.get(position + 4 + longueur, valeur);
+    return valeur;
+  }
+  
+  private static byte[] cle(byte[] enregistrement) {
+    ByteBuffer tampon = ByteBuffer.wrap(enregistrement);
+    byte[] cle = new byte[tampon.getShort(0) & 0xffff];
+    tampon.get(2, cle);
+    return cle;
+  }
+}
@@ -0,0 +1,229 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a read-only DNS service in sync with a primary {@link ServeurReplication}.
+ * A background thread connects to the primary, asks for the changes after the last
+ * one it applied, and applies the streamed changes. When the connection is lost it
+ * reconnects with an increasing delay, catching up incrementally when the primary
+ * still has the missed changes and with a full transfer otherwise.
+ */
+public class ClientReplication implements AutoCloseable {
+  
+  private static final long ATTENTE_INITIALE_MS = 100;
+  private static final long ATTENTE_MAX_MS = 5_000;
+  private static final int DELAI_CONNEXION_MS = 5_000;
+  
+  /** Silence after which the primary is considered gone: it pings when idle. */
+  private static final int DELAI_LECTURE_MS = (int) (3 * ServeurReplication.DELAI_PING_MS);
+  
+  private final Dns dns;
+  private final String hote;
+  private final int port;
+  private long epoque;
+  private volatile boolean ferme;
+  private volatile boolean connecte;
+  private volatile Socket socket;
+  private volatile int nombreTransfertsComplets;
+  private volatile int nombreTransfertsIncrementaux;
+  private volatile String derniereErreur;
+  private Thread thread;
+  
+  /**
+   * Creates a replication client.
+   *
+   * @param dns the read-only DNS service to keep in sync
+   * @param hote the host of the primary
+   * @param port the replication port of the primary
+   */
+  public ClientReplication(Dns dns, String hote, int port) {
+    this.dns = dns;
+    this.hote = hote;
+    this.port = port;
+  }
+  
+  /**
+   * Starts synchronizing in a background thread.
+   */
+  public void demarrer() {
+    thread = new Thread(this::repliquer, "dns-replication-client");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Synchronizes with the primary until the client is closed, reconnecting after
+   * each failure.
+   */
+  private void repliquer() {
+    long attente = ATTENTE_INITIALE_MS / 2;
+    while (!ferme) {
+      try {
+        synchroniser();
+      } catch (IOException | IllegalArgumentException e) {
+        derniereErreur = e.getMessage();
+      } catch (DnsException e) {
+        // The local copy diverged: the next connection asks for a full transfer
+        derniereErreur = e.getMessage();
+        epoque = 0;
+      }
+      // Backs off only while the primary cannot be reached
+      attente = connecte ? ATTENTE_INITIALE_MS : Math.min(attente * 2, ATTENTE_MAX_MS);
+      connecte = false;
+      if (ferme) {
+        return;
+      }
+      try {
+        Thread.sleep(attente);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Connects to the primary, catches up and applies the live changes until the
+   * connection is closed.
+   *
+   * @throws IOException if the connection fails or is lost
+   * @throws DnsException if a change cannot be applied
+   */
+  private void synchroniser() throws IOException, DnsException {
+    try (Socket connexion = new Socket()) {
+      socket = connexion;
+      if (ferme) {
+        return;
+      }
+      connexion.connect(new InetSocketAddress(hote, port), DELAI_CONNEXION_MS);
+      connexion.setSoTimeout(DELAI_LECTURE_MS);
+      BufferedReader lecteur = new BufferedReader(
+          new InputStreamReader(connexion.getInputStream(), StandardCharsets.UTF_8));
+      Writer ecrivain = new OutputStreamWriter(connexion.getOutputStream(),
+          StandardCharsets.UTF_8);
+      ecrivain.write("SYNC " + epoque + " " + dns.instantane().getSequence() + "\n");
+      ecrivain.flush();
+      
+      String[] entete = lireLigne(lecteur).trim().split("\\s+");
+      if (entete.length == 4 && entete[0].equals("AXFR")) {
+        long sequence = Long.parseLong(entete[2]);
+        int nombre = Integer.parseInt(entete[3]);
+        List<DnsItem> items = new ArrayList<>(nombre);
+        for (int i = 0; i < nombre; i++) {
+          String[] parts = lireLigne(lecteur).trim().split("\\s+");
+          if (parts.length != 2) {
+            throw new IOException("Transfert complet invalide");
+          }
+          items.add(new DnsItem(parts[0], parts[1]));
+        }
+        dns.remplacer(items, sequence);
+        epoque = Long.parseLong(entete[1]);
+        nombreTransfertsComplets++;
+      } else if (entete.length == 2 && entete[0].equals("IXFR")
+          && Long.parseLong(entete[1]) == epoque) {
+        nombreTransfertsIncrementaux++;
+      } else {
+        throw new IOException("Réponse du primaire invalide: " + String.join(" ", entete));
+      }
+      connecte = true;
+      derniereErreur = null;
+      
+      String ligne;
+      while ((ligne = lecteur.readLine()) != null) {
+        if (ligne.equals("PING")) {
+          continue;
+        }
+        DnsChange changement = DnsChange.depuisLigne(ligne);
+        if (changement.getSequence() > dns.instantane().getSequence()) {
+          dns.appliquer(changement);
+        }
+      }
+    } finally {
+      socket = null;
+    }
+  }
+  
+  /**
+   * Reads a line that must be present.
+   *
+   * @param lecteur the reader
+   * @return the line
+   * @throws IOException if the connection was closed
+   */
+  private static String lireLigne(BufferedReader lecteur) throws IOException {
+    String ligne = lecteur.readLine();
+    if (ligne == null) {
+      throw new IOException("Connexion fermée par le primaire");
+    }
+    return ligne;
+  }
+  
+  /**
+   * Checks if the client is connected and caught up with the primary.
+   *
+   * @return true while changes are streamed
+   */
+  public boolean estConnecte() {
+    return connecte;
+  }
+  
+  /**
+   * Returns the number of full transfers received.
+   *
+   * @return the number of full transfers
+   */
+  public int getNombreTransfertsComplets() {
+    return nombreTransfertsComplets;
+  }
+  
+  /**
+   * Returns the number of incremental catch-ups received.
+   *
+   * @return the number of incremental transfers
+   */
+  public int getNombreTransfertsIncrementaux() {
+    return nombreTransfertsIncrementaux;
+  }
+  
+  /**
+   * Returns the error that ended the last connection attempt, if any.
+   *
+   * @return the error message, or null
+   */
+  public String getDerniereErreur() {
+    return derniereErreur;
+  }
+  
+  /**
+   * Stops synchronizing.
+   */
+  @Override
+  public void close() {
+    ferme = true;
+    Socket courante = socket;
+    try {
+      if (courante != null) {
+        courante.close();
+      }
+    } catch (IOException e) {
+      // Already closed
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -13,4 +13,37 @@ public interface Commande {
    * @throws DnsException if an error occurs during execution
    */
   String execute() throws DnsException;
+  
+  /**
+   * Tells if the command only reads the DNS service, so that it may run on any thread,
+   * alongside other reads, rather than in order with the changes.
+   *
+   * @return true for a read-only command, false by default
+   * @see PipelineCommandes
+   */
+  default boolean estLecture() {
+    return false;
+  }
+  
+  /**
+   * Returns the addition this command performs, so that consecutive additions can be
+   * applied as one batch and saved once.
+   *
+   * @return the addition, or null if the command is not a plain addition
+   * @see PipelineCommandes
+   */
+  default CommandeAjouterEntree ajoutGroupable() {
+    return null;
+  }
+  
+  /**
+   * Returns the trace wrapping this command, so that a batch of traced additions is
+   * traced as a whole.
+   *
+   * @return the traced command, or null if the command is not traced
+   * @see JournalLenteurs#tracer(Commande, String, long)
+   */
+  default JournalLenteurs.Tracee tracee() {
+    return null;
+  }
 }
@@ -14,8 +14,23 @@ public class CommandeAide implements Commande {
     help.append("  <nom_machine>           - Recherche par nom de machine\n");
     help.append("  ls <domaine>            - Liste les entrées d'un domaine\n");
     help.append("  ls -a <domaine>         - Liste les entrées d'un domaine triées par IP\n");
+    help.append("  ls [-a] <domaine> --limit <n> [--after <curseur>] - Liste une page\n");
+    help.append("  find <motif>            - Recherche les machines par motif (* et ?)\n");
     help.append("  add <ip> <nom_machine>  - Ajoute une nouvelle entrée\n");
+    help.append("  import --format=zone|hosts <fichier> - Importe un fichier de zone ou hosts\n");
+    help.append("  export <fichier> [--sorted-by=name|ip] [--domain=<domaine>] - Exporte les entrées\n");
+    help.append("  resolve-many <entrée> <sortie> - Résout une adresse ou un nom par ligne\n");
+    help.append("  use <zone>              - Change la zone courante\n");
+    help.append("  stats                   - Affiche les statistiques des filtres de recherche\n");
+    help.append("  stats mem               - Estime la mémoire occupée par les entrées et index\n");
+    help.append("  stats index             - Construit l'index compressé et affiche sa taille\n");
+    help.append("  top [n]                 - Affiche les noms et adresses les plus demandés\n");
     help.append("  quit | exit             - Quitte l'application\n");
     return help.toString();
   }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
 }
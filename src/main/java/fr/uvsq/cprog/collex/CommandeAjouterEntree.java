@@ -25,6 +25,43 @@ public class CommandeAjouterEntree implements Commande {
   @Override
   public String execute() throws DnsException {
     dns.addItem(adresseIp, nomMachine);
+    return confirmation();
+  }
+  
+  @Override
+  public CommandeAjouterEntree ajoutGroupable() {
+    return this;
+  }
+  
+  /**
+   * Returns the DNS service the entry is added to.
+   *
+   * @return the DNS service
+   */
+  Dns getDns() {
+    return dns;
+  }
+  
+  /**
+   * Parses the entry to add, so that several additions can be applied as one batch.
+   *
+   * @return the entry
+   * @throws DnsException if the address or the name is invalid
+   */
+  DnsItem entree() throws DnsException {
+    try {
+      return new DnsItem(new AdresseIP(adresseIp), new NomMachine(nomMachine));
+    } catch (IllegalArgumentException e) {
+      throw new DnsException("Données invalides: " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Returns the result of a successful addition.
+   *
+   * @return the confirmation message
+   */
+  String confirmation() {
     return "Entrée ajoutée avec succès: " + adresseIp + " " + nomMachine;
   }
 }
@@ -0,0 +1,43 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command to display the estimated heap retained by the entries and each index of the
+ * DNS service.
+ */
+public class CommandeEmpreinteMemoire implements Commande {
+  
+  private final Dns dns;
+  
+  /**
+   * Creates a new memory statistics command.
+   *
+   * @param dns the DNS service
+   */
+  public CommandeEmpreinteMemoire(Dns dns) {
+    this.dns = dns;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    EmpreinteMemoire empreinte = dns.empreinteMemoire();
+    int entrees = empreinte.getNombreEntrees();
+    StringBuilder result = new StringBuilder();
+    result.append("Entrées: ").append(entrees).append("\n");
+    for (Map.Entry<String, Long> partie : empreinte.getParties().entrySet()) {
+      result.append(String.format(Locale.ROOT, "  %s: %d octets, %.1f octets par entrée\n",
+          partie.getKey(), partie.getValue(),
+          entrees == 0 ? 0.0 : (double) partie.getValue() / entrees));
+    }
+    result.append(String.format(Locale.ROOT, "Total estimé: %d octets, %.1f octets par entrée",
+        empreinte.getTotal(), empreinte.getOctetsParEntree()));
+    return result.toString();
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
+}
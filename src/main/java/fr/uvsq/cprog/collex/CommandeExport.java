@@ -0,0 +1,35 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.file.Paths;
+
+/**
+ * Command to export entries to a file in the format of the database.
+ */
+public class CommandeExport implements Commande {
+  
+  private final Dns dns;
+  private final String fichier;
+  private final Exportateur.Tri tri;
+  private final String domaine;
+  
+  /**
+   * Creates a new export command.
+   *
+   * @param dns the DNS service
+   * @param fichier the path of the file to write
+   * @param tri the order of the entries, or null for the order of the database
+   * @param domaine the domain of the exported entries, or null for all entries
+   */
+  public CommandeExport(Dns dns, String fichier, Exportateur.Tri tri, String domaine) {
+    this.dns = dns;
+    this.fichier = fichier;
+    this.tri = tri;
+    this.domaine = domaine;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    long octets = new Exportateur(dns).exporter(Paths.get(fichier), tri, domaine);
+    return "Export terminé: " + octets + " octet(s) écrit(s) dans " + fichier;
+  }
+}
@@ -0,0 +1,102 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Command to import the entries of a zone file or of a hosts file.
+ */
+public class CommandeImport implements Commande {
+  
+  private final Dns dns;
+  private final String format;
+  private final String fichier;
+  
+  /**
+   * Creates a new import command.
+   *
+   * @param dns the DNS service
+   * @param format the file format, "zone" or "hosts"
+   * @param fichier the path of the file to import
+   */
+  public CommandeImport(Dns dns, String format, String fichier) {
+    this.dns = dns;
+    this.format = format;
+    this.fichier = fichier;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    BufferedReader lecteur;
+    try {
+      lecteur = Files.newBufferedReader(Paths.get(fichier), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new DnsException("Impossible d'ouvrir le fichier " + fichier + ": " + e.getMessage());
+    }
+    
+    try (LecteurCompte source = new LecteurCompte(creerLecteur(lecteur))) {
+      int ajoutees = dns.importer(source);
+      // Entries read but not added clash with a name or an address already in use
+      return "Import terminé: " + ajoutees + " entrée(s) ajoutée(s), "
+          + (source.lues - ajoutees) + " entrée(s) en conflit, "
+          + source.getNombreIgnores() + " enregistrement(s) ignoré(s)";
+    }
+  }
+  
+  /**
+   * Creates the reader of the file format.
+   *
+   * @param lecteur the reader of the file
+   * @return the entry reader
+   * @throws DnsException if the format is unknown
+   */
+  private LecteurEntrees creerLecteur(BufferedReader lecteur) throws DnsException {
+    if (format.equalsIgnoreCase("zone")) {
+      return new LecteurZone(lecteur, null);
+    }
+    if (format.equalsIgnoreCase("hosts")) {
+      return new LecteurHosts(lecteur);
+    }
+    try {
+      lecteur.close();
+    } catch (IOException e) {
+      // Unknown format reported below
+    }
+    throw new DnsException("Format inconnu: " + format + " (zone ou hosts)");
+  }
+  
+  /**
+   * Entry reader counting the entries it delivers to the import.
+   */
+  private static final class LecteurCompte implements LecteurEntrees {
+    
+    private final LecteurEntrees source;
+    private int lues;
+    
+    LecteurCompte(LecteurEntrees source) {
+      this.source = source;
+    }
+    
+    @Override
+    public DnsItem suivante() throws DnsException {
+      DnsItem item = source.suivante();
+      if (item != null) {
+        lues++;
+      }
+      return item;
+    }
+    
+    @Override
+    public int getNombreIgnores() {
+      return source.getNombreIgnores();
+    }
+    
+    @Override
+    public void close() throws DnsException {
+      source.close();
+    }
+  }
+}
@@ -3,13 +3,15 @@ package fr.uvsq.cprog.collex;
 import java.util.List;
 
 /**
- * Command to list all machines in a domain.
+ * Command to list all machines in a domain, or one page of them.
  */
 public class CommandeListeDomaine implements Commande {
   
   private final Dns dns;
   private final String domaine;
   private final boolean trierParIp;
+  private final int limite;
+  private final String apres;
   
   /**
    * Creates a new list domain command.
@@ -19,9 +21,25 @@ public class CommandeListeDomaine implements Commande {
    * @param trierParIp true to sort by IP address, false to sort by machine name
    */
   public CommandeListeDomaine(Dns dns, String domaine, boolean trierParIp) {
+    this(dns, domaine, trierParIp, 0, null);
+  }
+  
+  /**
+   * Creates a new list domain command showing one page.
+   *
+   * @param dns the DNS service
+   * @param domaine the domain name
+   * @param trierParIp true to sort by IP address, false to sort by machine name
+   * @param limite the maximum number of machines shown, or 0 for all
+   * @param apres the cursor of the previous page, or null for the first page
+   */
+  public CommandeListeDomaine(Dns dns, String domaine, boolean trierParIp, int limite,
+      String apres) {
     this.dns = dns;
     this.domaine = domaine;
     this.trierParIp = trierParIp;
+    this.limite = limite;
+    this.apres = apres;
   }
   
   @Override
@@ -31,26 +49,46 @@ public class CommandeListeDomaine implements Commande {
     }
     
     List<DnsItem> items;
-    if (trierParIp) {
+    String curseur = null;
+    long debut = JournalLenteurs.debut();
+    if (limite > 0) {
+      PageDomaine page = dns.getPage(domaine, trierParIp, apres, limite);
+      items = page.getItems();
+      curseur = page.getCurseurSuivant();
+    } else if (trierParIp) {
       items = dns.getItemsSortedByIp(domaine);
     } else {
       items = dns.getItems(domaine);
     }
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.RECHERCHE, debut, items.size());
     
     if (items.isEmpty()) {
-      return "Aucune machine trouvée dans le domaine: " + domaine;
+      return apres == null
+          ? "Aucune machine trouvée dans le domaine: " + domaine
+          : "Aucune machine après " + apres + " dans le domaine: " + domaine;
     }
     
+    long rendu = JournalLenteurs.debut();
     StringBuilder result = new StringBuilder();
     for (DnsItem item : items) {
       result.append(item.toDisplayString()).append("\n");
     }
+    if (curseur != null) {
+      result.append("Suite: --after ").append(curseur).append("\n");
+    }
     
     // Remove the last newline
     if (result.length() > 0) {
       result.setLength(result.length() - 1);
     }
     
-    return result.toString();
+    String texte = result.toString();
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.RENDU, rendu, items.size());
+    return texte;
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
   }
 }
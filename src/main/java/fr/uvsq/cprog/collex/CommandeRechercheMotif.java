@@ -0,0 +1,57 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.List;
+
+/**
+ * Command to search for machines whose name matches a glob pattern.
+ */
+public class CommandeRechercheMotif implements Commande {
+  
+  private final Dns dns;
+  private final String motif;
+  
+  /**
+   * Creates a new pattern search command.
+   *
+   * @param dns the DNS service
+   * @param motif the glob pattern ('*' and '?' wildcards)
+   */
+  public CommandeRechercheMotif(Dns dns, String motif) {
+    this.dns = dns;
+    this.motif = motif;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    List<DnsItem> items;
+    long debut = JournalLenteurs.debut();
+    try {
+      items = dns.findItems(new MotifGlob(motif));
+    } catch (IllegalArgumentException e) {
+      throw new DnsException("Motif invalide: " + e.getMessage());
+    }
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.RECHERCHE, debut, items.size());
+    
+    if (items.isEmpty()) {
+      return "Aucune machine ne correspond au motif: " + motif;
+    }
+    
+    long rendu = JournalLenteurs.debut();
+    StringBuilder result = new StringBuilder();
+    for (DnsItem item : items) {
+      result.append(item.toDisplayString()).append("\n");
+    }
+    
+    // Remove the last newline
+    result.setLength(result.length() - 1);
+    
+    String texte = result.toString();
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.RENDU, rendu, items.size());
+    return texte;
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
+}
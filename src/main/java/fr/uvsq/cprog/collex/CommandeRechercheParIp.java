@@ -23,7 +23,11 @@ public class CommandeRechercheParIp implements Commande {
   public String execute() throws DnsException {
     try {
       AdresseIP ip = new AdresseIP(adresseIp);
+      // Keyed on the address as typed, so that a lookup formats no string
+      dns.getRequetesAdresses().enregistrer(adresseIp);
+      long debut = JournalLenteurs.debut();
       DnsItem item = dns.getItem(ip);
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.RECHERCHE, debut, item == null ? 0 : 1);
       
       if (item == null) {
         return "Aucune machine trouvée pour l'adresse IP: " + adresseIp;
@@ -34,4 +38,9 @@ public class CommandeRechercheParIp implements Commande {
       throw new DnsException("Adresse IP invalide: " + e.getMessage());
     }
   }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
 }
@@ -1,10 +1,15 @@
 package fr.uvsq.cprog.collex;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * Command to search for an IP address by machine name.
  */
 public class CommandeRechercheParNom implements Commande {
   
+  private static final int NOMBRE_SUGGESTIONS = 3;
+  
   private final Dns dns;
   private final String nomMachine;
   
@@ -23,10 +28,20 @@ public class CommandeRechercheParNom implements Commande {
   public String execute() throws DnsException {
     try {
       NomMachine nom = new NomMachine(nomMachine);
+      dns.getRequetesNoms().enregistrer(nom.getNomComplet());
+      long debut = JournalLenteurs.debut();
       DnsItem item = dns.getItem(nom);
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.RECHERCHE, debut, item == null ? 0 : 1);
       
       if (item == null) {
-        return "Aucune adresse IP trouvée pour la machine: " + nomMachine;
+        String message = "Aucune adresse IP trouvée pour la machine: " + nomMachine;
+        List<NomMachine> suggestions = dns.suggerer(nom, NOMBRE_SUGGESTIONS);
+        if (!suggestions.isEmpty()) {
+          message += "\nVouliez-vous dire : " + suggestions.stream()
+              .map(NomMachine::getNomComplet)
+              .collect(Collectors.joining(", ")) + " ?";
+        }
+        return message;
       }
       
       return item.getAdresseIp().getAdresse();
@@ -34,4 +49,9 @@ public class CommandeRechercheParNom implements Commande {
       throw new DnsException("Nom de machine invalide: " + e.getMessage());
     }
   }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
 }
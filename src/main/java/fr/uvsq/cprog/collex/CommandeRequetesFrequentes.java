@@ -0,0 +1,75 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command to display the machine names and IP addresses most looked up recently, with
+ * their estimated number of lookups.
+ */
+public class CommandeRequetesFrequentes implements Commande {
+  
+  /** Number of names and addresses displayed by default. */
+  static final int NOMBRE_DEFAUT = 10;
+  
+  private final Dns dns;
+  private final int nombre;
+  
+  /**
+   * Creates a new most queried command displaying the default number of keys.
+   *
+   * @param dns the DNS service
+   */
+  public CommandeRequetesFrequentes(Dns dns) {
+    this(dns, NOMBRE_DEFAUT);
+  }
+  
+  /**
+   * Creates a new most queried command.
+   *
+   * @param dns the DNS service
+   * @param nombre the number of names and of addresses to display
+   */
+  public CommandeRequetesFrequentes(Dns dns, int nombre) {
+    this.dns = dns;
+    this.nombre = nombre;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    RequetesFrequentes noms = dns.getRequetesNoms();
+    StringBuilder result = new StringBuilder();
+    result.append("Comptes divisés par deux toutes les ")
+        .append(noms.getFenetre(TimeUnit.SECONDS)).append(" s\n");
+    decrire(result, "Noms les plus demandés", noms.getPlusFrequentes(nombre));
+    decrire(result, "Adresses les plus demandées",
+        dns.getRequetesAdresses().getPlusFrequentes(nombre));
+    return result.toString().trim();
+  }
+  
+  /**
+   * Appends the most queried keys of a tracker.
+   *
+   * @param result the builder to append to
+   * @param titre the title of the list
+   * @param frequences the keys and their counts, by decreasing count
+   */
+  private static void decrire(StringBuilder result, String titre,
+      List<RequetesFrequentes.Frequence> frequences) {
+    result.append(titre).append(":");
+    if (frequences.isEmpty()) {
+      result.append(" aucun\n");
+      return;
+    }
+    result.append("\n");
+    for (RequetesFrequentes.Frequence frequence : frequences) {
+      result.append("  ").append(frequence.getCle()).append(" ")
+          .append(frequence.getCompte()).append("\n");
+    }
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
+}
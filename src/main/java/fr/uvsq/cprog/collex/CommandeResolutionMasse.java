@@ -0,0 +1,48 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Command to resolve a file of IP addresses or machine names, one per line.
+ */
+public class CommandeResolutionMasse implements Commande {
+  
+  private final Dns dns;
+  private final String entree;
+  private final String sortie;
+  
+  /**
+   * Creates a new bulk resolution command.
+   *
+   * @param dns the DNS service
+   * @param entree the path of the file of entries
+   * @param sortie the path of the file of results, replaced if it exists
+   */
+  public CommandeResolutionMasse(Dns dns, String entree, String sortie) {
+    this.dns = dns;
+    this.entree = entree;
+    this.sortie = sortie;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    ResolveurMasse.Bilan bilan;
+    try (BufferedReader lecteur = Files.newBufferedReader(Paths.get(entree),
+        StandardCharsets.UTF_8);
+        BufferedWriter redacteur = Files.newBufferedWriter(Paths.get(sortie),
+            StandardCharsets.UTF_8)) {
+      bilan = dns.resolveAll(lecteur, redacteur);
+    } catch (IOException e) {
+      throw new DnsException("Impossible de résoudre " + entree + " vers " + sortie + ": "
+          + e.getMessage());
+    }
+    return "Résolution terminée: " + bilan.getResolues() + " résolue(s), "
+        + bilan.getIntrouvables() + " introuvable(s), " + bilan.getInvalides()
+        + " ligne(s) invalide(s)";
+  }
+}
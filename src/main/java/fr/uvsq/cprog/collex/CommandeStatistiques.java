@@ -0,0 +1,58 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+
+/**
+ * Command to display the statistics of the DNS service: number of entries and
+ * effectiveness of the Bloom filters. The size of the compressed index, which takes
+ * building it, is displayed by {@link CommandeTailleIndex}.
+ */
+public class CommandeStatistiques implements Commande {
+  
+  private final Dns dns;
+  
+  /**
+   * Creates a new statistics command.
+   *
+   * @param dns the DNS service
+   */
+  public CommandeStatistiques(Dns dns) {
+    this.dns = dns;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    StringBuilder result = new StringBuilder();
+    result.append("Entrées: ").append(dns.size()).append("\n");
+    decrireFiltre(result, "noms", dns.getStatistiquesFiltreNoms());
+    decrireFiltre(result, "adresses", dns.getStatistiquesFiltreAdresses());
+    return result.toString().trim();
+  }
+  
+  /**
+   * Appends the description of a Bloom filter.
+   *
+   * @param result the builder to append to
+   * @param nom the name of the filter
+   * @param statistiques the statistics of the filter, or null if it is disabled
+   */
+  private static void decrireFiltre(StringBuilder result, String nom,
+      FiltreBloom.Statistiques statistiques) {
+    result.append("Filtre de Bloom (").append(nom).append("): ");
+    if (statistiques == null) {
+      result.append("désactivé\n");
+      return;
+    }
+    result.append(String.format(Locale.ROOT,
+        "%d requêtes, %.1f %% rejetées sans lire l'index, %.2f %% de faux positifs, "
+        + "%d éléments pour une capacité de %d\n",
+        statistiques.getRequetes(), 100 * statistiques.getTauxRejet(),
+        100 * statistiques.getTauxFauxPositifs(), statistiques.getNombreElements(),
+        statistiques.getCapacite()));
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
+}
@@ -0,0 +1,33 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+
+/**
+ * Command to display the size of the compressed index of the DNS service. The index
+ * is built from a copy of all the entries, so the command costs as much as an export.
+ */
+public class CommandeTailleIndex implements Commande {
+  
+  private final Dns dns;
+  
+  /**
+   * Creates a new index size command.
+   *
+   * @param dns the DNS service
+   */
+  public CommandeTailleIndex(Dns dns) {
+    this.dns = dns;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    IndexCompresse index = dns.compresser();
+    return String.format(Locale.ROOT, "Index compressé: %d octets, %.1f octets par entrée",
+        index.getTaille(), index.getOctetsParEntree());
+  }
+  
+  @Override
+  public boolean estLecture() {
+    return true;
+  }
+}
@@ -0,0 +1,26 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Command to switch the zone the next commands of an interface apply to.
+ */
+public class CommandeUtiliserZone implements Commande {
+  
+  private final DnsTUI tui;
+  private final String zone;
+  
+  /**
+   * Creates a new zone switch command.
+   *
+   * @param tui the interface whose current zone changes
+   * @param zone the zone name
+   */
+  public CommandeUtiliserZone(DnsTUI tui, String zone) {
+    this.tui = tui;
+    this.zone = zone;
+  }
+  
+  @Override
+  public String execute() throws DnsException {
+    return tui.utiliserZone(zone);
+  }
+}
@@ -1,24 +1,79 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * DNS service that manages DNS entries with file persistence.
+ * The service can be shared between threads. The name and address indexes are
+ * persistent maps published as an immutable {@link InstantaneDns}: lookups read the
+ * current snapshot without any lock, while writers, serialized by the write lock,
+ * publish new versions sharing most of their structure. The ordered and trigram
+ * indexes used by pattern searches, domain listings and suggestions are guarded by the
+ * read-write lock.
+ * Every committed change gets the next sequence number and is passed, in order, to
+ * the registered listeners; a read-only replica applies the changes of a primary.
+ * Optional Bloom filters on names and addresses answer most lookups of absent entries
+ * without reading the indexes. The names and addresses looked up by the commands are
+ * counted by two {@link RequetesFrequentes} trackers.
  */
 public class Dns {
   
-  private final List<DnsItem> dnsItems;
+  /** Number of imported entries published at once. */
+  static final int TAILLE_LOT_IMPORT = 10_000;
+  
+  /** Smallest capacity of the Bloom filters, so that a small base can grow a while. */
+  private static final int CAPACITE_FILTRE_MIN = 1024;
+  
+  /** Number of most queried names and addresses tracked. */
+  static final int CAPACITE_REQUETES_FREQUENTES = 32;
+  
+  /** Duration in seconds after which the query counts are halved. */
+  static final long FENETRE_REQUETES_FREQUENTES = 60;
+  
+  private volatile InstantaneDns etat;
+  private final NavigableMap<String, DnsItem> indexNoms;
+  private final NavigableMap<String, DnsItem> indexNomsInverses;
+  private final Map<String, NavigableMap<String, DnsItem>> indexDomaines;
+  private final IndexTrigrammes indexTrigrammes;
+  private final ReadWriteLock verrou;
+  private final Lock verrouFichier;
+  private final List<Consumer<DnsChange>> ecouteurs;
   private final String databaseFilename;
+  private final boolean lectureSeule;
+  private final PoolChaines pool;
+  private final RequetesFrequentes requetesNoms;
+  private final RequetesFrequentes requetesAdresses;
+  private double tauxFauxPositifs;
+  private volatile FiltreBloom filtreNoms;
+  private volatile FiltreBloom filtreAdresses;
+  private String derniereSauvegarde;
   
   /**
    * Creates a new DNS service and loads the database from the properties file.
@@ -26,9 +81,7 @@ public class Dns {
    * @throws DnsException if the database cannot be loaded
    */
   public Dns() throws DnsException {
-    this.dnsItems = new ArrayList<>();
-    this.databaseFilename = loadDatabaseFilename();
-    loadDatabase();
+    this(loadDatabaseFilename());
   }
   
   /**
@@ -38,26 +91,166 @@ public class Dns {
    * @throws DnsException if the database cannot be loaded
    */
   public Dns(String databaseFilename) throws DnsException {
-    this.dnsItems = new ArrayList<>();
-    this.databaseFilename = databaseFilename;
+    this(databaseFilename, null);
+  }
+  
+  /**
+   * Creates a DNS service sharing its strings with the other services of a process,
+   * such as the other zones of a {@link Zones}.
+   *
+   * @param databaseFilename the database file name
+   * @param pool the pool of the names and trigrams, or null to keep them apart
+   * @throws DnsException if the database cannot be loaded
+   */
+  public Dns(String databaseFilename, PoolChaines pool) throws DnsException {
+    this(databaseFilename, false, pool);
     loadDatabase();
   }
   
+  /**
+   * Creates an empty DNS service.
+   *
+   * @param databaseFilename the database file name, or null for a replica
+   * @param lectureSeule true to refuse local additions
+   */
+  Dns(String databaseFilename, boolean lectureSeule) {
+    this(databaseFilename, lectureSeule, null);
+  }
+  
+  /**
+   * Creates an empty DNS service.
+   *
+   * @param databaseFilename the database file name, or null for a replica
+   * @param lectureSeule true to refuse local additions
+   * @param pool the pool of the names and trigrams, or null to keep them apart
+   */
+  Dns(String databaseFilename, boolean lectureSeule, PoolChaines pool) {
+    this.etat = InstantaneDns.VIDE;
+    this.indexNoms = new TreeMap<>();
+    this.indexNomsInverses = new TreeMap<>();
+    this.indexDomaines = new HashMap<>();
+    this.indexTrigrammes = new IndexTrigrammes(pool);
+    this.verrou = new ReentrantReadWriteLock();
+    this.verrouFichier = new ReentrantLock();
+    this.ecouteurs = new CopyOnWriteArrayList<>();
+    this.databaseFilename = databaseFilename;
+    this.lectureSeule = lectureSeule;
+    this.pool = pool;
+    this.requetesNoms = new RequetesFrequentes(CAPACITE_REQUETES_FREQUENTES,
+        FENETRE_REQUETES_FREQUENTES, TimeUnit.SECONDS);
+    this.requetesAdresses = new RequetesFrequentes(CAPACITE_REQUETES_FREQUENTES,
+        FENETRE_REQUETES_FREQUENTES, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Creates an empty, read-only DNS service without database file, meant to be fed
+   * by a {@link ClientReplication}.
+   *
+   * @return the replica
+   */
+  public static Dns replique() {
+    return new Dns(null, true);
+  }
+  
+  /**
+   * Creates the DNS service described by the properties file: a single store, a
+   * {@link DnsPartitionne} when {@code database.shards} is greater than 1, or a
+   * {@link DnsPagine} when {@code database.pages} is greater than 0.
+   *
+   * @return the DNS service, with its database loaded
+   * @throws DnsException if the properties or the database cannot be loaded
+   */
+  public static Dns ouvrir() throws DnsException {
+    Properties props = loadProperties();
+    return ouvrir(databaseFilename(props), props, null);
+  }
+  
+  /**
+   * Creates the DNS service of a database file, partitioned and filtered as the
+   * {@code database.shards} and {@code database.bloom} properties say, or a
+   * {@link DnsPagine} keeping {@code database.pages} pages in memory when it is set.
+   *
+   * @param filename the database file name
+   * @param props the configuration
+   * @param pool the pool of the names and trigrams, or null to keep them apart
+   * @return the DNS service, with its database loaded
+   * @throws DnsException if the properties are invalid or the database cannot be loaded
+   */
+  static Dns ouvrir(String filename, Properties props, PoolChaines pool)
+      throws DnsException {
+    String shards = props.getProperty("database.shards", "1").trim();
+    int nombrePartitions;
+    try {
+      nombrePartitions = Integer.parseInt(shards);
+    } catch (NumberFormatException e) {
+      throw new DnsException("Nombre de partitions invalide: " + shards);
+    }
+    String bloom = props.getProperty("database.bloom", "0").trim();
+    double taux;
+    try {
+      taux = Double.parseDouble(bloom);
+    } catch (NumberFormatException e) {
+      throw new DnsException("Taux de faux positifs invalide: " + bloom);
+    }
+    
+    String pages = props.getProperty("database.pages", "0").trim();
+    int nombreCadres;
+    try {
+      nombreCadres = Integer.parseInt(pages);
+    } catch (NumberFormatException e) {
+      throw new DnsException("Nombre de pages en mémoire invalide: " + pages);
+    }
+    if (nombreCadres > 0) {
+      if (nombrePartitions > 1) {
+        throw new DnsException("Le mode paginé ne gère pas les partitions");
+      }
+      return new DnsPagine(filename, nombreCadres);
+    }
+    
+    Dns dns = nombrePartitions > 1
+        ? new DnsPartitionne(filename, nombrePartitions, pool) : new Dns(filename, pool);
+    if (taux > 0) {
+      dns.activerFiltres(taux);
+    }
+    return dns;
+  }
+  
   /**
    * Loads the database filename from the properties file.
    *
    * @return the database filename
    * @throws DnsException if properties cannot be loaded
    */
-  private String loadDatabaseFilename() throws DnsException {
+  static String loadDatabaseFilename() throws DnsException {
+    return databaseFilename(loadProperties());
+  }
+  
+  /**
+   * Returns the database filename of the configuration.
+   *
+   * @param props the configuration
+   * @return the database filename
+   * @throws DnsException if the filename is not configured
+   */
+  private static String databaseFilename(Properties props) throws DnsException {
+    String filename = props.getProperty("database.filename");
+    if (filename == null || filename.trim().isEmpty()) {
+      throw new DnsException("Nom de fichier de base de données non configuré");
+    }
+    return filename.trim();
+  }
+  
+  /**
+   * Loads the properties file.
+   *
+   * @return the configuration
+   * @throws DnsException if properties cannot be loaded
+   */
+  static Properties loadProperties() throws DnsException {
     try {
       Properties props = new Properties();
-      props.load(getClass().getClassLoader().getResourceAsStream("dns.properties"));
-      String filename = props.getProperty("database.filename");
-      if (filename == null || filename.trim().isEmpty()) {
-        throw new DnsException("Nom de fichier de base de données non configuré");
-      }
-      return filename.trim();
+      props.load(Dns.class.getClassLoader().getResourceAsStream("dns.properties"));
+      return props;
     } catch (IOException e) {
       throw new DnsException("Impossible de charger le fichier de propriétés: " + e.getMessage());
     } catch (NullPointerException e) {
@@ -83,51 +276,684 @@ public class Dns {
       }
     }
     
+    List<DnsItem> items = readDatabase(dbPath);
+    verrou.writeLock().lock();
+    try {
+      InstantaneDns nouvelEtat = InstantaneDns.VIDE;
+      indexNoms.clear();
+      indexNomsInverses.clear();
+      indexDomaines.clear();
+      indexTrigrammes.vider();
+      for (DnsItem lu : items) {
+        DnsItem item = mutualiser(lu);
+        nouvelEtat = nouvelEtat.avec(item);
+        indexer(item);
+      }
+      reconstruireFiltres(nouvelEtat);
+      etat = nouvelEtat;
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Reads and validates the entries of a database file.
+   *
+   * @param dbPath the database file
+   * @return the entries, in file order
+   * @throws DnsException if the file cannot be read, is malformed or has duplicates
+   */
+  static List<DnsItem> readDatabase(Path dbPath) throws DnsException {
+    List<String> lines;
     try {
-      List<String> lines = Files.readAllLines(dbPath);
-      dnsItems.clear();
+      lines = Files.readAllLines(dbPath);
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le fichier de base de données: " + e.getMessage());
+    }
+    
+    List<DnsItem> items = new ArrayList<>(lines.size());
+    Set<NomMachine> noms = new HashSet<>();
+    Set<AdresseIP> adresses = new HashSet<>();
+    for (int lineNumber = 0; lineNumber < lines.size(); lineNumber++) {
+      String line = lines.get(lineNumber).trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue; // Skip empty lines and comments
+      }
+      
+      String[] parts = line.split("\\s+");
+      if (parts.length != 2) {
+        throw new DnsException("Format invalide ligne " + (lineNumber + 1) + ": " + line);
+      }
       
-      for (int lineNumber = 0; lineNumber < lines.size(); lineNumber++) {
-        String line = lines.get(lineNumber).trim();
-        if (line.isEmpty() || line.startsWith("#")) {
-          continue; // Skip empty lines and comments
+      DnsItem item;
+      try {
+        item = new DnsItem(parts[1], parts[0]); // IP, machine name
+      } catch (IllegalArgumentException e) {
+        throw new DnsException("Données invalides ligne " + (lineNumber + 1) + ": " + e.getMessage());
+      }
+      if (!noms.add(item.getNomMachine()) || !adresses.add(item.getAdresseIp())) {
+        throw new DnsException("Entrée en double ligne " + (lineNumber + 1) + ": " + line);
+      }
+      items.add(item);
+    }
+    return items;
+  }
+  
+  /**
+   * Re-reads the database file and applies the differences with the in-memory store.
+   * The file is parsed and compared with the current snapshot without blocking
+   * lookups; only the added and removed entries are then applied, and the result is
+   * published as a single new snapshot.
+   *
+   * @return the number of added and removed entries
+   * @throws DnsException if the file cannot be read or is invalid, the store is unchanged
+   */
+  public int recharger() throws DnsException {
+    verifierFichier();
+    while (true) {
+      // The file and the snapshot it reflects are read together, under the file lock
+      List<DnsItem> items;
+      InstantaneDns etatLu;
+      verrouFichier.lock();
+      try {
+        etatLu = etat;
+        items = readDatabase(Paths.get(databaseFilename));
+      } finally {
+        verrouFichier.unlock();
+      }
+      
+      int changements = appliquerContenu(items, etatLu);
+      if (changements >= 0) {
+        return changements;
+      }
+      // An entry was added meanwhile, read the file again
+    }
+  }
+  
+  /**
+   * Replaces the entries with the content of the database file, already read and
+   * checked by the caller. Must be called between {@link #debuterImport()} and
+   * {@link #terminerImport(boolean)}, so that no addition changes the store meanwhile.
+   *
+   * @param items the entries of the file
+   * @return the number of added and removed entries
+   */
+  int remplacerContenu(List<DnsItem> items) {
+    int changements;
+    do {
+      changements = appliquerContenu(items, etat);
+    } while (changements < 0);
+    return changements;
+  }
+  
+  /**
+   * Applies the differences between the content of the database file and the snapshot
+   * it was read with, as a single new snapshot.
+   *
+   * @param items the entries of the file
+   * @param etatLu the snapshot current when the file was read
+   * @return the number of added and removed entries, or -1 if the store changed since
+   *     the snapshot and nothing was applied
+   */
+  private int appliquerContenu(List<DnsItem> items, InstantaneDns etatLu) {
+    List<DnsItem> ajouts = new ArrayList<>();
+    List<DnsItem> retraits = new ArrayList<>();
+    Set<DnsItem> conserves = new HashSet<>();
+    for (DnsItem item : items) {
+      if (item.equals(etatLu.getItem(item.getNomMachine()))) {
+        conserves.add(item);
+      } else {
+        ajouts.add(mutualiser(item));
+      }
+    }
+    if (conserves.size() < etatLu.size()) {
+      for (DnsItem item : etatLu) {
+        if (!conserves.contains(item)) {
+          retraits.add(item);
         }
-        
-        String[] parts = line.split("\\s+");
-        if (parts.length != 2) {
-          throw new DnsException("Format invalide ligne " + (lineNumber + 1) + ": " + line);
+      }
+    }
+    
+    if (ajouts.isEmpty() && retraits.isEmpty()) {
+      return 0;
+    }
+    
+    verrou.writeLock().lock();
+    try {
+      if (etat != etatLu) {
+        return -1;
+      }
+      InstantaneDns nouvelEtat = etatLu;
+      List<DnsChange> changements = new ArrayList<>(ajouts.size() + retraits.size());
+      for (DnsItem item : retraits) {
+        nouvelEtat = nouvelEtat.sans(item);
+        desindexer(item);
+        changements.add(
+            new DnsChange(DnsChange.Type.RETRAIT, item, nouvelEtat.getSequence()));
+      }
+      for (DnsItem item : ajouts) {
+        filtrer(item, nouvelEtat);
+        nouvelEtat = nouvelEtat.avec(item);
+        indexer(item);
+        changements.add(new DnsChange(DnsChange.Type.AJOUT, item, nouvelEtat.getSequence()));
+      }
+      etat = nouvelEtat;
+      notifier(changements);
+      return changements.size();
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Starts watching the database file, so that external edits are applied with
+   * {@link #recharger()}.
+   *
+   * @return the running watcher, to close when the service is no longer needed
+   * @throws DnsException if the watcher cannot be started
+   */
+  public SurveillantBase surveiller() throws DnsException {
+    verifierFichier();
+    SurveillantBase surveillant = new SurveillantBase(this, Paths.get(databaseFilename));
+    surveillant.demarrer();
+    return surveillant;
+  }
+  
+  /**
+   * Checks that this service has a database file.
+   *
+   * @throws DnsException if this service is a replica without file
+   */
+  private void verifierFichier() throws DnsException {
+    if (databaseFilename == null) {
+      throw new DnsException("Aucun fichier de base de données pour une instance secondaire");
+    }
+  }
+  
+  /**
+   * Registers a listener called with each committed change, in sequence order.
+   * Listeners are called by the writing thread while writes are blocked, so they must
+   * return quickly.
+   *
+   * @param ecouteur the listener
+   * @throws DnsException if the service does not publish its changes, as a partitioned
+   *     or paged store
+   */
+  public void ajouterEcouteur(Consumer<DnsChange> ecouteur) throws DnsException {
+    ecouteurs.add(ecouteur);
+  }
+  
+  /**
+   * Unregisters a change listener.
+   *
+   * @param ecouteur the listener
+   */
+  public void retirerEcouteur(Consumer<DnsChange> ecouteur) {
+    ecouteurs.remove(ecouteur);
+  }
+  
+  /**
+   * Creates a reactive publisher of the changes committed from now on.
+   *
+   * @param tailleTampon the number of changes buffered per subscriber
+   * @param politique the handling of changes that do not fit in the buffer of a slow
+   *     subscriber
+   * @return the publisher, to close when it is no longer needed
+   * @throws DnsException if the service does not publish its changes, as a partitioned
+   *     or paged store
+   */
+  public PublicateurChangements publierChangements(int tailleTampon,
+      PublicateurChangements.Politique politique) throws DnsException {
+    return new PublicateurChangements(this, tailleTampon, politique);
+  }
+  
+  /**
+   * Passes published changes to the listeners. Must be called under the write lock,
+   * after the snapshot including the changes has been published.
+   *
+   * @param changements the changes, in sequence order
+   */
+  private void notifier(List<DnsChange> changements) {
+    for (DnsChange changement : changements) {
+      for (Consumer<DnsChange> ecouteur : ecouteurs) {
+        ecouteur.accept(changement);
+      }
+    }
+  }
+  
+  /**
+   * Applies a change received from a primary.
+   *
+   * @param changement the change, which must follow the current sequence number
+   * @throws DnsException if the change does not follow the current sequence or conflicts
+   */
+  void appliquer(DnsChange changement) throws DnsException {
+    verrou.writeLock().lock();
+    try {
+      InstantaneDns courant = etat;
+      if (changement.getSequence() != courant.getSequence() + 1) {
+        throw new DnsException("Changement hors séquence: " + changement.getSequence()
+            + " après " + courant.getSequence());
+      }
+      DnsItem item = mutualiser(changement.getItem());
+      if (changement.getType() == DnsChange.Type.AJOUT) {
+        if (courant.getItem(item.getNomMachine()) != null
+            || courant.getItem(item.getAdresseIp()) != null) {
+          throw new DnsException("Ajout en conflit: " + item.toDisplayString());
         }
-        
-        try {
-          DnsItem item = new DnsItem(parts[1], parts[0]); // IP, machine name
-          dnsItems.add(item);
-        } catch (IllegalArgumentException e) {
-          throw new DnsException("Données invalides ligne " + (lineNumber + 1) + ": " + e.getMessage());
+        filtrer(item, courant);
+        etat = courant.avec(item);
+        indexer(item);
+      } else {
+        if (!item.equals(courant.getItem(item.getNomMachine()))) {
+          throw new DnsException("Retrait d'une entrée inconnue: " + item.toDisplayString());
         }
+        etat = courant.sans(item);
+        desindexer(item);
+      }
+      notifier(List.of(changement));
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Replaces all the entries with a full copy received from a primary.
+   *
+   * @param items the entries of the primary
+   * @param sequence the sequence number of the primary snapshot
+   */
+  void remplacer(List<DnsItem> items, long sequence) {
+    verrou.writeLock().lock();
+    try {
+      InstantaneDns nouvelEtat = InstantaneDns.VIDE;
+      indexNoms.clear();
+      indexNomsInverses.clear();
+      indexDomaines.clear();
+      indexTrigrammes.vider();
+      for (DnsItem lu : items) {
+        DnsItem item = mutualiser(lu);
+        nouvelEtat = nouvelEtat.avec(item);
+        indexer(item);
+      }
+      reconstruireFiltres(nouvelEtat);
+      etat = nouvelEtat.avecSequence(sequence);
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Checks if this service is a read-only replica.
+   *
+   * @return true if local additions are refused
+   */
+  public boolean estLectureSeule() {
+    return lectureSeule;
+  }
+  
+  /**
+   * Enables the Bloom filters on names and addresses, sized from the current number of
+   * entries. The filters are rebuilt larger when they fill up; removed entries stay in
+   * them until then, as false positives.
+   *
+   * @param tauxFauxPositifs the false-positive rate, between 0 and 1
+   * @throws IllegalArgumentException if the rate is out of range
+   */
+  public void activerFiltres(double tauxFauxPositifs) {
+    if (!(tauxFauxPositifs > 0 && tauxFauxPositifs < 1)) {
+      throw new IllegalArgumentException("Taux de faux positifs invalide: " + tauxFauxPositifs);
+    }
+    verrou.writeLock().lock();
+    try {
+      this.tauxFauxPositifs = tauxFauxPositifs;
+      reconstruireFiltres(etat);
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns the tracker of the most queried machine names.
+   *
+   * @return the tracker fed by the lookups by name
+   */
+  public RequetesFrequentes getRequetesNoms() {
+    return requetesNoms;
+  }
+  
+  /**
+   * Returns the tracker of the most queried IP addresses.
+   *
+   * @return the tracker fed by the lookups by address
+   */
+  public RequetesFrequentes getRequetesAdresses() {
+    return requetesAdresses;
+  }
+  
+  /**
+   * Returns the statistics of the Bloom filter on names.
+   *
+   * @return the statistics, or null if the filters are disabled
+   */
+  public FiltreBloom.Statistiques getStatistiquesFiltreNoms() {
+    FiltreBloom filtre = filtreNoms;
+    return filtre == null ? null : filtre.getStatistiques();
+  }
+  
+  /**
+   * Returns the statistics of the Bloom filter on addresses.
+   *
+   * @return the statistics, or null if the filters are disabled
+   */
+  public FiltreBloom.Statistiques getStatistiquesFiltreAdresses() {
+    FiltreBloom filtre = filtreAdresses;
+    return filtre == null ? null : filtre.getStatistiques();
+  }
+  
+  /**
+   * Rebuilds the Bloom filters from a snapshot, if they are enabled. Must be called
+   * under the write lock, before the snapshot is published.
+   *
+   * @param source the entries to add to the filters
+   */
+  private void reconstruireFiltres(InstantaneDns source) {
+    if (tauxFauxPositifs == 0) {
+      return;
+    }
+    int capacite = Math.max(CAPACITE_FILTRE_MIN, 2 * source.size());
+    FiltreBloom noms = new FiltreBloom(capacite, tauxFauxPositifs);
+    FiltreBloom adresses = new FiltreBloom(capacite, tauxFauxPositifs);
+    for (DnsItem item : source) {
+      noms.ajouter(FiltreBloom.empreinte(item.getNomMachine()));
+      adresses.ajouter(FiltreBloom.empreinte(item.getAdresseIp()));
+    }
+    if (filtreNoms != null) {
+      noms.reprendreCompteurs(filtreNoms);
+      adresses.reprendreCompteurs(filtreAdresses);
+    }
+    filtreNoms = noms;
+    filtreAdresses = adresses;
+  }
+  
+  /**
+   * Adds an item to the Bloom filters, if they are enabled. Must be called under the
+   * write lock, before the snapshot including the item is published, so that a lookup
+   * never misses a published entry.
+   *
+   * @param item the DNS item about to be added
+   * @param courant the state the item is added to, used if the filters must grow
+   */
+  private void filtrer(DnsItem item, InstantaneDns courant) {
+    if (filtreNoms == null) {
+      return;
+    }
+    if (filtreNoms.estSature() || filtreAdresses.estSature()) {
+      reconstruireFiltres(courant);
+    }
+    filtreNoms.ajouter(FiltreBloom.empreinte(item.getNomMachine()));
+    filtreAdresses.ajouter(FiltreBloom.empreinte(item.getAdresseIp()));
+  }
+  
+  /**
+   * Adds an item to the name search indexes. Must be called under the write lock.
+   *
+   * @param item the DNS item to index
+   */
+  private void indexer(DnsItem item) {
+    String nom = item.getNomMachine().getNomComplet();
+    indexNoms.put(nom, item);
+    indexNomsInverses.put(partager(inverser(nom)), item);
+    String domaine = item.getDomaine();
+    NavigableMap<String, DnsItem> noms = indexDomaines.get(domaine);
+    if (noms == null) {
+      noms = new TreeMap<>();
+      indexDomaines.put(partager(domaine), noms);
+    }
+    noms.put(nom, item);
+    indexTrigrammes.ajouter(nom);
+  }
+  
+  /**
+   * Returns the pooled string equal to a key retained by an index, if this service has
+   * a pool.
+   *
+   * @param chaine the key
+   * @return the string to retain
+   */
+  private String partager(String chaine) {
+    return pool == null ? chaine : pool.partager(chaine);
+  }
+  
+  /**
+   * Returns an item whose name is the pooled string, if this service has a pool.
+   *
+   * @param item the DNS item about to be added
+   * @return the item to add, the same one if the name is already pooled
+   */
+  private DnsItem mutualiser(DnsItem item) {
+    if (pool == null) {
+      return item;
+    }
+    String nom = item.getNomMachine().getNomComplet();
+    String partage = pool.partager(nom);
+    return partage == nom ? item : new DnsItem(item.getAdresseIp(), new NomMachine(partage));
+  }
+  
+  /**
+   * Removes an item from the name search indexes. Must be called under the write lock.
+   *
+   * @param item the DNS item to remove
+   */
+  private void desindexer(DnsItem item) {
+    String nom = item.getNomMachine().getNomComplet();
+    indexNoms.remove(nom);
+    indexNomsInverses.remove(inverser(nom));
+    String domaine = item.getDomaine();
+    NavigableMap<String, DnsItem> noms = indexDomaines.get(domaine);
+    if (noms != null) {
+      noms.remove(nom);
+      if (noms.isEmpty()) {
+        indexDomaines.remove(domaine);
       }
-    } catch (IOException e) {
-      throw new DnsException("Impossible de lire le fichier de base de données: " + e.getMessage());
     }
+    indexTrigrammes.retirer(nom);
   }
   
   /**
-   * Saves the current DNS database to the file.
+   * Returns the characters of a string in reverse order.
+   *
+   * @param str the string to reverse
+   * @return the reversed string
+   */
+  private static String inverser(String str) {
+    return new StringBuilder(str).reverse().toString();
+  }
+  
+  /**
+   * Saves the current DNS database to the file, sorted by machine name.
    *
    * @throws DnsException if the database cannot be saved
    */
   private void saveDatabase() throws DnsException {
+    List<DnsItem> items = new ArrayList<>(etat.size());
+    etat.forEach(items::add);
+    writeDatabase(Paths.get(databaseFilename), items);
+    derniereSauvegarde = signature(Paths.get(databaseFilename));
+  }
+  
+  /**
+   * Returns the files this service reads and writes, which must not be overwritten
+   * while it runs.
+   *
+   * @return the files of the service, empty for a replica
+   */
+  List<Path> fichiersUtilises() {
+    return databaseFilename == null ? List.of() : List.of(Paths.get(databaseFilename));
+  }
+  
+  /**
+   * Tells if a database file is still as this service last saved it, so that the
+   * watcher does not reload the service after its own saves.
+   *
+   * @param fichier the modified file
+   * @return true if the file has the size and modification time of the last save
+   */
+  boolean estSauvegardePropre(Path fichier) {
+    if (databaseFilename == null
+        || !Paths.get(databaseFilename).toAbsolutePath().equals(fichier.toAbsolutePath())) {
+      return false;
+    }
+    verrouFichier.lock();
     try {
-      List<String> lines = dnsItems.stream()
+      return derniereSauvegarde != null && derniereSauvegarde.equals(signature(fichier));
+    } finally {
+      verrouFichier.unlock();
+    }
+  }
+  
+  /**
+   * Returns the size and modification time of a file.
+   *
+   * @param fichier the file
+   * @return the signature of the file, or null if it cannot be read
+   */
+  private static String signature(Path fichier) {
+    try {
+      return Files.size(fichier) + "@" + Files.getLastModifiedTime(fichier).toInstant();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+  
+  /**
+   * Writes entries to a database file, sorted by machine name.
+   *
+   * @param dbPath the database file
+   * @param items the entries to write; the list is sorted in place
+   * @throws DnsException if the file cannot be written
+   */
+  static void writeDatabase(Path dbPath, List<DnsItem> items) throws DnsException {
+    long debut = JournalLenteurs.debut();
+    try {
+      long tri = JournalLenteurs.debut();
+      Collections.sort(items);
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.TRI, tri, items.size());
+      List<String> lines = items.stream()
           .map(item -> item.getNomMachine().getNomComplet() + " " + item.getAdresseIp().getAdresse())
           .collect(Collectors.toList());
       
-      Path dbPath = Paths.get(databaseFilename);
       Files.write(dbPath, lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
     } catch (IOException e) {
       throw new DnsException("Impossible de sauvegarder le fichier de base de données: " + e.getMessage());
+    } finally {
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.PERSISTANCE, debut, items.size());
+    }
+  }
+  
+  /**
+   * Copies the database file to a channel, without reading it into memory. Additions
+   * wait until the copy is over, so the copy is never a partly written file.
+   *
+   * @param destination the channel to append the file to
+   * @return the number of bytes copied
+   * @throws DnsException if this service has no file or the copy fails
+   */
+  public long copierFichier(WritableByteChannel destination) throws DnsException {
+    verifierFichier();
+    verrouFichier.lock();
+    try (FileChannel source = FileChannel.open(Paths.get(databaseFilename),
+        StandardOpenOption.READ)) {
+      long taille = source.size();
+      long copies = 0;
+      while (copies < taille) {
+        long transferes = source.transferTo(copies, taille - copies, destination);
+        if (transferes == 0) {
+          // The file was truncated by another process
+          break;
+        }
+        copies += transferes;
+      }
+      return copies;
+    } catch (IOException e) {
+      throw new DnsException("Impossible de copier le fichier de base de données: "
+          + e.getMessage());
+    } finally {
+      verrouFichier.unlock();
+    }
+  }
+  
+  /**
+   * Builds the compressed index of the current entries, to measure its size or to
+   * answer lookups from it.
+   *
+   * @return the compressed index of the current snapshot
+   * @throws DnsException if the store cannot build the index within its memory bound
+   */
+  public IndexCompresse compresser() throws DnsException {
+    return IndexCompresse.construire(instantane());
+  }
+  
+  /**
+   * Estimates the heap retained by the entries and each index, from a model of the
+   * object layout. It walks every structure once, without copying, so it can run on a
+   * live service; additions wait until it is over.
+   *
+   * @return the estimated bytes per structure
+   */
+  public EmpreinteMemoire empreinteMemoire() {
+    verrou.readLock().lock();
+    try {
+      InstantaneDns courant = etat;
+      EmpreinteMemoire empreinte = new EmpreinteMemoire(courant.size());
+      long entrees = 0;
+      for (DnsItem item : courant) {
+        entrees += EmpreinteMemoire.objet(2, 0) + EmpreinteMemoire.objet(0, 8 + 8 + 1)
+            + EmpreinteMemoire.objet(1, 0)
+            + EmpreinteMemoire.chaine(item.getNomMachine().getNomComplet());
+      }
+      empreinte.ajouter(EmpreinteMemoire.ENTREES, entrees);
+      empreinte.ajouter(EmpreinteMemoire.INSTANTANE, courant.tailleMemoire());
+      
+      // The sorted indexes share the names of the items, the reversed one has its own
+      long ordonnes = 3 * (long) indexNoms.size() * EmpreinteMemoire.objet(5, 1)
+          + 2 * EmpreinteMemoire.objet(7, 8)
+          + EmpreinteMemoire.tableHachage(indexDomaines.size());
+      for (String cle : indexNomsInverses.keySet()) {
+        ordonnes += EmpreinteMemoire.chaine(cle);
+      }
+      for (String domaine : indexDomaines.keySet()) {
+        ordonnes += EmpreinteMemoire.chaine(domaine) + EmpreinteMemoire.objet(7, 8);
+      }
+      empreinte.ajouter(EmpreinteMemoire.INDEX_ORDONNES, ordonnes);
+      empreinte.ajouter(EmpreinteMemoire.INDEX_TRIGRAMMES, indexTrigrammes.tailleMemoire());
+      
+      FiltreBloom noms = filtreNoms;
+      if (noms != null) {
+        empreinte.ajouter(EmpreinteMemoire.FILTRES,
+            noms.tailleMemoire() + filtreAdresses.tailleMemoire());
+      }
+      return empreinte;
+    } finally {
+      verrou.readLock().unlock();
     }
   }
   
+  /**
+   * Resolves many IP addresses or machine names, one per line, in parallel on the
+   * common fork-join pool against the current snapshot.
+   *
+   * @param entree the reader of the entries, not closed
+   * @param sortie the writer of the {@code entry result} lines, in input order
+   * @return the counts of the resolution
+   * @throws DnsException if the input cannot be read or the output cannot be written
+   * @see ResolveurMasse
+   */
+  public ResolveurMasse.Bilan resolveAll(BufferedReader entree, Writer sortie)
+      throws DnsException {
+    return new ResolveurMasse(ForkJoinPool.commonPool()).resoudre(instantane(), entree, sortie);
+  }
+  
   /**
    * Returns a DNS item by IP address.
    *
@@ -135,14 +961,18 @@ public class Dns {
    * @return the DNS item if found, null otherwise
    */
   public DnsItem getItem(AdresseIP adresseIp) {
-    if (adresseIp == null) {
+    FiltreBloom filtre = filtreAdresses;
+    if (filtre == null || adresseIp == null) {
+      return etat.getItem(adresseIp);
+    }
+    if (!filtre.peutContenir(FiltreBloom.empreinte(adresseIp))) {
       return null;
     }
-    
-    return dnsItems.stream()
-        .filter(item -> item.getAdresseIp().equals(adresseIp))
-        .findFirst()
-        .orElse(null);
+    DnsItem item = etat.getItem(adresseIp);
+    if (item == null) {
+      filtre.signalerFauxPositif();
+    }
+    return item;
   }
   
   /**
@@ -152,14 +982,18 @@ public class Dns {
    * @return the DNS item if found, null otherwise
    */
   public DnsItem getItem(NomMachine nomMachine) {
-    if (nomMachine == null) {
+    FiltreBloom filtre = filtreNoms;
+    if (filtre == null || nomMachine == null) {
+      return etat.getItem(nomMachine);
+    }
+    if (!filtre.peutContenir(FiltreBloom.empreinte(nomMachine))) {
       return null;
     }
-    
-    return dnsItems.stream()
-        .filter(item -> item.getNomMachine().equals(nomMachine))
-        .findFirst()
-        .orElse(null);
+    DnsItem item = etat.getItem(nomMachine);
+    if (item == null) {
+      filtre.signalerFauxPositif();
+    }
+    return item;
   }
   
   /**
@@ -173,12 +1007,7 @@ public class Dns {
       return new ArrayList<>();
     }
     
-    List<DnsItem> domainItems = dnsItems.stream()
-        .filter(item -> item.appartientAuDomaine(domaine))
-        .collect(Collectors.toList());
-    
-    Collections.sort(domainItems);
-    return domainItems;
+    return itemsDuDomaine(domaine);
   }
   
   /**
@@ -192,14 +1021,170 @@ public class Dns {
       return new ArrayList<>();
     }
     
-    List<DnsItem> domainItems = dnsItems.stream()
-        .filter(item -> item.appartientAuDomaine(domaine))
-        .collect(Collectors.toList());
-    
+    List<DnsItem> domainItems = itemsDuDomaine(domaine);
+    long debut = JournalLenteurs.debut();
     domainItems.sort((item1, item2) -> item1.getAdresseIp().compareTo(item2.getAdresseIp()));
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.TRI, debut, domainItems.size());
     return domainItems;
   }
   
+  /**
+   * Returns a page of the DNS items of a domain. Pages sorted by name are read from the
+   * ordered index of the domain in O(log n + limite); pages sorted by address keep the
+   * smallest addresses of the domain in a heap bounded by the page size.
+   *
+   * @param domaine the domain name
+   * @param trierParIp true to sort by IP address, false by machine name
+   * @param apres the cursor returned with the previous page, or null for the first page
+   * @param limite the maximum number of items of the page
+   * @return the page and the cursor of the next one
+   * @throws DnsException if the limit is not positive or the cursor is invalid
+   * @see PageDomaine
+   */
+  public PageDomaine getPage(String domaine, boolean trierParIp, String apres, int limite)
+      throws DnsException {
+    if (limite < 1) {
+      throw new DnsException("Limite invalide: " + limite);
+    }
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return PageDomaine.premiers(Collections.emptyList(), trierParIp, limite);
+    }
+    
+    verrou.readLock().lock();
+    try {
+      NavigableMap<String, DnsItem> noms = indexDomaines.get(domaine.trim().toLowerCase());
+      if (noms == null) {
+        noms = Collections.emptyNavigableMap();
+      }
+      if (trierParIp) {
+        return PageDomaine.selectionner(noms.values(), true, apres, limite);
+      }
+      NavigableMap<String, DnsItem> suite = apres == null
+          ? noms : noms.tailMap(PageDomaine.curseurNom(apres), false);
+      return PageDomaine.premiers(suite.values(), false, limite);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns the DNS items of a domain, read from its ordered index rather than by
+   * scanning every entry.
+   *
+   * @param domaine the domain name
+   * @return a new list of the items in the domain, sorted by machine name
+   */
+  private List<DnsItem> itemsDuDomaine(String domaine) {
+    verrou.readLock().lock();
+    try {
+      NavigableMap<String, DnsItem> noms = indexDomaines.get(domaine.trim().toLowerCase());
+      if (noms == null) {
+        return new ArrayList<>();
+      }
+      List<DnsItem> domainItems = new ArrayList<>(noms.size());
+      for (DnsItem item : noms.values()) {
+        domainItems.add(item);
+      }
+      return domainItems;
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns the known machine names closest to a name, for "did you mean" hints.
+   * Only meant to be called after a lookup miss.
+   *
+   * @param nomMachine the machine name that was not found
+   * @param nombre the maximum number of suggestions
+   * @return up to nombre machine names, closest first
+   */
+  public List<NomMachine> suggerer(NomMachine nomMachine, int nombre) {
+    List<NomMachine> suggestions = new ArrayList<>();
+    if (nomMachine == null) {
+      return suggestions;
+    }
+    
+    List<String> noms;
+    verrou.readLock().lock();
+    try {
+      noms = indexTrigrammes.suggerer(nomMachine.getNomComplet(), nombre);
+    } finally {
+      verrou.readLock().unlock();
+    }
+    for (String nom : noms) {
+      suggestions.add(new NomMachine(nom));
+    }
+    return suggestions;
+  }
+  
+  /**
+   * Returns the DNS items whose qualified name matches a glob pattern.
+   * Patterns with a literal prefix are answered from the sorted name index, patterns
+   * with a literal suffix from the reversed-name index, so only the names sharing the
+   * longest literal part are examined.
+   *
+   * @param motif the glob pattern ('*' and '?' wildcards)
+   * @return list of matching DNS items, sorted by machine name
+   */
+  public List<DnsItem> findItems(MotifGlob motif) {
+    List<DnsItem> resultat = new ArrayList<>();
+    if (motif == null) {
+      return resultat;
+    }
+    
+    verrou.readLock().lock();
+    try {
+      if (motif.estExact()) {
+        DnsItem item = indexNoms.get(motif.getMotif());
+        if (item != null) {
+          resultat.add(item);
+        }
+        return resultat;
+      }
+      
+      String prefixe = motif.getPrefixe();
+      String suffixe = motif.getSuffixe();
+      if (!prefixe.isEmpty() && prefixe.length() >= suffixe.length()) {
+        collecter(indexNoms, prefixe, motif, resultat);
+      } else if (!suffixe.isEmpty()) {
+        collecter(indexNomsInverses, inverser(suffixe), motif, resultat);
+        Collections.sort(resultat);
+      } else {
+        for (DnsItem item : indexNoms.values()) {
+          if (motif.correspond(item.getNomMachine().getNomComplet())) {
+            resultat.add(item);
+          }
+        }
+      }
+      return resultat;
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Collects the items of an ordered index whose key starts with a prefix and whose
+   * name matches the pattern.
+   *
+   * @param index the ordered index to scan
+   * @param debut the key prefix
+   * @param motif the glob pattern
+   * @param resultat the list receiving the matching items
+   */
+  private static void collecter(NavigableMap<String, DnsItem> index, String debut,
+      MotifGlob motif, List<DnsItem> resultat) {
+    for (Map.Entry<String, DnsItem> entree : index.tailMap(debut, true).entrySet()) {
+      if (!entree.getKey().startsWith(debut)) {
+        break;
+      }
+      DnsItem item = entree.getValue();
+      if (motif.correspond(item.getNomMachine().getNomComplet())) {
+        resultat.add(item);
+      }
+    }
+  }
+  
   /**
    * Adds a new DNS item to the database.
    *
@@ -214,20 +1199,139 @@ public class Dns {
     if (nomMachine == null) {
       throw new DnsException("Le nom de machine ne peut pas être nul");
     }
+    verifierEcriture();
     
-    // Check if IP already exists
-    if (getItem(adresseIp) != null) {
-      throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+    // The file lock is always taken before the write lock
+    verrouFichier.lock();
+    verrou.writeLock().lock();
+    try {
+      // Check if IP already exists
+      if (etat.getItem(adresseIp) != null) {
+        throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+      }
+      
+      // Check if machine name already exists
+      if (etat.getItem(nomMachine) != null) {
+        throw new DnsException("ERREUR : Le nom de machine existe déjà !");
+      }
+      
+      DnsItem newItem = mutualiser(new DnsItem(adresseIp, nomMachine));
+      filtrer(newItem, etat);
+      etat = etat.avec(newItem);
+      indexer(newItem);
+      notifier(List.of(new DnsChange(DnsChange.Type.AJOUT, newItem, etat.getSequence())));
+      saveDatabase();
+    } finally {
+      verrou.writeLock().unlock();
+      verrouFichier.unlock();
     }
-    
-    // Check if machine name already exists
-    if (getItem(nomMachine) != null) {
-      throw new DnsException("ERREUR : Le nom de machine existe déjà !");
+  }
+  
+  /**
+   * Checks that local additions are allowed.
+   *
+   * @throws DnsException if this service is a read-only replica
+   */
+  private void verifierEcriture() throws DnsException {
+    if (lectureSeule) {
+      throw new DnsException("ERREUR : Instance secondaire en lecture seule !");
+    }
+  }
+  
+  /**
+   * Imports the entries of a reader, such as a zone or hosts file. The entries are
+   * applied in batches, each published as one snapshot, and the database file is
+   * written once at the end. Entries whose name or address is already used are skipped.
+   * Reloads and other additions wait until the import is over; lookups do not.
+   *
+   * @param source the reader of the entries to import
+   * @return the number of entries added
+   * @throws DnsException if the source cannot be read or is invalid; the entries read
+   *     before the error are kept and saved
+   */
+  public int importer(LecteurEntrees source) throws DnsException {
+    verifierEcriture();
+    debuterImport();
+    int ajoutees = 0;
+    List<DnsItem> lot = new ArrayList<>(TAILLE_LOT_IMPORT);
+    try {
+      DnsItem item;
+      while ((item = source.suivante()) != null) {
+        lot.add(item);
+        if (lot.size() == TAILLE_LOT_IMPORT) {
+          ajoutees += appliquerLot(lot).size();
+          lot.clear();
+        }
+      }
+    } finally {
+      try {
+        ajoutees += appliquerLot(lot).size();
+      } finally {
+        terminerImport(ajoutees > 0);
+      }
+    }
+    return ajoutees;
+  }
+  
+  /**
+   * Starts an import: keeps reloads and single additions out until
+   * {@link #terminerImport(boolean)}, so that the file and the store stay in step.
+   */
+  void debuterImport() {
+    verrouFichier.lock();
+  }
+  
+  /**
+   * Adds a batch of imported entries and publishes them as one snapshot, without
+   * writing the database file. Must be called between {@link #debuterImport()} and
+   * {@link #terminerImport(boolean)}.
+   *
+   * @param lot the entries to add
+   * @return the entries actually added, those whose name and address were free
+   */
+  List<DnsItem> appliquerLot(List<DnsItem> lot) {
+    List<DnsItem> ajoutes = new ArrayList<>(lot.size());
+    if (lot.isEmpty()) {
+      return ajoutes;
+    }
+    verrou.writeLock().lock();
+    try {
+      InstantaneDns nouvelEtat = etat;
+      List<DnsChange> changements = new ArrayList<>(lot.size());
+      for (DnsItem lu : lot) {
+        if (nouvelEtat.getItem(lu.getNomMachine()) != null
+            || nouvelEtat.getItem(lu.getAdresseIp()) != null) {
+          continue;
+        }
+        DnsItem item = mutualiser(lu);
+        filtrer(item, nouvelEtat);
+        nouvelEtat = nouvelEtat.avec(item);
+        indexer(item);
+        ajoutes.add(item);
+        changements.add(new DnsChange(DnsChange.Type.AJOUT, item, nouvelEtat.getSequence()));
+      }
+      etat = nouvelEtat;
+      notifier(changements);
+      return ajoutes;
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Ends an import started by {@link #debuterImport()}.
+   *
+   * @param sauvegarder true to write the database file
+   * @throws DnsException if the database cannot be saved
+   */
+  void terminerImport(boolean sauvegarder) throws DnsException {
+    try {
+      if (sauvegarder) {
+        saveDatabase();
+      }
+    } finally {
+      verrouFichier.unlock();
     }
-    
-    DnsItem newItem = new DnsItem(adresseIp, nomMachine);
-    dnsItems.add(newItem);
-    saveDatabase();
   }
   
   /**
@@ -253,15 +1357,29 @@ public class Dns {
    * @return the number of items
    */
   public int size() {
-    return dnsItems.size();
+    return etat.size();
+  }
+  
+  /**
+   * Returns a consistent snapshot of the database, in constant time.
+   * The snapshot can be iterated without locks and is not affected by later writes.
+   *
+   * @return the current snapshot
+   */
+  public InstantaneDns instantane() {
+    return etat;
   }
   
   /**
    * Returns all DNS items in the database.
+   * Prefer {@link #instantane()} to iterate without copying.
    *
    * @return unmodifiable list of all DNS items
    */
   public List<DnsItem> getAllItems() {
-    return Collections.unmodifiableList(new ArrayList<>(dnsItems));
+    InstantaneDns courant = etat;
+    List<DnsItem> items = new ArrayList<>(courant.size());
+    courant.forEach(items::add);
+    return Collections.unmodifiableList(items);
   }
 }
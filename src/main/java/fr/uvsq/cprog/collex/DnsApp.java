@@ -1,5 +1,13 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -10,6 +18,7 @@ public class DnsApp {
   
   private final DnsTUI tui;
   private final Dns dns;
+  private final JournalLenteurs journal;
   
   /**
    * Creates a new DNS application with the specified DNS service and user interface.
@@ -18,36 +27,62 @@ public class DnsApp {
    * @param tui the text user interface for user interaction
    */
   public DnsApp(Dns dns, DnsTUI tui) {
+    this(dns, tui, null);
+  }
+  
+  /**
+   * Creates a new DNS application logging its slow commands.
+   *
+   * @param dns the DNS service for data operations
+   * @param tui the text user interface for user interaction
+   * @param journal the log of the slow commands, or null for none
+   */
+  public DnsApp(Dns dns, DnsTUI tui, JournalLenteurs journal) {
     this.dns = dns;
     this.tui = tui;
+    this.journal = journal;
   }
   
   /**
    * Runs the main application loop.
-   * Continuously prompts for commands, executes them, and displays results until quit.
+   * Continuously prompts for commands, executes them through a {@link PipelineCommandes},
+   * and displays results until quit. With a {@link JournalLenteurs}, the commands taking
+   * longer than its threshold, parsing included, are logged.
    */
   public void run() {
     System.out.println("DNS Simulator - Tapez 'aide' pour voir les commandes disponibles");
     
     boolean continuer = true;
-    while (continuer) {
-      try {
-        Commande commande = tui.nextCommande();
-        String resultat = commande.execute();
-        
-        if (resultat != null && !resultat.trim().isEmpty()) {
-          tui.affiche(resultat);
-        }
+    try (PipelineCommandes pipeline = new PipelineCommandes()) {
+      while (continuer) {
+        try {
+          Commande commande;
+          String resultat;
+          if (journal == null) {
+            commande = tui.nextCommande();
+            resultat = pipeline.executer(commande);
+          } else {
+            String saisie = tui.nextSaisie();
+            long debut = System.nanoTime();
+            commande = saisie == null ? new CommandeQuitter() : tui.parseCommande(saisie);
+            long analyse = System.nanoTime() - debut;
+            resultat = pipeline.executer(journal.tracer(commande, saisie, analyse));
+          }
+          
+          if (resultat != null && !resultat.trim().isEmpty()) {
+            tui.affiche(resultat);
+          }
+          
+          // Check if it's a quit command
+          if (commande instanceof CommandeQuitter) {
+            continuer = false;
+          }
         
-        // Check if it's a quit command
-        if (commande instanceof CommandeQuitter) {
-          continuer = false;
+        } catch (DnsException e) {
+          tui.affiche("ERREUR : " + e.getMessage());
+        } catch (Exception e) {
+          tui.affiche("ERREUR inattendue : " + e.getMessage());
         }
-        
-      } catch (DnsException e) {
-        tui.affiche("ERREUR : " + e.getMessage());
-      } catch (Exception e) {
-        tui.affiche("ERREUR inattendue : " + e.getMessage());
       }
     }
   }
@@ -55,24 +90,185 @@ public class DnsApp {
   /**
    * Main entry point of the application.
    * Creates the DNS service, user interface, and starts the application.
+   * With {@code --primaire <port>}, the changes are also streamed to secondaries on the
+   * given loopback port; with {@code --secondaire <host:port>}, the application serves
+   * a read-only copy kept in sync with that primary instead of the database file.
+   * With {@code --charge <rate> <seconds> [<log>]}, no interface is started: the
+   * commands of the log, or lookups synthesized from the database, are executed at the
+   * given rate and the latencies are reported. With {@code --requete <command>}, the
+   * single command is answered from the mapped index of the database.
    *
-   * @param args command line arguments (not used)
+   * @param args command line arguments: none, {@code --primaire <port>},
+   *     {@code --secondaire <host:port>}, {@code --charge <rate> <seconds> [<log>]} or
+   *     {@code --requete <command>}
    */
   public static void main(String[] args) {
     try {
-      // Create DNS service and load database
-      Dns dns = new Dns();
-      
-      // Create user interface
-      DnsTUI tui = new DnsTUI(dns);
-      
-      // Create and run application
-      DnsApp app = new DnsApp(dns, tui);
-      app.run();
-      
+      if (args.length == 2 && args[0].equals("--secondaire")) {
+        lancerSecondaire(args[1]);
+      } else if (args.length == 2 && args[0].equals("--primaire")) {
+        lancerPrimaire(Integer.parseInt(args[1]));
+      } else if ((args.length == 3 || args.length == 4) && args[0].equals("--charge")) {
+        lancerCharge(Double.parseDouble(args[1]), Double.parseDouble(args[2]),
+            args.length == 4 ? args[3] : null);
+      } else if (args.length >= 2 && args[0].equals("--requete")) {
+        lancerRequete(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+      } else if (args.length == 0) {
+        lancerPrimaire(-1);
+      } else {
+        throw new DnsException("Usage: DnsApp [--primaire <port> | --secondaire <hote:port>"
+            + " | --charge <req/s> <secondes> [<journal>] | --requete <commande>]");
+      }
     } catch (Exception e) {
       System.err.println("Erreur lors du démarrage de l'application : " + e.getMessage());
       System.exit(1);
     }
   }
+  
+  /**
+   * Runs the application on the database file, or on the zones of the configuration.
+   *
+   * @param portReplication the port to stream changes on, or -1 for no replication
+   * @throws DnsException if a database cannot be loaded or the port opened, or if
+   *     several zones should be replicated
+   */
+  private static void lancerPrimaire(int portReplication) throws DnsException {
+    // Create DNS services and load databases
+    Zones zones = Zones.ouvrir();
+    List<Dns> services = zones.getServices();
+    if (portReplication >= 0 && services.size() > 1) {
+      throw new DnsException("La réplication ne gère qu'une seule zone");
+    }
+    Dns dns = services.get(0);
+    if (portReplication >= 0 && dns instanceof DnsPagine) {
+      throw new DnsException("La réplication ne gère pas le mode paginé");
+    }
+    if (portReplication >= 0 && dns instanceof DnsPartitionne) {
+      throw new DnsException("La réplication ne gère pas les bases partitionnées");
+    }
+    
+    // Create user interface
+    DnsTUI tui = new DnsTUI(zones);
+    
+    // Create and run application, reloading the databases when they are edited
+    JournalLenteurs journal = JournalLenteurs.ouvrir(Dns.loadProperties());
+    DnsApp app = new DnsApp(dns, tui, journal);
+    List<SurveillantBase> surveillants = new ArrayList<>(services.size());
+    try (ServeurReplication serveur = new ServeurReplication(dns)) {
+      for (Dns service : services) {
+        // A paged store no longer reads its database file
+        if (!(service instanceof DnsPagine)) {
+          surveillants.add(service.surveiller());
+        }
+      }
+      if (portReplication >= 0) {
+        serveur.demarrer(portReplication);
+        System.out.println("Réplication sur le port " + serveur.getPort());
+      }
+      app.run();
+    } finally {
+      for (SurveillantBase surveillant : surveillants) {
+        surveillant.close();
+      }
+      for (Dns service : services) {
+        if (service instanceof DnsPagine) {
+          ((DnsPagine) service).fermer();
+        }
+      }
+      if (journal != null) {
+        journal.close();
+      }
+    }
+  }
+  
+  /**
+   * Answers a single command from the mapped index of the database, without loading
+   * the database into memory.
+   *
+   * @param requete the command, as typed in the interface
+   * @throws DnsException if the database cannot be opened
+   */
+  private static void lancerRequete(String requete) throws DnsException {
+    Dns dns = new DnsProjete();
+    try {
+      String resultat = new DnsTUI(dns, new Scanner("")).parseCommande(requete).execute();
+      if (resultat != null && !resultat.trim().isEmpty()) {
+        System.out.println(resultat);
+      }
+    } catch (DnsException e) {
+      System.out.println("ERREUR : " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Replays commands against the database at a fixed rate, through a
+   * {@link PipelineCommandes}, and prints the measures of the run and of the pipeline.
+   *
+   * @param requetesParSeconde the target rate
+   * @param secondes the duration of the run
+   * @param journal the recorded command log, or null to synthesize lookups
+   * @throws DnsException if the database or the log cannot be read
+   */
+  private static void lancerCharge(double requetesParSeconde, double secondes, String journal)
+      throws DnsException {
+    Dns dns = Dns.ouvrir();
+    try {
+      List<Commande> commandes;
+      if (journal == null) {
+        int nombre = (int) Math.min(Math.max(1, requetesParSeconde * secondes), 100_000);
+        commandes = GenerateurCharge.synthetiser(dns, nombre, 1.0, System.nanoTime());
+      } else {
+        try (BufferedReader lecteur = Files.newBufferedReader(Paths.get(journal),
+            StandardCharsets.UTF_8)) {
+          commandes = GenerateurCharge.lireJournal(dns, lecteur);
+        } catch (IOException e) {
+          throw new DnsException("Impossible de lire le journal " + journal + ": "
+              + e.getMessage());
+        }
+      }
+      
+      // The commands go through the pipeline, whose latencies and batches are reported too
+      try (PipelineCommandes pipeline = new PipelineCommandes()) {
+        List<Commande> publiees = new ArrayList<>(commandes.size());
+        for (Commande commande : commandes) {
+          publiees.add(() -> pipeline.executer(commande));
+        }
+        GenerateurCharge generateur = new GenerateurCharge(publiees, requetesParSeconde,
+            GenerateurCharge.NOMBRE_THREADS_DEFAUT);
+        System.out.println(generateur.executer(secondes));
+        System.out.println(pipeline.getStatistiques());
+      }
+    } finally {
+      if (dns instanceof DnsPagine) {
+        ((DnsPagine) dns).fermer();
+      }
+    }
+  }
+  
+  /**
+   * Runs the application on a read-only copy of a primary.
+   *
+   * @param primaire the address of the primary, as host:port
+   * @throws DnsException if the address is invalid
+   */
+  private static void lancerSecondaire(String primaire) throws DnsException {
+    int separateur = primaire.lastIndexOf(':');
+    if (separateur <= 0) {
+      throw new DnsException("Adresse du primaire invalide: " + primaire);
+    }
+    int port;
+    try {
+      port = Integer.parseInt(primaire.substring(separateur + 1));
+    } catch (NumberFormatException e) {
+      throw new DnsException("Adresse du primaire invalide: " + primaire);
+    }
+    
+    Dns dns = Dns.replique();
+    DnsApp app = new DnsApp(dns, new DnsTUI(dns));
+    try (ClientReplication client =
+        new ClientReplication(dns, primaire.substring(0, separateur), port)) {
+      client.demarrer();
+      app.run();
+    }
+  }
 }
@@ -0,0 +1,196 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous facade over a DNS service.
+ *
+ * <p>Lookups by address and by name are answered from memory and return an already
+ * completed future, without switching thread; an error of the service during a lookup,
+ * such as a page that cannot be read, fails the future instead of being thrown. Domain
+ * listings, which copy and sort every entry of the domain, and additions, which wait for
+ * the database file to be saved, run on an executor.
+ * At most a fixed number of additions may be in flight: beyond it, new additions fail
+ * at once, so that callers slow down instead of queueing without limit.
+ */
+public class DnsAsynchrone implements AutoCloseable {
+  
+  /** Default maximum number of additions in flight. */
+  public static final int ECRITURES_EN_VOL_DEFAUT = 64;
+  
+  private final Dns dns;
+  private final Executor executeur;
+  private final ExecutorService executeurPropre;
+  private final Semaphore ecritures;
+  private final int maxEcritures;
+  
+  /**
+   * Creates an asynchronous facade running on virtual threads when the runtime
+   * provides them, or on a pool of daemon threads otherwise.
+   *
+   * @param dns the DNS service
+   */
+  public DnsAsynchrone(Dns dns) {
+    this(dns, creerExecuteur(), ECRITURES_EN_VOL_DEFAUT, true);
+  }
+  
+  /**
+   * Creates an asynchronous facade running on a given executor.
+   *
+   * @param dns the DNS service
+   * @param executeur the executor of listings and additions, not shut down by this facade
+   * @param maxEcritures the maximum number of additions in flight
+   * @throws IllegalArgumentException if the maximum is not positive
+   */
+  public DnsAsynchrone(Dns dns, Executor executeur, int maxEcritures) {
+    this(dns, executeur, maxEcritures, false);
+  }
+  
+  private DnsAsynchrone(Dns dns, Executor executeur, int maxEcritures, boolean proprietaire) {
+    if (maxEcritures < 1) {
+      throw new IllegalArgumentException("Nombre d'écritures en vol invalide: " + maxEcritures);
+    }
+    this.dns = dns;
+    this.executeur = executeur;
+    this.executeurPropre = proprietaire ? (ExecutorService) executeur : null;
+    this.ecritures = new Semaphore(maxEcritures);
+    this.maxEcritures = maxEcritures;
+  }
+  
+  /**
+   * Creates the default executor: one virtual thread per task on Java 21 and later,
+   * a cached pool of daemon threads before.
+   *
+   * @return the executor
+   */
+  private static ExecutorService creerExecuteur() {
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(tache -> {
+        Thread thread = new Thread(tache, "dns-asynchrone");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+  
+  /**
+   * Looks up an entry by IP address.
+   *
+   * @param adresseIp the IP address
+   * @return a completed future of the entry, or of null if the address is absent, or a
+   *     failed future if the service cannot be read
+   */
+  public CompletableFuture<DnsItem> lookupByIpAsync(AdresseIP adresseIp) {
+    try {
+      return CompletableFuture.completedFuture(dns.getItem(adresseIp));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+  
+  /**
+   * Looks up an entry by machine name.
+   *
+   * @param nomMachine the machine name
+   * @return a completed future of the entry, or of null if the name is absent, or a
+   *     failed future if the service cannot be read
+   */
+  public CompletableFuture<DnsItem> lookupByNameAsync(NomMachine nomMachine) {
+    try {
+      return CompletableFuture.completedFuture(dns.getItem(nomMachine));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+  
+  /**
+   * Lists the entries of a domain on the executor.
+   *
+   * @param domaine the domain name
+   * @param trierParIp true to sort the entries by IP address instead of by name
+   * @return a future of the entries
+   */
+  public CompletableFuture<List<DnsItem>> listDomainAsync(String domaine, boolean trierParIp) {
+    try {
+      return CompletableFuture.supplyAsync(() -> trierParIp
+          ? dns.getItemsSortedByIp(domaine) : dns.getItems(domaine), executeur);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(new DnsException("Service asynchrone arrêté", e));
+    }
+  }
+  
+  /**
+   * Adds an entry on the executor.
+   *
+   * @param adresseIp the IP address
+   * @param nomMachine the machine name
+   * @return a future completed when the entry is saved, or failed with a
+   *     {@link DnsException} if the entry cannot be added or too many additions are
+   *     already in flight
+   */
+  public CompletableFuture<Void> addAsync(AdresseIP adresseIp, NomMachine nomMachine) {
+    if (!ecritures.tryAcquire()) {
+      return CompletableFuture.failedFuture(new DnsException(
+          "Trop d'ajouts en cours (" + maxEcritures + "), réessayez plus tard"));
+    }
+    CompletableFuture<Void> resultat = new CompletableFuture<>();
+    try {
+      executeur.execute(() -> {
+        Exception erreur = null;
+        try {
+          dns.addItem(adresseIp, nomMachine);
+        } catch (DnsException | RuntimeException e) {
+          erreur = e;
+        } finally {
+          // Released first, so that a dependent stage may add again at once
+          ecritures.release();
+        }
+        if (erreur == null) {
+          resultat.complete(null);
+        } else {
+          resultat.completeExceptionally(erreur);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      ecritures.release();
+      resultat.completeExceptionally(new DnsException("Service asynchrone arrêté", e));
+    }
+    return resultat;
+  }
+  
+  /**
+   * Returns the number of additions in flight.
+   *
+   * @return the number of additions submitted and not yet completed
+   */
+  public int getEcrituresEnVol() {
+    return maxEcritures - ecritures.availablePermits();
+  }
+  
+  /**
+   * Stops the default executor after the submitted tasks. An executor given to the
+   * constructor is left running.
+   */
+  @Override
+  public void close() {
+    if (executeurPropre == null) {
+      return;
+    }
+    executeurPropre.shutdown();
+    try {
+      executeurPropre.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Objects;
+
+/**
+ * A committed change of the DNS database: an entry added or removed, with the
+ * sequence number of the snapshot it produced. Sequence numbers increase by one with
+ * each change, so a gap reveals a missed change.
+ */
+public final class DnsChange {
+  
+  /**
+   * The kind of change.
+   */
+  public enum Type {
+    /** An entry was added. */
+    AJOUT,
+    /** An entry was removed. */
+    RETRAIT
+  }
+  
+  private final Type type;
+  private final DnsItem item;
+  private final long sequence;
+  
+  /**
+   * Creates a new change.
+   *
+   * @param type the kind of change
+   * @param item the added or removed entry
+   * @param sequence the sequence number of the change
+   * @throws IllegalArgumentException if the type or the item is null
+   */
+  public DnsChange(Type type, DnsItem item, long sequence) {
+    if (type == null || item == null) {
+      throw new IllegalArgumentException("Le type et l'entrée du changement sont obligatoires");
+    }
+    this.type = type;
+    this.item = item;
+    this.sequence = sequence;
+  }
+  
+  /**
+   * Returns the kind of change.
+   *
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+  
+  /**
+   * Returns the added or removed entry.
+   *
+   * @return the DNS item
+   */
+  public DnsItem getItem() {
+    return item;
+  }
+  
+  /**
+   * Returns the sequence number of the change.
+   *
+   * @return the sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+  
+  /**
+   * Returns the change as a single text line: "+" or "-", the sequence number, the
+   * IP address and the machine name.
+   *
+   * @return the text form of the change
+   */
+  public String versLigne() {
+    return (type == Type.AJOUT ? "+ " : "- ") + sequence + " " + item.toDisplayString();
+  }
+  
+  /**
+   * Parses a change written by {@link #versLigne()}.
+   *
+   * @param ligne the text line
+   * @return the change
+   * @throws IllegalArgumentException if the line is malformed
+   */
+  public static DnsChange depuisLigne(String ligne) {
+    String[] parts = ligne == null ? new String[0] : ligne.trim().split("\\s+");
+    if (parts.length != 4 || !(parts[0].equals("+") || parts[0].equals("-"))) {
+      throw new IllegalArgumentException("Changement invalide: " + ligne);
+    }
+    try {
+      return new DnsChange(parts[0].equals("+") ? Type.AJOUT : Type.RETRAIT,
+          new DnsItem(parts[2], parts[3]), Long.parseLong(parts[1]));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Numéro de séquence invalide: " + parts[1]);
+    }
+  }
+  
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    DnsChange other = (DnsChange) obj;
+    return type == other.type && sequence == other.sequence && item.equals(other.item);
+  }
+  
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, item, sequence);
+  }
+  
+  @Override
+  public String toString() {
+    return versLigne();
+  }
+}
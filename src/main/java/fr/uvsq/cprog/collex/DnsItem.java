@@ -77,7 +77,7 @@ public class DnsItem implements Comparable<DnsItem> {
     if (domaine == null) {
       return false;
     }
-    return getDomaine().equalsIgnoreCase(domaine.trim());
+    return nomMachine.appartientAuDomaine(domaine.trim());
   }
   
   @Override
@@ -95,7 +95,7 @@ public class DnsItem implements Comparable<DnsItem> {
   
   @Override
   public int hashCode() {
-    return Objects.hash(adresseIp, nomMachine);
+    return 31 * adresseIp.hashCode() + nomMachine.hashCode();
   }
   
   @Override
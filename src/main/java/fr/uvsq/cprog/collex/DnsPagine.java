@@ -0,0 +1,692 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * DNS service storing its entries in a file of pages rather than in the heap, so that
+ * the memory it needs is bounded by its cache of pages whatever the size of the base.
+ *
+ * <p>The file, kept next to the database file with the suffix {@code .pages}, holds two
+ * {@link ArbreBPlus}: one keyed by the labels of the names in reverse order, so that
+ * the machines of a domain are contiguous, giving their packed address; one keyed by
+ * the packed address, giving the name. A lookup reads one page per level of a tree,
+ * through a {@link PoolPages} of a fixed number of pages. Each addition is a
+ * transaction of the pool, so a crash never leaves a name without its address.
+ *
+ * <p>The database file is only read when the file of pages is created; afterwards the
+ * file of pages is the store and the database file is no longer written nor watched.
+ * Pattern searches and full listings scan the tree of names; there are no suggestions
+ * nor Bloom filters. Thread-safe: lookups run together, additions one at a time.
+ */
+public class DnsPagine extends Dns {
+  
+  /** Default number of pages kept in memory: 4 MB. */
+  public static final int CADRES_DEFAUT = 1024;
+  
+  private static final int MAGIQUE = 0x444e5350;
+  private static final int VERSION = 1;
+  
+  private static final int PAGE_META = 0;
+  private static final int RACINE_NOMS = 8;
+  private static final int RACINE_ADRESSES = 12;
+  private static final int NOMBRE = 16;
+  
+  /** Size of a packed address: the family, then the high and low 64 bits. */
+  private static final int TAILLE_ADRESSE = 17;
+  
+  private final Path fichierPages;
+  private final PoolPages pages;
+  private final ArbreBPlus noms;
+  private final ArbreBPlus adresses;
+  private final ReadWriteLock verrou;
+  
+  /**
+   * Opens the database file named in the configuration in paged mode.
+   *
+   * @throws DnsException if the database cannot be read
+   */
+  public DnsPagine() throws DnsException {
+    this(loadDatabaseFilename(), CADRES_DEFAUT);
+  }
+  
+  /**
+   * Opens the file of pages of a database file, creating it from the database file if
+   * it does not exist yet.
+   *
+   * @param databaseFilename the database file
+   * @param nombreCadres the number of pages kept in memory, at least 2
+   * @throws DnsException if a file cannot be read or written, or the database is invalid
+   */
+  public DnsPagine(String databaseFilename, int nombreCadres) throws DnsException {
+    super(null, false);
+    if (nombreCadres < 2) {
+      throw new DnsException("Nombre de pages en mémoire invalide: " + nombreCadres);
+    }
+    Path base = Paths.get(databaseFilename);
+    this.verrou = new ReentrantReadWriteLock();
+    this.fichierPages = fichierPages(base);
+    try {
+      this.pages = new PoolPages(fichierPages, nombreCadres);
+    } catch (IOException e) {
+      throw new DnsException("Impossible d'ouvrir le fichier de pages: " + e.getMessage(), e);
+    }
+    try {
+      if (pages.getNombrePages() == 0) {
+        creer(pages);
+        this.noms = new ArbreBPlus(pages, PAGE_META, RACINE_NOMS);
+        this.adresses = new ArbreBPlus(pages, PAGE_META, RACINE_ADRESSES);
+        importerBase(base);
+      } else {
+        verifier(pages);
+        this.noms = new ArbreBPlus(pages, PAGE_META, RACINE_NOMS);
+        this.adresses = new ArbreBPlus(pages, PAGE_META, RACINE_ADRESSES);
+      }
+    } catch (IOException | DnsException | RuntimeException e) {
+      try {
+        pages.close();
+      } catch (IOException | RuntimeException ignoree) {
+        // The creation is rolled back at the next opening
+      }
+      if (e instanceof DnsException) {
+        throw (DnsException) e;
+      }
+      throw new DnsException("Fichier de pages invalide: " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Returns the file of pages of a database file.
+   *
+   * @param base the database file
+   * @return the path of its file of pages
+   */
+  static Path fichierPages(Path base) {
+    return base.resolveSibling(base.getFileName() + ".pages");
+  }
+  
+  /**
+   * Writes the first page of a new file and its two empty trees.
+   */
+  private static void creer(PoolPages pages) throws IOException {
+    int meta = pages.allouer();
+    ByteBuffer page = pages.epingler(meta);
+    try {
+      page.putInt(0, MAGIQUE).putInt(4, VERSION).putInt(NOMBRE, 0);
+    } finally {
+      pages.relacher(meta);
+    }
+    ArbreBPlus.creer(pages, meta, RACINE_NOMS);
+    ArbreBPlus.creer(pages, meta, RACINE_ADRESSES);
+  }
+  
+  /**
+   * Checks the first page of an existing file.
+   */
+  private static void verifier(PoolPages pages) throws IOException {
+    ByteBuffer page = pages.epingler(PAGE_META);
+    try {
+      if (page.getInt(0) != MAGIQUE || page.getInt(4) != VERSION) {
+        throw new IOException("en-tête inconnu");
+      }
+    } finally {
+      pages.relacher(PAGE_META);
+    }
+  }
+  
+  /**
+   * Fills the new file with the entries of the database file, read a line at a time,
+   * in the transaction of the creation: a crash meanwhile leaves no file of pages.
+   */
+  private void importerBase(Path base) throws IOException, DnsException {
+    if (Files.exists(base)) {
+      try (BufferedReader lecteur = Files.newBufferedReader(base)) {
+        String ligne;
+        for (int numero = 1; (ligne = lecteur.readLine()) != null; numero++) {
+          ligne = ligne.trim();
+          if (ligne.isEmpty() || ligne.startsWith("#")) {
+            continue;
+          }
+          String[] parts = ligne.split("\\s+");
+          if (parts.length != 2) {
+            throw new DnsException("Format invalide ligne " + numero + ": " + ligne);
+          }
+          DnsItem item;
+          try {
+            item = new DnsItem(parts[1], parts[0]);
+          } catch (IllegalArgumentException e) {
+            throw new DnsException("Données invalides ligne " + numero + ": " + e.getMessage());
+          }
+          if (!inserer(item)) {
+            throw new DnsException("Entrée en double ligne " + numero + ": " + ligne);
+          }
+        }
+      }
+    }
+    pages.valider();
+  }
+  
+  /**
+   * Returns the pages of the store, to measure the page reads.
+   *
+   * @return the pool of pages
+   */
+  PoolPages getPages() {
+    return pages;
+  }
+  
+  /**
+   * Returns the number of levels of the tree of names, the page reads of a lookup.
+   *
+   * @return the height of the tree
+   * @throws DnsException if a page cannot be read
+   */
+  int hauteur() throws DnsException {
+    verrou.readLock().lock();
+    try {
+      return noms.hauteur();
+    } catch (IOException e) {
+      throw erreurLecture(e);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  @Override
+  public DnsItem getItem(AdresseIP adresseIp) {
+    if (adresseIp == null) {
+      return null;
+    }
+    verrou.readLock().lock();
+    try {
+      byte[] nom = adresses.chercher(compacter(adresseIp));
+      return nom == null ? null
+          : new DnsItem(adresseIp, new NomMachine(new String(nom, StandardCharsets.UTF_8)));
+    } catch (IOException e) {
+      throw new IllegalStateException(erreurLecture(e).getMessage(), e);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  @Override
+  public DnsItem getItem(NomMachine nomMachine) {
+    if (nomMachine == null) {
+      return null;
+    }
+    verrou.readLock().lock();
+    try {
+      byte[] adresse = noms.chercher(IndexCompresse.cle(nomMachine.getNomComplet()));
+      return adresse == null ? null : new DnsItem(decompacter(adresse), nomMachine);
+    } catch (IOException e) {
+      throw new IllegalStateException(erreurLecture(e).getMessage(), e);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  @Override
+  public List<DnsItem> getItems(String domaine) {
+    List<DnsItem> items = new ArrayList<>();
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return items;
+    }
+    // The machines of the domain, not of its subdomains, follow its reversed labels
+    byte[] prefixe = (IndexCompresse.inverser(domaine.trim().toLowerCase()) + ".")
+        .getBytes(StandardCharsets.UTF_8);
+    parcourir(prefixe, (cle, valeur) -> {
+      if (!commencePar(cle, prefixe)) {
+        return false;
+      }
+      for (int i = prefixe.length; i < cle.length; i++) {
+        if (cle[i] == '.') {
+          return true;
+        }
+      }
+      items.add(item(cle, valeur));
+      return true;
+    });
+    Collections.sort(items);
+    return items;
+  }
+  
+  @Override
+  public List<DnsItem> getItemsSortedByIp(String domaine) {
+    List<DnsItem> items = getItems(domaine);
+    items.sort((item1, item2) -> item1.getAdresseIp().compareTo(item2.getAdresseIp()));
+    return items;
+  }
+  
+  @Override
+  public PageDomaine getPage(String domaine, boolean trierParIp, String apres, int limite)
+      throws DnsException {
+    if (limite < 1) {
+      throw new DnsException("Limite invalide: " + limite);
+    }
+    return PageDomaine.selectionner(getItems(domaine), trierParIp, apres, limite);
+  }
+  
+  /**
+   * Returns the DNS items whose qualified name matches a glob pattern. The whole labels
+   * of a literal suffix are a prefix of the keys of the tree of names, so only the
+   * names under that domain are read; other patterns scan every name.
+   *
+   * @param motif the glob pattern ('*' and '?' wildcards)
+   * @return list of matching DNS items, sorted by machine name
+   */
+  @Override
+  public List<DnsItem> findItems(MotifGlob motif) {
+    List<DnsItem> resultat = new ArrayList<>();
+    if (motif == null) {
+      return resultat;
+    }
+    if (motif.estExact()) {
+      DnsItem item;
+      try {
+        item = getItem(new NomMachine(motif.getMotif()));
+      } catch (IllegalArgumentException e) {
+        return resultat; // Not a qualified name, so no entry has it
+      }
+      if (item != null) {
+        resultat.add(item);
+      }
+      return resultat;
+    }
+    
+    String suffixe = motif.getSuffixe();
+    String labels = suffixe.substring(suffixe.indexOf('.') + 1);
+    byte[] prefixe = labels.isEmpty() || suffixe.indexOf('.') < 0 ? new byte[0]
+        : (IndexCompresse.inverser(labels) + ".").getBytes(StandardCharsets.UTF_8);
+    parcourir(prefixe, (cle, valeur) -> {
+      if (!commencePar(cle, prefixe)) {
+        return false;
+      }
+      DnsItem item = item(cle, valeur);
+      if (motif.correspond(item.getNomMachine().getNomComplet())) {
+        resultat.add(item);
+      }
+      return true;
+    });
+    Collections.sort(resultat);
+    return resultat;
+  }
+  
+  /**
+   * Adds a new DNS item to the file of pages, in one transaction.
+   *
+   * @param adresseIp the IP address
+   * @param nomMachine the machine name
+   * @throws DnsException if the item cannot be added or already exists
+   */
+  @Override
+  public void addItem(AdresseIP adresseIp, NomMachine nomMachine) throws DnsException {
+    if (adresseIp == null) {
+      throw new DnsException("L'adresse IP ne peut pas être nulle");
+    }
+    if (nomMachine == null) {
+      throw new DnsException("Le nom de machine ne peut pas être nul");
+    }
+    verrou.writeLock().lock();
+    try {
+      if (adresses.chercher(compacter(adresseIp)) != null) {
+        throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+      }
+      if (noms.chercher(IndexCompresse.cle(nomMachine.getNomComplet())) != null) {
+        throw new DnsException("ERREUR : Le nom de machine existe déjà !");
+      }
+      valider(List.of(new DnsItem(adresseIp, nomMachine)));
+    } catch (IOException e) {
+      throw erreurLecture(e);
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Imports the entries of a reader, such as a zone or hosts file. Each batch of
+   * entries is one transaction. Entries whose name or address is already used are
+   * skipped.
+   *
+   * @param source the reader of the entries to import
+   * @return the number of entries added
+   * @throws DnsException if the source cannot be read or is invalid; the entries read
+   *     before the error are kept
+   */
+  @Override
+  public int importer(LecteurEntrees source) throws DnsException {
+    int ajoutees = 0;
+    List<DnsItem> lot = new ArrayList<>(TAILLE_LOT_IMPORT);
+    try {
+      DnsItem item;
+      while ((item = source.suivante()) != null) {
+        lot.add(item);
+        if (lot.size() == TAILLE_LOT_IMPORT) {
+          ajoutees += appliquerLot(lot).size();
+          lot.clear();
+        }
+      }
+    } finally {
+      ajoutees += appliquerLot(lot).size();
+    }
+    return ajoutees;
+  }
+  
+  @Override
+  List<DnsItem> appliquerLot(List<DnsItem> lot) {
+    verrou.writeLock().lock();
+    try {
+      return valider(lot);
+    } catch (IOException e) {
+      throw new IllegalStateException(erreurLecture(e).getMessage(), e);
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  @Override
+  public int size() {
+    verrou.readLock().lock();
+    try {
+      ByteBuffer page = pages.epingler(PAGE_META);
+      try {
+        return page.getInt(NOMBRE);
+      } finally {
+        pages.relacher(PAGE_META);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(erreurLecture(e).getMessage(), e);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns a snapshot of the database, built by reading every page of the tree of
+   * names; its memory is not bounded by the pages kept in memory.
+   *
+   * @return a snapshot of the current entries
+   */
+  @Override
+  public InstantaneDns instantane() {
+    InstantaneDns[] instantane = {InstantaneDns.VIDE};
+    parcourir(new byte[0], (cle, valeur) -> {
+      instantane[0] = instantane[0].avec(item(cle, valeur));
+      return true;
+    });
+    return instantane[0];
+  }
+  
+  @Override
+  public List<DnsItem> getAllItems() {
+    List<DnsItem> items = new ArrayList<>();
+    parcourir(new byte[0], (cle, valeur) -> {
+      items.add(item(cle, valeur));
+      return true;
+    });
+    return Collections.unmodifiableList(items);
+  }
+  
+  /**
+   * Writes the entries to a channel in the format of the database file, read from the
+   * tree of names: the file of pages, not the database file, holds the current entries.
+   * Additions wait until the copy is over.
+   *
+   * @param destination the channel to append the entries to
+   * @return the number of bytes written
+   * @throws DnsException if the channel cannot be written
+   */
+  @Override
+  public long copierFichier(WritableByteChannel destination) throws DnsException {
+    ByteBuffer tampon = ByteBuffer.allocate(Exportateur.TAILLE_TAMPON);
+    long[] copies = {0};
+    try {
+      parcourir(new byte[0], (cle, valeur) -> {
+        byte[] nom = IndexCompresse.inverser(new String(cle, StandardCharsets.UTF_8))
+            .getBytes(StandardCharsets.UTF_8);
+        // An address takes at most 45 bytes with the separators
+        if (tampon.remaining() < nom.length + 47) {
+          copies[0] += vider(tampon, destination);
+        }
+        tampon.put(nom).put((byte) ' ');
+        decompacter(valeur).ecrire(tampon);
+        tampon.put((byte) '\n');
+        return true;
+      });
+      copies[0] += vider(tampon, destination);
+    } catch (UncheckedIOException e) {
+      throw new DnsException("Impossible de copier la base de données: "
+          + e.getCause().getMessage());
+    }
+    return copies[0];
+  }
+  
+  /**
+   * Writes out the content of a buffer and clears it.
+   *
+   * @return the number of bytes written
+   */
+  private static int vider(ByteBuffer tampon, WritableByteChannel destination) {
+    tampon.flip();
+    int octets = tampon.remaining();
+    try {
+      while (tampon.hasRemaining()) {
+        destination.write(tampon);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    tampon.clear();
+    return octets;
+  }
+  
+  /**
+   * Not supported: the index would hold every entry in the heap, which the store is
+   * meant to avoid.
+   *
+   * @return never
+   * @throws DnsException always
+   */
+  @Override
+  public IndexCompresse compresser() throws DnsException {
+    throw new DnsException("L'index compressé n'est pas disponible en mode paginé");
+  }
+  
+  /**
+   * Estimates the heap retained by the store: the pages kept in memory, whatever the
+   * number of entries.
+   *
+   * @return the estimated bytes of the pool of pages
+   */
+  @Override
+  public EmpreinteMemoire empreinteMemoire() {
+    EmpreinteMemoire empreinte = new EmpreinteMemoire(size());
+    empreinte.ajouter(EmpreinteMemoire.POOL_PAGES, pages.tailleMemoire());
+    return empreinte;
+  }
+  
+  /**
+   * Does nothing: a lookup of an absent entry reads as many pages as any other.
+   *
+   * @param tauxFauxPositifs ignored
+   */
+  @Override
+  public void activerFiltres(double tauxFauxPositifs) {
+    // No filter to keep in memory
+  }
+  
+  /**
+   * Not supported: the additions are committed to the pages without change events.
+   *
+   * @param ecouteur the listener
+   * @throws DnsException always
+   */
+  @Override
+  public void ajouterEcouteur(Consumer<DnsChange> ecouteur) throws DnsException {
+    throw new DnsException("Les changements ne sont pas publiés en mode paginé");
+  }
+  
+  /**
+   * Not supported, for the same reason as {@link #ajouterEcouteur(Consumer)}.
+   *
+   * @param tailleTampon ignored
+   * @param politique ignored
+   * @return never
+   * @throws DnsException always
+   */
+  @Override
+  public PublicateurChangements publierChangements(int tailleTampon,
+      PublicateurChangements.Politique politique) throws DnsException {
+    throw new DnsException("Les changements ne sont pas publiés en mode paginé");
+  }
+  
+  @Override
+  public int recharger() throws DnsException {
+    throw new DnsException("Rechargement impossible en mode paginé");
+  }
+  
+  @Override
+  List<Path> fichiersUtilises() {
+    return List.of(fichierPages, PoolPages.fichierJournal(fichierPages));
+  }
+  
+  @Override
+  public SurveillantBase surveiller() throws DnsException {
+    throw new DnsException("Rechargement impossible en mode paginé");
+  }
+  
+  /**
+   * Closes the file of pages. The service must no longer be used.
+   *
+   * @throws DnsException if the file cannot be closed
+   */
+  public void fermer() throws DnsException {
+    verrou.writeLock().lock();
+    try {
+      pages.close();
+    } catch (IOException e) {
+      throw new DnsException("Impossible de fermer le fichier de pages: " + e.getMessage(), e);
+    } finally {
+      verrou.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Adds entries in one transaction, skipping those whose name or address is used,
+   * and commits it, or rolls it back if a page cannot be written.
+   *
+   * @param items the entries to add
+   * @return the entries actually added
+   * @throws IOException if the transaction failed and was rolled back
+   */
+  private List<DnsItem> valider(List<DnsItem> items) throws IOException {
+    List<DnsItem> ajoutes = new ArrayList<>(items.size());
+    if (items.isEmpty()) {
+      return ajoutes;
+    }
+    try {
+      for (DnsItem item : items) {
+        if (inserer(item)) {
+          ajoutes.add(item);
+        }
+      }
+      long debut = JournalLenteurs.debut();
+      try {
+        pages.valider();
+      } finally {
+        JournalLenteurs.mesurer(JournalLenteurs.Phase.PERSISTANCE, debut, ajoutes.size());
+      }
+      return ajoutes;
+    } catch (IOException | RuntimeException e) {
+      pages.annuler();
+      throw e;
+    }
+  }
+  
+  /**
+   * Inserts an entry in both trees and counts it, in the current transaction.
+   *
+   * @param item the entry
+   * @return false if its name or address is already used, nothing being changed
+   */
+  private boolean inserer(DnsItem item) throws IOException {
+    byte[] adresse = compacter(item.getAdresseIp());
+    String nom = item.getNomMachine().getNomComplet();
+    if (adresses.chercher(adresse) != null
+        || !noms.inserer(IndexCompresse.cle(nom), adresse)) {
+      return false;
+    }
+    adresses.inserer(adresse, nom.getBytes(StandardCharsets.UTF_8));
+    ByteBuffer page = pages.epingler(PAGE_META);
+    try {
+      pages.modifier(PAGE_META);
+      page.putInt(NOMBRE, page.getInt(NOMBRE) + 1);
+    } finally {
+      pages.relacher(PAGE_META);
+    }
+    return true;
+  }
+  
+  /**
+   * Scans the tree of names under the read lock.
+   */
+  private void parcourir(byte[] debut, ArbreBPlus.Visiteur visiteur) {
+    verrou.readLock().lock();
+    try {
+      noms.parcourir(debut, visiteur);
+    } catch (IOException e) {
+      throw new IllegalStateException(erreurLecture(e).getMessage(), e);
+    } finally {
+      verrou.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Decodes an entry of the tree of names.
+   */
+  private static DnsItem item(byte[] cle, byte[] adresse) {
+    String nom = IndexCompresse.inverser(new String(cle, StandardCharsets.UTF_8));
+    return new DnsItem(decompacter(adresse), new NomMachine(nom));
+  }
+  
+  /**
+   * Packs an address so that its bytes sort as {@link AdresseIP#compareTo}.
+   */
+  private static byte[] compacter(AdresseIP adresse) {
+    return ByteBuffer.allocate(TAILLE_ADRESSE).put((byte) (adresse.estIpv6() ? 1 : 0))
+        .putLong(adresse.getHaut()).putLong(adresse.getBas()).array();
+  }
+  
+  private static AdresseIP decompacter(byte[] adresse) {
+    ByteBuffer tampon = ByteBuffer.wrap(adresse);
+    return new AdresseIP(tampon.getLong(1), tampon.getLong(9), tampon.get(0) == 1);
+  }
+  
+  private static boolean commencePar(byte[] cle, byte[] prefixe) {
+    if (cle.length < prefixe.length) {
+      return false;
+    }
+    for (int i = 0; i < prefixe.length; i++) {
+      if (cle[i] != prefixe[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private static DnsException erreurLecture(IOException e) {
+    return new DnsException("Impossible de lire le fichier de pages: " + e.getMessage(), e);
+  }
+}
@@ -0,0 +1,647 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * DNS service partitioned by domain into independent stores, each with its own file
+ * and locks, so that loading, reloading and saving scale with the number of
+ * partitions. An entry lives in the partition given by a hash of its domain: lookups
+ * by name and domain listings touch a single partition, and lookups by address go
+ * through a global address index kept up to date from the changes of every partition.
+ * An addition reserves its address while its partition commits it, and the address is
+ * published only once committed, so that an entry found by address is always found by
+ * name too.
+ *
+ * <p>The partition files are named after the database file, with the partition number
+ * before the extension. When none exists yet, the entries of the database file are
+ * distributed among them.
+ */
+public class DnsPartitionne extends Dns {
+  
+  private final Dns[] partitions;
+  private final List<Path> fichiers;
+  private final Map<AdresseIP, DnsItem> indexAdresses;
+  private final Set<AdresseIP> adressesReservees;
+  
+  /**
+   * Creates a partitioned DNS service and loads its partitions in parallel.
+   *
+   * @param databaseFilename the database file name the partition files are named after
+   * @param nombrePartitions the number of partitions
+   * @throws DnsException if a partition cannot be loaded, holds an entry of another
+   *     partition, or if an address appears in two partitions
+   */
+  public DnsPartitionne(String databaseFilename, int nombrePartitions) throws DnsException {
+    this(databaseFilename, nombrePartitions, null);
+  }
+  
+  /**
+   * Creates a partitioned DNS service whose partitions share their strings with the
+   * other services of a process.
+   *
+   * @param databaseFilename the database file name the partition files are named after
+   * @param nombrePartitions the number of partitions
+   * @param pool the pool of the names and trigrams, or null to keep them apart
+   * @throws DnsException if a partition cannot be loaded, holds an entry of another
+   *     partition, or if an address appears in two partitions
+   */
+  public DnsPartitionne(String databaseFilename, int nombrePartitions, PoolChaines pool)
+      throws DnsException {
+    super(null, false);
+    if (nombrePartitions < 1) {
+      throw new DnsException("Nombre de partitions invalide: " + nombrePartitions);
+    }
+    this.partitions = new Dns[nombrePartitions];
+    this.fichiers = new ArrayList<>(nombrePartitions);
+    this.indexAdresses = new ConcurrentHashMap<>();
+    this.adressesReservees = ConcurrentHashMap.newKeySet();
+    for (int i = 0; i < nombrePartitions; i++) {
+      fichiers.add(fichierPartition(Paths.get(databaseFilename), i));
+    }
+    
+    repartir(Paths.get(databaseFilename));
+    
+    List<Callable<Dns>> chargements = new ArrayList<>();
+    for (Path fichier : fichiers) {
+      chargements.add(() -> new Dns(fichier.toString(), pool));
+    }
+    List<Dns> chargees = enParallele(chargements);
+    
+    for (int i = 0; i < nombrePartitions; i++) {
+      partitions[i] = chargees.get(i);
+      for (DnsItem item : partitions[i].instantane()) {
+        if (indexPartition(item.getDomaine()) != i) {
+          throw new DnsException("Entrée hors de sa partition dans " + fichiers.get(i) + ": "
+              + item.toDisplayString());
+        }
+        if (indexAdresses.putIfAbsent(item.getAdresseIp(), item) != null) {
+          throw new DnsException("Adresse en double entre partitions: "
+              + item.toDisplayString());
+        }
+      }
+      partitions[i].ajouterEcouteur(this::mettreAJourAdresses);
+    }
+  }
+  
+  /**
+   * Returns the file of a partition: the database file name with the partition number
+   * before the extension.
+   *
+   * @param fichier the database file
+   * @param numero the partition number
+   * @return the partition file
+   */
+  static Path fichierPartition(Path fichier, int numero) {
+    String nom = fichier.getFileName().toString();
+    int point = nom.lastIndexOf('.');
+    String nomPartition = point > 0
+        ? nom.substring(0, point) + "." + numero + nom.substring(point)
+        : nom + "." + numero;
+    return fichier.resolveSibling(nomPartition);
+  }
+  
+  /**
+   * Distributes the entries of the database file among the partition files, when no
+   * partition file exists yet.
+   *
+   * @param fichier the database file
+   * @throws DnsException if the database file cannot be read or a partition written
+   */
+  private void repartir(Path fichier) throws DnsException {
+    for (Path fichierPartition : fichiers) {
+      if (Files.exists(fichierPartition)) {
+        return;
+      }
+    }
+    if (!Files.exists(fichier)) {
+      return;
+    }
+    
+    List<List<DnsItem>> contenus = new ArrayList<>();
+    for (int i = 0; i < partitions.length; i++) {
+      contenus.add(new ArrayList<>());
+    }
+    for (DnsItem item : readDatabase(fichier)) {
+      contenus.get(indexPartition(item.getDomaine())).add(item);
+    }
+    for (int i = 0; i < partitions.length; i++) {
+      writeDatabase(fichiers.get(i), contenus.get(i));
+    }
+  }
+  
+  /**
+   * Runs tasks on a thread per partition, at most one per processor.
+   *
+   * @param taches the tasks
+   * @param <T> the result type
+   * @return the results, in task order
+   * @throws DnsException if a task failed
+   */
+  private static <T> List<T> enParallele(List<Callable<T>> taches) throws DnsException {
+    int threads = Math.min(taches.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executeur = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      List<T> resultats = new ArrayList<>(taches.size());
+      for (Future<T> futur : executeur.invokeAll(taches)) {
+        resultats.add(futur.get());
+      }
+      return resultats;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DnsException) {
+        throw (DnsException) e.getCause();
+      }
+      throw new DnsException("Erreur dans une partition: " + e.getCause().getMessage(),
+          e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DnsException("Chargement des partitions interrompu");
+    } finally {
+      executeur.shutdown();
+    }
+  }
+  
+  /**
+   * Keeps the global address index in sync with the changes of a partition.
+   *
+   * @param changement a committed change of a partition
+   */
+  private void mettreAJourAdresses(DnsChange changement) {
+    DnsItem item = changement.getItem();
+    if (changement.getType() == DnsChange.Type.AJOUT) {
+      indexAdresses.put(item.getAdresseIp(), item);
+    } else {
+      indexAdresses.remove(item.getAdresseIp(), item);
+    }
+  }
+  
+  /**
+   * Returns the partition number of a domain.
+   *
+   * @param domaine the domain name
+   * @return the partition number
+   */
+  private int indexPartition(String domaine) {
+    return Math.floorMod(domaine.trim().toLowerCase().hashCode(), partitions.length);
+  }
+  
+  /**
+   * Returns the partition holding a domain.
+   *
+   * @param domaine the domain name
+   * @return the partition
+   */
+  private Dns partition(String domaine) {
+    return partitions[indexPartition(domaine)];
+  }
+  
+  /**
+   * Returns the partition holding the domain of a machine name, without extracting the
+   * domain, so that lookups by name allocate nothing.
+   *
+   * @param nomMachine the machine name
+   * @return the partition
+   */
+  Dns partition(NomMachine nomMachine) {
+    return partitions[Math.floorMod(nomMachine.hashDomaine(), partitions.length)];
+  }
+  
+  /**
+   * Returns the number of partitions.
+   *
+   * @return the number of partitions
+   */
+  public int getNombrePartitions() {
+    return partitions.length;
+  }
+  
+  /**
+   * Re-reads the files of all partitions in parallel. The files are checked together as
+   * when they are loaded, before any partition is changed: additions wait meanwhile.
+   *
+   * @return the number of added and removed entries
+   * @throws DnsException if a file cannot be read or is invalid, holds an entry of
+   *     another partition, or if an address appears in two partitions; the store is
+   *     then unchanged
+   */
+  @Override
+  public int recharger() throws DnsException {
+    for (Dns partition : partitions) {
+      partition.debuterImport();
+    }
+    try {
+      List<Callable<List<DnsItem>>> lectures = new ArrayList<>();
+      for (Path fichier : fichiers) {
+        lectures.add(() -> readDatabase(fichier));
+      }
+      List<List<DnsItem>> contenus = enParallele(lectures);
+      
+      Set<AdresseIP> adresses = new HashSet<>();
+      for (int i = 0; i < partitions.length; i++) {
+        for (DnsItem item : contenus.get(i)) {
+          if (indexPartition(item.getDomaine()) != i) {
+            throw new DnsException("Entrée hors de sa partition dans " + fichiers.get(i)
+                + ": " + item.toDisplayString());
+          }
+          if (!adresses.add(item.getAdresseIp())) {
+            throw new DnsException("Adresse en double entre partitions: "
+                + item.toDisplayString());
+          }
+        }
+      }
+      
+      List<Callable<Integer>> remplacements = new ArrayList<>();
+      for (int i = 0; i < partitions.length; i++) {
+        Dns partition = partitions[i];
+        List<DnsItem> contenu = contenus.get(i);
+        remplacements.add(() -> partition.remplacerContenu(contenu));
+      }
+      int total = 0;
+      for (int nombre : enParallele(remplacements)) {
+        total += nombre;
+      }
+      return total;
+    } finally {
+      for (Dns partition : partitions) {
+        partition.terminerImport(false);
+      }
+    }
+  }
+  
+  /**
+   * Copies the files of all partitions to a channel, one after the other.
+   *
+   * @param destination the channel to append the files to
+   * @return the number of bytes copied
+   * @throws DnsException if a copy fails
+   */
+  @Override
+  public long copierFichier(WritableByteChannel destination) throws DnsException {
+    long copies = 0;
+    for (Dns partition : partitions) {
+      copies += partition.copierFichier(destination);
+    }
+    return copies;
+  }
+  
+  @Override
+  public SurveillantBase surveiller() throws DnsException {
+    SurveillantBase surveillant = new SurveillantBase(this, fichiers);
+    surveillant.demarrer();
+    return surveillant;
+  }
+  
+  @Override
+  List<Path> fichiersUtilises() {
+    return Collections.unmodifiableList(fichiers);
+  }
+  
+  @Override
+  boolean estSauvegardePropre(Path fichier) {
+    for (Dns partition : partitions) {
+      if (partition.estSauvegardePropre(fichier)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Not supported: sequence numbers are kept per partition, so the changes of a
+   * partitioned service cannot be streamed as a single ordered log.
+   *
+   * @param ecouteur the listener
+   * @throws DnsException always
+   */
+  @Override
+  public void ajouterEcouteur(Consumer<DnsChange> ecouteur) throws DnsException {
+    throw new DnsException(
+        "La publication des changements n'est pas disponible pour une base partitionnée");
+  }
+  
+  /**
+   * Not supported, for the same reason as {@link #ajouterEcouteur(Consumer)}.
+   *
+   * @param tailleTampon ignored
+   * @param politique ignored
+   * @return never
+   * @throws DnsException always
+   */
+  @Override
+  public PublicateurChangements publierChangements(int tailleTampon,
+      PublicateurChangements.Politique politique) throws DnsException {
+    throw new DnsException(
+        "La publication des changements n'est pas disponible pour une base partitionnée");
+  }
+  
+  /**
+   * Enables the Bloom filters of every partition. Lookups by address go through the
+   * global address index, which needs no filter.
+   *
+   * @param tauxFauxPositifs the false-positive rate, between 0 and 1
+   */
+  @Override
+  public void activerFiltres(double tauxFauxPositifs) {
+    for (Dns partition : partitions) {
+      partition.activerFiltres(tauxFauxPositifs);
+    }
+  }
+  
+  @Override
+  public FiltreBloom.Statistiques getStatistiquesFiltreNoms() {
+    FiltreBloom.Statistiques total = null;
+    for (Dns partition : partitions) {
+      FiltreBloom.Statistiques statistiques = partition.getStatistiquesFiltreNoms();
+      total = statistiques == null ? total : statistiques.plus(total);
+    }
+    return total;
+  }
+  
+  @Override
+  public FiltreBloom.Statistiques getStatistiquesFiltreAdresses() {
+    return null;
+  }
+  
+  @Override
+  public EmpreinteMemoire empreinteMemoire() {
+    EmpreinteMemoire total = null;
+    for (Dns partition : partitions) {
+      total = partition.empreinteMemoire().plus(total);
+    }
+    EmpreinteMemoire index = new EmpreinteMemoire(0);
+    index.ajouter(EmpreinteMemoire.INDEX_ADRESSES,
+        EmpreinteMemoire.tableHachage(indexAdresses.size()));
+    return total.plus(index);
+  }
+  
+  @Override
+  public DnsItem getItem(AdresseIP adresseIp) {
+    // Read the reservation first: a partition publishes an entry before its listener
+    // indexes the address, and the reservation is only released after that
+    boolean reservee = adressesReservees.contains(adresseIp);
+    DnsItem item = indexAdresses.get(adresseIp);
+    if (item == null && reservee) {
+      for (Dns partition : partitions) {
+        item = partition.getItem(adresseIp);
+        if (item != null) {
+          return item;
+        }
+      }
+    }
+    return item;
+  }
+  
+  @Override
+  public DnsItem getItem(NomMachine nomMachine) {
+    return partition(nomMachine).getItem(nomMachine);
+  }
+  
+  @Override
+  public List<DnsItem> getItems(String domaine) {
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return new ArrayList<>();
+    }
+    return partition(domaine).getItems(domaine);
+  }
+  
+  @Override
+  public PageDomaine getPage(String domaine, boolean trierParIp, String apres, int limite)
+      throws DnsException {
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return super.getPage(domaine, trierParIp, apres, limite);
+    }
+    return partition(domaine).getPage(domaine, trierParIp, apres, limite);
+  }
+  
+  @Override
+  public List<DnsItem> getItemsSortedByIp(String domaine) {
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return new ArrayList<>();
+    }
+    return partition(domaine).getItemsSortedByIp(domaine);
+  }
+  
+  /**
+   * Returns the known machine names closest to a name, among all partitions.
+   *
+   * @param nomMachine the machine name that was not found
+   * @param nombre the maximum number of suggestions
+   * @return up to nombre machine names, closest first
+   */
+  @Override
+  public List<NomMachine> suggerer(NomMachine nomMachine, int nombre) {
+    List<NomMachine> candidats = new ArrayList<>();
+    if (nomMachine == null) {
+      return candidats;
+    }
+    for (Dns partition : partitions) {
+      candidats.addAll(partition.suggerer(nomMachine, nombre));
+    }
+    String requete = nomMachine.getNomComplet();
+    candidats.sort(Comparator.comparingInt((NomMachine nom) ->
+        IndexTrigrammes.distance(requete, nom.getNomComplet(), Integer.MAX_VALUE - 1))
+        .thenComparing(NomMachine::getNomComplet));
+    return new ArrayList<>(candidats.subList(0, Math.min(nombre, candidats.size())));
+  }
+  
+  @Override
+  public List<DnsItem> findItems(MotifGlob motif) {
+    List<DnsItem> resultat = new ArrayList<>();
+    if (motif == null) {
+      return resultat;
+    }
+    for (Dns partition : partitions) {
+      resultat.addAll(partition.findItems(motif));
+    }
+    Collections.sort(resultat);
+    return resultat;
+  }
+  
+  /**
+   * Adds a new DNS item to the partition of its domain. The address is reserved in
+   * the global index first, so that two partitions never accept the same address.
+   *
+   * @param adresseIp the IP address
+   * @param nomMachine the machine name
+   * @throws DnsException if the item cannot be added or already exists
+   */
+  @Override
+  public void addItem(AdresseIP adresseIp, NomMachine nomMachine) throws DnsException {
+    if (adresseIp == null) {
+      throw new DnsException("L'adresse IP ne peut pas être nulle");
+    }
+    if (nomMachine == null) {
+      throw new DnsException("Le nom de machine ne peut pas être nul");
+    }
+    
+    if (!reserver(adresseIp)) {
+      throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+    }
+    Dns partition = partition(nomMachine);
+    try {
+      // A reload holds the lock of every partition, so once the lock of this one is
+      // held the global index holds the addresses the reload may have brought
+      partition.debuterImport();
+      try {
+        if (indexAdresses.containsKey(adresseIp)) {
+          throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+        }
+        partition.addItem(adresseIp, nomMachine);
+      } finally {
+        partition.terminerImport(false);
+      }
+    } finally {
+      adressesReservees.remove(adresseIp);
+    }
+  }
+  
+  /**
+   * Reserves a free address for an addition in progress, so that no concurrent addition
+   * takes it. The partition publishes the address in the global index when it commits
+   * the entry, and the reservation is then released.
+   *
+   * @param adresseIp the address
+   * @return false if the address is used or reserved by another addition
+   */
+  private boolean reserver(AdresseIP adresseIp) {
+    if (!adressesReservees.add(adresseIp)) {
+      return false;
+    }
+    if (indexAdresses.containsKey(adresseIp)) {
+      adressesReservees.remove(adresseIp);
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Imports the entries of a reader into their partitions. Each partition file is
+   * written once, at the end, if it received entries.
+   *
+   * @param source the reader of the entries to import
+   * @return the number of entries added
+   * @throws DnsException if the source cannot be read or is invalid; the entries read
+   *     before the error are kept and saved
+   */
+  @Override
+  public int importer(LecteurEntrees source) throws DnsException {
+    boolean[] modifiees = new boolean[partitions.length];
+    int ajoutees = 0;
+    DnsException erreur = null;
+    for (Dns partition : partitions) {
+      partition.debuterImport();
+    }
+    List<DnsItem> lot = new ArrayList<>();
+    try {
+      DnsItem item;
+      while ((item = source.suivante()) != null) {
+        lot.add(item);
+        if (lot.size() == TAILLE_LOT_IMPORT) {
+          ajoutees += appliquerLot(lot, modifiees);
+          lot.clear();
+        }
+      }
+    } catch (DnsException e) {
+      erreur = e;
+    }
+    ajoutees += appliquerLot(lot, modifiees);
+    for (int i = 0; i < partitions.length; i++) {
+      try {
+        partitions[i].terminerImport(modifiees[i]);
+      } catch (DnsException e) {
+        erreur = erreur == null ? e : erreur;
+      }
+    }
+    if (erreur != null) {
+      throw erreur;
+    }
+    return ajoutees;
+  }
+  
+  /**
+   * Adds a batch of imported entries to their partitions, reserving their addresses
+   * first.
+   *
+   * @param lot the entries to add
+   * @param modifiees the flags of the partitions that received entries, updated
+   * @return the number of entries added
+   */
+  private int appliquerLot(List<DnsItem> lot, boolean[] modifiees) {
+    List<List<DnsItem>> parPartition = new ArrayList<>();
+    for (int i = 0; i < partitions.length; i++) {
+      parPartition.add(new ArrayList<>());
+    }
+    for (DnsItem item : lot) {
+      if (reserver(item.getAdresseIp())) {
+        parPartition.get(indexPartition(item.getDomaine())).add(item);
+      }
+    }
+    
+    int ajoutees = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      List<DnsItem> reserves = parPartition.get(i);
+      int ajoutes;
+      try {
+        ajoutes = partitions[i].appliquerLot(reserves).size();
+      } finally {
+        for (DnsItem item : reserves) {
+          adressesReservees.remove(item.getAdresseIp());
+        }
+      }
+      modifiees[i] |= ajoutes > 0;
+      ajoutees += ajoutes;
+    }
+    return ajoutees;
+  }
+  
+  @Override
+  public int size() {
+    int total = 0;
+    for (Dns partition : partitions) {
+      total += partition.size();
+    }
+    return total;
+  }
+  
+  /**
+   * Returns the entries of all partitions as a single snapshot, composed of the
+   * snapshots of the partitions without copying them. Each partition is read at a
+   * single point in time, but the partitions are not read atomically together.
+   *
+   * @return a snapshot of all the entries
+   */
+  @Override
+  public InstantaneDns instantane() {
+    InstantaneDns[] parties = new InstantaneDns[partitions.length];
+    for (int i = 0; i < partitions.length; i++) {
+      parties[i] = partitions[i].instantane();
+    }
+    return InstantaneDns.composer(parties,
+        nom -> Math.floorMod(nom.hashDomaine(), partitions.length));
+  }
+  
+  @Override
+  public List<DnsItem> getAllItems() {
+    List<DnsItem> items = new ArrayList<>(size());
+    for (Dns partition : partitions) {
+      partition.instantane().forEach(items::add);
+    }
+    return Collections.unmodifiableList(items);
+  }
+}
@@ -0,0 +1,259 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only DNS service answering from a compressed index file mapped in memory, so
+ * that opening it does not depend on the size of the database.
+ *
+ * <p>The index is kept next to the database file, with the suffix {@code .idx}, and
+ * records the size and modification date of the database file it was built from.
+ * It is rebuilt, which means parsing the database once, when it is missing, invalid
+ * or older than the database. Lookups by name and address and domain listings are
+ * answered by binary search on the mapped bytes and only create the returned entries.
+ * The other operations decode the whole index into memory the first time they are
+ * called. The service does not follow later changes of the database file.
+ */
+public class DnsProjete extends Dns {
+  
+  /** Size of the header recording the state of the database file. */
+  private static final int TAILLE_ENTETE = 16;
+  
+  private final IndexCompresse index;
+  private final boolean reconstruit;
+  private volatile boolean decode;
+  
+  /**
+   * Opens the database file named in the configuration in mapped mode.
+   *
+   * @throws DnsException if the database cannot be read
+   */
+  public DnsProjete() throws DnsException {
+    this(loadDatabaseFilename());
+  }
+  
+  /**
+   * Opens a database file in mapped mode, building its index if needed.
+   *
+   * @param databaseFilename the database file
+   * @throws DnsException if the database cannot be read or is invalid
+   */
+  public DnsProjete(String databaseFilename) throws DnsException {
+    super(null, true);
+    Path base = Paths.get(databaseFilename);
+    Path fichierIndex = fichierIndex(base);
+    IndexCompresse projete;
+    try {
+      projete = projeter(base, fichierIndex);
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le fichier de base de données: "
+          + e.getMessage(), e);
+    }
+    this.reconstruit = projete == null;
+    this.index = projete != null ? projete : reconstruire(base, fichierIndex);
+  }
+  
+  /**
+   * Returns the index file of a database file.
+   *
+   * @param base the database file
+   * @return the path of its index
+   */
+  static Path fichierIndex(Path base) {
+    return base.resolveSibling(base.getFileName() + ".idx");
+  }
+  
+  /**
+   * Maps the index file if it is valid and up to date.
+   *
+   * @param base the database file
+   * @param fichierIndex the index file
+   * @return the mapped index, or null if it must be rebuilt
+   * @throws IOException if the database file cannot be read
+   */
+  private static IndexCompresse projeter(Path base, Path fichierIndex) throws IOException {
+    long taille = Files.size(base);
+    long date = Files.getLastModifiedTime(base).toMillis();
+    if (!Files.isRegularFile(fichierIndex)) {
+      return null;
+    }
+    try (FileChannel canal = FileChannel.open(fichierIndex, StandardOpenOption.READ)) {
+      if (canal.size() < TAILLE_ENTETE || canal.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer donnees = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+      if (donnees.getLong(0) != taille || donnees.getLong(8) != date) {
+        return null;
+      }
+      donnees.position(TAILLE_ENTETE);
+      return IndexCompresse.lire(donnees);
+    } catch (IOException | IllegalArgumentException e) {
+      // Unreadable or corrupt index: rebuilt from the database
+      return null;
+    }
+  }
+  
+  /**
+   * Builds the index of the database file and saves it for the next openings. The
+   * index is only kept in memory if it cannot be saved.
+   *
+   * @param base the database file
+   * @param fichierIndex the index file
+   * @return the index
+   * @throws DnsException if the database cannot be read or is invalid
+   */
+  private static IndexCompresse reconstruire(Path base, Path fichierIndex) throws DnsException {
+    long taille;
+    long date;
+    try {
+      // Read before the database, so that a concurrent change makes the index stale
+      taille = Files.size(base);
+      date = Files.getLastModifiedTime(base).toMillis();
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le fichier de base de données: "
+          + e.getMessage(), e);
+    }
+    IndexCompresse index = IndexCompresse.construire(readDatabase(base));
+    
+    Path temporaire = null;
+    try {
+      temporaire = Files.createTempFile(fichierIndex.toAbsolutePath().getParent(),
+          fichierIndex.getFileName().toString(), ".tmp");
+      try (FileChannel canal = FileChannel.open(temporaire, StandardOpenOption.WRITE)) {
+        ByteBuffer entete = ByteBuffer.allocate(TAILLE_ENTETE).putLong(taille).putLong(date);
+        entete.flip();
+        while (entete.hasRemaining()) {
+          canal.write(entete);
+        }
+        index.ecrire(canal);
+      }
+      Files.move(temporaire, fichierIndex, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Read-only directory: the index is rebuilt at each opening
+      try {
+        if (temporaire != null) {
+          Files.deleteIfExists(temporaire);
+        }
+      } catch (IOException ignoree) {
+        // Nothing more to clean
+      }
+    }
+    return index;
+  }
+  
+  /**
+   * Checks if the index was rebuilt when this service was opened.
+   *
+   * @return false if an up-to-date index file was mapped
+   */
+  boolean estIndexReconstruit() {
+    return reconstruit;
+  }
+  
+  @Override
+  public DnsItem getItem(AdresseIP adresseIp) {
+    return adresseIp == null ? null : index.getItem(adresseIp);
+  }
+  
+  @Override
+  public DnsItem getItem(NomMachine nomMachine) {
+    return nomMachine == null ? null : index.getItem(nomMachine);
+  }
+  
+  @Override
+  public List<DnsItem> getItems(String domaine) {
+    if (domaine == null || domaine.trim().isEmpty()) {
+      return new ArrayList<>();
+    }
+    return index.getItems(domaine);
+  }
+  
+  @Override
+  public List<DnsItem> getItemsSortedByIp(String domaine) {
+    List<DnsItem> items = getItems(domaine);
+    items.sort((item1, item2) -> item1.getAdresseIp().compareTo(item2.getAdresseIp()));
+    return items;
+  }
+  
+  @Override
+  public PageDomaine getPage(String domaine, boolean trierParIp, String apres, int limite)
+      throws DnsException {
+    if (limite < 1) {
+      throw new DnsException("Limite invalide: " + limite);
+    }
+    // The mapped index has no order by address, nor cursor by name
+    return PageDomaine.selectionner(getItems(domaine), trierParIp, apres, limite);
+  }
+  
+  @Override
+  public int size() {
+    return index.size();
+  }
+  
+  @Override
+  public IndexCompresse compresser() {
+    return index;
+  }
+  
+  @Override
+  public InstantaneDns instantane() {
+    decoder();
+    return super.instantane();
+  }
+  
+  @Override
+  public List<DnsItem> getAllItems() {
+    decoder();
+    return super.getAllItems();
+  }
+  
+  @Override
+  public List<DnsItem> findItems(MotifGlob motif) {
+    decoder();
+    return super.findItems(motif);
+  }
+  
+  @Override
+  public List<NomMachine> suggerer(NomMachine nomMachine, int nombre) {
+    decoder();
+    return super.suggerer(nomMachine, nombre);
+  }
+  
+  @Override
+  public int recharger() throws DnsException {
+    throw new DnsException("Rechargement impossible en mode projeté");
+  }
+  
+  @Override
+  public SurveillantBase surveiller() throws DnsException {
+    throw new DnsException("Rechargement impossible en mode projeté");
+  }
+  
+  /**
+   * Decodes the whole index into the in-memory store, once.
+   */
+  private void decoder() {
+    if (decode) {
+      return;
+    }
+    synchronized (this) {
+      if (!decode) {
+        List<DnsItem> items = new ArrayList<>(index.size());
+        index.parNom().forEachRemaining(items::add);
+        remplacer(items, 0);
+        decode = true;
+      }
+    }
+  }
+}
@@ -5,15 +5,17 @@ import java.util.regex.Pattern;
 
 /**
  * Text User Interface for DNS operations.
- * Handles user input parsing and command creation.
+ * Handles user input parsing and command creation. When several zones are served, the
+ * commands apply to the current zone, chosen with {@code use <zone>}.
  */
 public class DnsTUI {
   
-  private static final Pattern IP_PATTERN = Pattern.compile(
-      "^((25[0-5]|(2[0-4]|1\\d|[1-9]|)\\d)\\.?\\b){4}$");
+  private static final Pattern ESPACES = Pattern.compile("\\s+");
   
   private final Scanner scanner;
-  private final Dns dns;
+  private final Zones zones;
+  private Dns dns;
+  private String zoneCourante;
   
   /**
    * Creates a new DNS TUI.
@@ -21,8 +23,7 @@ public class DnsTUI {
    * @param dns the DNS service
    */
   public DnsTUI(Dns dns) {
-    this.dns = dns;
-    this.scanner = new Scanner(System.in);
+    this(dns, new Scanner(System.in));
   }
   
   /**
@@ -34,6 +35,56 @@ public class DnsTUI {
   public DnsTUI(Dns dns, Scanner scanner) {
     this.dns = dns;
     this.scanner = scanner;
+    this.zones = null;
+  }
+  
+  /**
+   * Creates a DNS TUI over several zones, starting on the first one.
+   *
+   * @param zones the zones
+   * @throws DnsException if there is no zone
+   */
+  public DnsTUI(Zones zones) throws DnsException {
+    this(zones, new Scanner(System.in));
+  }
+  
+  /**
+   * Creates a DNS TUI over several zones with custom scanner for testing.
+   *
+   * @param zones the zones
+   * @param scanner the scanner to use for input
+   * @throws DnsException if there is no zone
+   */
+  public DnsTUI(Zones zones, Scanner scanner) throws DnsException {
+    this.zones = zones;
+    this.scanner = scanner;
+    this.zoneCourante = zones.getPremiere();
+    this.dns = zones.get(zoneCourante);
+  }
+  
+  /**
+   * Makes a zone the target of the next commands.
+   *
+   * @param nom the zone name
+   * @return the confirmation message
+   * @throws DnsException if the interface serves a single store or the zone is unknown
+   */
+  String utiliserZone(String nom) throws DnsException {
+    if (zones == null) {
+      throw new DnsException("Une seule zone est servie");
+    }
+    dns = zones.get(nom);
+    zoneCourante = nom;
+    return "Zone courante: " + nom + " (" + dns.size() + " entrées)";
+  }
+  
+  /**
+   * Returns the zone the commands apply to.
+   *
+   * @return the current zone name, or null if the interface serves a single store
+   */
+  public String getZoneCourante() {
+    return zoneCourante;
   }
   
   /**
@@ -43,10 +94,21 @@ public class DnsTUI {
    * @throws DnsException if the command cannot be parsed
    */
   public Commande nextCommande() throws DnsException {
+    String input = nextSaisie();
+    return input == null ? new CommandeQuitter() : parseCommande(input);
+  }
+  
+  /**
+   * Reads the next command line from user input, without parsing it.
+   *
+   * @return the trimmed command line, or null at the end of the input
+   * @throws DnsException if the line is empty
+   */
+  String nextSaisie() throws DnsException {
     System.out.print("> ");
     
     if (!scanner.hasNextLine()) {
-      return new CommandeQuitter();
+      return null;
     }
     
     String input = scanner.nextLine().trim();
@@ -55,7 +117,7 @@ public class DnsTUI {
       throw new DnsException("Commande vide");
     }
     
-    return parseCommande(input);
+    return input;
   }
   
   /**
@@ -65,8 +127,8 @@ public class DnsTUI {
    * @return the command object
    * @throws DnsException if the command cannot be parsed
    */
-  private Commande parseCommande(String input) throws DnsException {
-    String[] parts = input.split("\\s+");
+  Commande parseCommande(String input) throws DnsException {
+    String[] parts = ESPACES.split(input);
     
     // Quit commands
     if (parts[0].equalsIgnoreCase("quit") || parts[0].equalsIgnoreCase("exit")) {
@@ -78,11 +140,64 @@ public class DnsTUI {
       return new CommandeAide();
     }
     
+    // Statistics command
+    if (parts[0].equalsIgnoreCase("stats") && parts.length == 1) {
+      return new CommandeStatistiques(dns);
+    }
+    
+    // Memory statistics command: stats mem
+    if (parts[0].equalsIgnoreCase("stats") && parts.length == 2
+        && parts[1].equalsIgnoreCase("mem")) {
+      return new CommandeEmpreinteMemoire(dns);
+    }
+    
+    // Compressed index command: stats index
+    if (parts[0].equalsIgnoreCase("stats") && parts.length == 2
+        && parts[1].equalsIgnoreCase("index")) {
+      return new CommandeTailleIndex(dns);
+    }
+    
+    // Most queried command: top [n]
+    if (parts[0].equalsIgnoreCase("top")) {
+      return parseTopCommand(parts);
+    }
+    
     // List command: ls [-a] domain
     if (parts[0].equalsIgnoreCase("ls")) {
       return parseListCommand(parts);
     }
     
+    // Find command: find pattern
+    if (parts[0].equalsIgnoreCase("find")) {
+      return parseFindCommand(parts);
+    }
+    
+    // Import command: import --format=zone|hosts file
+    if (parts[0].equalsIgnoreCase("import")) {
+      return parseImportCommand(parts);
+    }
+    
+    // Export command: export file [--sorted-by=name|ip] [--domain=domain]
+    if (parts[0].equalsIgnoreCase("export")) {
+      return parseExportCommand(parts);
+    }
+    
+    // Bulk resolve command: resolve-many infile outfile
+    if (parts[0].equalsIgnoreCase("resolve-many")) {
+      if (parts.length != 3) {
+        throw new DnsException("Usage: resolve-many <fichier_entrée> <fichier_sortie>");
+      }
+      return new CommandeResolutionMasse(dns, parts[1], parts[2]);
+    }
+    
+    // Zone command: use zone
+    if (parts[0].equalsIgnoreCase("use")) {
+      if (parts.length != 2) {
+        throw new DnsException("Usage: use <zone>");
+      }
+      return new CommandeUtiliserZone(this, parts[1]);
+    }
+    
     // Add command: add ip machine_name
     if (parts[0].equalsIgnoreCase("add")) {
       return parseAddCommand(parts);
@@ -96,6 +211,33 @@ public class DnsTUI {
     throw new DnsException("Commande non reconnue: " + input);
   }
   
+  /**
+   * Parses a most queried command.
+   *
+   * @param parts the command parts
+   * @return the most queried command
+   * @throws DnsException if the command is invalid
+   */
+  private Commande parseTopCommand(String[] parts) throws DnsException {
+    String usage = "Usage: top [n]";
+    if (parts.length == 1) {
+      return new CommandeRequetesFrequentes(dns);
+    }
+    if (parts.length != 2) {
+      throw new DnsException(usage);
+    }
+    int nombre;
+    try {
+      nombre = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new DnsException(usage);
+    }
+    if (nombre < 1) {
+      throw new DnsException("Nombre invalide: " + parts[1]);
+    }
+    return new CommandeRequetesFrequentes(dns, nombre);
+  }
+  
   /**
    * Parses a list command.
    *
@@ -104,23 +246,97 @@ public class DnsTUI {
    * @throws DnsException if the command is invalid
    */
   private Commande parseListCommand(String[] parts) throws DnsException {
-    if (parts.length < 2) {
-      throw new DnsException("Usage: ls [-a] <domaine>");
+    String usage = "Usage: ls [-a] <domaine> [--limit <n> [--after <curseur>]]";
+    boolean sortByIp = parts.length > 1 && parts[1].equals("-a");
+    int position = sortByIp ? 2 : 1;
+    if (parts.length <= position || parts[position].startsWith("--")) {
+      throw new DnsException(usage);
     }
+    String domain = parts[position++];
     
-    boolean sortByIp = false;
-    String domain;
+    int limit = 0;
+    String after = null;
+    if (position + 1 < parts.length && parts[position].equals("--limit")) {
+      try {
+        limit = Integer.parseInt(parts[position + 1]);
+      } catch (NumberFormatException e) {
+        throw new DnsException(usage);
+      }
+      if (limit < 1) {
+        throw new DnsException("Limite invalide: " + parts[position + 1]);
+      }
+      position += 2;
+      if (position + 1 < parts.length && parts[position].equals("--after")) {
+        after = parts[position + 1];
+        position += 2;
+      }
+    }
+    if (position != parts.length) {
+      throw new DnsException(usage);
+    }
     
-    if (parts.length == 3 && parts[1].equals("-a")) {
-      sortByIp = true;
-      domain = parts[2];
-    } else if (parts.length == 2) {
-      domain = parts[1];
-    } else {
-      throw new DnsException("Usage: ls [-a] <domaine>");
+    return new CommandeListeDomaine(dns, domain, sortByIp, limit, after);
+  }
+  
+  /**
+   * Parses an import command.
+   *
+   * @param parts the command parts
+   * @return the import command
+   * @throws DnsException if the command is invalid
+   */
+  private Commande parseImportCommand(String[] parts) throws DnsException {
+    if (parts.length != 3 || !parts[1].startsWith("--format=")) {
+      throw new DnsException("Usage: import --format=zone|hosts <fichier>");
+    }
+    
+    return new CommandeImport(dns, parts[1].substring("--format=".length()), parts[2]);
+  }
+  
+  /**
+   * Parses an export command.
+   *
+   * @param parts the command parts
+   * @return the export command
+   * @throws DnsException if the command is invalid
+   */
+  private Commande parseExportCommand(String[] parts) throws DnsException {
+    String usage = "Usage: export <fichier> [--sorted-by=name|ip] [--domain=<domaine>]";
+    if (parts.length < 2 || parts.length > 4 || parts[1].startsWith("--")) {
+      throw new DnsException(usage);
+    }
+    
+    Exportateur.Tri tri = null;
+    String domain = null;
+    for (int i = 2; i < parts.length; i++) {
+      if (tri == null && parts[i].equalsIgnoreCase("--sorted-by=name")) {
+        tri = Exportateur.Tri.NOM;
+      } else if (tri == null && parts[i].equalsIgnoreCase("--sorted-by=ip")) {
+        tri = Exportateur.Tri.IP;
+      } else if (domain == null && parts[i].startsWith("--domain=")
+          && parts[i].length() > "--domain=".length()) {
+        domain = parts[i].substring("--domain=".length());
+      } else {
+        throw new DnsException(usage);
+      }
+    }
+    
+    return new CommandeExport(dns, parts[1], tri, domain);
+  }
+  
+  /**
+   * Parses a find command.
+   *
+   * @param parts the command parts
+   * @return the pattern search command
+   * @throws DnsException if the command is invalid
+   */
+  private Commande parseFindCommand(String[] parts) throws DnsException {
+    if (parts.length != 2) {
+      throw new DnsException("Usage: find <motif>");
     }
     
-    return new CommandeListeDomaine(dns, domain, sortByIp);
+    return new CommandeRechercheMotif(dns, parts[1]);
   }
   
   /**
@@ -157,13 +373,13 @@ public class DnsTUI {
   }
   
   /**
-   * Checks if a string is a valid IP address format.
+   * Checks if a string is a valid IPv4 or IPv6 address format.
    *
    * @param str the string to check
    * @return true if it's an IP address format
    */
   private boolean isIpAddress(String str) {
-    return IP_PATTERN.matcher(str).matches();
+    return AdresseIP.estValide(str);
   }
   
   /**
@@ -0,0 +1,253 @@
+package fr.uvsq.cprog.collex;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estimate of the heap retained by the structures of a DNS store, part by part.
+ *
+ * <p>Sizes are computed from a model of the object layout of the running JVM (header
+ * and reference sizes, alignment, compact strings) rather than from a heap dump or
+ * instrumentation: each structure walks its own nodes and adds their modelled sizes,
+ * which costs one pass over the entries and allocates nothing per entry. Objects shared
+ * between structures, such as the items referenced by every index, are counted once,
+ * in the part that owns them.
+ */
+public final class EmpreinteMemoire {
+  
+  /** Part holding the items, with their address, name and name characters. */
+  public static final String ENTREES = "entrées";
+  
+  /** Part holding the hash tries of the snapshot, by name and by address. */
+  public static final String INSTANTANE = "index de l'instantané";
+  
+  /** Part holding the sorted and reversed name indexes used by pattern searches. */
+  public static final String INDEX_ORDONNES = "index ordonnés";
+  
+  /** Part holding the trigram index used by suggestions. */
+  public static final String INDEX_TRIGRAMMES = "index trigrammes";
+  
+  /** Part holding the Bloom filters. */
+  public static final String FILTRES = "filtres de Bloom";
+  
+  /** Part holding the global address index of a partitioned store. */
+  public static final String INDEX_ADRESSES = "index global des adresses";
+  
+  /** Part holding the pages of a paged store kept in memory. */
+  public static final String POOL_PAGES = "pages en mémoire";
+  
+  /** Size of a reference field or array element. */
+  static final int REFERENCE;
+  
+  /** Size of an object header. */
+  static final int ENTETE;
+  
+  /** Size of an array header, including its length. */
+  static final int ENTETE_TABLEAU;
+  
+  /** Alignment of every object. */
+  static final int ALIGNEMENT;
+  
+  /** Whether strings of Latin-1 characters take one byte per character. */
+  static final boolean CHAINES_COMPACTES;
+  
+  static {
+    boolean referencesCompressees = Runtime.getRuntime().maxMemory() < (32L << 30);
+    boolean classesCompressees = referencesCompressees;
+    int alignement = 8;
+    boolean chainesCompactes = true;
+    try {
+      HotSpotDiagnosticMXBean options =
+          ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      referencesCompressees = Boolean.parseBoolean(
+          options.getVMOption("UseCompressedOops").getValue());
+      classesCompressees = Boolean.parseBoolean(
+          options.getVMOption("UseCompressedClassPointers").getValue());
+      alignement = Integer.parseInt(options.getVMOption("ObjectAlignmentInBytes").getValue());
+      chainesCompactes = Boolean.parseBoolean(options.getVMOption("CompactStrings").getValue());
+    } catch (RuntimeException | LinkageError e) {
+      // Not a HotSpot JVM: keep the defaults of a 64-bit JVM with a heap below 32 GB
+    }
+    REFERENCE = referencesCompressees ? 4 : 8;
+    ENTETE = classesCompressees ? 12 : 16;
+    ENTETE_TABLEAU = (int) aligner(ENTETE + 4, REFERENCE);
+    ALIGNEMENT = alignement;
+    CHAINES_COMPACTES = chainesCompactes;
+  }
+  
+  /** Fields of a String: value, hash, coder and hashIsZero. */
+  private static final long CHAINE = objet(1, 4 + 1 + 1);
+  
+  /** Fields of a HashMap node: hash, key, value and next. */
+  private static final long NOEUD_HACHAGE = objet(3, 4);
+  
+  private final Map<String, Long> parties;
+  private final int nombreEntrees;
+  
+  /**
+   * Creates an empty estimate.
+   *
+   * @param nombreEntrees the number of entries of the store
+   */
+  EmpreinteMemoire(int nombreEntrees) {
+    this.parties = new LinkedHashMap<>();
+    this.nombreEntrees = nombreEntrees;
+  }
+  
+  /**
+   * Adds bytes to a part of the estimate.
+   *
+   * @param partie the name of the part
+   * @param octets the bytes retained by the part
+   */
+  void ajouter(String partie, long octets) {
+    parties.merge(partie, octets, Long::sum);
+  }
+  
+  /**
+   * Returns the sum of this estimate and another one, part by part.
+   *
+   * @param autre the other estimate, possibly null
+   * @return the combined estimate
+   */
+  public EmpreinteMemoire plus(EmpreinteMemoire autre) {
+    if (autre == null) {
+      return this;
+    }
+    EmpreinteMemoire somme = new EmpreinteMemoire(nombreEntrees + autre.nombreEntrees);
+    parties.forEach(somme::ajouter);
+    autre.parties.forEach(somme::ajouter);
+    return somme;
+  }
+  
+  /**
+   * Returns the parts of the estimate, in the order they were added.
+   *
+   * @return an unmodifiable map of part names to bytes
+   */
+  public Map<String, Long> getParties() {
+    return Collections.unmodifiableMap(parties);
+  }
+  
+  /**
+   * Returns the bytes retained by a part.
+   *
+   * @param partie the name of the part
+   * @return the bytes, 0 if the part is absent
+   */
+  public long getOctets(String partie) {
+    return parties.getOrDefault(partie, 0L);
+  }
+  
+  /**
+   * Returns the bytes retained by all the parts.
+   *
+   * @return the total bytes
+   */
+  public long getTotal() {
+    long total = 0;
+    for (long octets : parties.values()) {
+      total += octets;
+    }
+    return total;
+  }
+  
+  /**
+   * Returns the number of entries of the store.
+   *
+   * @return the number of entries
+   */
+  public int getNombreEntrees() {
+    return nombreEntrees;
+  }
+  
+  /**
+   * Returns the average bytes retained per entry, all parts included.
+   *
+   * @return the bytes per entry, 0 for an empty store
+   */
+  public double getOctetsParEntree() {
+    return nombreEntrees == 0 ? 0 : (double) getTotal() / nombreEntrees;
+  }
+  
+  /**
+   * Returns the size of an object.
+   *
+   * @param references the number of reference fields
+   * @param primitifs the bytes of primitive fields
+   * @return the aligned size
+   */
+  static long objet(int references, int primitifs) {
+    return aligner(ENTETE + (long) references * REFERENCE + primitifs, ALIGNEMENT);
+  }
+  
+  /**
+   * Returns the size of an array.
+   *
+   * @param longueur the length of the array
+   * @param tailleElement the size of an element, {@link #REFERENCE} for objects
+   * @return the aligned size
+   */
+  static long tableau(long longueur, int tailleElement) {
+    return aligner(ENTETE_TABLEAU + longueur * tailleElement, ALIGNEMENT);
+  }
+  
+  /**
+   * Returns the size of a string with its characters.
+   *
+   * @param chaine the string
+   * @return the size of the string and its character array
+   */
+  static long chaine(String chaine) {
+    return CHAINE + tableau(chaine.length(), estLatin1(chaine) ? 1 : 2);
+  }
+  
+  /**
+   * Returns the size of the table and nodes of a HashMap, without keys nor values.
+   *
+   * @param taille the number of entries
+   * @return the size of the table and nodes
+   */
+  static long tableHachage(int taille) {
+    if (taille == 0) {
+      return 0;
+    }
+    long capacite = 16;
+    while (capacite * 3 / 4 < taille) {
+      capacite *= 2;
+    }
+    return tableau(capacite, REFERENCE) + taille * NOEUD_HACHAGE;
+  }
+  
+  /**
+   * Checks if a string is stored with one byte per character.
+   *
+   * @param chaine the string
+   * @return true if compact strings are enabled and every character is Latin-1
+   */
+  private static boolean estLatin1(String chaine) {
+    if (!CHAINES_COMPACTES) {
+      return false;
+    }
+    for (int i = 0; i < chaine.length(); i++) {
+      if (chaine.charAt(i) > 0xff) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Rounds a size up to a multiple of an alignment.
+   *
+   * @param taille the size
+   * @param alignement the alignment
+   * @return the aligned size
+   */
+  private static long aligner(long taille, int alignement) {
+    return (taille + alignement - 1) / alignement * alignement;
+  }
+}
@@ -0,0 +1,206 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes DNS entries to a file in the format of the database, one {@code name ip}
+ * line per entry.
+ *
+ * <p>When neither a domain nor an order is requested, the database file is copied by
+ * the file system with {@link FileChannel#transferTo}. Otherwise the entries are
+ * encoded straight into a direct buffer reused for the whole export, so no string is
+ * built per entry. The export is written to a temporary file moved over the target at
+ * the end, so a failed export leaves the target as it was.
+ */
+public class Exportateur {
+  
+  /** Size of the write buffer. */
+  static final int TAILLE_TAMPON = 64 * 1024;
+  
+  /** Order of the exported entries. */
+  public enum Tri {
+    /** Sorted by machine name. */
+    NOM,
+    /** Sorted by IP address. */
+    IP
+  }
+  
+  private static final Comparator<DnsItem> PAR_ADRESSE = Comparator
+      .comparing(DnsItem::getAdresseIp)
+      .thenComparing(DnsItem::getNomMachine);
+  
+  private final Dns dns;
+  private final ByteBuffer tampon;
+  
+  /**
+   * Creates an exporter for a DNS service.
+   *
+   * @param dns the DNS service
+   */
+  public Exportateur(Dns dns) {
+    this.dns = dns;
+    this.tampon = ByteBuffer.allocateDirect(TAILLE_TAMPON);
+  }
+  
+  /**
+   * Exports entries to a file, replacing it if it exists.
+   *
+   * @param cible the file to write
+   * @param tri the order of the entries, or null for the order of the database
+   * @param domaine the domain of the exported entries, or null for all entries
+   * @return the number of bytes written
+   * @throws DnsException if the file is one of the files of the service or cannot be
+   *     written
+   */
+  public long exporter(Path cible, Tri tri, String domaine) throws DnsException {
+    Path temporaire = null;
+    try {
+      for (Path fichier : dns.fichiersUtilises()) {
+        if (Files.exists(cible) && Files.exists(fichier) && Files.isSameFile(cible, fichier)) {
+          throw new DnsException("Le fichier " + cible + " est utilisé par le service");
+        }
+      }
+      temporaire = Files.createTempFile(cible.toAbsolutePath().getParent(),
+          cible.getFileName().toString(), ".tmp");
+      long octets;
+      try (FileChannel canal = FileChannel.open(temporaire, StandardOpenOption.WRITE)) {
+        octets = ecrire(canal, tri, domaine);
+      }
+      Files.move(temporaire, cible, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporaire = null;
+      return octets;
+    } catch (IOException e) {
+      throw new DnsException("Impossible d'écrire le fichier " + cible + ": " + e.getMessage());
+    } finally {
+      if (temporaire != null) {
+        try {
+          Files.deleteIfExists(temporaire);
+        } catch (IOException ignoree) {
+          // Nothing more to clean
+        }
+      }
+    }
+  }
+  
+  /**
+   * Writes the exported entries to a channel.
+   *
+   * @param canal the channel of the temporary file
+   * @param tri the order of the entries, or null
+   * @param domaine the domain of the entries, or null
+   * @return the number of bytes written
+   * @throws IOException if the file cannot be written
+   * @throws DnsException if the database file cannot be copied
+   */
+  private long ecrire(FileChannel canal, Tri tri, String domaine)
+      throws IOException, DnsException {
+    if (tri == null && domaine == null && !dns.estLectureSeule()) {
+      return dns.copierFichier(canal);
+    }
+    
+    tampon.clear();
+    for (DnsItem item : selectionner(tri, domaine)) {
+      ecrire(canal, item);
+    }
+    vider(canal);
+    return canal.position();
+  }
+  
+  /**
+   * Returns the entries to export, in order.
+   *
+   * @param tri the order of the entries, or null
+   * @param domaine the domain of the entries, or null
+   * @return the entries
+   */
+  private Iterable<DnsItem> selectionner(Tri tri, String domaine) {
+    if (domaine != null) {
+      return tri == Tri.IP ? dns.getItemsSortedByIp(domaine) : dns.getItems(domaine);
+    }
+    InstantaneDns instantane = dns.instantane();
+    if (tri == null) {
+      return instantane;
+    }
+    List<DnsItem> items = new ArrayList<>(instantane.size());
+    for (DnsItem item : instantane) {
+      items.add(item);
+    }
+    items.sort(tri == Tri.IP ? PAR_ADRESSE : Comparator.naturalOrder());
+    return items;
+  }
+  
+  /**
+   * Appends one entry to the buffer, writing the buffer out first if the entry may not
+   * fit.
+   *
+   * @param canal the channel of the file
+   * @param item the entry
+   * @throws IOException if the buffer cannot be written
+   */
+  private void ecrire(FileChannel canal, DnsItem item) throws IOException {
+    String nom = item.getNomMachine().getNomComplet();
+    // A character takes at most 3 bytes, an address at most 45 with the separators
+    if (tampon.remaining() < 3 * nom.length() + 47) {
+      vider(canal);
+      if (tampon.remaining() < 3 * nom.length() + 47) {
+        ecrireLong(canal, item);
+        return;
+      }
+    }
+    
+    for (int i = 0; i < nom.length(); i++) {
+      char c = nom.charAt(i);
+      if (c >= 0x80) {
+        // Rare non-ASCII name: lets the charset encode it
+        tampon.position(tampon.position() - i);
+        tampon.put(nom.getBytes(StandardCharsets.UTF_8));
+        break;
+      }
+      tampon.put((byte) c);
+    }
+    tampon.put((byte) ' ');
+    item.getAdresseIp().ecrire(tampon);
+    tampon.put((byte) '\n');
+  }
+  
+  /**
+   * Writes an entry too long for the buffer directly.
+   *
+   * @param canal the channel of the file
+   * @param item the entry
+   * @throws IOException if the entry cannot be written
+   */
+  private void ecrireLong(FileChannel canal, DnsItem item) throws IOException {
+    String ligne = item.getNomMachine().getNomComplet() + " "
+        + item.getAdresseIp().getAdresse() + "\n";
+    ByteBuffer octets = ByteBuffer.wrap(ligne.getBytes(StandardCharsets.UTF_8));
+    while (octets.hasRemaining()) {
+      canal.write(octets);
+    }
+  }
+  
+  /**
+   * Writes out the content of the buffer and clears it.
+   *
+   * @param canal the channel of the file
+   * @throws IOException if the buffer cannot be written
+   */
+  private void vider(FileChannel canal) throws IOException {
+    tampon.flip();
+    while (tampon.hasRemaining()) {
+      canal.write(tampon);
+    }
+    tampon.clear();
+  }
+}
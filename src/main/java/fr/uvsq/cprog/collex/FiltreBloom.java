@@ -0,0 +1,292 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter over 64-bit fingerprints, used to answer lookups of absent names and
+ * addresses without touching the main index. A negative answer is definite; a
+ * positive answer may be wrong with the configured probability, as long as the filter
+ * holds no more elements than its capacity.
+ *
+ * <p>Elements are added by a single writer at a time; queries need no lock and count
+ * how often the filter answered alone.
+ */
+public class FiltreBloom {
+  
+  private final AtomicLongArray bits;
+  private final long nombreBits;
+  private final int nombreHachages;
+  private final int capacite;
+  private volatile int nombreElements;
+  private final LongAdder requetes;
+  private final LongAdder rejets;
+  private final LongAdder fauxPositifs;
+  
+  /**
+   * Creates an empty filter sized for a number of elements and a false-positive rate.
+   *
+   * @param capacite the expected number of elements
+   * @param tauxFauxPositifs the false-positive probability at capacity, between 0 and 1
+   * @throws IllegalArgumentException if the capacity or the rate is out of range
+   */
+  public FiltreBloom(int capacite, double tauxFauxPositifs) {
+    if (capacite < 1) {
+      throw new IllegalArgumentException("Capacité invalide: " + capacite);
+    }
+    if (!(tauxFauxPositifs > 0 && tauxFauxPositifs < 1)) {
+      throw new IllegalArgumentException("Taux de faux positifs invalide: " + tauxFauxPositifs);
+    }
+    
+    double ln2 = Math.log(2);
+    long bitsOptimal = (long) Math.ceil(-capacite * Math.log(tauxFauxPositifs) / (ln2 * ln2));
+    int mots = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bitsOptimal + 63) / 64));
+    this.bits = new AtomicLongArray(mots);
+    this.nombreBits = 64L * mots;
+    this.nombreHachages = Math.max(1, (int) Math.round((double) nombreBits / capacite * ln2));
+    this.capacite = capacite;
+    this.requetes = new LongAdder();
+    this.rejets = new LongAdder();
+    this.fauxPositifs = new LongAdder();
+  }
+  
+  /**
+   * Returns the fingerprint of a machine name. The hash code of the qualified name is
+   * cached by the string, so repeated lookups of a name do not rehash it.
+   *
+   * @param nomMachine the machine name
+   * @return the fingerprint of the qualified name
+   */
+  public static long empreinte(NomMachine nomMachine) {
+    String nom = nomMachine.getNomComplet();
+    return ((long) nom.length() << 32) ^ nom.hashCode();
+  }
+  
+  /**
+   * Returns the fingerprint of an IP address.
+   *
+   * @param adresseIp the IP address
+   * @return a 64-bit hash of the address bits and family
+   */
+  public static long empreinte(AdresseIP adresseIp) {
+    long hash = adresseIp.getHaut() * 0x9e3779b97f4a7c15L + adresseIp.getBas();
+    return adresseIp.estIpv6() ? ~hash : hash;
+  }
+  
+  /**
+   * Adds a fingerprint to the filter. Must not be called by two threads at once.
+   *
+   * @param empreinte the fingerprint of the element
+   */
+  public void ajouter(long empreinte) {
+    long h1 = melanger(empreinte);
+    long h2 = (h1 >>> 32) | 1;
+    for (int i = 0; i < nombreHachages; i++) {
+      long bit = Long.remainderUnsigned(h1 + i * h2, nombreBits);
+      int mot = (int) (bit >>> 6);
+      long masque = 1L << bit;
+      long valeur = bits.get(mot);
+      if ((valeur & masque) == 0) {
+        bits.set(mot, valeur | masque);
+      }
+    }
+    nombreElements++;
+  }
+  
+  /**
+   * Checks if a fingerprint may have been added. The answer is counted in the
+   * statistics of the filter.
+   *
+   * @param empreinte the fingerprint of the element
+   * @return false if the element was definitely never added
+   */
+  public boolean peutContenir(long empreinte) {
+    requetes.increment();
+    long h1 = melanger(empreinte);
+    long h2 = (h1 >>> 32) | 1;
+    for (int i = 0; i < nombreHachages; i++) {
+      long bit = Long.remainderUnsigned(h1 + i * h2, nombreBits);
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        rejets.increment();
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Records that a positive answer of the filter was not confirmed by the index.
+   */
+  public void signalerFauxPositif() {
+    fauxPositifs.increment();
+  }
+  
+  /**
+   * Carries over the query counters of a filter this one replaces, so that the
+   * statistics survive a rebuild.
+   *
+   * @param ancien the replaced filter
+   */
+  void reprendreCompteurs(FiltreBloom ancien) {
+    requetes.add(ancien.requetes.sum());
+    rejets.add(ancien.rejets.sum());
+    fauxPositifs.add(ancien.fauxPositifs.sum());
+  }
+  
+  /**
+   * Checks if the filter holds more elements than it was sized for, so that its
+   * false-positive rate exceeds the configured one.
+   *
+   * @return true if the filter should be rebuilt larger
+   */
+  public boolean estSature() {
+    return nombreElements >= capacite;
+  }
+  
+  /**
+   * Returns the statistics of the filter.
+   *
+   * @return a copy of the counters
+   */
+  public Statistiques getStatistiques() {
+    return new Statistiques(capacite, nombreElements, nombreBits, requetes.sum(),
+        rejets.sum(), fauxPositifs.sum());
+  }
+  
+  /**
+   * Returns the heap retained by the filter, mostly its bit array.
+   *
+   * @return the estimated bytes
+   * @see EmpreinteMemoire
+   */
+  long tailleMemoire() {
+    return EmpreinteMemoire.objet(4, 8 + 3 * 4) + EmpreinteMemoire.objet(1, 0)
+        + EmpreinteMemoire.tableau(bits.length(), 8) + 3 * EmpreinteMemoire.objet(1, 8 + 4);
+  }
+  
+  /**
+   * Mixes the bits of a fingerprint (finalizer of MurmurHash3).
+   *
+   * @param valeur the fingerprint
+   * @return the mixed value
+   */
+  private static long melanger(long valeur) {
+    valeur ^= valeur >>> 33;
+    valeur *= 0xff51afd7ed558ccdL;
+    valeur ^= valeur >>> 33;
+    valeur *= 0xc4ceb9fe1a85ec53L;
+    valeur ^= valeur >>> 33;
+    return valeur;
+  }
+  
+  /**
+   * Counters of one or several Bloom filters.
+   */
+  public static final class Statistiques {
+    private final long capacite;
+    private final long nombreElements;
+    private final long nombreBits;
+    private final long requetes;
+    private final long rejets;
+    private final long fauxPositifs;
+    
+    Statistiques(long capacite, long nombreElements, long nombreBits, long requetes,
+        long rejets, long fauxPositifs) {
+      this.capacite = capacite;
+      this.nombreElements = nombreElements;
+      this.nombreBits = nombreBits;
+      this.requetes = requetes;
+      this.rejets = rejets;
+      this.fauxPositifs = fauxPositifs;
+    }
+    
+    /**
+     * Returns the sum of these counters and other ones.
+     *
+     * @param autres the other counters, possibly null
+     * @return the combined counters
+     */
+    public Statistiques plus(Statistiques autres) {
+      if (autres == null) {
+        return this;
+      }
+      return new Statistiques(capacite + autres.capacite,
+          nombreElements + autres.nombreElements, nombreBits + autres.nombreBits,
+          requetes + autres.requetes, rejets + autres.rejets,
+          fauxPositifs + autres.fauxPositifs);
+    }
+    
+    /**
+     * Returns the number of elements the filter was sized for.
+     *
+     * @return the number of elements the filter was sized for
+     */
+    public long getCapacite() {
+      return capacite;
+    }
+    
+    /**
+     * Returns the number of elements added.
+     *
+     * @return the number of elements added
+     */
+    public long getNombreElements() {
+      return nombreElements;
+    }
+    
+    /**
+     * Returns the size of the bit array.
+     *
+     * @return the size of the bit array
+     */
+    public long getNombreBits() {
+      return nombreBits;
+    }
+    
+    /**
+     * Returns the number of queries.
+     *
+     * @return the number of queries
+     */
+    public long getRequetes() {
+      return requetes;
+    }
+    
+    /**
+     * Returns the number of queries answered negatively by the filter.
+     *
+     * @return the number of queries answered negatively by the filter
+     */
+    public long getRejets() {
+      return rejets;
+    }
+    
+    /**
+     * Returns the number of positive answers not confirmed by the index.
+     *
+     * @return the number of positive answers not confirmed by the index
+     */
+    public long getFauxPositifs() {
+      return fauxPositifs;
+    }
+    
+    /**
+     * Returns the share of queries answered by the filter alone.
+     *
+     * @return the rejection rate, between 0 and 1
+     */
+    public double getTauxRejet() {
+      return requetes == 0 ? 0 : (double) rejets / requetes;
+    }
+    
+    /**
+     * Returns the share of queries of absent elements that the filter let through.
+     *
+     * @return the observed false-positive rate, between 0 and 1
+     */
+    public double getTauxFauxPositifs() {
+      long absents = rejets + fauxPositifs;
+      return absents == 0 ? 0 : (double) fauxPositifs / absents;
+    }
+  }
+}
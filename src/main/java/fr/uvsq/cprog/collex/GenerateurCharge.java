@@ -0,0 +1,298 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator replaying commands against a DNS service at a fixed rate.
+ *
+ * <p>The load is open loop: the i-th command is due at a fixed instant after the
+ * start, whatever the latency of the previous ones, and is picked up by the first
+ * free thread. Its latency is measured from the instant it was due, so that a stall
+ * of the service also counts for the commands that waited behind it (correcting the
+ * coordinated omission of closed-loop tools). The time spent executing each command
+ * is reported apart as the service time.
+ */
+public class GenerateurCharge {
+  
+  /** Default number of threads executing commands. */
+  public static final int NOMBRE_THREADS_DEFAUT = 16;
+  
+  /** Delay left before a due instant, spent yielding rather than sleeping. */
+  private static final long AVANCE_REVEIL_NS = 100_000;
+  
+  /** Delay between the creation of the threads and the first due instant. */
+  private static final long DELAI_DEMARRAGE_NS = 20_000_000;
+  
+  private final List<Commande> commandes;
+  private final double requetesParSeconde;
+  private final int nombreThreads;
+  
+  /**
+   * Creates a load generator.
+   *
+   * @param commandes the commands to execute, repeated in order
+   * @param requetesParSeconde the target rate
+   * @param nombreThreads the number of threads executing commands
+   * @throws IllegalArgumentException if there is no command or the rate or the number
+   *     of threads is not positive
+   */
+  public GenerateurCharge(List<Commande> commandes, double requetesParSeconde,
+      int nombreThreads) {
+    if (commandes.isEmpty()) {
+      throw new IllegalArgumentException("Aucune commande à rejouer");
+    }
+    if (!(requetesParSeconde > 0) || nombreThreads < 1) {
+      throw new IllegalArgumentException("Débit ou nombre de threads invalide");
+    }
+    this.commandes = new ArrayList<>(commandes);
+    this.requetesParSeconde = requetesParSeconde;
+    this.nombreThreads = nombreThreads;
+  }
+  
+  /**
+   * Parses a recorded command log: one command per line, as typed in the interface.
+   * Empty lines and lines starting with '#' are skipped.
+   *
+   * @param dns the DNS service the commands run against
+   * @param journal the reader of the log
+   * @return the commands, in order
+   * @throws DnsException if the log cannot be read or holds an invalid command
+   */
+  public static List<Commande> lireJournal(Dns dns, BufferedReader journal)
+      throws DnsException {
+    DnsTUI tui = new DnsTUI(dns, new Scanner(""));
+    List<Commande> commandes = new ArrayList<>();
+    int numero = 0;
+    try {
+      String ligne;
+      while ((ligne = journal.readLine()) != null) {
+        numero++;
+        ligne = ligne.trim();
+        if (ligne.isEmpty() || ligne.startsWith("#")) {
+          continue;
+        }
+        Commande commande = tui.parseCommande(ligne);
+        if (!(commande instanceof CommandeQuitter)) {
+          commandes.add(commande);
+        }
+      }
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le journal: " + e.getMessage());
+    } catch (DnsException e) {
+      throw new DnsException("Ligne " + numero + " du journal invalide: " + e.getMessage());
+    }
+    return commandes;
+  }
+  
+  /**
+   * Synthesizes lookups of the current entries, whose popularity follows a Zipf law:
+   * the entry of rank k is drawn with a probability proportional to 1/k^s. The mix is
+   * 45 % lookups by name, 45 % lookups by address and 10 % listings of the domain of
+   * the drawn entry. No entry is added, since additions would be saved to the database.
+   *
+   * @param dns the DNS service
+   * @param nombre the number of commands
+   * @param exposant the exponent s of the law, 0 for uniform lookups
+   * @param graine the seed of the random draws
+   * @return the commands
+   * @throws DnsException if the service has no entry
+   */
+  public static List<Commande> synthetiser(Dns dns, int nombre, double exposant, long graine)
+      throws DnsException {
+    List<DnsItem> items = new ArrayList<>(dns.getAllItems());
+    if (items.isEmpty()) {
+      throw new DnsException("Aucune entrée pour générer des requêtes");
+    }
+    Random aleatoire = new Random(graine);
+    // Popularity must not depend on the iteration order of the index
+    Collections.shuffle(items, aleatoire);
+    
+    double[] repartition = new double[items.size()];
+    double somme = 0;
+    for (int k = 0; k < repartition.length; k++) {
+      somme += 1 / Math.pow(k + 1, exposant);
+      repartition[k] = somme;
+    }
+    
+    List<Commande> commandes = new ArrayList<>(nombre);
+    for (int i = 0; i < nombre; i++) {
+      int rang = Arrays.binarySearch(repartition, aleatoire.nextDouble() * somme);
+      DnsItem item = items.get(rang >= 0 ? rang : Math.min(-rang - 1, items.size() - 1));
+      double tirage = aleatoire.nextDouble();
+      if (tirage < 0.45) {
+        commandes.add(new CommandeRechercheParNom(dns, item.getNomMachine().getNomComplet()));
+      } else if (tirage < 0.9) {
+        commandes.add(new CommandeRechercheParIp(dns, item.getAdresseIp().getAdresse()));
+      } else {
+        commandes.add(new CommandeListeDomaine(dns, item.getDomaine(), false));
+      }
+    }
+    return commandes;
+  }
+  
+  /**
+   * Executes commands at the target rate for a duration.
+   *
+   * @param secondes the duration of the run
+   * @return the measures of the run
+   */
+  public Rapport executer(double secondes) {
+    long total = Math.max(1, (long) (secondes * requetesParSeconde));
+    double intervalle = 1e9 / requetesParSeconde;
+    AtomicLong prochaine = new AtomicLong();
+    AtomicLong erreurs = new AtomicLong();
+    HistogrammeLatences[] latences = new HistogrammeLatences[nombreThreads];
+    HistogrammeLatences[] services = new HistogrammeLatences[nombreThreads];
+    Thread[] threads = new Thread[nombreThreads];
+    long debut = System.nanoTime() + DELAI_DEMARRAGE_NS;
+    
+    for (int t = 0; t < nombreThreads; t++) {
+      HistogrammeLatences latence = new HistogrammeLatences();
+      HistogrammeLatences service = new HistogrammeLatences();
+      latences[t] = latence;
+      services[t] = service;
+      threads[t] = new Thread(() -> {
+        long i;
+        while ((i = prochaine.getAndIncrement()) < total) {
+          long prevue = debut + (long) (i * intervalle);
+          attendre(prevue);
+          long lancement = System.nanoTime();
+          try {
+            commandes.get((int) (i % commandes.size())).execute();
+          } catch (DnsException | RuntimeException e) {
+            erreurs.incrementAndGet();
+          }
+          long fin = System.nanoTime();
+          latence.enregistrer(fin - prevue);
+          service.enregistrer(fin - lancement);
+        }
+      }, "dns-charge-" + t);
+      threads[t].start();
+    }
+    
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    long duree = System.nanoTime() - debut;
+    
+    HistogrammeLatences latence = new HistogrammeLatences();
+    HistogrammeLatences service = new HistogrammeLatences();
+    for (int t = 0; t < nombreThreads; t++) {
+      latence.ajouter(latences[t]);
+      service.ajouter(services[t]);
+    }
+    return new Rapport(requetesParSeconde, duree, erreurs.get(), latence, service);
+  }
+  
+  /**
+   * Waits until an instant, sleeping while it is far and yielding just before.
+   *
+   * @param echeance the instant, in the time base of {@link System#nanoTime()}
+   */
+  private static void attendre(long echeance) {
+    long reste;
+    while ((reste = echeance - System.nanoTime()) > AVANCE_REVEIL_NS) {
+      LockSupport.parkNanos(reste - AVANCE_REVEIL_NS);
+    }
+    while (echeance - System.nanoTime() > 0) {
+      Thread.yield();
+    }
+  }
+  
+  /**
+   * Measures of a run of the load generator.
+   */
+  public static final class Rapport {
+    private final double cible;
+    private final long dureeNanos;
+    private final long erreurs;
+    private final HistogrammeLatences latences;
+    private final HistogrammeLatences services;
+    
+    Rapport(double cible, long dureeNanos, long erreurs, HistogrammeLatences latences,
+        HistogrammeLatences services) {
+      this.cible = cible;
+      this.dureeNanos = dureeNanos;
+      this.erreurs = erreurs;
+      this.latences = latences;
+      this.services = services;
+    }
+    
+    /**
+     * Returns the number of executed commands.
+     *
+     * @return the number of executed commands
+     */
+    public long getNombre() {
+      return latences.getNombre();
+    }
+    
+    /**
+     * Returns the number of commands that failed, such as additions of an existing
+     * entry.
+     *
+     * @return the number of failed commands
+     */
+    public long getErreurs() {
+      return erreurs;
+    }
+    
+    /**
+     * Returns the achieved rate.
+     *
+     * @return the number of commands per second
+     */
+    public double getDebit() {
+      return dureeNanos <= 0 ? 0 : getNombre() * 1e9 / dureeNanos;
+    }
+    
+    /**
+     * Returns the latencies measured from the instants the commands were due.
+     *
+     * @return the histogram of the latencies
+     */
+    public HistogrammeLatences getLatences() {
+      return latences;
+    }
+    
+    /**
+     * Returns the times spent executing the commands.
+     *
+     * @return the histogram of the service times
+     */
+    public HistogrammeLatences getServices() {
+      return services;
+    }
+    
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "Requêtes: %d en %.1f s (%.0f req/s pour une cible de %.0f req/s), %d erreur(s)\n"
+          + "Latence: %s\nTemps de service: %s",
+          getNombre(), dureeNanos / 1e9, getDebit(), cible, erreurs,
+          decrire(latences), decrire(services));
+    }
+    
+    private static String decrire(HistogrammeLatences histogramme) {
+      return String.format(Locale.ROOT,
+          "p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs, max %.1f µs",
+          histogramme.getCentile(50) / 1e3, histogramme.getCentile(99) / 1e3,
+          histogramme.getCentile(99.9) / 1e3, histogramme.getMaximum() / 1e3);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Histogram of latencies in nanoseconds, with a relative precision better than 2 %
+ * from the nanosecond to the longest durations. Values below 128 have their own
+ * bucket; above, each power of two is split in 64 buckets of equal width.
+ *
+ * <p>Not thread-safe: each thread records into its own histogram, and the histograms
+ * are merged at the end.
+ */
+public class HistogrammeLatences {
+  
+  private static final int BITS_SOUS_SEAUX = 6;
+  private static final int SOUS_SEAUX = 1 << BITS_SOUS_SEAUX;
+  private static final int NOMBRE_SEAUX = SOUS_SEAUX * (64 - BITS_SOUS_SEAUX);
+  
+  private final long[] seaux;
+  private long nombre;
+  private long maximum;
+  
+  /**
+   * Creates an empty histogram.
+   */
+  public HistogrammeLatences() {
+    this.seaux = new long[NOMBRE_SEAUX];
+  }
+  
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds, negative values counting as 0
+   */
+  public void enregistrer(long nanos) {
+    long valeur = Math.max(0, nanos);
+    seaux[seau(valeur)]++;
+    nombre++;
+    maximum = Math.max(maximum, valeur);
+  }
+  
+  /**
+   * Adds the latencies recorded by another histogram to this one.
+   *
+   * @param autre the other histogram
+   */
+  public void ajouter(HistogrammeLatences autre) {
+    for (int i = 0; i < NOMBRE_SEAUX; i++) {
+      seaux[i] += autre.seaux[i];
+    }
+    nombre += autre.nombre;
+    maximum = Math.max(maximum, autre.maximum);
+  }
+  
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return the number of recorded latencies
+   */
+  public long getNombre() {
+    return nombre;
+  }
+  
+  /**
+   * Returns the highest recorded latency.
+   *
+   * @return the highest latency in nanoseconds, or 0 if none was recorded
+   */
+  public long getMaximum() {
+    return maximum;
+  }
+  
+  /**
+   * Returns the latency below which a share of the recorded latencies fall.
+   *
+   * @param centile the share, between 0 and 100
+   * @return the upper bound of the bucket of that latency in nanoseconds, at most the
+   *     highest recorded latency, or 0 if none was recorded
+   */
+  public long getCentile(double centile) {
+    long rang = Math.max(1, (long) Math.ceil(centile / 100 * nombre));
+    long cumul = 0;
+    for (int i = 0; i < NOMBRE_SEAUX; i++) {
+      cumul += seaux[i];
+      if (cumul >= rang) {
+        return Math.min(borneSuperieure(i), maximum);
+      }
+    }
+    return maximum;
+  }
+  
+  /**
+   * Returns the bucket of a value.
+   *
+   * @param valeur the non-negative value
+   * @return the index of its bucket
+   */
+  private static int seau(long valeur) {
+    if (valeur < 2 * SOUS_SEAUX) {
+      return (int) valeur;
+    }
+    int exposant = 63 - Long.numberOfLeadingZeros(valeur) - BITS_SOUS_SEAUX;
+    return SOUS_SEAUX * (exposant + 1) + (int) (valeur >>> exposant) - SOUS_SEAUX;
+  }
+  
+  /**
+   * Returns the highest value of a bucket.
+   *
+   * @param seau the index of the bucket
+   * @return the highest value falling in the bucket
+   */
+  private static long borneSuperieure(int seau) {
+    if (seau < 2 * SOUS_SEAUX) {
+      return seau;
+    }
+    int exposant = seau / SOUS_SEAUX - 1;
+    long debut = (long) (SOUS_SEAUX + seau % SOUS_SEAUX) << exposant;
+    return debut + (1L << exposant) - 1;
+  }
+}
@@ -0,0 +1,693 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only compressed index of DNS entries, answering lookups and sorted iterations
+ * without decoding the whole index.
+ *
+ * <p>Names are stored with their labels reversed ({@code www.uvsq.fr} becomes
+ * {@code fr.uvsq.www}) and sorted, so that the names of a domain are contiguous and
+ * share their prefix. Each name stores only the length of the prefix it shares with
+ * the previous one and the remaining bytes. Addresses are sorted and each one stores
+ * only its difference with the previous one. Both lists are cut in blocks of
+ * {@value #TAILLE_BLOC} entries starting with a full entry (a restart point), and the
+ * offsets of the restart points allow a binary search. Each entry also stores the
+ * rank of its counterpart in the other list.
+ *
+ * <p>The whole index is a single buffer: a header, the restart offsets of names and
+ * addresses, then the encoded names and addresses. All integers in the entries are
+ * unsigned variable-length integers, 7 bits per byte.
+ */
+public final class IndexCompresse {
+  
+  /** Number of entries per block. */
+  static final int TAILLE_BLOC = 16;
+  
+  private static final int MAGIQUE = 0x444e5343;
+  private static final int VERSION = 1;
+  private static final int TAILLE_ENTETE = 32;
+  
+  private final ByteBuffer donnees;
+  private final int nombre;
+  private final int nombreBlocs;
+  private final int restartsNoms;
+  private final int restartsAdresses;
+  
+  /**
+   * Creates an index over an encoded buffer.
+   *
+   * @param donnees the buffer, positioned at the header
+   * @throws IllegalArgumentException if the buffer does not hold an index
+   */
+  private IndexCompresse(ByteBuffer donnees) {
+    this.donnees = donnees.slice();
+    if (this.donnees.capacity() < TAILLE_ENTETE || this.donnees.getInt(0) != MAGIQUE
+        || this.donnees.getInt(4) != VERSION || this.donnees.getInt(12) != TAILLE_BLOC
+        || this.donnees.getInt(24) != this.donnees.capacity() || this.donnees.getInt(8) < 0) {
+      throw new IllegalArgumentException("Index compressé invalide");
+    }
+    this.nombre = this.donnees.getInt(8);
+    this.nombreBlocs = (nombre + TAILLE_BLOC - 1) / TAILLE_BLOC;
+    if (this.donnees.getInt(16) != TAILLE_ENTETE + 8L * nombreBlocs
+        || this.donnees.getInt(20) < this.donnees.getInt(16)
+        || this.donnees.getInt(20) > this.donnees.capacity()) {
+      throw new IllegalArgumentException("Index compressé invalide");
+    }
+    this.restartsNoms = TAILLE_ENTETE;
+    this.restartsAdresses = TAILLE_ENTETE + 4 * nombreBlocs;
+  }
+  
+  /**
+   * Builds the compressed index of entries.
+   *
+   * @param items the entries, with distinct names and distinct addresses
+   * @return the index
+   */
+  public static IndexCompresse construire(Iterable<DnsItem> items) {
+    List<Entree> parNom = new ArrayList<>();
+    for (DnsItem item : items) {
+      parNom.add(new Entree(item));
+    }
+    parNom.sort((e1, e2) -> Arrays.compareUnsigned(e1.cle, e2.cle));
+    List<Entree> parAdresse = new ArrayList<>(parNom);
+    parAdresse.sort(Comparator.comparing(e -> e.item.getAdresseIp()));
+    for (int i = 0; i < parNom.size(); i++) {
+      parNom.get(i).rangNom = i;
+      parAdresse.get(i).rangAdresse = i;
+    }
+    
+    int nombre = parNom.size();
+    int nombreBlocs = (nombre + TAILLE_BLOC - 1) / TAILLE_BLOC;
+    int[] offsetsNoms = new int[nombreBlocs];
+    int[] offsetsAdresses = new int[nombreBlocs];
+    ByteArrayOutputStream noms = new ByteArrayOutputStream();
+    ByteArrayOutputStream adresses = new ByteArrayOutputStream();
+    
+    byte[] precedente = new byte[0];
+    for (int i = 0; i < nombre; i++) {
+      Entree entree = parNom.get(i);
+      int partage = 0;
+      if (i % TAILLE_BLOC == 0) {
+        offsetsNoms[i / TAILLE_BLOC] = noms.size();
+      } else {
+        int max = Math.min(precedente.length, entree.cle.length);
+        while (partage < max && precedente[partage] == entree.cle[partage]) {
+          partage++;
+        }
+      }
+      ecrireVarint(noms, partage);
+      ecrireVarint(noms, entree.cle.length - partage);
+      noms.write(entree.cle, partage, entree.cle.length - partage);
+      ecrireVarint(noms, entree.rangAdresse);
+      precedente = entree.cle;
+    }
+    
+    AdresseIP anterieure = null;
+    for (int i = 0; i < nombre; i++) {
+      Entree entree = parAdresse.get(i);
+      AdresseIP adresse = entree.item.getAdresseIp();
+      if (i % TAILLE_BLOC == 0) {
+        offsetsAdresses[i / TAILLE_BLOC] = adresses.size();
+        anterieure = null;
+      }
+      long ecart = anterieure == null ? -1 : adresse.getBas() - anterieure.getBas();
+      if (anterieure != null && anterieure.estIpv6() == adresse.estIpv6()
+          && anterieure.getHaut() == adresse.getHaut() && ecart > 0) {
+        ecrireVarint(adresses, ecart << 1);
+      } else {
+        ecrireVarint(adresses, 1);
+        adresses.write(adresse.estIpv6() ? 6 : 4);
+        ecrireVarint(adresses, adresse.getHaut());
+        ecrireVarint(adresses, adresse.getBas());
+      }
+      ecrireVarint(adresses, entree.rangNom);
+      anterieure = adresse;
+    }
+    
+    int debutNoms = TAILLE_ENTETE + 8 * nombreBlocs;
+    int debutAdresses = debutNoms + noms.size();
+    ByteBuffer donnees = ByteBuffer.allocate(debutAdresses + adresses.size());
+    donnees.putInt(MAGIQUE).putInt(VERSION).putInt(nombre).putInt(TAILLE_BLOC)
+        .putInt(debutNoms).putInt(debutAdresses).putInt(donnees.capacity()).putInt(0);
+    for (int offset : offsetsNoms) {
+      donnees.putInt(debutNoms + offset);
+    }
+    for (int offset : offsetsAdresses) {
+      donnees.putInt(debutAdresses + offset);
+    }
+    donnees.put(noms.toByteArray()).put(adresses.toByteArray());
+    donnees.flip();
+    return new IndexCompresse(donnees);
+  }
+  
+  /**
+   * Reads an index written by {@link #ecrire(WritableByteChannel)}, without copying
+   * nor decoding it. The buffer may be a mapped file, which then stays mapped as long
+   * as the index is used.
+   *
+   * @param donnees the buffer, positioned at the start of the index
+   * @return the index over the buffer
+   * @throws IllegalArgumentException if the buffer does not hold an index
+   */
+  public static IndexCompresse lire(ByteBuffer donnees) {
+    return new IndexCompresse(donnees);
+  }
+  
+  /**
+   * Writes the encoded index to a channel.
+   *
+   * @param canal the channel to write to
+   * @throws IOException if the channel cannot be written
+   */
+  public void ecrire(WritableByteChannel canal) throws IOException {
+    ByteBuffer copie = donnees.duplicate();
+    copie.clear();
+    while (copie.hasRemaining()) {
+      canal.write(copie);
+    }
+  }
+  
+  /**
+   * Returns the number of entries.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return nombre;
+  }
+  
+  /**
+   * Returns the size of the encoded index.
+   *
+   * @return the size in bytes, restart offsets included
+   */
+  public int getTaille() {
+    return donnees.capacity();
+  }
+  
+  /**
+   * Returns the average size of an entry in the index.
+   *
+   * @return the number of bytes per entry, or 0 if the index is empty
+   */
+  public double getOctetsParEntree() {
+    return nombre == 0 ? 0 : (double) getTaille() / nombre;
+  }
+  
+  /**
+   * Looks up an entry by machine name.
+   *
+   * @param nomMachine the machine name
+   * @return the entry, or null if the name is absent
+   */
+  public DnsItem getItem(NomMachine nomMachine) {
+    byte[] cle = cle(nomMachine.getNomComplet());
+    Curseur curseur = chercherNom(cle);
+    if (!curseur.valide() || curseur.comparer(cle) != 0) {
+      return null;
+    }
+    return new DnsItem(adresse(curseur.rang), nomMachine);
+  }
+  
+  /**
+   * Looks up an entry by IP address.
+   *
+   * @param adresseIp the IP address
+   * @return the entry, or null if the address is absent
+   */
+  public DnsItem getItem(AdresseIP adresseIp) {
+    int bloc = dernierBloc(nombreBlocs,
+        b -> comparerAdresse(restart(restartsAdresses, b), adresseIp));
+    if (bloc < 0) {
+      return null;
+    }
+    CurseurAdresses curseur = new CurseurAdresses(bloc);
+    for (int i = 0; i < TAILLE_BLOC && curseur.suivante(); i++) {
+      int comparaison = curseur.comparer(adresseIp);
+      if (comparaison == 0) {
+        return new DnsItem(adresseIp, nom(curseur.rang));
+      }
+      if (comparaison > 0) {
+        break;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Returns the entries of a domain, read from the contiguous range of names ending
+   * with it.
+   *
+   * @param domaine the domain name
+   * @return the entries whose domain is exactly the given one, sorted by name
+   */
+  public List<DnsItem> getItems(String domaine) {
+    List<DnsItem> items = new ArrayList<>();
+    String domaineInverse = inverser(domaine.trim().toLowerCase());
+    byte[] prefixe = (domaineInverse + ".").getBytes(StandardCharsets.UTF_8);
+    Curseur curseur = chercherNom(prefixe);
+    while (curseur.valide()) {
+      int comparaison = curseur.comparerPrefixe(prefixe);
+      if (comparaison > 0) {
+        break;
+      }
+      if (comparaison == 0 && !curseur.contientPoint(prefixe.length)) {
+        items.add(curseur.item());
+      }
+      curseur.suivante();
+    }
+    Collections.sort(items);
+    return items;
+  }
+  
+  /**
+   * Iterates over the entries in the order of their reversed names, so that the
+   * entries of a domain and of its subdomains come together.
+   *
+   * @return an iterator decoding the entries one at a time
+   */
+  public Iterator<DnsItem> parNom() {
+    Curseur curseur = new Curseur(0);
+    if (nombre > 0) {
+      curseur.suivante();
+    }
+    return new Iterator<DnsItem>() {
+      @Override
+      public boolean hasNext() {
+        return curseur.valide();
+      }
+      
+      @Override
+      public DnsItem next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        DnsItem item = curseur.item();
+        curseur.suivante();
+        return item;
+      }
+    };
+  }
+  
+  /**
+   * Iterates over the entries in the order of their IP addresses.
+   *
+   * @return an iterator decoding the entries one at a time
+   */
+  public Iterator<DnsItem> parAdresse() {
+    CurseurAdresses curseur = new CurseurAdresses(0);
+    return new Iterator<DnsItem>() {
+      private boolean lue = nombre > 0 && curseur.suivante();
+      
+      @Override
+      public boolean hasNext() {
+        return lue;
+      }
+      
+      @Override
+      public DnsItem next() {
+        if (!lue) {
+          throw new NoSuchElementException();
+        }
+        DnsItem item = new DnsItem(curseur.adresse(), nom(curseur.rang));
+        lue = curseur.suivante();
+        return item;
+      }
+    };
+  }
+  
+  /**
+   * Positions a cursor on the first name greater than or equal to a key.
+   *
+   * @param cle the reversed name
+   * @return the cursor, past the last name if the key is greater than all names
+   */
+  private Curseur chercherNom(byte[] cle) {
+    int bloc = dernierBloc(nombreBlocs, b -> {
+      int position = restart(restartsNoms, b);
+      position = sauterVarint(position);
+      int longueur = (int) lireVarint(position);
+      return comparerOctets(sauterVarint(position), longueur, cle);
+    });
+    Curseur curseur = new Curseur(Math.max(bloc, 0));
+    curseur.suivante();
+    // Stops at the latest on the first name of the next block
+    while (curseur.valide() && curseur.comparer(cle) < 0) {
+      curseur.suivante();
+    }
+    return curseur;
+  }
+  
+  /**
+   * Returns the machine name of a rank in the name order.
+   *
+   * @param rang the rank
+   * @return the machine name
+   */
+  private NomMachine nom(int rang) {
+    Curseur curseur = new Curseur(rang / TAILLE_BLOC);
+    curseur.suivante();
+    while (curseur.index < rang) {
+      curseur.suivante();
+    }
+    return curseur.nom();
+  }
+  
+  /**
+   * Returns the IP address of a rank in the address order.
+   *
+   * @param rang the rank
+   * @return the IP address
+   */
+  private AdresseIP adresse(int rang) {
+    CurseurAdresses curseur = new CurseurAdresses(rang / TAILLE_BLOC);
+    curseur.suivante();
+    while (curseur.index < rang) {
+      curseur.suivante();
+    }
+    return curseur.adresse();
+  }
+  
+  /**
+   * Returns the last block whose first entry is lower than or equal to the searched
+   * one.
+   *
+   * @param blocs the number of blocks
+   * @param comparaison compares the first entry of a block with the searched one
+   * @return the block, or -1 if the searched entry is lower than all entries
+   */
+  private static int dernierBloc(int blocs, ComparaisonBloc comparaison) {
+    int bas = 0;
+    int haut = blocs - 1;
+    int trouve = -1;
+    while (bas <= haut) {
+      int milieu = (bas + haut) >>> 1;
+      if (comparaison.comparer(milieu) <= 0) {
+        trouve = milieu;
+        bas = milieu + 1;
+      } else {
+        haut = milieu - 1;
+      }
+    }
+    return trouve;
+  }
+  
+  /**
+   * Returns the offset of the first entry of a block.
+   *
+   * @param table the offset of the restart table
+   * @param bloc the block
+   * @return the offset of the entry
+   */
+  private int restart(int table, int bloc) {
+    return donnees.getInt(table + 4 * bloc);
+  }
+  
+  /**
+   * Compares the full address that starts a block with an address, in the order of
+   * {@link AdresseIP#compareTo}.
+   *
+   * @param position the offset of the entry
+   * @param adresseIp the address
+   * @return a negative, zero or positive value as the entry is lower, equal or greater
+   */
+  private int comparerAdresse(int position, AdresseIP adresseIp) {
+    position = sauterVarint(position);
+    boolean ipv6 = donnees.get(position) == 6;
+    if (ipv6 != adresseIp.estIpv6()) {
+      return ipv6 ? 1 : -1;
+    }
+    position++;
+    int comparaison = Long.compareUnsigned(lireVarint(position), adresseIp.getHaut());
+    if (comparaison != 0) {
+      return comparaison;
+    }
+    return Long.compareUnsigned(lireVarint(sauterVarint(position)), adresseIp.getBas());
+  }
+  
+  /**
+   * Compares bytes of the buffer with a key, as unsigned bytes.
+   *
+   * @param position the offset of the bytes
+   * @param longueur the number of bytes
+   * @param cle the key
+   * @return a negative, zero or positive value as the bytes are lower, equal or greater
+   */
+  private int comparerOctets(int position, int longueur, byte[] cle) {
+    int max = Math.min(longueur, cle.length);
+    for (int i = 0; i < max; i++) {
+      int comparaison = Byte.compareUnsigned(donnees.get(position + i), cle[i]);
+      if (comparaison != 0) {
+        return comparaison;
+      }
+    }
+    return Integer.compare(longueur, cle.length);
+  }
+  
+  /**
+   * Reads a variable-length integer.
+   *
+   * @param position the offset of the integer
+   * @return the value
+   */
+  private long lireVarint(int position) {
+    long valeur = 0;
+    for (int decalage = 0; ; decalage += 7) {
+      byte octet = donnees.get(position++);
+      valeur |= (long) (octet & 0x7f) << decalage;
+      if (octet >= 0) {
+        return valeur;
+      }
+    }
+  }
+  
+  /**
+   * Returns the offset after a variable-length integer.
+   *
+   * @param position the offset of the integer
+   * @return the offset of the next field
+   */
+  private int sauterVarint(int position) {
+    while (donnees.get(position) < 0) {
+      position++;
+    }
+    return position + 1;
+  }
+  
+  /**
+   * Writes a variable-length integer.
+   *
+   * @param sortie the stream to write to
+   * @param valeur the value, treated as unsigned
+   */
+  private static void ecrireVarint(ByteArrayOutputStream sortie, long valeur) {
+    while ((valeur & ~0x7fL) != 0) {
+      sortie.write((int) (valeur & 0x7f) | 0x80);
+      valeur >>>= 7;
+    }
+    sortie.write((int) valeur);
+  }
+  
+  /**
+   * Returns the key of a name: its labels in reverse order, in UTF-8.
+   *
+   * @param nom the qualified name
+   * @return the key
+   */
+  static byte[] cle(String nom) {
+    return inverser(nom).getBytes(StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * Reverses the order of the labels of a name. The operation is its own inverse.
+   *
+   * @param nom the name
+   * @return the name with its labels reversed
+   */
+  static String inverser(String nom) {
+    StringBuilder sb = new StringBuilder(nom.length());
+    int fin = nom.length();
+    for (int i = nom.length() - 1; i >= -1; i--) {
+      if (i < 0 || nom.charAt(i) == '.') {
+        sb.append(nom, i + 1, fin);
+        if (i >= 0) {
+          sb.append('.');
+        }
+        fin = i;
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Compares the first entry of a block with the searched entry.
+   */
+  @FunctionalInterface
+  private interface ComparaisonBloc {
+    int comparer(int bloc);
+  }
+  
+  /**
+   * An entry being encoded.
+   */
+  private static final class Entree {
+    private final DnsItem item;
+    private final byte[] cle;
+    private int rangNom;
+    private int rangAdresse;
+    
+    Entree(DnsItem item) {
+      this.item = item;
+      this.cle = cle(item.getNomMachine().getNomComplet());
+    }
+  }
+  
+  /**
+   * Sequential decoder of the names, rebuilding each key from the previous one.
+   */
+  private final class Curseur {
+    private int position;
+    private int index;
+    private byte[] cle;
+    private int longueur;
+    private int rang;
+    
+    /**
+     * Creates a cursor before the first entry of a block.
+     *
+     * @param bloc the block
+     */
+    Curseur(int bloc) {
+      this.index = bloc * TAILLE_BLOC - 1;
+      this.position = nombre == 0 ? 0 : restart(restartsNoms, bloc);
+      this.cle = new byte[64];
+    }
+    
+    boolean valide() {
+      return index >= 0 && index < nombre;
+    }
+    
+    /**
+     * Decodes the next entry.
+     */
+    void suivante() {
+      index++;
+      if (index >= nombre) {
+        return;
+      }
+      int partage = (int) lireVarint(position);
+      position = sauterVarint(position);
+      int suffixe = (int) lireVarint(position);
+      position = sauterVarint(position);
+      longueur = partage + suffixe;
+      if (cle.length < longueur) {
+        cle = Arrays.copyOf(cle, Math.max(longueur, 2 * cle.length));
+      }
+      donnees.get(position, cle, partage, suffixe);
+      position += suffixe;
+      rang = (int) lireVarint(position);
+      position = sauterVarint(position);
+    }
+    
+    int comparer(byte[] autre) {
+      return Arrays.compareUnsigned(cle, 0, longueur, autre, 0, autre.length);
+    }
+    
+    int comparerPrefixe(byte[] prefixe) {
+      int max = Math.min(longueur, prefixe.length);
+      int comparaison = Arrays.compareUnsigned(cle, 0, max, prefixe, 0, max);
+      return comparaison != 0 || longueur >= prefixe.length ? comparaison : -1;
+    }
+    
+    boolean contientPoint(int debut) {
+      for (int i = debut; i < longueur; i++) {
+        if (cle[i] == '.') {
+          return true;
+        }
+      }
+      return false;
+    }
+    
+    NomMachine nom() {
+      return new NomMachine(inverser(new String(cle, 0, longueur, StandardCharsets.UTF_8)));
+    }
+    
+    DnsItem item() {
+      return new DnsItem(adresse(rang), nom());
+    }
+  }
+  
+  /**
+   * Sequential decoder of the addresses, adding each difference to the previous
+   * address.
+   */
+  private final class CurseurAdresses {
+    private int position;
+    private int index;
+    private boolean ipv6;
+    private long haut;
+    private long bas;
+    private int rang;
+    
+    /**
+     * Creates a cursor before the first entry of a block.
+     *
+     * @param bloc the block
+     */
+    CurseurAdresses(int bloc) {
+      this.index = bloc * TAILLE_BLOC - 1;
+      this.position = nombre == 0 ? 0 : restart(restartsAdresses, bloc);
+    }
+    
+    /**
+     * Decodes the next entry.
+     *
+     * @return false if there is no next entry
+     */
+    boolean suivante() {
+      if (index + 1 >= nombre) {
+        return false;
+      }
+      index++;
+      long code = lireVarint(position);
+      position = sauterVarint(position);
+      if (code == 1) {
+        ipv6 = donnees.get(position) == 6;
+        position++;
+        haut = lireVarint(position);
+        position = sauterVarint(position);
+        bas = lireVarint(position);
+        position = sauterVarint(position);
+      } else {
+        bas += code >>> 1;
+      }
+      rang = (int) lireVarint(position);
+      position = sauterVarint(position);
+      return true;
+    }
+    
+    AdresseIP adresse() {
+      return new AdresseIP(haut, bas, ipv6);
+    }
+    
+    int comparer(AdresseIP adresseIp) {
+      if (ipv6 != adresseIp.estIpv6()) {
+        return ipv6 ? 1 : -1;
+      }
+      int comparaison = Long.compareUnsigned(haut, adresseIp.getHaut());
+      return comparaison != 0 ? comparaison : Long.compareUnsigned(bas, adresseIp.getBas());
+    }
+  }
+}
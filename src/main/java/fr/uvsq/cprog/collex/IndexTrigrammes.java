@@ -0,0 +1,339 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index over qualified machine names, used to suggest close names when a
+ * lookup misses. Each name is split into overlapping three-character grams; a query
+ * only reads the posting lists of its rarest grams, within a fixed budget, then ranks
+ * the best candidates by edit distance.
+ */
+public class IndexTrigrammes {
+  
+  /** Number of best candidates, by shared trigrams, that are ranked by edit distance. */
+  private static final int CANDIDATS_MAX = 64;
+  
+  /** Number of postings read per query once the rarest trigram has been read. */
+  private static final int BUDGET_POSTINGS = 20_000;
+  
+  private final List<String> noms;
+  private final Map<String, Integer> identifiants;
+  private final BitSet retires;
+  private int nombreRetires;
+  private final Map<String, Postings> postings;
+  private final PoolChaines pool;
+  
+  /**
+   * Creates an empty trigram index.
+   */
+  public IndexTrigrammes() {
+    this(null);
+  }
+  
+  /**
+   * Creates an empty trigram index whose trigrams are shared with other indexes.
+   *
+   * @param pool the pool of the trigrams, or null to keep them apart
+   */
+  public IndexTrigrammes(PoolChaines pool) {
+    this.noms = new ArrayList<>();
+    this.identifiants = new HashMap<>();
+    this.retires = new BitSet();
+    this.postings = new HashMap<>();
+    this.pool = pool;
+  }
+  
+  /**
+   * Adds a qualified name to the index.
+   *
+   * @param nom the qualified machine name
+   */
+  public void ajouter(String nom) {
+    int id = noms.size();
+    noms.add(nom);
+    identifiants.put(nom, id);
+    for (String trigramme : trigrammes(nom)) {
+      Postings liste = postings.get(trigramme);
+      if (liste == null) {
+        liste = new Postings();
+        postings.put(pool == null ? trigramme : pool.partager(trigramme), liste);
+      }
+      liste.ajouter(id);
+    }
+  }
+  
+  /**
+   * Removes a qualified name from the index. Its postings are only marked as removed,
+   * so the cost does not depend on the number of names sharing its trigrams; the index
+   * is rebuilt once most of its identifiers are removed.
+   *
+   * @param nom the qualified machine name
+   */
+  public void retirer(String nom) {
+    Integer id = identifiants.remove(nom);
+    if (id != null) {
+      retires.set(id);
+      nombreRetires++;
+      if (nombreRetires > noms.size() / 2) {
+        compacter();
+      }
+    }
+  }
+  
+  /**
+   * Rebuilds the index from its remaining names, dropping the removed identifiers from
+   * the postings.
+   */
+  private void compacter() {
+    List<String> restants = new ArrayList<>(identifiants.size());
+    for (int id = 0; id < noms.size(); id++) {
+      if (!retires.get(id)) {
+        restants.add(noms.get(id));
+      }
+    }
+    vider();
+    for (String nom : restants) {
+      ajouter(nom);
+    }
+  }
+  
+  /**
+   * Removes all names from the index.
+   */
+  public void vider() {
+    noms.clear();
+    identifiants.clear();
+    retires.clear();
+    nombreRetires = 0;
+    postings.clear();
+  }
+  
+  /**
+   * Returns the number of indexed names.
+   *
+   * @return the number of names
+   */
+  public int size() {
+    return identifiants.size();
+  }
+  
+  /**
+   * Returns the heap retained by the index, without the names, which are shared with
+   * the items.
+   *
+   * @return the estimated bytes
+   * @see EmpreinteMemoire
+   */
+  long tailleMemoire() {
+    long octets = EmpreinteMemoire.objet(4, 4)
+        + EmpreinteMemoire.tableau(noms.size(), EmpreinteMemoire.REFERENCE)
+        + EmpreinteMemoire.tableHachage(identifiants.size())
+        + EmpreinteMemoire.tableau(retires.size() / 64, 8)
+        + EmpreinteMemoire.tableHachage(postings.size());
+    for (Integer id : identifiants.values()) {
+      // Integer.valueOf caches the small identifiers
+      if (id > 127) {
+        octets += EmpreinteMemoire.objet(0, 4);
+      }
+    }
+    for (Map.Entry<String, Postings> entree : postings.entrySet()) {
+      octets += EmpreinteMemoire.chaine(entree.getKey()) + EmpreinteMemoire.objet(1, 4)
+          + EmpreinteMemoire.tableau(entree.getValue().ids.length, 4);
+    }
+    return octets;
+  }
+  
+  /**
+   * Returns the indexed names closest to a query, by edit distance.
+   * Names farther than half the query length are not suggested.
+   *
+   * @param requete the name that was not found
+   * @param k the maximum number of suggestions
+   * @return up to k names, closest first
+   */
+  public List<String> suggerer(String requete, int k) {
+    List<String> resultat = new ArrayList<>();
+    if (requete == null || requete.isEmpty() || k <= 0 || identifiants.isEmpty()) {
+      return resultat;
+    }
+    
+    List<Postings> listes = new ArrayList<>();
+    for (String trigramme : trigrammes(requete)) {
+      Postings liste = postings.get(trigramme);
+      if (liste != null) {
+        listes.add(liste);
+      }
+    }
+    if (listes.isEmpty()) {
+      return resultat;
+    }
+    listes.sort(Comparator.comparingInt(liste -> liste.taille));
+    
+    // Only the lists within the budget are read, so the counters are sized to their
+    // postings rather than to the whole index
+    int lues = 0;
+    int lus = 0;
+    while (lues < listes.size()
+        && (lues == 0 || lus + listes.get(lues).taille <= BUDGET_POSTINGS)) {
+      lus += listes.get(lues++).taille;
+    }
+    Compteurs partages = new Compteurs(lus);
+    for (int i = 0; i < lues; i++) {
+      Postings liste = listes.get(i);
+      for (int j = 0; j < liste.taille; j++) {
+        int id = liste.ids[j];
+        if (!retires.get(id)) {
+          partages.incrementer(id);
+        }
+      }
+    }
+    
+    // Keeps the ids sharing the most trigrams, ties broken by id
+    long[] candidats = new long[partages.taille];
+    int n = 0;
+    for (int i = 0; i < partages.cles.length; i++) {
+      if (partages.cles[i] != 0) {
+        candidats[n++] = ((long) -partages.valeurs[i] << 32) | (partages.cles[i] - 1);
+      }
+    }
+    Arrays.sort(candidats);
+    
+    int distanceMax = Math.max(1, requete.length() / 2);
+    List<Suggestion> classees = new ArrayList<>();
+    for (int i = 0; i < candidats.length && i < CANDIDATS_MAX; i++) {
+      String nom = noms.get((int) candidats[i]);
+      int distance = distance(requete, nom, distanceMax);
+      if (distance <= distanceMax) {
+        classees.add(new Suggestion(nom, distance));
+      }
+    }
+    classees.sort(Comparator.comparingInt((Suggestion s) -> s.distance)
+        .thenComparing(s -> s.nom));
+    
+    for (int i = 0; i < classees.size() && i < k; i++) {
+      resultat.add(classees.get(i).nom);
+    }
+    return resultat;
+  }
+  
+  /**
+   * Returns the distinct trigrams of a name, padded so that short names and word
+   * boundaries are represented.
+   *
+   * @param nom the name to split
+   * @return the set of trigrams
+   */
+  static Set<String> trigrammes(String nom) {
+    String texte = "^^" + nom + "$";
+    Set<String> resultat = new LinkedHashSet<>();
+    for (int i = 0; i + 3 <= texte.length(); i++) {
+      resultat.add(texte.substring(i, i + 3));
+    }
+    return resultat;
+  }
+  
+  /**
+   * Computes the Levenshtein distance between two strings, giving up as soon as it
+   * exceeds a bound.
+   *
+   * @param a the first string
+   * @param b the second string
+   * @param borne the maximum distance of interest
+   * @return the edit distance, or a value greater than the bound
+   */
+  static int distance(String a, String b, int borne) {
+    if (Math.abs(a.length() - b.length()) > borne) {
+      return borne + 1;
+    }
+    int[] precedente = new int[b.length() + 1];
+    int[] courante = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      precedente[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      courante[0] = i;
+      int minLigne = courante[0];
+      for (int j = 1; j <= b.length(); j++) {
+        int cout = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+        courante[j] = Math.min(Math.min(courante[j - 1] + 1, precedente[j] + 1),
+            precedente[j - 1] + cout);
+        minLigne = Math.min(minLigne, courante[j]);
+      }
+      if (minLigne > borne) {
+        return borne + 1;
+      }
+      int[] echange = precedente;
+      precedente = courante;
+      courante = echange;
+    }
+    return precedente[b.length()];
+  }
+  
+  /**
+   * Growable list of name identifiers sharing a trigram.
+   */
+  private static final class Postings {
+    private int[] ids = new int[4];
+    private int taille;
+    
+    void ajouter(int id) {
+      if (taille == ids.length) {
+        ids = Arrays.copyOf(ids, taille * 2);
+      }
+      ids[taille++] = id;
+    }
+  }
+  
+  /**
+   * Open-addressing map from name identifiers to the number of query trigrams they
+   * share, sized to the postings of one query.
+   */
+  private static final class Compteurs {
+    /** Identifiers plus one, so that 0 marks a free slot. */
+    private final int[] cles;
+    private final int[] valeurs;
+    private final int decalage;
+    private int taille;
+    
+    Compteurs(int attendus) {
+      int capacite = Integer.highestOneBit(Math.max(2, attendus) * 2 - 1) << 1;
+      cles = new int[capacite];
+      valeurs = new int[capacite];
+      decalage = Integer.numberOfLeadingZeros(capacite) + 1;
+    }
+    
+    void incrementer(int id) {
+      int masque = cles.length - 1;
+      int i = (id * 0x9E3779B9) >>> decalage;
+      while (cles[i] != 0 && cles[i] != id + 1) {
+        i = (i + 1) & masque;
+      }
+      if (cles[i] == 0) {
+        cles[i] = id + 1;
+        taille++;
+      }
+      valeurs[i]++;
+    }
+  }
+  
+  /**
+   * A candidate name with its edit distance to the query.
+   */
+  private static final class Suggestion {
+    private final String nom;
+    private final int distance;
+    
+    Suggestion(String nom, int distance) {
+      this.nom = nom;
+      this.distance = distance;
+    }
+  }
+}
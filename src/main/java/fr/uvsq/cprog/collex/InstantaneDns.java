@@ -0,0 +1,234 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable, consistent view of the DNS entries at one point in time.
+ * Taking a snapshot costs nothing: it is the version of the indexes published by the
+ * last write, and it can be read and iterated without locks while writers publish
+ * newer versions.
+ *
+ * <p>A snapshot may also be composed of the snapshots of the partitions of a
+ * {@link DnsPartitionne}, read in place: it costs nothing either, but cannot be
+ * changed.
+ */
+public final class InstantaneDns implements Iterable<DnsItem> {
+  
+  static final InstantaneDns VIDE =
+      new InstantaneDns(MapPersistante.vide(), MapPersistante.vide(), 0);
+  
+  private final MapPersistante<NomMachine, DnsItem> parNom;
+  private final MapPersistante<AdresseIP, DnsItem> parIp;
+  private final long sequence;
+  private final InstantaneDns[] parties;
+  private final ToIntFunction<NomMachine> partie;
+  
+  private InstantaneDns(MapPersistante<NomMachine, DnsItem> parNom,
+      MapPersistante<AdresseIP, DnsItem> parIp, long sequence) {
+    this.parNom = parNom;
+    this.parIp = parIp;
+    this.sequence = sequence;
+    this.parties = null;
+    this.partie = null;
+  }
+  
+  private InstantaneDns(InstantaneDns[] parties, ToIntFunction<NomMachine> partie) {
+    long somme = 0;
+    for (InstantaneDns instantane : parties) {
+      somme += instantane.sequence;
+    }
+    this.parNom = null;
+    this.parIp = null;
+    this.sequence = somme;
+    this.parties = parties;
+    this.partie = partie;
+  }
+  
+  /**
+   * Returns a snapshot made of the snapshots of partitions, without copying them.
+   * Lookups by name read the partition of the name, lookups by address every partition.
+   * Its sequence number is the sum of those of the partitions, so it grows with every
+   * change of any of them.
+   *
+   * @param parties the snapshots of the partitions, each name in a single one
+   * @param partie the index in parties of the partition of a name
+   * @return the composed snapshot
+   */
+  static InstantaneDns composer(InstantaneDns[] parties, ToIntFunction<NomMachine> partie) {
+    return new InstantaneDns(parties.clone(), partie);
+  }
+  
+  /**
+   * Returns a DNS item by IP address.
+   *
+   * @param adresseIp the IP address to search for
+   * @return the DNS item if found, null otherwise
+   */
+  public DnsItem getItem(AdresseIP adresseIp) {
+    if (adresseIp == null) {
+      return null;
+    }
+    if (parties != null) {
+      for (InstantaneDns instantane : parties) {
+        DnsItem item = instantane.getItem(adresseIp);
+        if (item != null) {
+          return item;
+        }
+      }
+      return null;
+    }
+    return parIp.get(adresseIp);
+  }
+  
+  /**
+   * Returns a DNS item by machine name.
+   *
+   * @param nomMachine the machine name to search for
+   * @return the DNS item if found, null otherwise
+   */
+  public DnsItem getItem(NomMachine nomMachine) {
+    if (nomMachine == null) {
+      return null;
+    }
+    if (parties != null) {
+      return parties[partie.applyAsInt(nomMachine)].getItem(nomMachine);
+    }
+    return parNom.get(nomMachine);
+  }
+  
+  /**
+   * Returns the number of DNS items in the snapshot.
+   *
+   * @return the number of items
+   */
+  public int size() {
+    if (parties != null) {
+      int total = 0;
+      for (InstantaneDns instantane : parties) {
+        total += instantane.size();
+      }
+      return total;
+    }
+    return parNom.size();
+  }
+  
+  /**
+   * Returns the sequence number of the last change included in the snapshot.
+   *
+   * @return the sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+  
+  /**
+   * Returns the heap retained by the two hash tries of the snapshot, without the items
+   * they share.
+   *
+   * @return the estimated bytes
+   * @see EmpreinteMemoire
+   */
+  long tailleMemoire() {
+    if (parties != null) {
+      long total = EmpreinteMemoire.objet(4, 8);
+      for (InstantaneDns instantane : parties) {
+        total += instantane.tailleMemoire();
+      }
+      return total;
+    }
+    return EmpreinteMemoire.objet(4, 8) + parNom.tailleMemoire() + parIp.tailleMemoire();
+  }
+  
+  /**
+   * Returns the items of the snapshot, in no particular order.
+   *
+   * @return an iterator over the items
+   */
+  @Override
+  public Iterator<DnsItem> iterator() {
+    if (parties != null) {
+      return new Iterator<DnsItem>() {
+        private int suivante;
+        private Iterator<DnsItem> courant = Collections.emptyIterator();
+        
+        @Override
+        public boolean hasNext() {
+          while (!courant.hasNext() && suivante < parties.length) {
+            courant = parties[suivante++].iterator();
+          }
+          return courant.hasNext();
+        }
+        
+        @Override
+        public DnsItem next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return courant.next();
+        }
+      };
+    }
+    Iterator<Map.Entry<NomMachine, DnsItem>> entrees = parNom.iterator();
+    return new Iterator<DnsItem>() {
+      @Override
+      public boolean hasNext() {
+        return entrees.hasNext();
+      }
+      
+      @Override
+      public DnsItem next() {
+        return entrees.next().getValue();
+      }
+    };
+  }
+  
+  /**
+   * Returns a snapshot with an item added, as the next change of the sequence.
+   * The name and address must be free.
+   *
+   * @param item the item to add
+   * @return the new snapshot
+   * @throws UnsupportedOperationException if the snapshot is composed of partitions
+   */
+  InstantaneDns avec(DnsItem item) {
+    verifierModifiable();
+    return new InstantaneDns(parNom.avec(item.getNomMachine(), item),
+        parIp.avec(item.getAdresseIp(), item), sequence + 1);
+  }
+  
+  /**
+   * Returns a snapshot with an item removed, as the next change of the sequence.
+   *
+   * @param item the item to remove
+   * @return the new snapshot
+   * @throws UnsupportedOperationException if the snapshot is composed of partitions
+   */
+  InstantaneDns sans(DnsItem item) {
+    verifierModifiable();
+    return new InstantaneDns(parNom.sans(item.getNomMachine()),
+        parIp.sans(item.getAdresseIp()), sequence + 1);
+  }
+  
+  /**
+   * Returns the same entries with another sequence number, used when a replica
+   * receives a full copy of the primary database.
+   *
+   * @param nouvelleSequence the sequence number of the copy
+   * @return the renumbered snapshot
+   * @throws UnsupportedOperationException if the snapshot is composed of partitions
+   */
+  InstantaneDns avecSequence(long nouvelleSequence) {
+    verifierModifiable();
+    return new InstantaneDns(parNom, parIp, nouvelleSequence);
+  }
+  
+  private void verifierModifiable() {
+    if (parties != null) {
+      throw new UnsupportedOperationException("Instantané composé de partitions");
+    }
+  }
+}
@@ -0,0 +1,479 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Log of the slow commands, with the time spent in each phase of their execution.
+ *
+ * <p>A command wrapped by {@link #tracer(Commande, String, long)} runs with a
+ * {@link Trace} attached to its thread. The store and the commands measure their phases
+ * with {@link #debut()} and {@link #mesurer(Phase, long, int)}, which do nothing when no
+ * trace is attached. Phases may be nested, such as the sort of a file being saved: each
+ * phase only counts the time not spent in the phases it contains.
+ *
+ * <p>Additions batched by a {@link PipelineCommandes} are not executed one by one:
+ * the batch is traced as a whole by {@link #tracerLot(List, Commande)}.
+ *
+ * <p>When a command takes at least the threshold, its trace is queued for a writer
+ * thread which formats and writes it, so the command never waits for the log. At most
+ * a given number of traces are kept per second; the others, and those finding the queue
+ * full, are dropped and counted on the next line written.
+ */
+public class JournalLenteurs implements AutoCloseable {
+  
+  /** Number of traces waiting to be written before new ones are dropped. */
+  static final int CAPACITE_FILE = 256;
+  
+  /** Default number of traces written per second. */
+  public static final int TRACES_PAR_SECONDE_DEFAUT = 10;
+  
+  /** Deepest nesting of the phases measured. */
+  private static final int PROFONDEUR_MAX = 8;
+  
+  private static final long NANOS_PAR_SECONDE = 1_000_000_000L;
+  
+  private static final ThreadLocal<Trace> TRACE_COURANTE = new ThreadLocal<>();
+  
+  /** Queued by {@link #close()} to stop the writer thread. */
+  private static final Trace FIN = new Trace("");
+  
+  /**
+   * Phases of the execution of a command.
+   */
+  public enum Phase {
+    /** Parsing of the command line. */
+    ANALYSE("analyse"),
+    /** Lookups in the store. */
+    RECHERCHE("recherche"),
+    /** Sorting of the entries. */
+    TRI("tri"),
+    /** Formatting of the result. */
+    RENDU("rendu"),
+    /** Writing of the database. */
+    PERSISTANCE("persistance");
+    
+    private final String libelle;
+    
+    Phase(String libelle) {
+      this.libelle = libelle;
+    }
+    
+    /**
+     * Returns the name of the phase in the log.
+     *
+     * @return the name of the phase
+     */
+    public String getLibelle() {
+      return libelle;
+    }
+  }
+  
+  private final long seuilNanos;
+  private final int tracesParSeconde;
+  private final Writer sortie;
+  private final LongSupplier horloge;
+  private final BlockingQueue<Trace> file;
+  private final Thread ecrivain;
+  private long debutFenetre;
+  private int tracesFenetre;
+  private long ignorees;
+  private long ignoreesSignalees;
+  private long ecrites;
+  private boolean ferme;
+  
+  /**
+   * Creates a log and starts its writer thread.
+   *
+   * @param seuil the shortest execution logged
+   * @param unite the unit of the threshold
+   * @param tracesParSeconde the largest number of traces written per second
+   * @param sortie where the traces are written, closed with the log
+   * @throws IllegalArgumentException if the threshold is negative or the rate is not
+   *     positive
+   */
+  public JournalLenteurs(long seuil, TimeUnit unite, int tracesParSeconde, Writer sortie) {
+    this(unite.toNanos(seuil), tracesParSeconde, sortie, System::nanoTime);
+  }
+  
+  /**
+   * Creates a log reading the time from a clock, and starts its writer thread.
+   *
+   * @param seuilNanos the shortest execution logged, in nanoseconds
+   * @param tracesParSeconde the largest number of traces written per second
+   * @param sortie where the traces are written, closed with the log
+   * @param horloge the clock, in nanoseconds
+   * @throws IllegalArgumentException if the threshold is negative or the rate is not
+   *     positive
+   */
+  JournalLenteurs(long seuilNanos, int tracesParSeconde, Writer sortie, LongSupplier horloge) {
+    if (seuilNanos < 0) {
+      throw new IllegalArgumentException("Seuil invalide: " + seuilNanos);
+    }
+    if (tracesParSeconde < 1) {
+      throw new IllegalArgumentException("Nombre de traces invalide: " + tracesParSeconde);
+    }
+    this.seuilNanos = seuilNanos;
+    this.tracesParSeconde = tracesParSeconde;
+    this.sortie = sortie;
+    this.horloge = horloge;
+    this.file = new ArrayBlockingQueue<>(CAPACITE_FILE);
+    this.debutFenetre = horloge.getAsLong();
+    this.ecrivain = new Thread(this::ecrire, "dns-lenteurs");
+    ecrivain.setDaemon(true);
+    ecrivain.start();
+  }
+  
+  /**
+   * Opens the log described by the {@code slowlog.threshold} (in milliseconds),
+   * {@code slowlog.file} and {@code slowlog.rate} properties, appending to its file.
+   *
+   * @param props the configuration
+   * @return the log, or null if no threshold is set
+   * @throws DnsException if a property is invalid or the file cannot be opened
+   */
+  public static JournalLenteurs ouvrir(Properties props) throws DnsException {
+    String seuil = props.getProperty("slowlog.threshold", "").trim();
+    if (seuil.isEmpty()) {
+      return null;
+    }
+    long millisecondes;
+    try {
+      millisecondes = Long.parseLong(seuil);
+    } catch (NumberFormatException e) {
+      throw new DnsException("Seuil du journal des lenteurs invalide: " + seuil);
+    }
+    if (millisecondes <= 0) {
+      return null;
+    }
+    String taux = props.getProperty("slowlog.rate",
+        String.valueOf(TRACES_PAR_SECONDE_DEFAUT)).trim();
+    int tracesParSeconde;
+    try {
+      tracesParSeconde = Integer.parseInt(taux);
+    } catch (NumberFormatException e) {
+      throw new DnsException("Nombre de traces par seconde invalide: " + taux);
+    }
+    if (tracesParSeconde < 1) {
+      throw new DnsException("Nombre de traces par seconde invalide: " + taux);
+    }
+    String fichier = props.getProperty("slowlog.file", "dns_slow.log").trim();
+    try {
+      Writer sortie = Files.newBufferedWriter(Paths.get(fichier), StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      return new JournalLenteurs(millisecondes, TimeUnit.MILLISECONDS, tracesParSeconde,
+          sortie);
+    } catch (IOException e) {
+      throw new DnsException("Impossible d'ouvrir le journal des lenteurs " + fichier + ": "
+          + e.getMessage());
+    }
+  }
+  
+  /**
+   * Wraps a command so that its execution is traced, and logged if it is slow.
+   *
+   * @param commande the command
+   * @param texte the command line the command was parsed from
+   * @param dureeAnalyse the time spent parsing the line, in nanoseconds
+   * @return a command executing the given one, read-only or batchable if it is; a
+   *     batched addition is traced with its batch, see
+   *     {@link #tracerLot(List, Commande)}
+   */
+  public Commande tracer(Commande commande, String texte, long dureeAnalyse) {
+    return new Tracee(commande, texte, dureeAnalyse);
+  }
+  
+  /**
+   * Applies a batch of traced additions with one trace, logged if slow as one line
+   * holding the command lines of the batch and its number of additions.
+   *
+   * @param ajouts the traced additions of the batch
+   * @param application the application of the whole batch
+   * @return the result of the application
+   * @throws DnsException if the application fails
+   */
+  String tracerLot(List<Tracee> ajouts, Commande application) throws DnsException {
+    StringBuilder textes = new StringBuilder();
+    long dureeAnalyse = 0;
+    for (Tracee ajout : ajouts) {
+      if (textes.length() > 0) {
+        textes.append("; ");
+      }
+      textes.append(ajout.texte);
+      dureeAnalyse += ajout.dureeAnalyse;
+    }
+    Trace trace = new Trace(textes.toString());
+    trace.lot = ajouts.size();
+    return executer(trace, dureeAnalyse, application);
+  }
+  
+  /**
+   * Runs a command with a trace attached to the thread, then logs the trace if the
+   * command was slow.
+   */
+  private String executer(Trace trace, long dureeAnalyse, Commande commande)
+      throws DnsException {
+    trace.durees[Phase.ANALYSE.ordinal()] = dureeAnalyse;
+    Trace precedente = TRACE_COURANTE.get();
+    TRACE_COURANTE.set(trace);
+    long debut = System.nanoTime();
+    try {
+      return commande.execute();
+    } finally {
+      trace.total = dureeAnalyse + System.nanoTime() - debut;
+      if (precedente == null) {
+        TRACE_COURANTE.remove();
+      } else {
+        TRACE_COURANTE.set(precedente);
+      }
+      if (trace.total >= seuilNanos) {
+        consigner(trace);
+      }
+    }
+  }
+  
+  /**
+   * Starts measuring a phase in the trace of the current thread.
+   *
+   * @return the start of the phase, to pass to {@link #mesurer(Phase, long, int)}, or 0
+   *     if the thread has no trace
+   */
+  static long debut() {
+    Trace trace = TRACE_COURANTE.get();
+    if (trace == null || trace.profondeur == PROFONDEUR_MAX) {
+      return 0;
+    }
+    trace.imbriquees[++trace.profondeur] = 0;
+    return System.nanoTime();
+  }
+  
+  /**
+   * Ends a phase started by {@link #debut()} and adds its time, less the time of the
+   * phases measured inside it, to the trace of the current thread.
+   *
+   * @param phase the phase
+   * @param debut the value returned by {@link #debut()}
+   * @param elements the number of entries handled by the phase
+   */
+  static void mesurer(Phase phase, long debut, int elements) {
+    if (debut == 0) {
+      return;
+    }
+    Trace trace = TRACE_COURANTE.get();
+    if (trace == null || trace.profondeur == 0) {
+      return;
+    }
+    long duree = System.nanoTime() - debut;
+    trace.durees[phase.ordinal()] += duree - trace.imbriquees[trace.profondeur--];
+    trace.imbriquees[trace.profondeur] += duree;
+    trace.elements[phase.ordinal()] += elements;
+    trace.mesurees |= 1 << phase.ordinal();
+  }
+  
+  /**
+   * Returns the number of slow traces dropped, because of the rate or a full queue.
+   *
+   * @return the number of traces dropped
+   */
+  public synchronized long getIgnorees() {
+    return ignorees;
+  }
+  
+  /**
+   * Returns the number of traces written.
+   *
+   * @return the number of traces written
+   */
+  public synchronized long getEcrites() {
+    return ecrites;
+  }
+  
+  /**
+   * Writes the traces already queued, then stops the writer thread and closes the
+   * output. Slow commands are no longer logged afterwards.
+   * Waits for the writer thread rather than interrupting it, as an interrupt would
+   * close a file channel being written.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (ferme) {
+        return;
+      }
+      ferme = true;
+    }
+    try {
+      file.put(FIN);
+      ecrivain.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      sortie.close();
+    } catch (IOException e) {
+      System.err.println("ERREUR: journal des lenteurs : " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Queues a slow trace if the rate allows it, without ever waiting.
+   */
+  private void consigner(Trace trace) {
+    synchronized (this) {
+      long maintenant = horloge.getAsLong();
+      if (maintenant - debutFenetre >= NANOS_PAR_SECONDE) {
+        debutFenetre = maintenant;
+        tracesFenetre = 0;
+      }
+      if (ferme || tracesFenetre == tracesParSeconde) {
+        ignorees++;
+        return;
+      }
+      tracesFenetre++;
+      trace.ignorees = ignorees - ignoreesSignalees;
+      ignoreesSignalees = ignorees;
+    }
+    if (!file.offer(trace)) {
+      synchronized (this) {
+        ignorees++;
+      }
+    }
+  }
+  
+  /**
+   * Loop of the writer thread: formats and writes the queued traces until the log is
+   * closed and the queue is empty.
+   */
+  private void ecrire() {
+    while (true) {
+      Trace trace;
+      try {
+        trace = file.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (trace == FIN) {
+        return;
+      }
+      try {
+        sortie.write(formater(trace));
+        sortie.write(System.lineSeparator());
+        sortie.flush();
+        synchronized (this) {
+          ecrites++;
+        }
+      } catch (IOException e) {
+        System.err.println("ERREUR: journal des lenteurs : " + e.getMessage());
+      }
+    }
+  }
+  
+  /**
+   * Formats a trace as one line: the time, the total duration, the command line, then
+   * the duration and the number of entries of each measured phase, and the number of
+   * traces dropped between the previous trace kept and this one.
+   */
+  private static String formater(Trace trace) {
+    StringBuilder ligne = new StringBuilder();
+    ligne.append(trace.date).append(' ')
+        .append(String.format(Locale.ROOT, "%.3f ms", trace.total / 1e6))
+        .append(" \"").append(trace.texte).append('"');
+    if (trace.lot > 0) {
+      ligne.append(" lot ").append(trace.lot);
+    }
+    for (Phase phase : Phase.values()) {
+      int i = phase.ordinal();
+      if (phase == Phase.ANALYSE || (trace.mesurees & 1 << i) != 0) {
+        ligne.append(' ').append(phase.getLibelle()).append(' ')
+            .append(String.format(Locale.ROOT, "%.3f ms", trace.durees[i] / 1e6));
+        if (phase != Phase.ANALYSE) {
+          ligne.append(" (").append(trace.elements[i]).append(')');
+        }
+      }
+    }
+    if (trace.ignorees > 0) {
+      ligne.append(" [").append(trace.ignorees).append(" trace(s) ignorée(s)]");
+    }
+    return ligne.toString();
+  }
+  
+  /**
+   * Command wrapped by {@link #tracer(Commande, String, long)}.
+   */
+  public final class Tracee implements Commande {
+    private final Commande commande;
+    private final String texte;
+    private final long dureeAnalyse;
+    
+    private Tracee(Commande commande, String texte, long dureeAnalyse) {
+      this.commande = commande;
+      this.texte = texte;
+      this.dureeAnalyse = dureeAnalyse;
+    }
+    
+    @Override
+    public String execute() throws DnsException {
+      return executer(new Trace(texte), dureeAnalyse, commande);
+    }
+    
+    @Override
+    public boolean estLecture() {
+      return commande.estLecture();
+    }
+    
+    @Override
+    public CommandeAjouterEntree ajoutGroupable() {
+      return commande.ajoutGroupable();
+    }
+    
+    @Override
+    public Tracee tracee() {
+      return this;
+    }
+    
+    /**
+     * Returns the log of this command.
+     *
+     * @return the log
+     */
+    JournalLenteurs getJournal() {
+      return JournalLenteurs.this;
+    }
+  }
+  
+  /**
+   * Times of the phases of one command execution, filled by the thread running it.
+   */
+  static final class Trace {
+    private final String texte;
+    private final Instant date;
+    private final long[] durees;
+    private final int[] elements;
+    private final long[] imbriquees;
+    private int profondeur;
+    private int mesurees;
+    private long total;
+    private long ignorees;
+    private int lot;
+    
+    Trace(String texte) {
+      this.texte = texte;
+      this.date = Instant.now();
+      this.durees = new long[Phase.values().length];
+      this.elements = new int[Phase.values().length];
+      this.imbriquees = new long[PROFONDEUR_MAX + 1];
+    }
+  }
+}
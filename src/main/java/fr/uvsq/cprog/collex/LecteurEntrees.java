@@ -0,0 +1,32 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Reads DNS entries one at a time from an external source, such as a zone file or a
+ * hosts file, so that a whole file never has to be held in memory.
+ */
+public interface LecteurEntrees extends AutoCloseable {
+  
+  /**
+   * Reads the next entry.
+   *
+   * @return the next entry, or null at the end of the source
+   * @throws DnsException if the source cannot be read or is invalid
+   */
+  DnsItem suivante() throws DnsException;
+  
+  /**
+   * Returns the number of source records that were skipped, because they describe no
+   * entry of this service (other record types, unqualified names, aliases...).
+   *
+   * @return the number of skipped records
+   */
+  int getNombreIgnores();
+  
+  /**
+   * Closes the source.
+   *
+   * @throws DnsException if the source cannot be closed
+   */
+  @Override
+  void close() throws DnsException;
+}
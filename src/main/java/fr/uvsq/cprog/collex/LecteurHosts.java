@@ -0,0 +1,86 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the entries of a hosts file, such as /etc/hosts: one address per line,
+ * followed by its canonical name and optional aliases, with '#' comments.
+ * Each line gives one entry, with the first qualified name of the line; aliases are
+ * skipped since an address has a single name here, as are lines without a
+ * qualified name (like "localhost").
+ */
+public class LecteurHosts implements LecteurEntrees {
+  
+  private final BufferedReader lecteur;
+  private int numeroLigne;
+  private int nombreIgnores;
+  
+  /**
+   * Creates a hosts file reader.
+   *
+   * @param lecteur the reader of the file
+   */
+  public LecteurHosts(BufferedReader lecteur) {
+    this.lecteur = lecteur;
+  }
+  
+  @Override
+  public DnsItem suivante() throws DnsException {
+    String ligne;
+    while ((ligne = lireLigne()) != null) {
+      int commentaire = ligne.indexOf('#');
+      if (commentaire >= 0) {
+        ligne = ligne.substring(0, commentaire);
+      }
+      ligne = ligne.trim();
+      if (ligne.isEmpty()) {
+        continue;
+      }
+      
+      String[] parts = ligne.split("\\s+");
+      if (parts.length < 2 || !AdresseIP.estValide(parts[0])) {
+        throw new DnsException("Format invalide ligne " + numeroLigne + ": " + ligne);
+      }
+      for (int i = 1; i < parts.length; i++) {
+        if (parts[i].indexOf('.') > 0 && !parts[i].endsWith(".")) {
+          return new DnsItem(parts[0], parts[i]);
+        }
+      }
+      nombreIgnores++;
+    }
+    return null;
+  }
+  
+  /**
+   * Reads the next line of the file.
+   *
+   * @return the line, or null at the end of the file
+   * @throws DnsException if the file cannot be read
+   */
+  private String lireLigne() throws DnsException {
+    try {
+      String ligne = lecteur.readLine();
+      if (ligne != null) {
+        numeroLigne++;
+      }
+      return ligne;
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le fichier hosts: " + e.getMessage());
+    }
+  }
+  
+  @Override
+  public int getNombreIgnores() {
+    return nombreIgnores;
+  }
+  
+  @Override
+  public void close() throws DnsException {
+    try {
+      lecteur.close();
+    } catch (IOException e) {
+      throw new DnsException("Impossible de fermer le fichier hosts: " + e.getMessage());
+    }
+  }
+}
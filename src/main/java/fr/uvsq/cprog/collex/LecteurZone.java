@@ -0,0 +1,321 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the entries of an RFC 1035 master (zone) file, one record at a time.
+ * A and AAAA records give the entry of their owner name; PTR records under
+ * in-addr.arpa and ip6.arpa give the entry of their target name. Other record types
+ * are skipped. The reader follows $ORIGIN, relative and "@" names, owners inherited
+ * from the previous record, optional TTL and class fields, ';' comments and records
+ * split over several lines with parentheses.
+ */
+public class LecteurZone implements LecteurEntrees {
+  
+  private static final String SUFFIXE_IPV4 = "in-addr.arpa";
+  private static final String SUFFIXE_IPV6 = "ip6.arpa";
+  
+  private final BufferedReader lecteur;
+  private String origine;
+  private String proprietaire;
+  private int numeroLigne;
+  private int nombreIgnores;
+  
+  /**
+   * Creates a zone file reader.
+   *
+   * @param lecteur the reader of the file
+   * @param origine the initial origin for relative names, always absolute, or null if
+   *     the file sets it
+   */
+  public LecteurZone(BufferedReader lecteur, String origine) {
+    this.lecteur = lecteur;
+    this.origine = origine == null ? null
+        : absolu(origine.endsWith(".") ? origine : origine + ".", null);
+  }
+  
+  @Override
+  public DnsItem suivante() throws DnsException {
+    List<String> champs = new ArrayList<>();
+    while (true) {
+      champs.clear();
+      Boolean herite = lireEnregistrement(champs);
+      if (herite == null) {
+        return null;
+      }
+      if (champs.isEmpty()) {
+        continue;
+      }
+      
+      if (!herite && champs.get(0).startsWith("$")) {
+        appliquerDirective(champs);
+        continue;
+      }
+      
+      DnsItem item = interpreter(champs, herite);
+      if (item != null) {
+        return item;
+      }
+      nombreIgnores++;
+    }
+  }
+  
+  /**
+   * Reads the fields of the next logical record, joining the lines of a record split
+   * with parentheses.
+   *
+   * @param champs the list receiving the fields; empty for a blank line
+   * @return true if the record starts with a blank, so its owner is inherited, false
+   *     if it starts with a field, null at the end of the file
+   * @throws DnsException if the file cannot be read or a parenthesis is not closed
+   */
+  private Boolean lireEnregistrement(List<String> champs) throws DnsException {
+    String ligne = lireLigne();
+    if (ligne == null) {
+      return null;
+    }
+    boolean herite = ligne.isEmpty() || Character.isWhitespace(ligne.charAt(0));
+    int profondeur = decouper(ligne, champs, 0);
+    while (profondeur > 0) {
+      ligne = lireLigne();
+      if (ligne == null) {
+        throw new DnsException("Parenthèse non fermée en fin de fichier");
+      }
+      profondeur = decouper(ligne, champs, profondeur);
+    }
+    if (profondeur < 0) {
+      throw new DnsException("Parenthèse fermante inattendue ligne " + numeroLigne);
+    }
+    return herite;
+  }
+  
+  /**
+   * Splits a line into fields, dropping comments and parentheses.
+   *
+   * @param ligne the line
+   * @param champs the list receiving the fields
+   * @param profondeur the number of parentheses open before the line
+   * @return the number of parentheses open after the line
+   */
+  private static int decouper(String ligne, List<String> champs, int profondeur) {
+    StringBuilder champ = new StringBuilder();
+    boolean guillemets = false;
+    for (int i = 0; i < ligne.length(); i++) {
+      char c = ligne.charAt(i);
+      if (guillemets) {
+        if (c == '\\' && i + 1 < ligne.length()) {
+          champ.append(ligne.charAt(++i));
+        } else if (c == '"') {
+          guillemets = false;
+        } else {
+          champ.append(c);
+        }
+        continue;
+      }
+      if (c == ';') {
+        break;
+      }
+      if (c == '"') {
+        guillemets = true;
+      } else if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+        if (champ.length() > 0) {
+          champs.add(champ.toString());
+          champ.setLength(0);
+        }
+        profondeur += c == '(' ? 1 : c == ')' ? -1 : 0;
+      } else {
+        champ.append(c);
+      }
+    }
+    if (champ.length() > 0) {
+      champs.add(champ.toString());
+    }
+    return profondeur;
+  }
+  
+  /**
+   * Applies a $ORIGIN or $TTL directive.
+   *
+   * @param champs the fields of the directive
+   * @throws DnsException if the directive is unknown or malformed
+   */
+  private void appliquerDirective(List<String> champs) throws DnsException {
+    String directive = champs.get(0).toUpperCase();
+    if (directive.equals("$ORIGIN") && champs.size() == 2) {
+      origine = absolu(champs.get(1), origine);
+      if (origine == null) {
+        throw new DnsException("$ORIGIN relatif sans origine ligne " + numeroLigne);
+      }
+    } else if (!directive.equals("$TTL")) {
+      throw new DnsException("Directive non prise en charge ligne " + numeroLigne + ": "
+          + String.join(" ", champs));
+    }
+  }
+  
+  /**
+   * Turns a resource record into an entry.
+   *
+   * @param champs the fields of the record
+   * @param herite true if the owner is inherited from the previous record
+   * @return the entry, or null if the record describes no entry of this service
+   * @throws DnsException if the record is malformed
+   */
+  private DnsItem interpreter(List<String> champs, boolean herite) throws DnsException {
+    int i = 0;
+    if (!herite) {
+      proprietaire = absolu(champs.get(i++), origine);
+      if (proprietaire == null) {
+        throw new DnsException("Nom relatif sans $ORIGIN ligne " + numeroLigne);
+      }
+    } else if (proprietaire == null) {
+      throw new DnsException("Enregistrement sans propriétaire ligne " + numeroLigne);
+    }
+    
+    // Optional TTL and class, in either order
+    while (i < champs.size() && (Character.isDigit(champs.get(i).charAt(0))
+        || estClasse(champs.get(i)))) {
+      i++;
+    }
+    if (i + 1 >= champs.size()) {
+      throw new DnsException("Enregistrement incomplet ligne " + numeroLigne);
+    }
+    String type = champs.get(i).toUpperCase();
+    String donnee = champs.get(i + 1);
+    
+    try {
+      switch (type) {
+        case "A":
+        case "AAAA":
+          if (!estNomMachine(proprietaire)
+              || type.equals("A") == (donnee.indexOf(':') >= 0)) {
+            return null;
+          }
+          return new DnsItem(donnee, proprietaire);
+        case "PTR":
+          String adresse = adresseInverse(proprietaire);
+          String cible = absolu(donnee, origine);
+          if (adresse == null || cible == null || !estNomMachine(cible)) {
+            return null;
+          }
+          return new DnsItem(adresse, cible);
+        default:
+          return null;
+      }
+    } catch (IllegalArgumentException e) {
+      throw new DnsException("Données invalides ligne " + numeroLigne + ": " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Checks if a field is a record class.
+   *
+   * @param champ the field
+   * @return true for IN, CH, HS and CS
+   */
+  private static boolean estClasse(String champ) {
+    String classe = champ.toUpperCase();
+    return classe.equals("IN") || classe.equals("CH") || classe.equals("HS")
+        || classe.equals("CS");
+  }
+  
+  /**
+   * Checks if an absolute name can be a machine name of this service.
+   *
+   * @param nom the absolute name, without final dot
+   * @return true if the name is qualified and is not a wildcard
+   */
+  private static boolean estNomMachine(String nom) {
+    return nom.indexOf('.') > 0 && nom.indexOf('*') < 0;
+  }
+  
+  /**
+   * Makes a domain name absolute.
+   *
+   * @param nom the name, absolute if it ends with a dot, "@" for the origin
+   * @param origine the origin, or null if none is known
+   * @return the absolute name in lower case without final dot, or null if the name is
+   *     relative and no origin is known
+   */
+  private static String absolu(String nom, String origine) {
+    if (nom.equals("@")) {
+      return origine;
+    }
+    if (nom.endsWith(".")) {
+      return nom.substring(0, nom.length() - 1).toLowerCase();
+    }
+    if (origine == null) {
+      return null;
+    }
+    return origine.isEmpty() ? nom.toLowerCase() : nom.toLowerCase() + "." + origine;
+  }
+  
+  /**
+   * Returns the address of a reverse-lookup name.
+   *
+   * @param nom the absolute name under in-addr.arpa or ip6.arpa
+   * @return the address in text form, or null if the name is not a full address
+   */
+  static String adresseInverse(String nom) {
+    if (nom.endsWith("." + SUFFIXE_IPV4)) {
+      String[] octets = nom.substring(0, nom.length() - SUFFIXE_IPV4.length() - 1).split("\\.");
+      if (octets.length != 4) {
+        return null;
+      }
+      String adresse = octets[3] + "." + octets[2] + "." + octets[1] + "." + octets[0];
+      return AdresseIP.estValide(adresse) ? adresse : null;
+    }
+    if (nom.endsWith("." + SUFFIXE_IPV6)) {
+      String[] quartets = nom.substring(0, nom.length() - SUFFIXE_IPV6.length() - 1).split("\\.");
+      if (quartets.length != 32) {
+        return null;
+      }
+      StringBuilder adresse = new StringBuilder(39);
+      for (int i = 31; i >= 0; i--) {
+        if (quartets[i].length() != 1) {
+          return null;
+        }
+        adresse.append(quartets[i]);
+        if (i % 4 == 0 && i > 0) {
+          adresse.append(':');
+        }
+      }
+      return AdresseIP.estValide(adresse.toString()) ? adresse.toString() : null;
+    }
+    return null;
+  }
+  
+  /**
+   * Reads the next line of the file.
+   *
+   * @return the line, or null at the end of the file
+   * @throws DnsException if the file cannot be read
+   */
+  private String lireLigne() throws DnsException {
+    try {
+      String ligne = lecteur.readLine();
+      if (ligne != null) {
+        numeroLigne++;
+      }
+      return ligne;
+    } catch (IOException e) {
+      throw new DnsException("Impossible de lire le fichier de zone: " + e.getMessage());
+    }
+  }
+  
+  @Override
+  public int getNombreIgnores() {
+    return nombreIgnores;
+  }
+  
+  @Override
+  public void close() throws DnsException {
+    try {
+      lecteur.close();
+    } catch (IOException e) {
+      throw new DnsException("Impossible de fermer le fichier de zone: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,469 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable hash map implemented as a hash array mapped trie (HAMT).
+ * Each update returns a new map sharing every node that is not on the path of the
+ * updated key, so an update copies at most seven small arrays. A map can therefore be
+ * published to other threads and read or iterated without any lock.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class MapPersistante<K, V> implements Iterable<Map.Entry<K, V>> {
+  
+  private static final int BITS = 5;
+  private static final int MASQUE = (1 << BITS) - 1;
+  
+  private static final MapPersistante<?, ?> VIDE =
+      new MapPersistante<>(new Noeud(0, new Object[0]), 0);
+  
+  private final Noeud racine;
+  private final int taille;
+  
+  private MapPersistante(Noeud racine, int taille) {
+    this.racine = racine;
+    this.taille = taille;
+  }
+  
+  /**
+   * Returns the empty map.
+   *
+   * @param <K> the key type
+   * @param <V> the value type
+   * @return the empty map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> MapPersistante<K, V> vide() {
+    return (MapPersistante<K, V>) VIDE;
+  }
+  
+  /**
+   * Returns the number of entries.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return taille;
+  }
+  
+  /**
+   * Checks if the map has no entry.
+   *
+   * @return true if the map is empty
+   */
+  public boolean isEmpty() {
+    return taille == 0;
+  }
+  
+  /**
+   * Returns the value associated with a key.
+   *
+   * @param cle the key
+   * @return the value, or null if the key is absent
+   */
+  @SuppressWarnings("unchecked")
+  public V get(Object cle) {
+    int hash = hacher(cle);
+    Object element = racine;
+    for (int decalage = 0; ; decalage += BITS) {
+      if (element instanceof Noeud) {
+        Noeud noeud = (Noeud) element;
+        int bit = 1 << ((hash >>> decalage) & MASQUE);
+        if ((noeud.bitmap & bit) == 0) {
+          return null;
+        }
+        element = noeud.elements[Integer.bitCount(noeud.bitmap & (bit - 1))];
+      } else if (element instanceof Feuille) {
+        Feuille<K, V> feuille = (Feuille<K, V>) element;
+        return feuille.hash == hash && feuille.cle.equals(cle) ? feuille.valeur : null;
+      } else {
+        Collision collision = (Collision) element;
+        if (collision.hash != hash) {
+          return null;
+        }
+        for (Feuille<?, ?> feuille : collision.feuilles) {
+          if (feuille.cle.equals(cle)) {
+            return (V) feuille.valeur;
+          }
+        }
+        return null;
+      }
+    }
+  }
+  
+  /**
+   * Checks if a key is present.
+   *
+   * @param cle the key
+   * @return true if the map contains the key
+   */
+  public boolean containsKey(Object cle) {
+    return get(cle) != null;
+  }
+  
+  /**
+   * Returns a map with an entry added or replaced. This map is unchanged.
+   *
+   * @param cle the key, not null
+   * @param valeur the value, not null
+   * @return the updated map
+   */
+  public MapPersistante<K, V> avec(K cle, V valeur) {
+    Objects.requireNonNull(cle);
+    Objects.requireNonNull(valeur);
+    boolean[] ajout = new boolean[1];
+    Noeud nouvelle = (Noeud) inserer(racine, 0, new Feuille<>(hacher(cle), cle, valeur), ajout);
+    return new MapPersistante<>(nouvelle, ajout[0] ? taille + 1 : taille);
+  }
+  
+  /**
+   * Returns a map without a key. This map is unchanged.
+   *
+   * @param cle the key
+   * @return the updated map, or this map if the key is absent
+   */
+  public MapPersistante<K, V> sans(Object cle) {
+    if (!containsKey(cle)) {
+      return this;
+    }
+    Object nouvelle = supprimer(racine, 0, hacher(cle), cle);
+    if (!(nouvelle instanceof Noeud)) {
+      // The root always stays a node, even with a single entry
+      nouvelle = nouvelle == null
+          ? vide().racine
+          : new Noeud(1 << (hashDe(nouvelle) & MASQUE), new Object[] {nouvelle});
+    }
+    return new MapPersistante<>((Noeud) nouvelle, taille - 1);
+  }
+  
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new Parcours<>(racine);
+  }
+  
+  /**
+   * Returns the heap retained by the nodes and leaves of the trie, without the keys
+   * and values, which are usually shared with other structures.
+   *
+   * @return the estimated bytes
+   * @see EmpreinteMemoire
+   */
+  long tailleMemoire() {
+    return EmpreinteMemoire.objet(1, 4) + tailleMemoire(racine);
+  }
+  
+  /**
+   * Returns the heap retained by an element of the trie and its descendants.
+   *
+   * @param element a node, leaf or collision
+   * @return the estimated bytes
+   */
+  private static long tailleMemoire(Object element) {
+    if (element instanceof Feuille) {
+      return EmpreinteMemoire.objet(2, 4);
+    }
+    if (element instanceof Collision) {
+      Feuille<?, ?>[] feuilles = ((Collision) element).feuilles;
+      return EmpreinteMemoire.objet(1, 4)
+          + EmpreinteMemoire.tableau(feuilles.length, EmpreinteMemoire.REFERENCE)
+          + feuilles.length * EmpreinteMemoire.objet(2, 4);
+    }
+    Object[] elements = ((Noeud) element).elements;
+    long octets = EmpreinteMemoire.objet(1, 4)
+        + EmpreinteMemoire.tableau(elements.length, EmpreinteMemoire.REFERENCE);
+    for (Object enfant : elements) {
+      octets += tailleMemoire(enfant);
+    }
+    return octets;
+  }
+  
+  /**
+   * Spreads the hash code of a key so that the high bits also select branches.
+   *
+   * @param cle the key
+   * @return the spread hash
+   */
+  private static int hacher(Object cle) {
+    int h = cle.hashCode();
+    return h ^ (h >>> 16);
+  }
+  
+  /**
+   * Returns the hash shared by the entries of a leaf or collision element.
+   *
+   * @param element a leaf or a collision
+   * @return the hash
+   */
+  private static int hashDe(Object element) {
+    return element instanceof Feuille
+        ? ((Feuille<?, ?>) element).hash
+        : ((Collision) element).hash;
+  }
+  
+  /**
+   * Inserts a leaf below an element, copying the path.
+   *
+   * @param element the current node, leaf or collision
+   * @param decalage the number of hash bits consumed at this level
+   * @param feuille the leaf to insert
+   * @param ajout set to true if the key was not present
+   * @return the new element
+   */
+  private static Object inserer(Object element, int decalage, Feuille<?, ?> feuille,
+      boolean[] ajout) {
+    if (element instanceof Noeud) {
+      Noeud noeud = (Noeud) element;
+      int bit = 1 << ((feuille.hash >>> decalage) & MASQUE);
+      int index = Integer.bitCount(noeud.bitmap & (bit - 1));
+      if ((noeud.bitmap & bit) == 0) {
+        ajout[0] = true;
+        Object[] elements = new Object[noeud.elements.length + 1];
+        System.arraycopy(noeud.elements, 0, elements, 0, index);
+        elements[index] = feuille;
+        System.arraycopy(noeud.elements, index, elements, index + 1,
+            noeud.elements.length - index);
+        return new Noeud(noeud.bitmap | bit, elements);
+      }
+      Object[] elements = noeud.elements.clone();
+      elements[index] = inserer(noeud.elements[index], decalage + BITS, feuille, ajout);
+      return new Noeud(noeud.bitmap, elements);
+    }
+    
+    if (element instanceof Feuille) {
+      Feuille<?, ?> existante = (Feuille<?, ?>) element;
+      if (existante.hash == feuille.hash) {
+        if (existante.cle.equals(feuille.cle)) {
+          return feuille;
+        }
+        ajout[0] = true;
+        return new Collision(feuille.hash, new Feuille<?, ?>[] {existante, feuille});
+      }
+      ajout[0] = true;
+      return fusionner(decalage, existante, feuille);
+    }
+    
+    Collision collision = (Collision) element;
+    if (collision.hash != feuille.hash) {
+      ajout[0] = true;
+      return fusionner(decalage, collision, feuille);
+    }
+    Feuille<?, ?>[] feuilles = collision.feuilles;
+    for (int i = 0; i < feuilles.length; i++) {
+      if (feuilles[i].cle.equals(feuille.cle)) {
+        Feuille<?, ?>[] copie = feuilles.clone();
+        copie[i] = feuille;
+        return new Collision(collision.hash, copie);
+      }
+    }
+    ajout[0] = true;
+    Feuille<?, ?>[] copie = new Feuille<?, ?>[feuilles.length + 1];
+    System.arraycopy(feuilles, 0, copie, 0, feuilles.length);
+    copie[feuilles.length] = feuille;
+    return new Collision(collision.hash, copie);
+  }
+  
+  /**
+   * Builds the smallest subtree holding two elements with different hashes.
+   *
+   * @param decalage the number of hash bits consumed at this level
+   * @param a the first leaf or collision
+   * @param b the second leaf or collision
+   * @return the new node
+   */
+  private static Noeud fusionner(int decalage, Object a, Object b) {
+    int indexA = (hashDe(a) >>> decalage) & MASQUE;
+    int indexB = (hashDe(b) >>> decalage) & MASQUE;
+    if (indexA == indexB) {
+      return new Noeud(1 << indexA, new Object[] {fusionner(decalage + BITS, a, b)});
+    }
+    Object[] elements = indexA < indexB ? new Object[] {a, b} : new Object[] {b, a};
+    return new Noeud((1 << indexA) | (1 << indexB), elements);
+  }
+  
+  /**
+   * Removes a present key below an element, copying the path. Nodes left with a
+   * single leaf are collapsed into that leaf.
+   *
+   * @param element the current node, leaf or collision
+   * @param decalage the number of hash bits consumed at this level
+   * @param hash the hash of the key
+   * @param cle the key
+   * @return the new element, or null if nothing is left
+   */
+  private static Object supprimer(Object element, int decalage, int hash, Object cle) {
+    if (element instanceof Feuille) {
+      return null;
+    }
+    
+    if (element instanceof Collision) {
+      Feuille<?, ?>[] feuilles = ((Collision) element).feuilles;
+      if (feuilles.length == 2) {
+        return feuilles[0].cle.equals(cle) ? feuilles[1] : feuilles[0];
+      }
+      Feuille<?, ?>[] copie = new Feuille<?, ?>[feuilles.length - 1];
+      int j = 0;
+      for (Feuille<?, ?> feuille : feuilles) {
+        if (!feuille.cle.equals(cle)) {
+          copie[j++] = feuille;
+        }
+      }
+      return new Collision(hash, copie);
+    }
+    
+    Noeud noeud = (Noeud) element;
+    int bit = 1 << ((hash >>> decalage) & MASQUE);
+    int index = Integer.bitCount(noeud.bitmap & (bit - 1));
+    Object enfant = supprimer(noeud.elements[index], decalage + BITS, hash, cle);
+    if (enfant == null) {
+      if (noeud.elements.length == 1) {
+        return null;
+      }
+      Object[] elements = new Object[noeud.elements.length - 1];
+      System.arraycopy(noeud.elements, 0, elements, 0, index);
+      System.arraycopy(noeud.elements, index + 1, elements, index, elements.length - index);
+      if (elements.length == 1 && !(elements[0] instanceof Noeud)) {
+        return elements[0];
+      }
+      return new Noeud(noeud.bitmap & ~bit, elements);
+    }
+    if (noeud.elements.length == 1 && !(enfant instanceof Noeud)) {
+      return enfant;
+    }
+    Object[] elements = noeud.elements.clone();
+    elements[index] = enfant;
+    return new Noeud(noeud.bitmap, elements);
+  }
+  
+  /**
+   * Internal node: a bitmap of the occupied branches and the compacted array of their
+   * elements (nodes, leaves or collisions).
+   */
+  private static final class Noeud {
+    private final int bitmap;
+    private final Object[] elements;
+    
+    Noeud(int bitmap, Object[] elements) {
+      this.bitmap = bitmap;
+      this.elements = elements;
+    }
+  }
+  
+  /**
+   * Keys whose spread hashes are all equal.
+   */
+  private static final class Collision {
+    private final int hash;
+    private final Feuille<?, ?>[] feuilles;
+    
+    Collision(int hash, Feuille<?, ?>[] feuilles) {
+      this.hash = hash;
+      this.feuilles = feuilles;
+    }
+  }
+  
+  /**
+   * A single entry, which is also the entry returned by iteration.
+   */
+  private static final class Feuille<K, V> implements Map.Entry<K, V> {
+    private final int hash;
+    private final K cle;
+    private final V valeur;
+    
+    Feuille(int hash, K cle, V valeur) {
+      this.hash = hash;
+      this.cle = cle;
+      this.valeur = valeur;
+    }
+    
+    @Override
+    public K getKey() {
+      return cle;
+    }
+    
+    @Override
+    public V getValue() {
+      return valeur;
+    }
+    
+    @Override
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+  
+  /**
+   * Depth-first iterator over the leaves of a trie.
+   */
+  private static final class Parcours<K, V> implements Iterator<Map.Entry<K, V>> {
+    
+    /** The root and one level per five hash bits. */
+    private static final int PROFONDEUR_MAX = 1 + (32 + BITS - 1) / BITS;
+    
+    private final Object[][] tableaux = new Object[PROFONDEUR_MAX][];
+    private final int[] positions = new int[PROFONDEUR_MAX];
+    private int profondeur;
+    private Feuille<?, ?>[] collision;
+    private int positionCollision;
+    private Feuille<K, V> suivante;
+    
+    Parcours(Noeud racine) {
+      tableaux[0] = racine.elements;
+      avancer();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void avancer() {
+      suivante = null;
+      if (collision != null) {
+        if (positionCollision < collision.length) {
+          suivante = (Feuille<K, V>) collision[positionCollision++];
+          return;
+        }
+        collision = null;
+      }
+      while (profondeur >= 0) {
+        Object[] elements = tableaux[profondeur];
+        int position = positions[profondeur];
+        if (position == elements.length) {
+          tableaux[profondeur--] = null;
+          continue;
+        }
+        positions[profondeur] = position + 1;
+        Object element = elements[position];
+        if (element instanceof Feuille) {
+          suivante = (Feuille<K, V>) element;
+          return;
+        } else if (element instanceof Collision) {
+          collision = ((Collision) element).feuilles;
+          positionCollision = 1;
+          suivante = (Feuille<K, V>) collision[0];
+          return;
+        } else {
+          profondeur++;
+          tableaux[profondeur] = ((Noeud) element).elements;
+          positions[profondeur] = 0;
+        }
+      }
+    }
+    
+    @Override
+    public boolean hasNext() {
+      return suivante != null;
+    }
+    
+    @Override
+    public Map.Entry<K, V> next() {
+      if (suivante == null) {
+        throw new NoSuchElementException();
+      }
+      Feuille<K, V> courante = suivante;
+      avancer();
+      return courante;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.regex.Pattern;
+
+/**
+ * Represents a glob pattern on qualified machine names.
+ * '*' matches any sequence of characters and '?' matches exactly one character.
+ * The literal prefix and suffix of the pattern are exposed so that callers can
+ * restrict the candidates with an ordered index before matching.
+ */
+public class MotifGlob {
+  
+  private final String motif;
+  private final String prefixe;
+  private final String suffixe;
+  private final Pattern regex;
+  
+  /**
+   * Creates a new glob pattern.
+   *
+   * @param motif the glob pattern
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public MotifGlob(String motif) {
+    if (motif == null || motif.trim().isEmpty()) {
+      throw new IllegalArgumentException("Le motif ne peut pas être vide");
+    }
+    
+    this.motif = motif.trim().toLowerCase();
+    
+    int premierJoker = -1;
+    int dernierJoker = -1;
+    StringBuilder expression = new StringBuilder();
+    StringBuilder litteral = new StringBuilder();
+    for (int i = 0; i < this.motif.length(); i++) {
+      char c = this.motif.charAt(i);
+      if (c == '*' || c == '?') {
+        if (premierJoker < 0) {
+          premierJoker = i;
+        }
+        dernierJoker = i;
+        if (litteral.length() > 0) {
+          expression.append(Pattern.quote(litteral.toString()));
+          litteral.setLength(0);
+        }
+        expression.append(c == '*' ? ".*" : ".");
+      } else {
+        litteral.append(c);
+      }
+    }
+    if (litteral.length() > 0) {
+      expression.append(Pattern.quote(litteral.toString()));
+    }
+    
+    if (premierJoker < 0) {
+      this.prefixe = this.motif;
+      this.suffixe = this.motif;
+    } else {
+      this.prefixe = this.motif.substring(0, premierJoker);
+      this.suffixe = this.motif.substring(dernierJoker + 1);
+    }
+    this.regex = Pattern.compile(expression.toString());
+  }
+  
+  /**
+   * Returns the normalized pattern.
+   *
+   * @return the pattern, in lower case
+   */
+  public String getMotif() {
+    return motif;
+  }
+  
+  /**
+   * Returns the literal part before the first wildcard.
+   *
+   * @return the literal prefix, possibly empty
+   */
+  public String getPrefixe() {
+    return prefixe;
+  }
+  
+  /**
+   * Returns the literal part after the last wildcard.
+   *
+   * @return the literal suffix, possibly empty
+   */
+  public String getSuffixe() {
+    return suffixe;
+  }
+  
+  /**
+   * Checks if the pattern contains no wildcard.
+   *
+   * @return true if the pattern is an exact name
+   */
+  public boolean estExact() {
+    return motif.indexOf('*') < 0 && motif.indexOf('?') < 0;
+  }
+  
+  /**
+   * Checks if a qualified name matches the pattern.
+   *
+   * @param nomComplet the qualified machine name
+   * @return true if the whole name matches
+   */
+  public boolean correspond(String nomComplet) {
+    return nomComplet != null && regex.matcher(nomComplet).matches();
+  }
+  
+  @Override
+  public String toString() {
+    return motif;
+  }
+}
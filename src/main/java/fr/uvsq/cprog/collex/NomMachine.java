@@ -69,9 +69,35 @@ public class NomMachine implements Comparable<NomMachine> {
     return Objects.equals(nomComplet, other.nomComplet);
   }
   
+  /**
+   * Checks if the domain part of the name is a domain, without extracting it.
+   *
+   * @param domaine the domain name, in any case
+   * @return true if the name is a machine of the domain
+   */
+  public boolean appartientAuDomaine(String domaine) {
+    int debut = nomComplet.indexOf('.') + 1;
+    return nomComplet.length() - debut == domaine.length()
+        && nomComplet.regionMatches(true, debut, domaine, 0, domaine.length());
+  }
+  
+  /**
+   * Returns the hash code of the domain part of the name, equal to the hash code of
+   * {@link #getNomDomaine()} but computed without extracting it.
+   *
+   * @return the hash code of the domain name
+   */
+  public int hashDomaine() {
+    int hash = 0;
+    for (int i = nomComplet.indexOf('.') + 1; i < nomComplet.length(); i++) {
+      hash = 31 * hash + nomComplet.charAt(i);
+    }
+    return hash;
+  }
+  
   @Override
   public int hashCode() {
-    return Objects.hash(nomComplet);
+    return nomComplet.hashCode();
   }
   
   @Override
@@ -0,0 +1,154 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A page of the entries of a domain, sorted by machine name or by IP address, with the
+ * cursor of the next page.
+ *
+ * <p>The cursor is the sort key of the last entry of the page: its qualified name, or
+ * its address. The next page holds the entries whose key follows the cursor, so an
+ * entry added meanwhile appears on a later page if it sorts after the cursor and is
+ * skipped otherwise, but no entry is shown twice nor missed because of it.
+ */
+public final class PageDomaine {
+  
+  private static final Comparator<DnsItem> PAR_NOM =
+      Comparator.comparing(DnsItem::getNomMachine);
+  private static final Comparator<DnsItem> PAR_IP =
+      Comparator.comparing(DnsItem::getAdresseIp);
+  
+  private final List<DnsItem> items;
+  private final String curseurSuivant;
+  
+  private PageDomaine(List<DnsItem> items, String curseurSuivant) {
+    this.items = Collections.unmodifiableList(items);
+    this.curseurSuivant = curseurSuivant;
+  }
+  
+  /**
+   * Returns the entries of the page.
+   *
+   * @return an unmodifiable list of the entries, in sort order
+   */
+  public List<DnsItem> getItems() {
+    return items;
+  }
+  
+  /**
+   * Returns the cursor to pass to get the next page.
+   *
+   * @return the cursor, or null if this is the last page
+   */
+  public String getCurseurSuivant() {
+    return curseurSuivant;
+  }
+  
+  /**
+   * Builds a page from entries already sorted and starting after the cursor, reading
+   * only one entry past the page.
+   *
+   * @param suite the entries following the cursor, in sort order
+   * @param trierParIp true if the entries are sorted by IP address
+   * @param limite the maximum number of entries of the page
+   * @return the page
+   */
+  static PageDomaine premiers(Iterable<DnsItem> suite, boolean trierParIp, int limite) {
+    List<DnsItem> page = new ArrayList<>(Math.min(limite, 64));
+    Iterator<DnsItem> iterateur = suite.iterator();
+    while (page.size() < limite && iterateur.hasNext()) {
+      page.add(iterateur.next());
+    }
+    return creer(page, iterateur.hasNext(), trierParIp);
+  }
+  
+  /**
+   * Builds a page from unsorted entries, keeping the smallest entries following the
+   * cursor in a heap bounded by the page size, without sorting all the entries.
+   *
+   * @param items the entries of the domain, in any order
+   * @param trierParIp true to sort by IP address, false by machine name
+   * @param apres the cursor of the previous page, or null for the first page
+   * @param limite the maximum number of entries of the page
+   * @return the page
+   * @throws DnsException if the cursor is not a valid key of the sort order
+   */
+  static PageDomaine selectionner(Iterable<DnsItem> items, boolean trierParIp, String apres,
+      int limite) throws DnsException {
+    Comparator<DnsItem> ordre = trierParIp ? PAR_IP : PAR_NOM;
+    DnsItem borne = apres == null ? null : borne(apres, trierParIp);
+    
+    // Max-heap of the limite + 1 smallest entries, the extra one telling if more follow
+    PriorityQueue<DnsItem> meilleurs = new PriorityQueue<>(ordre.reversed());
+    for (DnsItem item : items) {
+      if (borne != null && ordre.compare(item, borne) <= 0) {
+        continue;
+      }
+      if (meilleurs.size() <= limite) {
+        meilleurs.add(item);
+      } else if (ordre.compare(item, meilleurs.peek()) < 0) {
+        meilleurs.poll();
+        meilleurs.add(item);
+      }
+    }
+    
+    boolean suite = meilleurs.size() > limite;
+    if (suite) {
+      meilleurs.poll();
+    }
+    List<DnsItem> page = new ArrayList<>(meilleurs);
+    page.sort(ordre);
+    return creer(page, suite, trierParIp);
+  }
+  
+  /**
+   * Returns the normalized cursor of the sort by name.
+   *
+   * @param apres the cursor given by the user
+   * @return the qualified name the next page starts after
+   */
+  static String curseurNom(String apres) {
+    return apres.trim().toLowerCase();
+  }
+  
+  /**
+   * Returns an entry holding the key of a cursor, to compare entries with it.
+   *
+   * @param apres the cursor
+   * @param trierParIp true if the cursor is an IP address, false if it is a name
+   * @return an entry whose sort key is the cursor
+   * @throws DnsException if the cursor is not a valid key of the sort order
+   */
+  private static DnsItem borne(String apres, boolean trierParIp) throws DnsException {
+    try {
+      return trierParIp
+          ? new DnsItem(new AdresseIP(apres), new NomMachine("curseur.invalid"))
+          : new DnsItem(new AdresseIP("0.0.0.0"), new NomMachine(curseurNom(apres)));
+    } catch (IllegalArgumentException e) {
+      throw new DnsException("Curseur invalide: " + apres);
+    }
+  }
+  
+  /**
+   * Creates a page and the cursor of its last entry.
+   *
+   * @param page the entries of the page, in sort order
+   * @param suite true if more entries follow the page
+   * @param trierParIp true if the entries are sorted by IP address
+   * @return the page
+   */
+  private static PageDomaine creer(List<DnsItem> page, boolean suite, boolean trierParIp) {
+    String curseur = null;
+    if (suite && !page.isEmpty()) {
+      DnsItem dernier = page.get(page.size() - 1);
+      curseur = trierParIp
+          ? dernier.getAdresseIp().getAdresse() : dernier.getNomMachine().getNomComplet();
+    }
+    return new PageDomaine(page, curseur);
+  }
+}
@@ -0,0 +1,533 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipeline executing the commands published by any number of threads, with a single
+ * writer thread applying the changes in publication order.
+ *
+ * <p>Commands are published into a ring of slots allocated once: a producer claims the
+ * next sequence number with a compare-and-set, fills the slot and publishes it by
+ * writing its sequence number, without any lock. When the ring is full, producers wait
+ * for the writer to free a slot. The writer takes the slots in order:
+ * <ul>
+ *   <li>read-only commands ({@link Commande#estLecture()}) are handed to a pool of
+ *       reader threads, so they see every change published before them;</li>
+ *   <li>consecutive additions to the same service, those whose
+ *       {@link Commande#ajoutGroupable()} is set, are gathered in a batch, applied by
+ *       one {@link Dns#importer(LecteurEntrees)} and thus saved once;</li>
+ *   <li>other commands run on the writer thread; reads and other commands come after
+ *       the pending batch is applied.</li>
+ * </ul>
+ * A batch is applied as soon as no other command is waiting, so a lone addition is
+ * not delayed. Each addition of a batch gets the result it would get alone, in order.
+ *
+ * <p>The latency of each command, from its publication to its result, and the sizes
+ * of the batches are measured.
+ */
+public class PipelineCommandes implements AutoCloseable {
+  
+  /** Default number of slots of the ring. */
+  public static final int CAPACITE_DEFAUT = 1024;
+  
+  /** Largest number of additions applied as one batch. */
+  static final int TAILLE_LOT_MAX = 256;
+  
+  /** Busy checks of the next slot before the writer parks. */
+  private static final int ESSAIS_AVANT_ATTENTE = 200;
+  
+  /** Longest park of a waiting thread, in case a wake-up is missed. */
+  private static final long ATTENTE_MAX_NS = 1_000_000;
+  
+  /** Value of the last claimed sequence once the pipeline is closed. */
+  private static final long FERMEE = Long.MAX_VALUE;
+  
+  private final Emplacement[] anneau;
+  private final int masque;
+  private final AtomicLong reservee;
+  private final AtomicLong traitee;
+  private final ExecutorService lecteurs;
+  private final Thread ecrivain;
+  private final Object verrouStatistiques;
+  private final HistogrammeLatences latences;
+  private long lectures;
+  private long lots;
+  private long ajoutsEnLot;
+  private int tailleMaxLot;
+  private volatile boolean endormi;
+  private volatile long derniereAvantFermeture;
+  private volatile boolean ferme;
+  
+  /**
+   * Creates a pipeline of {@link #CAPACITE_DEFAUT} slots, with one reader thread per
+   * processor.
+   */
+  public PipelineCommandes() {
+    this(CAPACITE_DEFAUT, Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Creates a pipeline and starts its threads.
+   *
+   * @param capacite the number of slots of the ring, a power of two
+   * @param nombreLecteurs the number of reader threads
+   * @throws IllegalArgumentException if the capacity is not a power of two of at least
+   *     2, or the number of readers is not positive
+   */
+  public PipelineCommandes(int capacite, int nombreLecteurs) {
+    if (capacite < 2 || Integer.bitCount(capacite) != 1) {
+      throw new IllegalArgumentException("Capacité invalide: " + capacite);
+    }
+    if (nombreLecteurs < 1) {
+      throw new IllegalArgumentException("Nombre de lecteurs invalide: " + nombreLecteurs);
+    }
+    this.anneau = new Emplacement[capacite];
+    for (int i = 0; i < capacite; i++) {
+      anneau[i] = new Emplacement();
+    }
+    this.masque = capacite - 1;
+    this.reservee = new AtomicLong(-1);
+    this.traitee = new AtomicLong(-1);
+    this.lecteurs = Executors.newFixedThreadPool(nombreLecteurs, tache -> {
+      Thread thread = new Thread(tache, "dns-lecteur");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.verrouStatistiques = new Object();
+    this.latences = new HistogrammeLatences();
+    this.ecrivain = new Thread(this::ecrire, "dns-ecrivain");
+    ecrivain.setDaemon(true);
+    ecrivain.start();
+  }
+  
+  /**
+   * Publishes a command, waiting for a free slot if the ring is full.
+   *
+   * @param commande the command
+   * @return a future of the result of the command, failed with its exception
+   */
+  public CompletableFuture<String> publier(Commande commande) {
+    long sequence;
+    while (true) {
+      // Closing swaps the last sequence for FERMEE, so a claim either precedes the
+      // close and is executed, or fails
+      long derniere = reservee.get();
+      if (derniere == FERMEE) {
+        return CompletableFuture.failedFuture(new DnsException("Pipeline de commandes arrêté"));
+      }
+      sequence = derniere + 1;
+      if (sequence - anneau.length > traitee.get()) {
+        // Full: the slot still holds a command the writer has not taken
+        LockSupport.parkNanos(ATTENTE_MAX_NS / 100);
+      } else if (reservee.compareAndSet(derniere, sequence)) {
+        break;
+      }
+    }
+    
+    CompletableFuture<String> resultat = new CompletableFuture<>();
+    Emplacement emplacement = anneau[(int) sequence & masque];
+    emplacement.commande = commande;
+    emplacement.resultat = resultat;
+    emplacement.publication = System.nanoTime();
+    emplacement.sequence = sequence;
+    if (endormi) {
+      LockSupport.unpark(ecrivain);
+    }
+    return resultat;
+  }
+  
+  /**
+   * Publishes a command and waits for its result.
+   *
+   * @param commande the command
+   * @return the result of the command
+   * @throws DnsException if the command failed, or the pipeline is closed
+   */
+  public String executer(Commande commande) throws DnsException {
+    try {
+      return publier(commande).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DnsException("Attente de la commande interrompue", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DnsException) {
+        throw (DnsException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new DnsException(cause.getMessage(), cause);
+    }
+  }
+  
+  /**
+   * Returns the measures of the commands executed so far.
+   *
+   * @return a copy of the measures
+   */
+  public Statistiques getStatistiques() {
+    synchronized (verrouStatistiques) {
+      HistogrammeLatences copie = new HistogrammeLatences();
+      copie.ajouter(latences);
+      return new Statistiques(copie, lectures, lots, ajoutsEnLot, tailleMaxLot);
+    }
+  }
+  
+  /**
+   * Executes the commands already published, then stops the threads. Commands
+   * published afterwards fail.
+   */
+  @Override
+  public void close() {
+    long derniere = reservee.getAndSet(FERMEE);
+    if (derniere == FERMEE) {
+      return;
+    }
+    derniereAvantFermeture = derniere;
+    ferme = true;
+    LockSupport.unpark(ecrivain);
+    try {
+      ecrivain.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    lecteurs.shutdown();
+    try {
+      lecteurs.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Measures of the commands executed by a pipeline.
+   */
+  public static final class Statistiques {
+    private final HistogrammeLatences latences;
+    private final long lectures;
+    private final long lots;
+    private final long ajoutsEnLot;
+    private final int tailleMaxLot;
+    
+    Statistiques(HistogrammeLatences latences, long lectures, long lots, long ajoutsEnLot,
+        int tailleMaxLot) {
+      this.latences = latences;
+      this.lectures = lectures;
+      this.lots = lots;
+      this.ajoutsEnLot = ajoutsEnLot;
+      this.tailleMaxLot = tailleMaxLot;
+    }
+    
+    /**
+     * Returns the number of executed commands.
+     *
+     * @return the number of executed commands
+     */
+    public long getNombre() {
+      return latences.getNombre();
+    }
+    
+    /**
+     * Returns the number of commands executed by the reader threads.
+     *
+     * @return the number of read-only commands
+     */
+    public long getLectures() {
+      return lectures;
+    }
+    
+    /**
+     * Returns the latencies from the publication of the commands to their results.
+     *
+     * @return the histogram of the latencies
+     */
+    public HistogrammeLatences getLatences() {
+      return latences;
+    }
+    
+    /**
+     * Returns the number of batches of additions applied.
+     *
+     * @return the number of batches
+     */
+    public long getNombreLots() {
+      return lots;
+    }
+    
+    /**
+     * Returns the average number of additions per batch.
+     *
+     * @return the average batch size, 0 if no batch was applied
+     */
+    public double getTailleMoyenneLot() {
+      return lots == 0 ? 0 : (double) ajoutsEnLot / lots;
+    }
+    
+    /**
+     * Returns the number of additions of the largest batch.
+     *
+     * @return the largest batch size
+     */
+    public int getTailleMaxLot() {
+      return tailleMaxLot;
+    }
+    
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "Commandes: %d dont %d lecture(s), %d lot(s) d'ajouts (taille moyenne %.1f, max %d)\n"
+          + "Latence: p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs, max %.1f µs",
+          getNombre(), lectures, lots, getTailleMoyenneLot(), tailleMaxLot,
+          latences.getCentile(50) / 1e3, latences.getCentile(99) / 1e3,
+          latences.getCentile(99.9) / 1e3, latences.getMaximum() / 1e3);
+    }
+  }
+  
+  /**
+   * Slot of the ring. Its fields are written by the producer that claimed it, then
+   * published by the write of its sequence number.
+   */
+  private static final class Emplacement {
+    private volatile long sequence = -1;
+    private Commande commande;
+    private CompletableFuture<String> resultat;
+    private long publication;
+  }
+  
+  /**
+   * A command taken from the ring.
+   */
+  private static final class Publiee {
+    private final Commande commande;
+    private final CompletableFuture<String> resultat;
+    private final long publication;
+    
+    Publiee(Commande commande, CompletableFuture<String> resultat, long publication) {
+      this.commande = commande;
+      this.resultat = resultat;
+      this.publication = publication;
+    }
+  }
+  
+  /**
+   * Loop of the writer thread: takes the slots in order until the pipeline is closed
+   * and every claimed slot is taken.
+   */
+  private void ecrire() {
+    List<Publiee> lot = new ArrayList<>(TAILLE_LOT_MAX);
+    for (long suivante = 0; ; suivante++) {
+      Emplacement emplacement = anneau[(int) suivante & masque];
+      if (emplacement.sequence != suivante) {
+        // Nothing else is waiting: the batch would only grow by delaying it
+        appliquer(lot);
+        while (emplacement.sequence != suivante) {
+          if (ferme && derniereAvantFermeture < suivante) {
+            return;
+          }
+          attendre(emplacement, suivante);
+        }
+      }
+      
+      Publiee publiee = new Publiee(emplacement.commande, emplacement.resultat,
+          emplacement.publication);
+      CommandeAjouterEntree ajout = publiee.commande.ajoutGroupable();
+      emplacement.commande = null;
+      emplacement.resultat = null;
+      traitee.set(suivante);
+      
+      Commande commande = publiee.commande;
+      if (commande.estLecture()) {
+        // The pending batch first, so the read sees the additions published before it
+        appliquer(lot);
+        try {
+          lecteurs.execute(() -> executer(publiee, true));
+        } catch (RejectedExecutionException e) {
+          executer(publiee, true);
+        }
+      } else if (ajout != null) {
+        if (!lot.isEmpty() && (lot.size() == TAILLE_LOT_MAX
+            || lot.get(0).commande.ajoutGroupable().getDns() != ajout.getDns())) {
+          appliquer(lot);
+        }
+        lot.add(publiee);
+      } else {
+        appliquer(lot);
+        executer(publiee, false);
+      }
+    }
+  }
+  
+  /**
+   * Waits a little for a slot to be published: spins first, then parks until a
+   * producer wakes the writer up.
+   */
+  private void attendre(Emplacement emplacement, long sequence) {
+    for (int i = 0; i < ESSAIS_AVANT_ATTENTE; i++) {
+      if (emplacement.sequence == sequence) {
+        return;
+      }
+      Thread.onSpinWait();
+    }
+    endormi = true;
+    // Checked again after the flag is set, as producers check the flag after publishing
+    if (emplacement.sequence != sequence && !ferme) {
+      LockSupport.parkNanos(ATTENTE_MAX_NS);
+    }
+    endormi = false;
+  }
+  
+  private void executer(Publiee publiee, boolean lecture) {
+    String resultat = null;
+    Exception erreur = null;
+    try {
+      resultat = publiee.commande.execute();
+    } catch (DnsException | RuntimeException e) {
+      erreur = e;
+    }
+    long latence = System.nanoTime() - publiee.publication;
+    synchronized (verrouStatistiques) {
+      latences.enregistrer(latence);
+      if (lecture) {
+        lectures++;
+      }
+    }
+    terminer(publiee, resultat, erreur);
+  }
+  
+  /**
+   * Applies a batch of additions to one service with a single import, then empties it.
+   * Each addition fails as it would alone when its address or name is used by the
+   * service or by an earlier addition of the batch.
+   *
+   * @param lot the additions, in publication order
+   */
+  private void appliquer(List<Publiee> lot) {
+    if (lot.isEmpty()) {
+      return;
+    }
+    Dns dns = lot.get(0).commande.ajoutGroupable().getDns();
+    List<Publiee> candidates = new ArrayList<>(lot.size());
+    List<DnsItem> items = new ArrayList<>(lot.size());
+    List<Publiee> refusees = new ArrayList<>();
+    List<Exception> erreurs = new ArrayList<>();
+    Set<AdresseIP> adresses = new HashSet<>();
+    Set<NomMachine> noms = new HashSet<>();
+    for (Publiee publiee : lot) {
+      try {
+        DnsItem item = publiee.commande.ajoutGroupable().entree();
+        if (adresses.contains(item.getAdresseIp()) || dns.getItem(item.getAdresseIp()) != null) {
+          throw new DnsException("ERREUR : L'adresse IP existe déjà !");
+        }
+        if (noms.contains(item.getNomMachine()) || dns.getItem(item.getNomMachine()) != null) {
+          throw new DnsException("ERREUR : Le nom de machine existe déjà !");
+        }
+        adresses.add(item.getAdresseIp());
+        noms.add(item.getNomMachine());
+        candidates.add(publiee);
+        items.add(item);
+      } catch (DnsException | RuntimeException e) {
+        refusees.add(publiee);
+        erreurs.add(e);
+      }
+    }
+    
+    Exception erreurImport = null;
+    if (!items.isEmpty()) {
+      List<JournalLenteurs.Tracee> tracees = new ArrayList<>();
+      for (Publiee publiee : candidates) {
+        if (publiee.commande.tracee() != null) {
+          tracees.add(publiee.commande.tracee());
+        }
+      }
+      try {
+        if (tracees.isEmpty()) {
+          dns.importer(lecteur(items));
+        } else {
+          // The commands of a batch are never executed, so the batch is traced instead
+          tracees.get(0).getJournal().tracerLot(tracees, () -> {
+            dns.importer(lecteur(items));
+            return null;
+          });
+        }
+      } catch (DnsException | RuntimeException e) {
+        erreurImport = e;
+      }
+    }
+    
+    long fin = System.nanoTime();
+    synchronized (verrouStatistiques) {
+      for (Publiee publiee : lot) {
+        latences.enregistrer(fin - publiee.publication);
+      }
+      lots++;
+      ajoutsEnLot += lot.size();
+      tailleMaxLot = Math.max(tailleMaxLot, lot.size());
+    }
+    for (int i = 0; i < refusees.size(); i++) {
+      terminer(refusees.get(i), null, erreurs.get(i));
+    }
+    for (int i = 0; i < candidates.size(); i++) {
+      Publiee publiee = candidates.get(i);
+      DnsItem item = items.get(i);
+      if (erreurImport != null) {
+        terminer(publiee, null, erreurImport);
+      } else if (item.equals(dns.getItem(item.getNomMachine()))) {
+        terminer(publiee, publiee.commande.ajoutGroupable().confirmation(), null);
+      } else if (dns.getItem(item.getAdresseIp()) != null) {
+        // Taken meanwhile by a change made outside the pipeline, such as a reload
+        terminer(publiee, null, new DnsException("ERREUR : L'adresse IP existe déjà !"));
+      } else {
+        terminer(publiee, null, new DnsException("ERREUR : Le nom de machine existe déjà !"));
+      }
+    }
+    lot.clear();
+  }
+  
+  private static void terminer(Publiee publiee, String resultat, Exception erreur) {
+    if (erreur == null) {
+      publiee.resultat.complete(resultat);
+    } else {
+      publiee.resultat.completeExceptionally(erreur);
+    }
+  }
+  
+  /**
+   * Returns a reader of entries already in memory.
+   */
+  private static LecteurEntrees lecteur(List<DnsItem> items) {
+    Iterator<DnsItem> suivantes = items.iterator();
+    return new LecteurEntrees() {
+      @Override
+      public DnsItem suivante() {
+        return suivantes.hasNext() ? suivantes.next() : null;
+      }
+      
+      @Override
+      public int getNombreIgnores() {
+        return 0;
+      }
+      
+      @Override
+      public void close() {
+        // Nothing to release
+      }
+    };
+  }
+}
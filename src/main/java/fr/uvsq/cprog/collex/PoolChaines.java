@@ -0,0 +1,43 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of strings shared by the stores of a process, so that a string retained by
+ * several stores, such as a machine name served by two zones or a trigram of the
+ * suggestion indexes, is kept only once in the heap.
+ *
+ * <p>Strings stay in the pool for the life of the pool; it is meant for the strings of
+ * loaded zones, which change slowly, not for the strings of queries.
+ */
+public final class PoolChaines {
+  
+  private final ConcurrentHashMap<String, String> chaines;
+  
+  /**
+   * Creates an empty pool.
+   */
+  public PoolChaines() {
+    this.chaines = new ConcurrentHashMap<>();
+  }
+  
+  /**
+   * Returns the pooled string equal to a string, adding it if it is new.
+   *
+   * @param chaine the string
+   * @return the string of the pool, which is the given one if it was not pooled yet
+   */
+  public String partager(String chaine) {
+    String existante = chaines.putIfAbsent(chaine, chaine);
+    return existante == null ? chaine : existante;
+  }
+  
+  /**
+   * Returns the number of pooled strings.
+   *
+   * @return the number of strings
+   */
+  public int size() {
+    return chaines.size();
+  }
+}
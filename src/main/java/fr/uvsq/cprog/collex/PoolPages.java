@@ -0,0 +1,490 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-size cache of the pages of a file, so that a store larger than the heap is
+ * read a page at a time. Pages are pinned while in use; when a page must be loaded and
+ * no frame is free, the clock algorithm evicts a page not used since the hand last
+ * went past it, writing it first if it was changed.
+ *
+ * <p>Changes are grouped in transactions, made durable together by {@link #valider()}.
+ * Before a page of the file is changed for the first time in a transaction, its
+ * original image is appended to a rollback journal next to the file, with a checksum.
+ * The journal is flushed to disk before any changed page is written in place, so that
+ * a crash at any point leaves either an empty journal, and the file holds the last
+ * committed state, or a journal whose images restore it when the file is next opened.
+ * A torn last record of the journal is ignored: its page was never written in place.
+ *
+ * <p>Thread-safe: the frames are managed under the monitor of the pool. Pinned pages
+ * may be read by several threads at once, using absolute accessors only, but must be
+ * changed by a single thread, with no reader.
+ */
+public class PoolPages implements AutoCloseable {
+  
+  /** Size of a page of the file, in bytes. */
+  public static final int TAILLE_PAGE = 4096;
+  
+  private static final int MAGIQUE_JOURNAL = 0x444e534a;
+  private static final int TAILLE_ENTETE_JOURNAL = 12;
+  private static final int TAILLE_ENREGISTREMENT = 8 + TAILLE_PAGE;
+  
+  private final FileChannel fichier;
+  private final FileChannel journal;
+  private final ByteBuffer[] cadres;
+  private final int[] pages;
+  private final int[] epingles;
+  private final boolean[] references;
+  private final boolean[] sales;
+  private final Map<Integer, Integer> table;
+  private final Set<Integer> journalisees;
+  private int aiguille;
+  private int nombrePages;
+  private long lectures;
+  private long acces;
+  
+  /** Number of pages of the file when the transaction started, -1 outside one. */
+  private int pagesInitiales;
+  private long finJournal;
+  private boolean journalSynchronise;
+  
+  /**
+   * Opens a file of pages, created if absent, and restores its last committed state if
+   * a transaction was interrupted by a crash.
+   *
+   * @param chemin the file
+   * @param nombreCadres the number of pages kept in memory
+   * @throws IOException if the file or its journal cannot be opened or restored
+   * @throws IllegalArgumentException if the number of frames is below 2
+   */
+  public PoolPages(Path chemin, int nombreCadres) throws IOException {
+    if (nombreCadres < 2) {
+      throw new IllegalArgumentException("Nombre de pages en mémoire invalide: "
+          + nombreCadres);
+    }
+    this.fichier = FileChannel.open(chemin, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      this.journal = FileChannel.open(fichierJournal(chemin), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      fichier.close();
+      throw e;
+    }
+    this.cadres = new ByteBuffer[nombreCadres];
+    for (int i = 0; i < nombreCadres; i++) {
+      cadres[i] = ByteBuffer.allocate(TAILLE_PAGE);
+    }
+    this.pages = new int[nombreCadres];
+    Arrays.fill(pages, -1);
+    this.epingles = new int[nombreCadres];
+    this.references = new boolean[nombreCadres];
+    this.sales = new boolean[nombreCadres];
+    this.table = new HashMap<>();
+    this.journalisees = new HashSet<>();
+    this.pagesInitiales = -1;
+    
+    try {
+      restaurer();
+    } catch (IOException e) {
+      abandonner();
+      throw e;
+    }
+  }
+  
+  /**
+   * Returns the rollback journal of a file of pages.
+   *
+   * @param chemin the file
+   * @return the path of its journal
+   */
+  static Path fichierJournal(Path chemin) {
+    return chemin.resolveSibling(chemin.getFileName() + "-journal");
+  }
+  
+  /**
+   * Returns the number of pages of the file, including the pages allocated by the
+   * current transaction.
+   *
+   * @return the number of pages
+   */
+  public synchronized int getNombrePages() {
+    return nombrePages;
+  }
+  
+  /**
+   * Returns the number of pages kept in memory.
+   *
+   * @return the number of frames
+   */
+  public int getNombreCadres() {
+    return cadres.length;
+  }
+  
+  /**
+   * Returns the number of pages read from the file since the pool was opened.
+   *
+   * @return the number of reads
+   */
+  public synchronized long getLectures() {
+    return lectures;
+  }
+  
+  /**
+   * Returns the number of pages pinned since the pool was opened, read from the file
+   * or found in memory.
+   *
+   * @return the number of accesses
+   */
+  public synchronized long getAcces() {
+    return acces;
+  }
+  
+  /**
+   * Pins a page in memory, reading it from the file if needed. The page stays in the
+   * same frame until it is released by {@link #relacher(int)}.
+   *
+   * @param numero the page number
+   * @return the frame holding the page, to access with absolute accessors only
+   * @throws IOException if the page cannot be read, or a changed page written
+   * @throws IllegalArgumentException if the page does not exist
+   * @throws IllegalStateException if every frame holds a pinned page
+   */
+  public synchronized ByteBuffer epingler(int numero) throws IOException {
+    if (numero < 0 || numero >= nombrePages) {
+      throw new IllegalArgumentException("Page inexistante: " + numero);
+    }
+    acces++;
+    Integer cadre = table.get(numero);
+    if (cadre == null) {
+      int libre = cadreLibre();
+      ByteBuffer tampon = cadres[libre];
+      tampon.clear();
+      long position = (long) numero * TAILLE_PAGE;
+      while (tampon.hasRemaining()) {
+        if (fichier.read(tampon, position + tampon.position()) < 0) {
+          throw new IOException("Page " + numero + " tronquée");
+        }
+      }
+      lectures++;
+      attribuer(libre, numero);
+      cadre = libre;
+    }
+    epingles[cadre]++;
+    references[cadre] = true;
+    return cadres[cadre];
+  }
+  
+  /**
+   * Releases a page pinned by {@link #epingler(int)}, which may then be evicted.
+   *
+   * @param numero the page number
+   */
+  public synchronized void relacher(int numero) {
+    Integer cadre = table.get(numero);
+    if (cadre == null || epingles[cadre] == 0) {
+      throw new IllegalStateException("Page non épinglée: " + numero);
+    }
+    epingles[cadre]--;
+  }
+  
+  /**
+   * Declares that a pinned page is about to be changed, starting a transaction if
+   * needed. The original image of the page is journaled the first time.
+   *
+   * @param numero the number of a pinned page
+   * @throws IOException if the journal cannot be written
+   */
+  public synchronized void modifier(int numero) throws IOException {
+    Integer cadre = table.get(numero);
+    if (cadre == null || epingles[cadre] == 0) {
+      throw new IllegalStateException("Page non épinglée: " + numero);
+    }
+    debuter();
+    if (numero < pagesInitiales && journalisees.add(numero)) {
+      CRC32 somme = new CRC32();
+      ByteBuffer image = cadres[cadre].duplicate();
+      image.clear();
+      somme.update(image);
+      ByteBuffer enregistrement = ByteBuffer.allocate(TAILLE_ENREGISTREMENT);
+      enregistrement.putInt(numero).putInt((int) somme.getValue());
+      image.clear();
+      enregistrement.put(image).flip();
+      ecrireJournal(enregistrement);
+    }
+    sales[cadre] = true;
+  }
+  
+  /**
+   * Adds a page, filled with zeros, at the end of the file, in the current transaction.
+   * The page is not pinned.
+   *
+   * @return the number of the new page
+   * @throws IOException if the journal cannot be written, or a changed page written
+   */
+  public synchronized int allouer() throws IOException {
+    debuter();
+    int libre = cadreLibre();
+    ByteBuffer tampon = cadres[libre];
+    Arrays.fill(tampon.array(), (byte) 0);
+    int numero = nombrePages++;
+    attribuer(libre, numero);
+    sales[libre] = true;
+    return numero;
+  }
+  
+  /**
+   * Makes the changes of the current transaction durable: the changed pages are written
+   * and flushed, then the journal is emptied, which is the commit point.
+   *
+   * @throws IOException if the pages or the journal cannot be written; the transaction
+   *     is then still in progress and can be cancelled
+   */
+  public synchronized void valider() throws IOException {
+    if (pagesInitiales < 0) {
+      return;
+    }
+    for (int i = 0; i < cadres.length; i++) {
+      if (sales[i]) {
+        ecrire(i);
+      }
+    }
+    fichier.force(true);
+    journal.truncate(0);
+    journal.force(false);
+    terminer();
+  }
+  
+  /**
+   * Cancels the changes of the current transaction, restoring the journaled pages and
+   * dropping the allocated ones.
+   *
+   * @throws IOException if the file cannot be restored
+   */
+  public synchronized void annuler() throws IOException {
+    if (pagesInitiales < 0) {
+      return;
+    }
+    for (int i = 0; i < cadres.length; i++) {
+      if (epingles[i] > 0) {
+        throw new IllegalStateException("Page épinglée pendant l'annulation: " + pages[i]);
+      }
+      liberer(i);
+    }
+    journal.force(false);
+    restaurer();
+  }
+  
+  /**
+   * Cancels the current transaction and closes the file.
+   *
+   * @throws IOException if the transaction cannot be cancelled or the file closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      annuler();
+    } finally {
+      abandonner();
+    }
+  }
+  
+  /**
+   * Closes the file without committing nor cancelling the current transaction, as a
+   * crash would; the next opening restores the last committed state.
+   */
+  synchronized void abandonner() {
+    try {
+      fichier.close();
+    } catch (IOException e) {
+      // Already lost, as in a crash
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      // Already lost, as in a crash
+    }
+  }
+  
+  /**
+   * Returns the heap retained by the frames of the pool.
+   *
+   * @return the estimated bytes
+   * @see EmpreinteMemoire
+   */
+  long tailleMemoire() {
+    long octets = EmpreinteMemoire.objet(9, 4 * 4 + 8 * 3 + 1)
+        + EmpreinteMemoire.tableau(cadres.length, EmpreinteMemoire.REFERENCE)
+        + cadres.length * (EmpreinteMemoire.objet(1, 32)
+            + EmpreinteMemoire.tableau(TAILLE_PAGE, 1))
+        + 2 * EmpreinteMemoire.tableau(cadres.length, 4)
+        + 2 * EmpreinteMemoire.tableau(cadres.length, 1);
+    // Page table: a HashMap node and two boxed integers per frame
+    return octets + EmpreinteMemoire.tableHachage(cadres.length)
+        + 2L * cadres.length * EmpreinteMemoire.objet(0, 4);
+  }
+  
+  /**
+   * Returns a frame for a page to load, evicting with the clock algorithm: the hand
+   * skips pinned pages and gives a second chance to the pages used since its last
+   * pass, then evicts the first other page, writing it if it was changed.
+   *
+   * @return the index of a free frame
+   * @throws IOException if the evicted page cannot be written
+   */
+  private int cadreLibre() throws IOException {
+    for (int tour = 0; tour < 2 * cadres.length; tour++) {
+      int i = aiguille;
+      aiguille = (aiguille + 1) % cadres.length;
+      if (pages[i] < 0) {
+        return i;
+      }
+      if (epingles[i] > 0) {
+        continue;
+      }
+      if (references[i]) {
+        references[i] = false;
+        continue;
+      }
+      if (sales[i]) {
+        ecrire(i);
+      }
+      liberer(i);
+      return i;
+    }
+    throw new IllegalStateException("Toutes les pages en mémoire sont épinglées");
+  }
+  
+  private void attribuer(int cadre, int numero) {
+    pages[cadre] = numero;
+    table.put(numero, cadre);
+    references[cadre] = true;
+    sales[cadre] = false;
+  }
+  
+  private void liberer(int cadre) {
+    if (pages[cadre] >= 0) {
+      table.remove(pages[cadre]);
+    }
+    pages[cadre] = -1;
+    references[cadre] = false;
+    sales[cadre] = false;
+  }
+  
+  /**
+   * Writes a changed page in place, once the journal holding its original image is
+   * on disk.
+   *
+   * @param cadre the frame of the page
+   * @throws IOException if the journal or the page cannot be written
+   */
+  private void ecrire(int cadre) throws IOException {
+    if (!journalSynchronise) {
+      journal.force(false);
+      journalSynchronise = true;
+    }
+    ByteBuffer tampon = cadres[cadre].duplicate();
+    tampon.clear();
+    long position = (long) pages[cadre] * TAILLE_PAGE;
+    while (tampon.hasRemaining()) {
+      fichier.write(tampon, position + tampon.position());
+    }
+    sales[cadre] = false;
+  }
+  
+  /**
+   * Starts a transaction if none is in progress, journaling the number of pages of the
+   * file so that the pages allocated meanwhile are dropped by a rollback.
+   *
+   * @throws IOException if the journal cannot be written
+   */
+  private void debuter() throws IOException {
+    if (pagesInitiales >= 0) {
+      return;
+    }
+    ByteBuffer entete = ByteBuffer.allocate(TAILLE_ENTETE_JOURNAL);
+    entete.putInt(MAGIQUE_JOURNAL).putInt(nombrePages).putInt(TAILLE_PAGE).flip();
+    finJournal = 0;
+    pagesInitiales = nombrePages;
+    ecrireJournal(entete);
+  }
+  
+  private void ecrireJournal(ByteBuffer donnees) throws IOException {
+    while (donnees.hasRemaining()) {
+      finJournal += journal.write(donnees, finJournal);
+    }
+    journalSynchronise = false;
+  }
+  
+  private void terminer() {
+    pagesInitiales = -1;
+    journalisees.clear();
+    finJournal = 0;
+    journalSynchronise = true;
+  }
+  
+  /**
+   * Restores the file from its journal, if a transaction was not committed, then
+   * empties the journal.
+   *
+   * @throws IOException if the file cannot be restored
+   */
+  private void restaurer() throws IOException {
+    ByteBuffer entete = ByteBuffer.allocate(TAILLE_ENTETE_JOURNAL);
+    lire(journal, entete, 0);
+    if (!entete.hasRemaining() && entete.getInt(0) == MAGIQUE_JOURNAL
+        && entete.getInt(8) == TAILLE_PAGE) {
+      int pagesValidees = entete.getInt(4);
+      ByteBuffer enregistrement = ByteBuffer.allocate(TAILLE_ENREGISTREMENT);
+      for (long position = TAILLE_ENTETE_JOURNAL; ; position += TAILLE_ENREGISTREMENT) {
+        enregistrement.clear();
+        lire(journal, enregistrement, position);
+        if (enregistrement.hasRemaining()) {
+          break;
+        }
+        int numero = enregistrement.getInt(0);
+        CRC32 somme = new CRC32();
+        enregistrement.position(8);
+        somme.update(enregistrement);
+        if ((int) somme.getValue() != enregistrement.getInt(4)
+            || numero < 0 || numero >= pagesValidees) {
+          break;
+        }
+        enregistrement.position(8);
+        long cible = (long) numero * TAILLE_PAGE;
+        while (enregistrement.hasRemaining()) {
+          fichier.write(enregistrement, cible + enregistrement.position() - 8);
+        }
+      }
+      fichier.truncate((long) pagesValidees * TAILLE_PAGE);
+      fichier.force(true);
+    }
+    journal.truncate(0);
+    journal.force(false);
+    // A page partly appended outside a transaction cannot be valid
+    nombrePages = (int) (fichier.size() / TAILLE_PAGE);
+    terminer();
+  }
+  
+  /**
+   * Reads from a position until the buffer is full or the end of the file.
+   */
+  private static void lire(FileChannel canal, ByteBuffer tampon, long position)
+      throws IOException {
+    while (tampon.hasRemaining()) {
+      if (canal.read(tampon, position + tampon.position()) < 0) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the committed changes of a DNS service to reactive subscribers, so that
+ * downstream caches can follow the database without scanning it.
+ *
+ * <p>Each subscriber has its own buffer of changes, filled as changes are committed
+ * and drained on an executor as the subscriber requests them. When the buffer of a
+ * slow subscriber is full, the configured {@link Politique} applies. A subscriber
+ * receives only the changes committed after it subscribed: it should subscribe, then
+ * read {@link Dns#instantane()} and ignore the changes whose sequence number is not
+ * greater than the one of the snapshot.
+ */
+public class PublicateurChangements implements Flow.Publisher<DnsChange>, AutoCloseable {
+  
+  /** Default number of changes buffered per subscriber. */
+  public static final int TAILLE_TAMPON_DEFAUT = 1024;
+  
+  /**
+   * Handling of a change that does not fit in the buffer of a subscriber.
+   */
+  public enum Politique {
+    /**
+     * The subscriber receives the buffered changes, then an error: it must rebuild its
+     * state from a snapshot and subscribe again.
+     */
+    DECONNECTER,
+    /** The new change is dropped for this subscriber, which sees a gap in sequences. */
+    ABANDONNER_NOUVEAUX,
+    /** The oldest buffered change is dropped to make room for the new one. */
+    ABANDONNER_ANCIENS
+  }
+  
+  private final Dns dns;
+  private final Executor executeur;
+  private final int tailleTampon;
+  private final Politique politique;
+  private final List<Abonnement> abonnements;
+  private final Consumer<DnsChange> ecouteur;
+  private volatile boolean ferme;
+  
+  /**
+   * Creates a publisher of the changes of a DNS service, delivering on the common pool
+   * when it has several threads, and on a new thread per delivery otherwise.
+   *
+   * @param dns the DNS service
+   * @param tailleTampon the number of changes buffered per subscriber
+   * @param politique the handling of changes that do not fit in a buffer
+   * @throws DnsException if the service does not publish its changes
+   */
+  public PublicateurChangements(Dns dns, int tailleTampon, Politique politique)
+      throws DnsException {
+    this(dns, ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool()
+        : tache -> {
+          Thread thread = new Thread(tache, "dns-publication");
+          thread.setDaemon(true);
+          thread.start();
+        }, tailleTampon, politique);
+  }
+  
+  /**
+   * Creates a publisher of the changes of a DNS service.
+   *
+   * @param dns the DNS service
+   * @param executeur the executor delivering the changes to subscribers
+   * @param tailleTampon the number of changes buffered per subscriber
+   * @param politique the handling of changes that do not fit in a buffer
+   * @throws IllegalArgumentException if the buffer size is not positive
+   * @throws DnsException if the service does not publish its changes
+   */
+  public PublicateurChangements(Dns dns, Executor executeur, int tailleTampon,
+      Politique politique) throws DnsException {
+    if (tailleTampon < 1) {
+      throw new IllegalArgumentException("Taille de tampon invalide: " + tailleTampon);
+    }
+    this.dns = dns;
+    this.executeur = executeur;
+    this.tailleTampon = tailleTampon;
+    this.politique = Objects.requireNonNull(politique);
+    this.abonnements = new CopyOnWriteArrayList<>();
+    this.ecouteur = this::publier;
+    dns.ajouterEcouteur(ecouteur);
+  }
+  
+  @Override
+  public void subscribe(Flow.Subscriber<? super DnsChange> abonne) {
+    Abonnement abonnement = new Abonnement(Objects.requireNonNull(abonne));
+    abonnements.add(abonnement);
+    if (ferme) {
+      abonnement.terminer(null);
+    }
+    abonnement.planifier();
+  }
+  
+  /**
+   * Returns the number of current subscribers.
+   *
+   * @return the number of subscribers
+   */
+  public int getNombreAbonnes() {
+    return abonnements.size();
+  }
+  
+  /**
+   * Buffers a committed change for every subscriber. Called by the DNS service while
+   * writes are blocked, so it never waits for a subscriber.
+   *
+   * @param changement the committed change
+   */
+  private void publier(DnsChange changement) {
+    for (Abonnement abonnement : abonnements) {
+      abonnement.offrir(changement);
+    }
+  }
+  
+  /**
+   * Stops publishing: each subscriber receives its buffered changes, then completes.
+   */
+  @Override
+  public void close() {
+    ferme = true;
+    dns.retirerEcouteur(ecouteur);
+    for (Abonnement abonnement : abonnements) {
+      abonnement.terminer(null);
+    }
+  }
+  
+  /**
+   * A subscriber with its buffer and its outstanding demand. Signals are delivered by
+   * at most one task at a time, which drains the buffer while there is demand.
+   */
+  private final class Abonnement implements Flow.Subscription {
+    private final Flow.Subscriber<? super DnsChange> abonne;
+    private final ArrayDeque<DnsChange> tampon;
+    private final AtomicLong demande;
+    private final AtomicInteger travail;
+    private boolean inscrit;
+    private volatile boolean annule;
+    private boolean termine;
+    private Throwable erreur;
+    
+    Abonnement(Flow.Subscriber<? super DnsChange> abonne) {
+      this.abonne = abonne;
+      this.tampon = new ArrayDeque<>();
+      this.demande = new AtomicLong();
+      this.travail = new AtomicInteger();
+    }
+    
+    /**
+     * Buffers a change, applying the policy if the buffer is full.
+     *
+     * @param changement the change
+     */
+    void offrir(DnsChange changement) {
+      synchronized (this) {
+        if (termine || annule) {
+          return;
+        }
+        if (tampon.size() >= tailleTampon) {
+          switch (politique) {
+            case DECONNECTER:
+              termine = true;
+              erreur = new DnsException("Abonné trop lent: changements perdus à partir"
+                  + " du numéro " + changement.getSequence());
+              break;
+            case ABANDONNER_NOUVEAUX:
+              return;
+            default:
+              tampon.pollFirst();
+              tampon.addLast(changement);
+              break;
+          }
+        } else {
+          tampon.addLast(changement);
+        }
+      }
+      planifier();
+    }
+    
+    /**
+     * Ends the subscription once the buffered changes are delivered.
+     *
+     * @param cause the error to signal, or null to complete normally
+     */
+    void terminer(Throwable cause) {
+      synchronized (this) {
+        if (!termine) {
+          termine = true;
+          erreur = cause;
+        }
+      }
+      planifier();
+    }
+    
+    @Override
+    public void request(long nombre) {
+      if (nombre <= 0) {
+        terminer(new IllegalArgumentException("Demande non positive: " + nombre));
+        return;
+      }
+      demande.getAndUpdate(courante -> courante + nombre < 0 ? Long.MAX_VALUE
+          : courante + nombre);
+      planifier();
+    }
+    
+    @Override
+    public void cancel() {
+      annule = true;
+      abonnements.remove(this);
+      synchronized (this) {
+        tampon.clear();
+      }
+    }
+    
+    /**
+     * Starts a delivery task unless one is running, which then loops once more.
+     */
+    void planifier() {
+      if (travail.getAndIncrement() == 0) {
+        try {
+          executeur.execute(this::livrer);
+        } catch (RejectedExecutionException e) {
+          cancel();
+        }
+      }
+    }
+    
+    /**
+     * Delivers the buffered changes while there is demand, then the end of the
+     * subscription if it is over.
+     */
+    private void livrer() {
+      int passes = 1;
+      do {
+        if (!inscrit) {
+          inscrit = true;
+          abonne.onSubscribe(this);
+        }
+        while (!annule) {
+          DnsChange changement = null;
+          boolean fin;
+          Throwable cause;
+          synchronized (this) {
+            if (demande.get() > 0 && !tampon.isEmpty()) {
+              changement = tampon.pollFirst();
+            }
+            fin = termine && tampon.isEmpty();
+            cause = erreur;
+          }
+          if (changement != null) {
+            demande.getAndUpdate(courante -> courante == Long.MAX_VALUE ? courante
+                : courante - 1);
+            abonne.onNext(changement);
+          } else {
+            if (fin) {
+              cancel();
+              if (cause == null) {
+                abonne.onComplete();
+              } else {
+                abonne.onError(cause);
+              }
+            }
+            break;
+          }
+        }
+        passes = travail.addAndGet(-passes);
+      } while (passes != 0);
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Streaming tracker of the most queried keys, such as the names or addresses looked up,
+ * in a fixed amount of memory whatever the number of distinct keys.
+ *
+ * <p>Every key is counted in a count-min sketch: a few rows of counters, each key
+ * incrementing one counter per row, its estimate being the smallest of them. Estimates
+ * never fall below the true count and exceed it by at most a small share of the total.
+ * The keys with the highest estimates are kept as candidates in stripes chosen by hash,
+ * each holding up to the tracked number of keys, so that the top keys are found without
+ * keeping every key. The count of a candidate is read from the sketch, so a query of a
+ * candidate only increments the counters and checks a concurrent set of the candidates,
+ * without lock. A stripe is locked only when a key that is not a candidate reaches the
+ * smallest count of its candidates, which the rare keys seldom do once it is full.
+ *
+ * <p>At the end of every time window all the counts are halved, so the ranking follows
+ * the recent traffic and a key that stops being queried fades out.
+ */
+public class RequetesFrequentes {
+  
+  private static final int PROFONDEUR = 4;
+  private static final int LARGEUR = 1024;
+  private static final int NOMBRE_BANDES = 8;
+  
+  private final AtomicLongArray compteurs;
+  private final Bande[] bandes;
+  private final int capacite;
+  private final long fenetreNanos;
+  private final LongSupplier horloge;
+  private final AtomicLong prochaineDecroissance;
+  
+  /**
+   * Creates an empty tracker.
+   *
+   * @param capacite the number of most queried keys to track
+   * @param fenetre the duration after which the counts are halved
+   * @param unite the unit of the duration
+   * @throws IllegalArgumentException if the capacity or the duration is not positive
+   */
+  public RequetesFrequentes(int capacite, long fenetre, TimeUnit unite) {
+    this(capacite, unite.toNanos(fenetre), System::nanoTime);
+  }
+  
+  /**
+   * Creates an empty tracker reading the time from a clock.
+   *
+   * @param capacite the number of most queried keys to track
+   * @param fenetreNanos the duration after which the counts are halved, in nanoseconds
+   * @param horloge the clock, in nanoseconds
+   * @throws IllegalArgumentException if the capacity or the duration is not positive
+   */
+  RequetesFrequentes(int capacite, long fenetreNanos, LongSupplier horloge) {
+    if (capacite < 1) {
+      throw new IllegalArgumentException("Capacité invalide: " + capacite);
+    }
+    if (fenetreNanos < 1) {
+      throw new IllegalArgumentException("Fenêtre invalide: " + fenetreNanos);
+    }
+    this.compteurs = new AtomicLongArray(PROFONDEUR * LARGEUR);
+    this.bandes = new Bande[NOMBRE_BANDES];
+    for (int i = 0; i < NOMBRE_BANDES; i++) {
+      bandes[i] = new Bande(capacite);
+    }
+    this.capacite = capacite;
+    this.fenetreNanos = fenetreNanos;
+    this.horloge = horloge;
+    this.prochaineDecroissance = new AtomicLong(horloge.getAsLong() + fenetreNanos);
+  }
+  
+  /**
+   * Counts a query of a key.
+   *
+   * @param cle the queried key
+   */
+  public void enregistrer(String cle) {
+    avancer();
+    long h1 = melanger(cle.hashCode());
+    long h2 = (h1 >>> 32) | 1;
+    long estimation = Long.MAX_VALUE;
+    for (int i = 0; i < PROFONDEUR; i++) {
+      int colonne = (int) Long.remainderUnsigned(h1 + i * h2, LARGEUR);
+      estimation = Math.min(estimation, compteurs.incrementAndGet(i * LARGEUR + colonne));
+    }
+    
+    Bande bande = bandes[(int) (h1 >>> 61)];
+    if (estimation > bande.seuil && !bande.membres.contains(cle)) {
+      bande.proposer(cle, estimation);
+    }
+  }
+  
+  /**
+   * Returns the estimated count of a key in the current windows.
+   *
+   * @param cle the key
+   * @return an estimate at least equal to the decayed count of the key
+   */
+  public long estimer(String cle) {
+    avancer();
+    return estimation(cle);
+  }
+  
+  /**
+   * Returns the estimated count of a key, without decaying the counts first.
+   *
+   * @param cle the key
+   * @return the smallest of the counters of the key
+   */
+  private long estimation(String cle) {
+    long h1 = melanger(cle.hashCode());
+    long h2 = (h1 >>> 32) | 1;
+    long estimation = Long.MAX_VALUE;
+    for (int i = 0; i < PROFONDEUR; i++) {
+      int colonne = (int) Long.remainderUnsigned(h1 + i * h2, LARGEUR);
+      estimation = Math.min(estimation, compteurs.get(i * LARGEUR + colonne));
+    }
+    return estimation;
+  }
+  
+  /**
+   * Returns the most queried keys, by decreasing count.
+   *
+   * @param nombre the number of keys to return, at most the tracked capacity
+   * @return a new list of the keys and their estimated counts
+   */
+  public List<Frequence> getPlusFrequentes(int nombre) {
+    avancer();
+    List<Frequence> frequences = new ArrayList<>();
+    for (Bande bande : bandes) {
+      bande.copier(frequences);
+    }
+    frequences.sort(Comparator.comparingLong(Frequence::getCompte).reversed()
+        .thenComparing(Frequence::getCle));
+    int taille = Math.min(Math.min(nombre, capacite), frequences.size());
+    return new ArrayList<>(frequences.subList(0, Math.max(0, taille)));
+  }
+  
+  /**
+   * Returns the number of keys tracked.
+   *
+   * @return the capacity of the tracker
+   */
+  public int getCapacite() {
+    return capacite;
+  }
+  
+  /**
+   * Returns the duration after which the counts are halved.
+   *
+   * @param unite the unit of the result
+   * @return the duration of a window
+   */
+  public long getFenetre(TimeUnit unite) {
+    return unite.convert(fenetreNanos, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Halves the counts once per window elapsed since the last decay. Only the thread
+   * that moves the deadline forward decays the counts.
+   */
+  private void avancer() {
+    long echeance = prochaineDecroissance.get();
+    long maintenant = horloge.getAsLong();
+    if (maintenant - echeance < 0) {
+      return;
+    }
+    long fenetres = 1 + (maintenant - echeance) / fenetreNanos;
+    if (!prochaineDecroissance.compareAndSet(echeance, echeance + fenetres * fenetreNanos)) {
+      return;
+    }
+    int decalage = (int) Math.min(63, fenetres);
+    for (int i = 0; i < compteurs.length(); i++) {
+      compteurs.getAndUpdate(i, valeur -> valeur >>> decalage);
+    }
+    for (Bande bande : bandes) {
+      bande.retirerOubliees();
+    }
+  }
+  
+  /**
+   * Mixes the bits of a hash code, so that the counters and the stripes are spread.
+   *
+   * @param valeur the hash code
+   * @return the mixed bits
+   */
+  private static long melanger(long valeur) {
+    valeur ^= valeur >>> 33;
+    valeur *= 0xff51afd7ed558ccdL;
+    valeur ^= valeur >>> 33;
+    valeur *= 0xc4ceb9fe1a85ec53L;
+    valeur ^= valeur >>> 33;
+    return valeur;
+  }
+  
+  /**
+   * Candidate keys of a stripe, whose counts are read from the sketch.
+   */
+  private final class Bande {
+    private final String[] cles;
+    private final Set<String> membres;
+    private int taille;
+    
+    /** Smallest count of a full stripe, below which a new key cannot enter; 0 if not full. */
+    private volatile long seuil;
+    
+    Bande(int capacite) {
+      this.cles = new String[capacite];
+      this.membres = ConcurrentHashMap.newKeySet();
+    }
+    
+    /**
+     * Makes a key a candidate, in place of the least queried one if the stripe is full
+     * and its estimate is higher.
+     *
+     * @param cle the key
+     * @param estimation the estimated count of the key
+     */
+    synchronized void proposer(String cle, long estimation) {
+      if (membres.contains(cle)) {
+        // Proposed meanwhile by another thread
+        return;
+      }
+      if (taille < cles.length) {
+        cles[taille++] = cle;
+        membres.add(cle);
+      } else {
+        int minimum = 0;
+        long compteMinimum = Long.MAX_VALUE;
+        for (int i = 0; i < taille; i++) {
+          long compte = estimation(cles[i]);
+          if (compte < compteMinimum) {
+            minimum = i;
+            compteMinimum = compte;
+          }
+        }
+        if (estimation <= compteMinimum) {
+          seuil = compteMinimum;
+          return;
+        }
+        membres.remove(cles[minimum]);
+        cles[minimum] = cle;
+        membres.add(cle);
+      }
+      majSeuil();
+    }
+    
+    /**
+     * Drops the candidates whose count fell to 0 once the counts were halved.
+     */
+    synchronized void retirerOubliees() {
+      int garde = 0;
+      for (int i = 0; i < taille; i++) {
+        if (estimation(cles[i]) > 0) {
+          cles[garde++] = cles[i];
+        } else {
+          membres.remove(cles[i]);
+        }
+      }
+      for (int i = garde; i < taille; i++) {
+        cles[i] = null;
+      }
+      taille = garde;
+      majSeuil();
+    }
+    
+    /**
+     * Appends the candidates of the stripe with their current estimates.
+     *
+     * @param frequences the list to append to
+     */
+    synchronized void copier(List<Frequence> frequences) {
+      for (int i = 0; i < taille; i++) {
+        frequences.add(new Frequence(cles[i], estimation(cles[i])));
+      }
+    }
+    
+    private void majSeuil() {
+      if (taille < cles.length) {
+        seuil = 0;
+        return;
+      }
+      long minimum = Long.MAX_VALUE;
+      for (int i = 0; i < taille; i++) {
+        minimum = Math.min(minimum, estimation(cles[i]));
+      }
+      seuil = minimum;
+    }
+  }
+  
+  /**
+   * A key and its estimated count.
+   */
+  public static final class Frequence {
+    private final String cle;
+    private final long compte;
+    
+    Frequence(String cle, long compte) {
+      this.cle = cle;
+      this.compte = compte;
+    }
+    
+    /**
+     * Returns the key.
+     *
+     * @return the key
+     */
+    public String getCle() {
+      return cle;
+    }
+    
+    /**
+     * Returns the estimated count of the key, halved at the end of every window.
+     *
+     * @return the estimated count
+     */
+    public long getCompte() {
+      return compte;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resolves many IP addresses or machine names at once, for instance to enrich logs.
+ *
+ * <p>The input holds one address or name per line; empty lines and lines starting with
+ * '#' are skipped. Each other line gives an output line {@code entry result}, in input
+ * order, where the result is the machine name of an address, the address of a name,
+ * {@value #INTROUVABLE} if the entry is absent, or {@value #INVALIDE} if the line is
+ * neither an address nor a qualified name.
+ *
+ * <p>The input is read in chunks of lines, resolved in parallel on a fork-join pool
+ * against a single snapshot of the database, while the next chunks are read. Only a
+ * fixed number of chunks are in flight: the oldest is written out before a new one is
+ * read, so memory does not grow with the size of the input.
+ */
+public class ResolveurMasse {
+  
+  /** Result of an absent entry. */
+  public static final String INTROUVABLE = "-";
+  
+  /** Result of a line that is neither an IP address nor a qualified name. */
+  public static final String INVALIDE = "?";
+  
+  /** Default number of lines per chunk. */
+  static final int TAILLE_LOT = 4096;
+  
+  /** Number of lines below which a chunk is resolved without splitting it further. */
+  private static final int SEUIL_DECOUPAGE = 256;
+  
+  private final ForkJoinPool pool;
+  private final int tailleLot;
+  private final int lotsEnVol;
+  
+  /**
+   * Creates a resolver running on a fork-join pool, with two chunks in flight per
+   * thread of the pool.
+   *
+   * @param pool the pool resolving the chunks
+   */
+  public ResolveurMasse(ForkJoinPool pool) {
+    this(pool, TAILLE_LOT, 2 * pool.getParallelism());
+  }
+  
+  /**
+   * Creates a resolver with given chunks.
+   *
+   * @param pool the pool resolving the chunks
+   * @param tailleLot the number of lines per chunk
+   * @param lotsEnVol the maximum number of chunks read and not yet written
+   * @throws IllegalArgumentException if a size is not positive
+   */
+  ResolveurMasse(ForkJoinPool pool, int tailleLot, int lotsEnVol) {
+    if (tailleLot < 1 || lotsEnVol < 1) {
+      throw new IllegalArgumentException("Taille de lot invalide");
+    }
+    this.pool = pool;
+    this.tailleLot = tailleLot;
+    this.lotsEnVol = lotsEnVol;
+  }
+  
+  /**
+   * Resolves every line of the input and writes the results in input order.
+   *
+   * @param instantane the snapshot to resolve against
+   * @param entree the reader of the entries, not closed
+   * @param sortie the writer of the results, flushed but not closed
+   * @return the counts of the resolution
+   * @throws DnsException if the input cannot be read or the output cannot be written
+   */
+  public Bilan resoudre(InstantaneDns instantane, BufferedReader entree, Writer sortie)
+      throws DnsException {
+    ArrayDeque<Lot> enCours = new ArrayDeque<>(lotsEnVol);
+    Bilan bilan = new Bilan();
+    try {
+      String[] lignes;
+      while ((lignes = lireLot(entree)) != null) {
+        if (enCours.size() == lotsEnVol) {
+          enCours.poll().ecrire(sortie, bilan);
+        }
+        Lot lot = new Lot(lignes);
+        lot.tache = pool.submit(new Resolution(instantane, lot, 0, lignes.length));
+        enCours.add(lot);
+      }
+      while (!enCours.isEmpty()) {
+        enCours.poll().ecrire(sortie, bilan);
+      }
+      sortie.flush();
+    } catch (IOException e) {
+      for (Lot lot : enCours) {
+        lot.tache.cancel(false);
+      }
+      throw new DnsException("Impossible de résoudre les entrées: " + e.getMessage());
+    }
+    return bilan;
+  }
+  
+  /**
+   * Reads the next chunk of entries.
+   *
+   * @param entree the reader of the entries
+   * @return the trimmed entries, or null at the end of the input
+   * @throws IOException if the input cannot be read
+   */
+  private String[] lireLot(BufferedReader entree) throws IOException {
+    List<String> lignes = new ArrayList<>(tailleLot);
+    String ligne;
+    while (lignes.size() < tailleLot && (ligne = entree.readLine()) != null) {
+      ligne = ligne.trim();
+      if (!ligne.isEmpty() && !ligne.startsWith("#")) {
+        lignes.add(ligne);
+      }
+    }
+    return lignes.isEmpty() ? null : lignes.toArray(new String[0]);
+  }
+  
+  /**
+   * Resolves one entry.
+   *
+   * @param instantane the snapshot to resolve against
+   * @param entree the trimmed entry
+   * @return the name or address it resolves to, null if it is absent, or
+   *     {@link #INVALIDE}
+   */
+  static String resoudre(InstantaneDns instantane, String entree) {
+    AdresseIP adresse = AdresseIP.analyser(entree);
+    if (adresse != null) {
+      DnsItem item = instantane.getItem(adresse);
+      return item == null ? null : item.getNomMachine().getNomComplet();
+    }
+    if (entree.indexOf('.') <= 0 || entree.indexOf(' ') >= 0 || entree.indexOf('\t') >= 0) {
+      return INVALIDE;
+    }
+    DnsItem item = instantane.getItem(new NomMachine(entree));
+    return item == null ? null : item.getAdresseIp().getAdresse();
+  }
+  
+  /**
+   * A chunk of entries, with their results once its task is done.
+   */
+  private static final class Lot {
+    private final String[] lignes;
+    private final String[] resultats;
+    private ForkJoinTask<?> tache;
+    
+    Lot(String[] lignes) {
+      this.lignes = lignes;
+      this.resultats = new String[lignes.length];
+    }
+    
+    /**
+     * Waits for the results of the chunk and writes them.
+     *
+     * @param sortie the writer of the results
+     * @param bilan the counts to update
+     * @throws IOException if the output cannot be written
+     */
+    void ecrire(Writer sortie, Bilan bilan) throws IOException {
+      tache.join();
+      for (int i = 0; i < lignes.length; i++) {
+        String resultat = resultats[i];
+        if (resultat == null) {
+          resultat = INTROUVABLE;
+          bilan.introuvables++;
+        } else if (INVALIDE.equals(resultat)) {
+          bilan.invalides++;
+        } else {
+          bilan.resolues++;
+        }
+        sortie.write(lignes[i]);
+        sortie.write(' ');
+        sortie.write(resultat);
+        sortie.write('\n');
+      }
+    }
+  }
+  
+  /**
+   * Resolves a range of a chunk, splitting it in halves while it is large.
+   */
+  private static final class Resolution extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final InstantaneDns instantane;
+    private final Lot lot;
+    private final int debut;
+    private final int fin;
+    
+    Resolution(InstantaneDns instantane, Lot lot, int debut, int fin) {
+      this.instantane = instantane;
+      this.lot = lot;
+      this.debut = debut;
+      this.fin = fin;
+    }
+    
+    @Override
+    protected void compute() {
+      if (fin - debut > SEUIL_DECOUPAGE) {
+        int milieu = (debut + fin) >>> 1;
+        invokeAll(new Resolution(instantane, lot, debut, milieu),
+            new Resolution(instantane, lot, milieu, fin));
+        return;
+      }
+      for (int i = debut; i < fin; i++) {
+        lot.resultats[i] = resoudre(instantane, lot.lignes[i]);
+      }
+    }
+  }
+  
+  /**
+   * Counts of a bulk resolution.
+   */
+  public static final class Bilan {
+    private long resolues;
+    private long introuvables;
+    private long invalides;
+    
+    /**
+     * Returns the number of resolved entries.
+     *
+     * @return the number of entries found in the database
+     */
+    public long getResolues() {
+      return resolues;
+    }
+    
+    /**
+     * Returns the number of absent entries.
+     *
+     * @return the number of valid entries not found in the database
+     */
+    public long getIntrouvables() {
+      return introuvables;
+    }
+    
+    /**
+     * Returns the number of invalid lines.
+     *
+     * @return the number of lines that are neither an address nor a qualified name
+     */
+    public long getInvalides() {
+      return invalides;
+    }
+  }
+}
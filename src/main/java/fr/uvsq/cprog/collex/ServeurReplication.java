@@ -0,0 +1,305 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Streams the committed changes of a primary DNS service to its secondaries over a
+ * loopback socket.
+ *
+ * <p>The protocol is line based. A secondary sends {@code SYNC <epoch> <sequence>}
+ * with the last change it applied. If the epoch is the one of this server and the
+ * in-memory journal still holds every later change, the server answers
+ * {@code IXFR <epoch>} and replays them; otherwise it answers
+ * {@code AXFR <epoch> <sequence> <count>} followed by the whole database, one
+ * {@code ip name} line per entry. Both are followed by the live changes, in the
+ * format of {@link DnsChange#versLigne()}, and by {@code PING} lines when idle.
+ * The epoch is drawn at random when the server starts, so that the sequence numbers
+ * of a restarted primary are never mistaken for the old ones.
+ */
+public class ServeurReplication implements AutoCloseable {
+  
+  /** Default number of recent changes kept for incremental transfers. */
+  public static final int TAILLE_JOURNAL_DEFAUT = 10_000;
+  
+  /** Number of changes buffered per secondary before it is disconnected as too slow. */
+  private static final int TAILLE_FILE_ABONNE = 10_000;
+  
+  /** Delay without change after which a keep-alive line is sent. */
+  static final long DELAI_PING_MS = 1_000;
+  
+  /** Delay for a secondary to send its request before it is disconnected. */
+  static final int DELAI_DEMANDE_MS = 5_000;
+  
+  private final Dns dns;
+  private final int tailleJournal;
+  private final long epoque;
+  private final ArrayDeque<DnsChange> journal;
+  private final List<Abonne> abonnes;
+  private final Consumer<DnsChange> ecouteur;
+  private long sequenceBase;
+  private ServerSocket socket;
+  private Thread thread;
+  
+  /**
+   * Creates a replication server keeping the default number of recent changes.
+   *
+   * @param dns the primary DNS service
+   */
+  public ServeurReplication(Dns dns) {
+    this(dns, TAILLE_JOURNAL_DEFAUT);
+  }
+  
+  /**
+   * Creates a replication server.
+   *
+   * @param dns the primary DNS service
+   * @param tailleJournal the number of recent changes kept for incremental transfers
+   */
+  public ServeurReplication(Dns dns, int tailleJournal) {
+    this.dns = dns;
+    this.tailleJournal = tailleJournal;
+    this.epoque = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    this.journal = new ArrayDeque<>();
+    this.abonnes = new ArrayList<>();
+    this.ecouteur = this::publier;
+  }
+  
+  /**
+   * Starts listening on the loopback interface in a background thread.
+   *
+   * @param port the port, or 0 for any free port
+   * @throws DnsException if the port cannot be opened
+   */
+  public void demarrer(int port) throws DnsException {
+    synchronized (this) {
+      dns.ajouterEcouteur(ecouteur);
+      sequenceBase = dns.instantane().getSequence();
+    }
+    try {
+      socket = new ServerSocket();
+      socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    } catch (IOException e) {
+      dns.retirerEcouteur(ecouteur);
+      throw new DnsException("Impossible d'ouvrir le port de réplication " + port + ": "
+          + e.getMessage(), e);
+    }
+    
+    thread = new Thread(this::accepter, "dns-replication");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Returns the port this server listens on.
+   *
+   * @return the local port
+   */
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+  
+  /**
+   * Returns the epoch of this server.
+   *
+   * @return the random epoch drawn at creation
+   */
+  public long getEpoque() {
+    return epoque;
+  }
+  
+  /**
+   * Returns the number of connected secondaries.
+   *
+   * @return the number of secondaries
+   */
+  public synchronized int getNombreAbonnes() {
+    return abonnes.size();
+  }
+  
+  /**
+   * Records a committed change and queues it for every secondary. Called by the DNS
+   * service while writes are blocked, so it never does any I/O.
+   *
+   * @param changement the committed change
+   */
+  private synchronized void publier(DnsChange changement) {
+    journal.addLast(changement);
+    while (journal.size() > tailleJournal) {
+      sequenceBase = journal.removeFirst().getSequence();
+    }
+    abonnes.removeIf(abonne -> {
+      if (!abonne.file.offer(changement)) {
+        abonne.fermer();
+        return true;
+      }
+      return false;
+    });
+  }
+  
+  /**
+   * Accepts secondaries until the server is closed.
+   */
+  private void accepter() {
+    try {
+      while (true) {
+        Socket client = socket.accept();
+        Thread service = new Thread(() -> servir(client), "dns-replication-abonne");
+        service.setDaemon(true);
+        service.start();
+      }
+    } catch (IOException e) {
+      // Server closed
+    }
+  }
+  
+  /**
+   * Serves one secondary: answers its synchronization request, then streams the
+   * live changes until it disconnects.
+   *
+   * @param client the socket of the secondary
+   */
+  private void servir(Socket client) {
+    Abonne abonne = new Abonne(client);
+    try (client) {
+      client.setSoTimeout(DELAI_DEMANDE_MS);
+      BufferedReader lecteur = new BufferedReader(
+          new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+      Writer ecrivain = new BufferedWriter(
+          new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+      
+      String[] demande = String.valueOf(lecteur.readLine()).trim().split("\\s+");
+      if (demande.length != 3 || !demande[0].equals("SYNC")) {
+        ecrivain.write("ERREUR demande invalide\n");
+        ecrivain.flush();
+        return;
+      }
+      long epoqueAbonne = Long.parseLong(demande[1]);
+      long sequenceAbonne = Long.parseLong(demande[2]);
+      
+      // Registers the secondary and takes the catch-up data atomically: every later
+      // change is queued, earlier ones are in the journal or the snapshot
+      List<DnsChange> rattrapage = new ArrayList<>();
+      InstantaneDns instantane = null;
+      synchronized (this) {
+        abonnes.add(abonne);
+        long derniere = journal.isEmpty() ? sequenceBase : journal.peekLast().getSequence();
+        if (epoqueAbonne == epoque && sequenceAbonne >= sequenceBase
+            && sequenceAbonne <= derniere) {
+          for (DnsChange changement : journal) {
+            if (changement.getSequence() > sequenceAbonne) {
+              rattrapage.add(changement);
+            }
+          }
+        } else {
+          instantane = dns.instantane();
+        }
+      }
+      
+      long derniereEnvoyee;
+      if (instantane == null) {
+        ecrivain.write("IXFR " + epoque + "\n");
+        derniereEnvoyee = sequenceAbonne;
+        for (DnsChange changement : rattrapage) {
+          ecrivain.write(changement.versLigne() + "\n");
+          derniereEnvoyee = changement.getSequence();
+        }
+      } else {
+        ecrivain.write("AXFR " + epoque + " " + instantane.getSequence() + " "
+            + instantane.size() + "\n");
+        for (DnsItem item : instantane) {
+          ecrivain.write(item.toDisplayString() + "\n");
+        }
+        derniereEnvoyee = instantane.getSequence();
+      }
+      ecrivain.flush();
+      
+      while (!abonne.ferme) {
+        DnsChange changement = abonne.file.poll(DELAI_PING_MS, TimeUnit.MILLISECONDS);
+        if (changement == null) {
+          ecrivain.write("PING\n");
+        } else if (changement.getSequence() > derniereEnvoyee) {
+          ecrivain.write(changement.versLigne() + "\n");
+          derniereEnvoyee = changement.getSequence();
+        }
+        if (abonne.file.isEmpty()) {
+          ecrivain.flush();
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Secondary disconnected or sent a malformed request
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      synchronized (this) {
+        abonnes.remove(abonne);
+      }
+    }
+  }
+  
+  /**
+   * Stops accepting secondaries and disconnects the connected ones.
+   */
+  @Override
+  public void close() {
+    dns.retirerEcouteur(ecouteur);
+    try {
+      if (socket != null) {
+        socket.close();
+      }
+      if (thread != null) {
+        thread.join();
+      }
+    } catch (IOException e) {
+      // Nothing more to release
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      for (Abonne abonne : abonnes) {
+        abonne.fermer();
+      }
+      abonnes.clear();
+    }
+  }
+  
+  /**
+   * A connected secondary with its queue of changes to send.
+   */
+  private static final class Abonne {
+    private final Socket socket;
+    private final BlockingQueue<DnsChange> file;
+    private volatile boolean ferme;
+    
+    Abonne(Socket socket) {
+      this.socket = socket;
+      this.file = new LinkedBlockingQueue<>(TAILLE_FILE_ABONNE);
+    }
+    
+    void fermer() {
+      ferme = true;
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Already closed
+      }
+    }
+  }
+}
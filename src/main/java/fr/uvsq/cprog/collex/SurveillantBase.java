@@ -0,0 +1,175 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the database files of a DNS service and reloads them when one is modified
+ * by another program. Events are coalesced for a short delay so that an editor writing
+ * the file in several steps triggers a single reload.
+ */
+public class SurveillantBase implements AutoCloseable {
+  
+  private static final long DELAI_REGROUPEMENT_MS = 100;
+  
+  private final Dns dns;
+  private final Set<Path> fichiers;
+  private WatchService service;
+  private Thread thread;
+  private volatile int nombreRechargements;
+  private volatile String derniereErreur;
+  
+  /**
+   * Creates a watcher for a database file.
+   *
+   * @param dns the DNS service to reload
+   * @param fichier the database file
+   */
+  public SurveillantBase(Dns dns, Path fichier) {
+    this(dns, List.of(fichier));
+  }
+  
+  /**
+   * Creates a watcher for several database files, such as the files of the
+   * partitions of a {@link DnsPartitionne}.
+   *
+   * @param dns the DNS service to reload
+   * @param fichiers the database files
+   */
+  public SurveillantBase(Dns dns, List<Path> fichiers) {
+    this.dns = dns;
+    this.fichiers = new HashSet<>();
+    for (Path fichier : fichiers) {
+      this.fichiers.add(fichier.toAbsolutePath());
+    }
+  }
+  
+  /**
+   * Starts watching the directories of the database files in a background thread.
+   *
+   * @throws DnsException if the directory cannot be watched
+   */
+  public void demarrer() throws DnsException {
+    try {
+      service = fichiers.iterator().next().getFileSystem().newWatchService();
+      Set<Path> repertoires = new HashSet<>();
+      for (Path fichier : fichiers) {
+        if (repertoires.add(fichier.getParent())) {
+          fichier.getParent().register(service,
+              StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+      }
+    } catch (IOException e) {
+      throw new DnsException("Impossible de surveiller le fichier de base de données: "
+          + e.getMessage(), e);
+    }
+    
+    thread = new Thread(this::surveiller, "dns-surveillance");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Waits for changes of the database files and reloads them, until the watcher is
+   * closed.
+   */
+  private void surveiller() {
+    try {
+      while (true) {
+        WatchKey cle = service.take();
+        Set<Path> modifies = new HashSet<>();
+        boolean debordement = concerneFichier(cle, modifies);
+        
+        // Coalesce the events of a multi-step write
+        WatchKey suivante;
+        while ((suivante = service.poll(DELAI_REGROUPEMENT_MS, TimeUnit.MILLISECONDS)) != null) {
+          debordement |= concerneFichier(suivante, modifies);
+        }
+        
+        // The service's own saves leave the files as it already holds them
+        modifies.removeIf(dns::estSauvegardePropre);
+        if (debordement || !modifies.isEmpty()) {
+          try {
+            dns.recharger();
+            nombreRechargements++;
+            derniereErreur = null;
+          } catch (DnsException e) {
+            derniereErreur = e.getMessage();
+            System.err.println("ERREUR: rechargement ignoré : " + e.getMessage());
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Watcher closed
+    }
+  }
+  
+  /**
+   * Consumes the events of a key and collects the database files they are about.
+   *
+   * @param cle the signalled key
+   * @param modifies the set to add the created or modified database files to
+   * @return true if events were lost, so that any file may have changed
+   */
+  private boolean concerneFichier(WatchKey cle, Set<Path> modifies) {
+    boolean debordement = false;
+    for (WatchEvent<?> evenement : cle.pollEvents()) {
+      if (evenement.kind() == StandardWatchEventKinds.OVERFLOW) {
+        debordement = true;
+      } else {
+        Path fichier = ((Path) cle.watchable()).resolve((Path) evenement.context());
+        if (fichiers.contains(fichier)) {
+          modifies.add(fichier);
+        }
+      }
+    }
+    cle.reset();
+    return debordement;
+  }
+  
+  /**
+   * Returns the number of reloads that succeeded.
+   *
+   * @return the number of reloads
+   */
+  public int getNombreRechargements() {
+    return nombreRechargements;
+  }
+  
+  /**
+   * Returns the error of the last reload, if it failed.
+   *
+   * @return the error message, or null if the last reload succeeded
+   */
+  public String getDerniereErreur() {
+    return derniereErreur;
+  }
+  
+  /**
+   * Stops watching the database files.
+   */
+  @Override
+  public void close() {
+    try {
+      if (service != null) {
+        service.close();
+      }
+      if (thread != null) {
+        thread.join();
+      }
+    } catch (IOException e) {
+      // Nothing more to release
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
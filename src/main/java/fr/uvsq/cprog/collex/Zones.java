@@ -0,0 +1,162 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Several zones served from one process, each an independent {@link Dns} with its own
+ * database file, so that a single heap and a single interface serve them all. The zones
+ * share one {@link PoolChaines}: a name present in several zones, with its reversed form
+ * and its domain, and the trigrams of their suggestion indexes, are kept once. The pool
+ * never drops a string, so the names removed from a zone by a reload stay in the heap
+ * until the process ends.
+ *
+ * <p>The zones are listed by the {@code zones} property, comma-separated, each with
+ * its file in {@code zone.<name>.filename}. Without {@code zones}, the single database
+ * of {@code database.filename} is served as the zone {@value #ZONE_DEFAUT}.
+ */
+public class Zones {
+  
+  /** Name of the zone served when no zone is configured. */
+  public static final String ZONE_DEFAUT = "defaut";
+  
+  private final Map<String, Dns> zones;
+  private final PoolChaines pool;
+  
+  /**
+   * Creates an empty set of zones with its own string pool.
+   */
+  public Zones() {
+    this.zones = new LinkedHashMap<>();
+    this.pool = new PoolChaines();
+  }
+  
+  /**
+   * Creates the zones described by the properties file, loaded one after the other.
+   *
+   * @return the zones, in configuration order
+   * @throws DnsException if the properties are invalid or a zone cannot be loaded
+   */
+  public static Zones ouvrir() throws DnsException {
+    Properties props = Dns.loadProperties();
+    Zones zones = new Zones();
+    String liste = props.getProperty("zones");
+    if (liste == null || liste.trim().isEmpty()) {
+      zones.ajouter(ZONE_DEFAUT, Dns.ouvrir());
+      return zones;
+    }
+    
+    for (String element : liste.split(",")) {
+      String nom = element.trim();
+      String filename = props.getProperty("zone." + nom + ".filename");
+      if (filename == null || filename.trim().isEmpty()) {
+        throw new DnsException("Fichier de la zone " + nom + " non configuré");
+      }
+      zones.ajouter(nom, Dns.ouvrir(filename.trim(), props, zones.pool));
+    }
+    return zones;
+  }
+  
+  /**
+   * Loads a zone from its database file, sharing the strings of this set of zones.
+   *
+   * @param nom the zone name
+   * @param databaseFilename the database file of the zone, created if absent
+   * @return the loaded zone
+   * @throws DnsException if the name is taken or the database cannot be loaded
+   */
+  public Dns charger(String nom, String databaseFilename) throws DnsException {
+    verifierNom(nom);
+    Dns dns = new Dns(databaseFilename, pool);
+    zones.put(nom, dns);
+    return dns;
+  }
+  
+  /**
+   * Adds an already loaded zone.
+   *
+   * @param nom the zone name
+   * @param dns the DNS service of the zone
+   * @throws DnsException if the name is taken or invalid
+   */
+  public void ajouter(String nom, Dns dns) throws DnsException {
+    verifierNom(nom);
+    zones.put(nom, dns);
+  }
+  
+  /**
+   * Checks that a zone name is valid and free.
+   *
+   * @param nom the zone name
+   * @throws DnsException if the name is empty, has spaces, or is taken
+   */
+  private void verifierNom(String nom) throws DnsException {
+    if (nom == null || nom.isEmpty() || !nom.equals(nom.trim()) || nom.contains(" ")) {
+      throw new DnsException("Nom de zone invalide: " + nom);
+    }
+    if (zones.containsKey(nom)) {
+      throw new DnsException("La zone " + nom + " existe déjà");
+    }
+  }
+  
+  /**
+   * Returns the DNS service of a zone.
+   *
+   * @param nom the zone name
+   * @return the DNS service of the zone
+   * @throws DnsException if there is no such zone
+   */
+  public Dns get(String nom) throws DnsException {
+    Dns dns = zones.get(nom);
+    if (dns == null) {
+      throw new DnsException("Zone inconnue: " + nom + " (zones: "
+          + String.join(", ", zones.keySet()) + ")");
+    }
+    return dns;
+  }
+  
+  /**
+   * Returns the zone names, in loading order.
+   *
+   * @return an unmodifiable set of names
+   */
+  public Set<String> getNoms() {
+    return Collections.unmodifiableSet(zones.keySet());
+  }
+  
+  /**
+   * Returns the first zone, served when the interface starts.
+   *
+   * @return the name of the first zone
+   * @throws DnsException if there is no zone
+   */
+  public String getPremiere() throws DnsException {
+    if (zones.isEmpty()) {
+      throw new DnsException("Aucune zone chargée");
+    }
+    return zones.keySet().iterator().next();
+  }
+  
+  /**
+   * Returns the DNS services of all the zones.
+   *
+   * @return a new list of the services, in loading order
+   */
+  public List<Dns> getServices() {
+    return new ArrayList<>(zones.values());
+  }
+  
+  /**
+   * Returns the pool of strings shared by the zones.
+   *
+   * @return the string pool
+   */
+  public PoolChaines getPool() {
+    return pool;
+  }
+}
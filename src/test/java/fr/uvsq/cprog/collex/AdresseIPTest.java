@@ -95,4 +95,82 @@ public class AdresseIPTest {
     assertEquals(0, ip1.compareTo(ip4));
     assertTrue(ip1.compareTo(null) > 0);
   }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testLeadingZeroOctet() {
+    new AdresseIP("192.168.01.1");
+  }
+  
+  @Test
+  public void testIpv6CanonicalForm() {
+    assertEquals("2001:db8::1", new AdresseIP("2001:0DB8:0000:0000:0000:0000:0000:0001").getAdresse());
+    assertEquals("2001:db8:0:1:1:1:1:1", new AdresseIP("2001:db8:0:1:1:1:1:1").getAdresse());
+    assertEquals("2001:db8::1:0:0:1", new AdresseIP("2001:db8:0:0:1:0:0:1").getAdresse());
+    assertEquals("2001:0:0:1::1", new AdresseIP("2001:0:0:1:0:0:0:1").getAdresse());
+    assertEquals("::", new AdresseIP("::").getAdresse());
+    assertEquals("::1", new AdresseIP("0:0:0:0:0:0:0:1").getAdresse());
+    assertEquals("fe80::", new AdresseIP("fe80::0:0").getAdresse());
+    assertEquals("::ffff:192.0.2.1", new AdresseIP("::ffff:c000:201").getAdresse());
+    assertEquals("::c000:201", new AdresseIP("::192.0.2.1").getAdresse());
+  }
+  
+  @Test
+  public void testIpv6Bits() {
+    AdresseIP ip = new AdresseIP("2001:db8::ff");
+    assertTrue(ip.estIpv6());
+    assertEquals(0x20010db800000000L, ip.getHaut());
+    assertEquals(0xffL, ip.getBas());
+    
+    AdresseIP ipv4 = new AdresseIP("1.2.3.4");
+    assertFalse(ipv4.estIpv6());
+    assertEquals(0L, ipv4.getHaut());
+    assertEquals(0x01020304L, ipv4.getBas());
+  }
+  
+  @Test
+  public void testIpv6InvalidForms() {
+    String[] invalides = {
+        "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", ":1:2:3:4:5:6:7",
+        "1:2:3:4:5:6:7:", "12345::1", "g::1", "1.2.3.4::", "::1.2.3", "1:2:3:4:5:6:7:1.2.3.4",
+        ":::"
+    };
+    for (String invalide : invalides) {
+      assertFalse(invalide, AdresseIP.estValide(invalide));
+      try {
+        new AdresseIP(invalide);
+        fail("Should reject " + invalide);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+  
+  @Test
+  public void testIpv6EqualsAndHashCode() {
+    AdresseIP ip1 = new AdresseIP("2001:db8::1");
+    AdresseIP ip2 = new AdresseIP("2001:DB8:0:0:0:0:0:1");
+    
+    assertEquals(ip1, ip2);
+    assertEquals(ip1.hashCode(), ip2.hashCode());
+    assertNotEquals(new AdresseIP("::1.2.3.4"), new AdresseIP("1.2.3.4"));
+  }
+  
+  @Test
+  public void testCompareToAcrossFamilies() {
+    AdresseIP ipv4 = new AdresseIP("255.255.255.255");
+    AdresseIP ipv6Bas = new AdresseIP("::1");
+    AdresseIP ipv6Haut = new AdresseIP("ffff::1");
+    
+    assertTrue(ipv4.compareTo(ipv6Bas) < 0);
+    assertTrue(ipv6Bas.compareTo(ipv6Haut) < 0);
+    assertTrue(ipv6Haut.compareTo(ipv6Bas) > 0);
+  }
+  
+  @Test
+  public void testEstValide() {
+    assertTrue(AdresseIP.estValide("193.51.31.90"));
+    assertTrue(AdresseIP.estValide("2001:db8::1"));
+    assertFalse(AdresseIP.estValide("www.uvsq.fr"));
+    assertFalse(AdresseIP.estValide(null));
+  }
 }
@@ -0,0 +1,174 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation budgets of the lookup hot paths, measured with the bytes allocated by the
+ * current thread. Each operation is run until compiled, then measured over many runs,
+ * so that the budgets hold for the steady state and not for the first calls.
+ */
+public class AllocationsTest {
+  
+  private static final int ECHAUFFEMENT = 50_000;
+  private static final int ITERATIONS = 20_000;
+  private static final int MACHINES = 200;
+  private static final String TEST_DB_FILE = "test_allocations_dns.txt";
+  
+  /**
+   * Budget of the paths that allocate nothing once escape analysis removed their
+   * temporaries: one small object per run, so that a JIT without it does not fail them.
+   */
+  private static final long PRESQUE_RIEN = 16;
+  
+  private static final com.sun.management.ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+          ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+  
+  /** Results of the operations, kept so that the compiler cannot drop them. */
+  private static Object puits;
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Dns dns;
+  
+  /**
+   * An operation whose allocations are measured.
+   */
+  private interface Operation {
+    Object executer() throws Exception;
+  }
+  
+  @Before
+  public void setUp() throws Exception {
+    Assume.assumeTrue("Mesure des allocations indisponible", THREADS != null
+        && THREADS.isThreadAllocatedMemorySupported()
+        && THREADS.isThreadAllocatedMemoryEnabled());
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < MACHINES; i++) {
+      content.append("m").append(i).append(".uvsq.fr 10.0.").append(i / 256).append(".")
+          .append(i % 256).append("\n");
+      content.append("m").append(i).append(".example.com 10.1.").append(i / 256).append(".")
+          .append(i % 256).append("\n");
+    }
+    Files.write(Paths.get(TEST_DB_FILE), content.toString().getBytes());
+    dns = new Dns(TEST_DB_FILE);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+  }
+  
+  @Test
+  public void testLookupByNameAllocatesNothing() throws Exception {
+    NomMachine present = new NomMachine("m42.uvsq.fr");
+    NomMachine absent = new NomMachine("absent.uvsq.fr");
+    assertBudget("getItem(nom) trouvé", PRESQUE_RIEN, () -> dns.getItem(present));
+    assertBudget("getItem(nom) absent", PRESQUE_RIEN, () -> dns.getItem(absent));
+    
+    dns.activerFiltres(0.01);
+    assertBudget("getItem(nom) filtré", PRESQUE_RIEN, () -> dns.getItem(absent));
+  }
+  
+  @Test
+  public void testLookupByAddressAllocatesNothing() throws Exception {
+    AdresseIP presente = new AdresseIP("10.0.0.42");
+    AdresseIP absente = new AdresseIP("192.168.1.1");
+    assertBudget("getItem(ip) trouvé", PRESQUE_RIEN, () -> dns.getItem(presente));
+    assertBudget("getItem(ip) absent", PRESQUE_RIEN, () -> dns.getItem(absente));
+    
+    dns.activerFiltres(0.01);
+    assertBudget("getItem(ip) filtré", PRESQUE_RIEN, () -> dns.getItem(absente));
+  }
+  
+  @Test
+  public void testPartitionedLookupByNameAllocatesNothing() throws Exception {
+    Path fichier = dossier.getRoot().toPath().resolve("dns_database.txt");
+    Files.copy(Paths.get(TEST_DB_FILE), fichier);
+    DnsPartitionne partitionne = new DnsPartitionne(fichier.toString(), 4);
+    NomMachine nom = new NomMachine("m42.example.com");
+    assertBudget("getItem(nom) partitionné", PRESQUE_RIEN, () -> partitionne.getItem(nom));
+  }
+  
+  @Test
+  public void testAddressComparisonAllocatesNothing() {
+    AdresseIP a = new AdresseIP("193.51.31.90");
+    AdresseIP b = new AdresseIP("193.51.31.154");
+    AdresseIP c = new AdresseIP("2001:db8::1");
+    assertBudget("AdresseIP.compareTo", PRESQUE_RIEN, () -> a.compareTo(b) + b.compareTo(c));
+  }
+  
+  @Test
+  public void testDomainMembershipAllocatesNothing() {
+    DnsItem item = new DnsItem(new AdresseIP("193.51.31.90"), new NomMachine("www.uvsq.fr"));
+    assertBudget("appartientAuDomaine", PRESQUE_RIEN,
+        () -> item.appartientAuDomaine("uvsq.fr") && !item.appartientAuDomaine("fr"));
+  }
+  
+  @Test
+  public void testDomainListingAllocatesOnlyItsResult() {
+    // The list of the domain, its array and the temporary array of the sort by address
+    long budget = 128 + 2L * MACHINES * EmpreinteMemoire.REFERENCE;
+    assertBudget("getItems", budget, () -> dns.getItems("uvsq.fr"));
+    assertBudget("getItemsSortedByIp", budget, () -> dns.getItemsSortedByIp("uvsq.fr"));
+    
+    List<DnsItem> items = dns.getItemsSortedByIp("uvsq.fr");
+    assertEquals(MACHINES, items.size());
+  }
+  
+  @Test
+  public void testDomainPageAllocatesOnlyItsResult() {
+    // The page, its list and cursor, the views of the ordered index and the heap
+    assertBudget("getPage", 384, () -> dns.getPage("uvsq.fr", false, "m42.uvsq.fr", 10));
+    assertBudget("getPage -a", 512,
+        () -> dns.getPage("uvsq.fr", true, "10.0.0.42", 10));
+  }
+  
+  @Test
+  public void testCommandParsingBudget() {
+    DnsTUI tui = new DnsTUI(dns, null);
+    // The words of the command and the command itself
+    assertBudget("parseCommande nom", 320, () -> tui.parseCommande("m42.uvsq.fr"));
+    assertBudget("parseCommande ls", 640, () -> tui.parseCommande("ls -a uvsq.fr"));
+  }
+  
+  /**
+   * Checks the average bytes allocated by an operation once compiled.
+   *
+   * @param nom the name of the operation, for the failure message
+   * @param budget the highest average bytes allowed per run
+   * @param operation the operation
+   */
+  private static void assertBudget(String nom, long budget, Operation operation) {
+    try {
+      for (int i = 0; i < ECHAUFFEMENT; i++) {
+        puits = operation.executer();
+      }
+      long avant = THREADS.getCurrentThreadAllocatedBytes();
+      for (int i = 0; i < ITERATIONS; i++) {
+        puits = operation.executer();
+      }
+      long octets = THREADS.getCurrentThreadAllocatedBytes() - avant;
+      double parOperation = (double) octets / ITERATIONS;
+      // Less than one byte per run leaves room for the measure itself
+      assertTrue(nom + ": " + parOperation + " octets par exécution pour un budget de " + budget,
+          parOperation <= budget + 1);
+    } catch (Exception e) {
+      throw new AssertionError(nom + ": " + e, e);
+    }
+  }
+}
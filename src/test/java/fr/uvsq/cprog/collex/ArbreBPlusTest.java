@@ -0,0 +1,170 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ArbreBPlus class.
+ */
+public class ArbreBPlusTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private PoolPages pool;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    pool = new PoolPages(repertoire.resolve("arbre.pages"), 8);
+    pool.allouer();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+  }
+  
+  @Test
+  public void testInsertAndLookup() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    assertNull(arbre.chercher(octets("a")));
+    
+    assertTrue(arbre.inserer(octets("b"), octets("2")));
+    assertTrue(arbre.inserer(octets("a"), octets("1")));
+    assertFalse(arbre.inserer(octets("a"), octets("3")));
+    
+    assertArrayEquals(octets("1"), arbre.chercher(octets("a")));
+    assertArrayEquals(octets("2"), arbre.chercher(octets("b")));
+    assertNull(arbre.chercher(octets("c")));
+    assertEquals(1, arbre.hauteur());
+  }
+  
+  @Test
+  public void testManyKeysSplitNodes() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    TreeMap<String, String> reference = new TreeMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      String cle = "machine" + random.nextInt(100_000) + ".uvsq.fr";
+      String valeur = "valeur" + i;
+      assertEquals(!reference.containsKey(cle), arbre.inserer(octets(cle), octets(valeur)));
+      reference.putIfAbsent(cle, valeur);
+    }
+    pool.valider();
+    
+    assertTrue(arbre.hauteur() >= 2);
+    for (String cle : reference.keySet()) {
+      assertArrayEquals(cle, octets(reference.get(cle)), arbre.chercher(octets(cle)));
+    }
+    assertNull(arbre.chercher(octets("machine.uvsq.fr")));
+  }
+  
+  @Test
+  public void testScanInKeyOrder() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    List<String> cles = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      cles.add(String.format("%05d", i * 7 % 2000));
+    }
+    for (String cle : cles) {
+      arbre.inserer(octets(cle), new byte[0]);
+    }
+    
+    List<String> parcourues = new ArrayList<>();
+    arbre.parcourir(octets("01000"), (cle, valeur) -> {
+      parcourues.add(new String(cle, StandardCharsets.UTF_8));
+      return parcourues.size() < 500;
+    });
+    assertEquals(500, parcourues.size());
+    for (int i = 0; i < 500; i++) {
+      assertEquals(String.format("%05d", 1000 + i), parcourues.get(i));
+    }
+  }
+  
+  @Test
+  public void testLongKeysSplitInternalNodes() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    char[] remplissage = new char[400];
+    Arrays.fill(remplissage, 'k');
+    List<String> cles = new ArrayList<>();
+    for (int i = 0; i < 1500; i++) {
+      cles.add(String.format("%04d", i * 11 % 1500) + new String(remplissage));
+    }
+    for (String cle : cles) {
+      assertTrue(arbre.inserer(octets(cle), octets(cle.substring(0, 4))));
+    }
+    pool.valider();
+    
+    assertTrue(arbre.hauteur() >= 3);
+    List<String> parcourues = new ArrayList<>();
+    arbre.parcourir(new byte[0], (cle, valeur) -> {
+      assertArrayEquals(valeur, Arrays.copyOf(cle, 4));
+      return parcourues.add(new String(cle, StandardCharsets.UTF_8));
+    });
+    cles.sort(null);
+    assertEquals(cles, parcourues);
+    for (String cle : cles) {
+      assertNotNull(cle, arbre.chercher(octets(cle)));
+    }
+  }
+  
+  @Test
+  public void testKeysAreComparedAsUnsignedBytes() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    byte[][] cles = {{(byte) 0xff}, {0x01}, {0x7f}, {(byte) 0x80}, {0x01, 0x00}};
+    for (byte[] cle : cles) {
+      arbre.inserer(cle, cle);
+    }
+    
+    List<byte[]> ordre = new ArrayList<>();
+    arbre.parcourir(new byte[0], (cle, valeur) -> ordre.add(cle));
+    assertArrayEquals(new byte[] {0x01}, ordre.get(0));
+    assertArrayEquals(new byte[] {0x01, 0x00}, ordre.get(1));
+    assertArrayEquals(new byte[] {0x7f}, ordre.get(2));
+    assertArrayEquals(new byte[] {(byte) 0x80}, ordre.get(3));
+    assertArrayEquals(new byte[] {(byte) 0xff}, ordre.get(4));
+  }
+  
+  @Test
+  public void testLargeEntriesAndReopening() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    byte[] valeur = new byte[ArbreBPlus.TAILLE_MAX_ENTREE - 8];
+    Arrays.fill(valeur, (byte) 'x');
+    for (int i = 0; i < 200; i++) {
+      assertTrue(arbre.inserer(octets(String.format("%08d", i)), valeur));
+    }
+    pool.valider();
+    pool.close();
+    
+    pool = new PoolPages(repertoire.resolve("arbre.pages"), 8);
+    ArbreBPlus relu = new ArbreBPlus(pool, 0, 0);
+    for (int i = 0; i < 200; i++) {
+      assertArrayEquals(valeur, relu.chercher(octets(String.format("%08d", i))));
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLargeEntry() throws Exception {
+    ArbreBPlus arbre = ArbreBPlus.creer(pool, 0, 0);
+    arbre.inserer(new byte[1], new byte[ArbreBPlus.TAILLE_MAX_ENTREE]);
+  }
+  
+  private static byte[] octets(String chaine) {
+    return chaine.getBytes(StandardCharsets.UTF_8);
+  }
+}
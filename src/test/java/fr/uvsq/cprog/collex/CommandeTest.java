@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -68,6 +69,14 @@ public class CommandeTest {
     assertTrue(result.contains("Aucune adresse IP trouvée"));
   }
   
+  @Test
+  public void testCommandeRechercheParNomSuggestions() throws Exception {
+    Commande cmd = new CommandeRechercheParNom(dns, "ww.uvsq.fr");
+    String result = cmd.execute();
+    assertTrue(result.contains("Aucune adresse IP trouvée"));
+    assertTrue(result.contains("Vouliez-vous dire : www.uvsq.fr"));
+  }
+  
   @Test(expected = DnsException.class)
   public void testCommandeRechercheParNomInvalid() throws Exception {
     Commande cmd = new CommandeRechercheParNom(dns, "invalidname");
@@ -101,6 +110,19 @@ public class CommandeTest {
     assertTrue(lines[2].contains("193.51.31.154")); // poste
   }
   
+  @Test
+  public void testCommandeListeDomainePaged() throws Exception {
+    String result = new CommandeListeDomaine(dns, "uvsq.fr", false, 2, null).execute();
+    assertEquals("193.51.25.12 ecampus.uvsq.fr\n193.51.31.154 poste.uvsq.fr\n"
+        + "Suite: --after poste.uvsq.fr", result);
+    
+    result = new CommandeListeDomaine(dns, "uvsq.fr", false, 2, "poste.uvsq.fr").execute();
+    assertEquals("193.51.31.90 www.uvsq.fr", result);
+    
+    result = new CommandeListeDomaine(dns, "uvsq.fr", true, 2, "193.51.31.154").execute();
+    assertTrue(result.contains("Aucune machine après 193.51.31.154"));
+  }
+  
   @Test
   public void testCommandeListeDomaineNotFound() throws Exception {
     Commande cmd = new CommandeListeDomaine(dns, "notfound.com", false);
@@ -120,6 +142,30 @@ public class CommandeTest {
     cmd.execute();
   }
   
+  @Test
+  public void testCommandeRechercheMotifSuccess() throws Exception {
+    Commande cmd = new CommandeRechercheMotif(dns, "*.uvsq.fr");
+    String result = cmd.execute();
+    
+    String[] lines = result.split("\n");
+    assertEquals(3, lines.length);
+    assertEquals("193.51.25.12 ecampus.uvsq.fr", lines[0]);
+    assertFalse(result.contains("mail.google.com"));
+  }
+  
+  @Test
+  public void testCommandeRechercheMotifNotFound() throws Exception {
+    Commande cmd = new CommandeRechercheMotif(dns, "ftp*");
+    String result = cmd.execute();
+    assertTrue(result.contains("Aucune machine ne correspond"));
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testCommandeRechercheMotifEmpty() throws Exception {
+    Commande cmd = new CommandeRechercheMotif(dns, "");
+    cmd.execute();
+  }
+  
   @Test
   public void testCommandeAjouterEntreeSuccess() throws Exception {
     int initialSize = dns.size();
@@ -161,4 +207,162 @@ public class CommandeTest {
     String result = cmd.execute();
     assertEquals("quit", result);
   }
+  
+  @Test
+  public void testCommandeStatistiques() throws Exception {
+    String result = new CommandeStatistiques(dns).execute();
+    assertTrue(result.startsWith("Entrées: 4"));
+    assertTrue(result.contains("Filtre de Bloom (noms): désactivé"));
+    assertFalse(result, result.contains("Index compressé: "));
+    
+    dns.activerFiltres(0.01);
+    dns.getItem(new NomMachine("absent.uvsq.fr"));
+    result = new CommandeStatistiques(dns).execute();
+    assertTrue(result, result.contains("Filtre de Bloom (noms): 1 requêtes"));
+    assertTrue(result, result.contains("4 éléments pour une capacité de 1024"));
+  }
+  
+  @Test
+  public void testCommandeTailleIndex() throws Exception {
+    String result = new CommandeTailleIndex(dns).execute();
+    assertTrue(result, result.startsWith("Index compressé: "));
+    assertTrue(result, result.endsWith(" octets par entrée"));
+  }
+  
+  @Test
+  public void testCommandeEmpreinteMemoire() throws Exception {
+    String result = new CommandeEmpreinteMemoire(dns).execute();
+    assertTrue(result, result.startsWith("Entrées: 4\n"));
+    assertTrue(result, result.contains("  entrées: "));
+    assertTrue(result, result.contains("  index trigrammes: "));
+    assertFalse(result, result.contains("filtres de Bloom"));
+    assertTrue(result, result.contains("Total estimé: "));
+    
+    dns.activerFiltres(0.01);
+    result = new CommandeEmpreinteMemoire(dns).execute();
+    assertTrue(result, result.contains("  filtres de Bloom: "));
+  }
+  
+  @Test
+  public void testCommandeRequetesFrequentes() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      new CommandeRechercheParNom(dns, "WWW.uvsq.fr").execute();
+    }
+    new CommandeRechercheParNom(dns, "absent.uvsq.fr").execute();
+    new CommandeRechercheParIp(dns, "193.51.25.12").execute();
+    
+    String result = new CommandeRequetesFrequentes(dns).execute();
+    assertEquals("Comptes divisés par deux toutes les 60 s\n"
+        + "Noms les plus demandés:\n"
+        + "  www.uvsq.fr 3\n"
+        + "  absent.uvsq.fr 1\n"
+        + "Adresses les plus demandées:\n"
+        + "  193.51.25.12 1", result);
+    
+    result = new CommandeRequetesFrequentes(dns, 1).execute();
+    assertTrue(result, result.contains("  www.uvsq.fr 3\n"));
+    assertFalse(result, result.contains("absent.uvsq.fr"));
+  }
+  
+  @Test
+  public void testCommandeRequetesFrequentesEmpty() throws Exception {
+    String result = new CommandeRequetesFrequentes(dns).execute();
+    assertTrue(result, result.contains("Noms les plus demandés: aucun\n"));
+    assertTrue(result, result.endsWith("Adresses les plus demandées: aucun"));
+  }
+  
+  @Test
+  public void testCommandeImportZone() throws Exception {
+    String zone = "$ORIGIN exemple.fr.\n"
+        + "www  IN A 10.1.0.1\n"
+        + "mail IN A 10.1.0.2\n"
+        + "@    IN NS ns\n"
+        + "$ORIGIN 31.51.193.in-addr.arpa.\n"
+        + "90   IN PTR www.uvsq.fr.\n";
+    Files.write(Paths.get("test_import.zone"), zone.getBytes());
+    try {
+      String result = new CommandeImport(dns, "zone", "test_import.zone").execute();
+      // The PTR record names www.uvsq.fr, which the base already holds
+      assertEquals("Import terminé: 2 entrée(s) ajoutée(s), 1 entrée(s) en conflit, "
+          + "1 enregistrement(s) ignoré(s)", result);
+      assertEquals(6, dns.size());
+      assertNotNull(dns.getItem(new NomMachine("mail.exemple.fr")));
+    } finally {
+      Files.deleteIfExists(Paths.get("test_import.zone"));
+    }
+  }
+  
+  @Test
+  public void testCommandeImportHosts() throws Exception {
+    Files.write(Paths.get("test_import.hosts"), "10.2.0.1 h1.exemple.fr\n".getBytes());
+    try {
+      String result = new CommandeImport(dns, "HOSTS", "test_import.hosts").execute();
+      assertTrue(result.startsWith("Import terminé: 1 entrée(s)"));
+    } finally {
+      Files.deleteIfExists(Paths.get("test_import.hosts"));
+    }
+  }
+  
+  @Test
+  public void testCommandeImportCountsConflicts() throws Exception {
+    String hosts = "193.51.31.90 autre.uvsq.fr\n"
+        + "10.2.0.1 www.uvsq.fr\n"
+        + "10.2.0.2 h2.exemple.fr\n"
+        + "10.2.0.2 h3.exemple.fr\n";
+    Files.write(Paths.get("test_import.hosts"), hosts.getBytes());
+    try {
+      String result = new CommandeImport(dns, "hosts", "test_import.hosts").execute();
+      assertEquals("Import terminé: 1 entrée(s) ajoutée(s), 3 entrée(s) en conflit, "
+          + "0 enregistrement(s) ignoré(s)", result);
+      assertEquals(5, dns.size());
+    } finally {
+      Files.deleteIfExists(Paths.get("test_import.hosts"));
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testCommandeImportUnknownFormat() throws Exception {
+    Files.write(Paths.get("test_import.csv"), "".getBytes());
+    try {
+      new CommandeImport(dns, "csv", "test_import.csv").execute();
+    } finally {
+      Files.deleteIfExists(Paths.get("test_import.csv"));
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testCommandeImportMissingFile() throws Exception {
+    new CommandeImport(dns, "zone", "test_absent.zone").execute();
+  }
+  
+  @Test
+  public void testCommandeExport() throws Exception {
+    try {
+      String result = new CommandeExport(dns, "test_export.txt", Exportateur.Tri.NOM, "uvsq.fr")
+          .execute();
+      assertEquals("Export terminé: 82 octet(s) écrit(s) dans test_export.txt", result);
+      assertEquals("ecampus.uvsq.fr 193.51.25.12",
+          Files.readAllLines(Paths.get("test_export.txt")).get(0));
+    } finally {
+      Files.deleteIfExists(Paths.get("test_export.txt"));
+    }
+  }
+  
+  @Test
+  public void testCommandeResolutionMasse() throws Exception {
+    try {
+      Files.write(Paths.get("test_resolution_entree.txt"),
+          "193.51.31.90\nmail.google.com\n10.0.0.1\nnimportequoi\n".getBytes());
+      String result = new CommandeResolutionMasse(dns, "test_resolution_entree.txt",
+          "test_resolution_sortie.txt").execute();
+      assertEquals("Résolution terminée: 2 résolue(s), 1 introuvable(s), "
+          + "1 ligne(s) invalide(s)", result);
+      assertEquals(Arrays.asList("193.51.31.90 www.uvsq.fr",
+          "mail.google.com 172.217.20.5", "10.0.0.1 -", "nimportequoi ?"),
+          Files.readAllLines(Paths.get("test_resolution_sortie.txt")));
+    } finally {
+      Files.deleteIfExists(Paths.get("test_resolution_entree.txt"));
+      Files.deleteIfExists(Paths.get("test_resolution_sortie.txt"));
+    }
+  }
 }
@@ -0,0 +1,138 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DnsAsynchrone class.
+ */
+public class DnsAsynchroneTest {
+  
+  private static final String TEST_DB_FILE = "test_asynchrone_dns.txt";
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), ("www.uvsq.fr 193.51.31.90\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n"
+        + "mail.google.com 172.217.20.5\n").getBytes());
+    dns = new Dns(TEST_DB_FILE);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+  }
+  
+  @Test
+  public void testLookupsCompleteWithoutThreadHop() throws Exception {
+    try (DnsAsynchrone asynchrone = new DnsAsynchrone(dns)) {
+      CompletableFuture<DnsItem> parIp = asynchrone.lookupByIpAsync(
+          new AdresseIP("193.51.31.90"));
+      CompletableFuture<DnsItem> parNom = asynchrone.lookupByNameAsync(
+          new NomMachine("absent.uvsq.fr"));
+      
+      assertTrue(parIp.isDone());
+      assertEquals("www.uvsq.fr", parIp.get().getNomMachine().getNomComplet());
+      assertTrue(parNom.isDone());
+      assertNull(parNom.get());
+    }
+  }
+  
+  @Test
+  public void testLookupErrorsFailTheFuture() throws Exception {
+    Dns illisible = new Dns(TEST_DB_FILE) {
+      @Override
+      public DnsItem getItem(AdresseIP adresseIp) {
+        throw new IllegalStateException("Page illisible");
+      }
+      
+      @Override
+      public DnsItem getItem(NomMachine nomMachine) {
+        throw new IllegalStateException("Page illisible");
+      }
+    };
+    try (DnsAsynchrone asynchrone = new DnsAsynchrone(illisible)) {
+      CompletableFuture<DnsItem> parIp = asynchrone.lookupByIpAsync(
+          new AdresseIP("193.51.31.90"));
+      CompletableFuture<DnsItem> parNom = asynchrone.lookupByNameAsync(
+          new NomMachine("www.uvsq.fr"));
+      
+      assertTrue(parIp.isCompletedExceptionally());
+      assertTrue(parNom.isCompletedExceptionally());
+      try {
+        parNom.get();
+        fail("La lecture en erreur doit échouer le futur");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+  }
+  
+  @Test
+  public void testListAndAdd() throws Exception {
+    try (DnsAsynchrone asynchrone = new DnsAsynchrone(dns)) {
+      asynchrone.addAsync(new AdresseIP("193.51.31.154"), new NomMachine("poste.uvsq.fr")).get();
+      
+      List<DnsItem> items = asynchrone.listDomainAsync("uvsq.fr", true).get();
+      assertEquals(3, items.size());
+      assertEquals("ecampus.uvsq.fr", items.get(0).getNomMachine().getNomComplet());
+      assertTrue(Files.readAllLines(Paths.get(TEST_DB_FILE))
+          .contains("poste.uvsq.fr 193.51.31.154"));
+    }
+  }
+  
+  @Test
+  public void testAddFailure() throws Exception {
+    try (DnsAsynchrone asynchrone = new DnsAsynchrone(dns)) {
+      asynchrone.addAsync(new AdresseIP("193.51.31.90"), new NomMachine("autre.uvsq.fr")).get();
+      fail("Une adresse existante doit être refusée");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof DnsException);
+    }
+  }
+  
+  @Test
+  public void testBoundedWrites() throws Exception {
+    List<Runnable> enAttente = new ArrayList<>();
+    DnsAsynchrone asynchrone = new DnsAsynchrone(dns, enAttente::add, 2);
+    
+    CompletableFuture<Void> premier = asynchrone.addAsync(new AdresseIP("10.0.0.1"),
+        new NomMachine("a.uvsq.fr"));
+    asynchrone.addAsync(new AdresseIP("10.0.0.2"), new NomMachine("b.uvsq.fr"));
+    CompletableFuture<Void> refuse = asynchrone.addAsync(new AdresseIP("10.0.0.3"),
+        new NomMachine("c.uvsq.fr"));
+    
+    assertEquals(2, asynchrone.getEcrituresEnVol());
+    assertTrue(refuse.isCompletedExceptionally());
+    assertFalse(premier.isDone());
+    
+    enAttente.forEach(Runnable::run);
+    assertTrue(premier.isDone());
+    assertEquals(0, asynchrone.getEcrituresEnVol());
+    assertEquals(5, dns.size());
+  }
+  
+  @Test
+  public void testRejectedByExecutor() {
+    DnsAsynchrone asynchrone = new DnsAsynchrone(dns, tache -> {
+      throw new RejectedExecutionException();
+    }, 1);
+    
+    assertTrue(asynchrone.addAsync(new AdresseIP("10.0.0.1"), new NomMachine("a.uvsq.fr"))
+        .isCompletedExceptionally());
+    assertEquals(0, asynchrone.getEcrituresEnVol());
+    assertTrue(asynchrone.listDomainAsync("uvsq.fr", false).isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,39 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DnsChange class.
+ */
+public class DnsChangeTest {
+  
+  @Test
+  public void testLineRoundTrip() {
+    DnsChange ajout = new DnsChange(DnsChange.Type.AJOUT,
+        new DnsItem("193.51.31.90", "www.uvsq.fr"), 42);
+    assertEquals("+ 42 193.51.31.90 www.uvsq.fr", ajout.versLigne());
+    assertEquals(ajout, DnsChange.depuisLigne(ajout.versLigne()));
+    
+    DnsChange retrait = new DnsChange(DnsChange.Type.RETRAIT,
+        new DnsItem("2001:db8::1", "v6.uvsq.fr"), 43);
+    assertEquals("- 43 2001:db8::1 v6.uvsq.fr", retrait.versLigne());
+    assertEquals(retrait, DnsChange.depuisLigne(retrait.versLigne()));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidOperation() {
+    DnsChange.depuisLigne("* 1 193.51.31.90 www.uvsq.fr");
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSequence() {
+    DnsChange.depuisLigne("+ x 193.51.31.90 www.uvsq.fr");
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingField() {
+    DnsChange.depuisLigne("+ 1 www.uvsq.fr");
+  }
+}
@@ -0,0 +1,337 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests of a DNS service shared by writer and reader threads.
+ *
+ * <p>Writers add entries drawn from a small set of names and addresses, so that most
+ * additions race with another one for the same name or address; readers meanwhile look
+ * up, list and iterate snapshots, checking that every state they observe is consistent.
+ * Threads pause at random points to vary the interleavings. After each round, the
+ * final state is checked against the additions that succeeded, then reloaded from its
+ * file. Every round prints its seed and throughput; {@code -Dstress.graine=<seed>} reruns
+ * a failing round with the same random choices, and {@code -Dstress.tours=<n>} runs
+ * more rounds.
+ */
+public class DnsConcurrenceTest {
+  
+  private static final int TOURS = Integer.getInteger("stress.tours", 3);
+  private static final long GRAINE = Long.getLong("stress.graine", System.nanoTime());
+  private static final int ECRIVAINS = 4;
+  private static final int LECTEURS = 4;
+  private static final int AJOUTS_PAR_ECRIVAIN = 150;
+  private static final int NOMS = 300;
+  private static final int ADRESSES = 300;
+  private static final int DOMAINES = 4;
+  private static final int PARTITIONS = 4;
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+  }
+  
+  @Test
+  public void testConcurrentAdditionsAndReads() throws Exception {
+    for (int tour = 0; tour < TOURS; tour++) {
+      Path fichier = repertoire.resolve("dns_" + tour + ".txt");
+      Files.write(fichier, new byte[0]);
+      Dns dns = new Dns(fichier.toString());
+      long graine = GRAINE + tour;
+      List<DnsItem> acceptes = executerTour("Dns", dns, graine, true);
+      
+      verifierEtatFinal(dns, acceptes, graine);
+      assertEquals("Graine " + graine, acceptes.size(), dns.instantane().getSequence());
+      verifierEtatFinal(new Dns(fichier.toString()), acceptes, graine);
+    }
+  }
+  
+  @Test
+  public void testConcurrentAdditionsAndReadsPartitioned() throws Exception {
+    for (int tour = 0; tour < TOURS; tour++) {
+      Path fichier = repertoire.resolve("dns_partitionne_" + tour + ".txt");
+      DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+      long graine = GRAINE + TOURS + tour;
+      // A snapshot of a partitioned service gathers the partitions one after the other
+      List<DnsItem> acceptes = executerTour("DnsPartitionne", dns, graine, false);
+      
+      verifierEtatFinal(dns, acceptes, graine);
+      verifierEtatFinal(new DnsPartitionne(fichier.toString(), PARTITIONS), acceptes, graine);
+    }
+  }
+  
+  /**
+   * Runs the writers and readers of one round against a service.
+   *
+   * @param nom the name of the service, for the report
+   * @param dns the service, initially empty
+   * @param graine the seed of the round
+   * @param instantanes true to also check the snapshots of the service
+   * @return the entries whose addition succeeded
+   * @throws Exception if a thread failed or a reader observed an inconsistent state
+   */
+  private static List<DnsItem> executerTour(String nom, Dns dns, long graine,
+      boolean instantanes) throws Exception {
+    Queue<DnsItem> acceptes = new ConcurrentLinkedQueue<>();
+    Queue<String> violations = new ConcurrentLinkedQueue<>();
+    CyclicBarrier depart = new CyclicBarrier(ECRIVAINS + LECTEURS);
+    long[] lectures = new long[LECTEURS];
+    AtomicBoolean termine = new AtomicBoolean();
+    ExecutorService executeur = Executors.newFixedThreadPool(ECRIVAINS + LECTEURS);
+    
+    try {
+      List<Future<?>> ecrivains = new ArrayList<>();
+      for (int e = 0; e < ECRIVAINS; e++) {
+        Random random = new Random(graine * 31 + e);
+        ecrivains.add(executeur.submit(() -> {
+          depart.await();
+          for (int i = 0; i < AJOUTS_PAR_ECRIVAIN; i++) {
+            DnsItem item = new DnsItem(adresse(random.nextInt(ADRESSES)),
+                nom(random.nextInt(NOMS)));
+            pause(random);
+            try {
+              dns.addItem(item.getAdresseIp(), item.getNomMachine());
+              acceptes.add(item);
+            } catch (DnsException ex) {
+              if (!ex.getMessage().contains("existe déjà")) {
+                throw ex;
+              }
+            }
+          }
+          return null;
+        }));
+      }
+      
+      List<Future<?>> lecteurs = new ArrayList<>();
+      for (int l = 0; l < LECTEURS; l++) {
+        Random random = new Random(graine * 31 + ECRIVAINS + l);
+        int numero = l;
+        lecteurs.add(executeur.submit(() -> {
+          depart.await();
+          Lecteur lecteur = new Lecteur(dns, random, violations, instantanes);
+          while (!termine.get()) {
+            lecteur.lire();
+            pause(random);
+          }
+          lectures[numero] = lecteur.operations;
+          return null;
+        }));
+      }
+      
+      long debut = System.nanoTime();
+      for (Future<?> ecrivain : ecrivains) {
+        ecrivain.get(60, TimeUnit.SECONDS);
+      }
+      double secondes = (System.nanoTime() - debut) / 1e9;
+      termine.set(true);
+      for (Future<?> lecteur : lecteurs) {
+        lecteur.get(60, TimeUnit.SECONDS);
+      }
+      
+      long totalLectures = 0;
+      for (long n : lectures) {
+        totalLectures += n;
+      }
+      System.out.println(String.format(Locale.ROOT,
+          "Stress %s (graine %d): %d ajouts dont %d acceptés, %.0f ajouts/s, "
+          + "%d lectures, %.0f lectures/s",
+          nom, graine, ECRIVAINS * AJOUTS_PAR_ECRIVAIN, acceptes.size(),
+          ECRIVAINS * AJOUTS_PAR_ECRIVAIN / secondes, totalLectures,
+          totalLectures / secondes));
+    } finally {
+      executeur.shutdownNow();
+    }
+    
+    assertTrue("Graine " + graine + ": " + violations, violations.isEmpty());
+    return new ArrayList<>(acceptes);
+  }
+  
+  /**
+   * Checks that a service holds exactly the entries whose addition succeeded.
+   *
+   * @param dns the service
+   * @param acceptes the entries whose addition succeeded
+   * @param graine the seed of the round, for the failure messages
+   */
+  private static void verifierEtatFinal(Dns dns, List<DnsItem> acceptes, long graine) {
+    String contexte = "Graine " + graine;
+    Set<AdresseIP> adresses = new HashSet<>();
+    Set<NomMachine> noms = new HashSet<>();
+    for (DnsItem item : acceptes) {
+      assertTrue(contexte + ": adresse acceptée deux fois " + item,
+          adresses.add(item.getAdresseIp()));
+      assertTrue(contexte + ": nom accepté deux fois " + item,
+          noms.add(item.getNomMachine()));
+      assertEquals(contexte, item, dns.getItem(item.getAdresseIp()));
+      assertEquals(contexte, item, dns.getItem(item.getNomMachine()));
+    }
+    assertEquals(contexte, acceptes.size(), dns.size());
+    
+    int listes = 0;
+    for (int d = 0; d < DOMAINES; d++) {
+      listes += dns.getItems(domaine(d)).size();
+    }
+    assertEquals(contexte, acceptes.size(), listes);
+  }
+  
+  /**
+   * Reader checking the consistency of every state it observes.
+   */
+  private static final class Lecteur {
+    private final Dns dns;
+    private final Random random;
+    private final Queue<String> violations;
+    private final boolean instantanes;
+    private final int[] taillesDomaines = new int[DOMAINES];
+    private InstantaneDns precedent = InstantaneDns.VIDE;
+    private long operations;
+    
+    Lecteur(Dns dns, Random random, Queue<String> violations, boolean instantanes) {
+      this.dns = dns;
+      this.random = random;
+      this.violations = violations;
+      this.instantanes = instantanes;
+    }
+    
+    void lire() {
+      operations++;
+      switch (random.nextInt(instantanes ? 4 : 3)) {
+        case 0:
+          lireAdresse(adresse(random.nextInt(ADRESSES)));
+          break;
+        case 1:
+          lireNom(nom(random.nextInt(NOMS)));
+          break;
+        case 2:
+          lireDomaine(random.nextInt(DOMAINES));
+          break;
+        default:
+          lireInstantane();
+          break;
+      }
+    }
+    
+    /** An entry found by address is found by name too, as entries are never removed. */
+    private void lireAdresse(AdresseIP adresse) {
+      DnsItem item = dns.getItem(adresse);
+      if (item == null) {
+        return;
+      }
+      if (!item.getAdresseIp().equals(adresse)) {
+        violations.add("Adresse " + adresse + " résolue en " + item);
+      } else if (dns.getItem(item.getNomMachine()) != item) {
+        violations.add("Entrée " + item + " trouvée par adresse mais pas par nom");
+      }
+    }
+    
+    private void lireNom(NomMachine nom) {
+      DnsItem item = dns.getItem(nom);
+      if (item == null) {
+        return;
+      }
+      if (!item.getNomMachine().equals(nom)) {
+        violations.add("Nom " + nom + " résolu en " + item);
+      } else if (dns.getItem(item.getAdresseIp()) != item) {
+        violations.add("Entrée " + item + " trouvée par nom mais pas par adresse");
+      }
+    }
+    
+    /** A listing is sorted, within its domain, and never shrinks. */
+    private void lireDomaine(int d) {
+      List<DnsItem> items = dns.getItems(domaine(d));
+      if (items.size() < taillesDomaines[d]) {
+        violations.add("Domaine " + domaine(d) + " passé de " + taillesDomaines[d] + " à "
+            + items.size() + " entrées");
+      }
+      taillesDomaines[d] = items.size();
+      for (int i = 0; i < items.size(); i++) {
+        DnsItem item = items.get(i);
+        if (!item.appartientAuDomaine(domaine(d))) {
+          violations.add("Entrée " + item + " listée dans " + domaine(d));
+        }
+        if (i > 0 && items.get(i - 1).compareTo(item) >= 0) {
+          violations.add("Liste de " + domaine(d) + " mal triée: " + items);
+        }
+        if (dns.getItem(item.getAdresseIp()) != item) {
+          violations.add("Entrée " + item + " listée mais introuvable");
+        }
+      }
+    }
+    
+    /** A snapshot is complete in both indexes and never older than the previous one. */
+    private void lireInstantane() {
+      InstantaneDns instantane = dns.instantane();
+      if (instantane.getSequence() < precedent.getSequence()
+          || instantane.size() < precedent.size()) {
+        violations.add("Instantané " + instantane.getSequence() + " (" + instantane.size()
+            + " entrées) après " + precedent.getSequence() + " (" + precedent.size() + ")");
+      }
+      int nombre = 0;
+      for (DnsItem item : instantane) {
+        nombre++;
+        if (instantane.getItem(item.getAdresseIp()) != item
+            || instantane.getItem(item.getNomMachine()) != item) {
+          violations.add("Instantané " + instantane.getSequence() + " incomplet pour " + item);
+        }
+      }
+      if (nombre != instantane.size()) {
+        violations.add("Instantané de " + instantane.size() + " entrées en parcourant "
+            + nombre);
+      }
+      precedent = instantane;
+    }
+  }
+  
+  /**
+   * Pauses a thread at random: mostly not at all, sometimes a yield, rarely a short
+   * sleep, so that threads overtake each other at varying points.
+   */
+  private static void pause(Random random) {
+    int tirage = random.nextInt(16);
+    if (tirage == 0) {
+      LockSupport.parkNanos(random.nextInt(50_000));
+    } else if (tirage < 4) {
+      Thread.yield();
+    }
+  }
+  
+  private static String domaine(int d) {
+    return "d" + d + ".test";
+  }
+  
+  private static NomMachine nom(int n) {
+    return new NomMachine("m" + n + "." + domaine(n % DOMAINES));
+  }
+  
+  private static AdresseIP adresse(int n) {
+    return new AdresseIP("10.0." + (n / 256) + "." + (n % 256));
+  }
+}
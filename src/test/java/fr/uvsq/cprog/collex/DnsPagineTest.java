@@ -0,0 +1,256 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DnsPagine class.
+ */
+public class DnsPagineTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+        + "poste.uvsq.fr 193.51.31.154\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n"
+        + "mail.google.com 172.217.20.5\n"
+        + "v6.uvsq.fr 2001:db8::1\n"
+        + "www.info.uvsq.fr 193.51.24.1\n").getBytes());
+  }
+  
+  @Test
+  public void testLookups() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      assertEquals(6, dns.size());
+      assertEquals(new DnsItem("193.51.31.90", "www.uvsq.fr"),
+          dns.getItem(new NomMachine("www.uvsq.fr")));
+      assertEquals(new DnsItem("2001:db8::1", "v6.uvsq.fr"),
+          dns.getItem(new AdresseIP("2001:db8::1")));
+      assertNull(dns.getItem(new NomMachine("absent.uvsq.fr")));
+      assertNull(dns.getItem(new AdresseIP("10.0.0.1")));
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testListingsMatchInMemoryStore() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    Dns reference = new Dns(fichier.toString());
+    try {
+      assertEquals(reference.getItems("uvsq.fr"), dns.getItems("uvsq.fr"));
+      assertEquals(reference.getItemsSortedByIp("uvsq.fr"), dns.getItemsSortedByIp("uvsq.fr"));
+      assertEquals(reference.getItems("info.uvsq.fr"), dns.getItems("info.uvsq.fr"));
+      assertTrue(dns.getItems("").isEmpty());
+      assertEquals(reference.getAllItems().size(), dns.getAllItems().size());
+      assertEquals(reference.instantane().size(), dns.instantane().size());
+      
+      for (String motif : new String[] {"*.uvsq.fr", "www.*", "*sq.fr", "*", "www.uvsq.fr",
+          "?????.uvsq.fr"}) {
+        assertEquals(motif, reference.findItems(new MotifGlob(motif)),
+            dns.findItems(new MotifGlob(motif)));
+      }
+      
+      PageDomaine page = dns.getPage("uvsq.fr", true, null, 2);
+      assertEquals(reference.getPage("uvsq.fr", true, null, 2).getItems(), page.getItems());
+      assertEquals("193.51.31.90", page.getCurseurSuivant());
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testAdditionsArePersisted() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    dns.addItem("10.0.0.1", "nouveau.uvsq.fr");
+    try {
+      dns.addItem("10.0.0.1", "autre.uvsq.fr");
+      fail("Adresse en double");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("adresse IP existe déjà"));
+    }
+    try {
+      dns.addItem("10.0.0.2", "nouveau.uvsq.fr");
+      fail("Nom en double");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("nom de machine existe déjà"));
+    }
+    dns.fermer();
+    
+    // The database file is only read when the file of pages is created
+    List<String> lignes = Files.readAllLines(fichier);
+    assertEquals(6, lignes.size());
+    DnsPagine relu = new DnsPagine(fichier.toString(), 4);
+    try {
+      assertEquals(7, relu.size());
+      assertEquals(new DnsItem("10.0.0.1", "nouveau.uvsq.fr"),
+          relu.getItem(new AdresseIP("10.0.0.1")));
+      assertNull(relu.getItem(new AdresseIP("10.0.0.2")));
+    } finally {
+      relu.fermer();
+    }
+  }
+  
+  @Test
+  public void testLookupsReadFewPagesWithSmallPool() throws Exception {
+    StringBuilder contenu = new StringBuilder();
+    for (int i = 0; i < 20_000; i++) {
+      contenu.append("machine").append(i).append(".d").append(i % 50).append(".uvsq.fr 10.")
+          .append(i >> 16).append('.').append((i >> 8) & 0xff).append('.').append(i & 0xff)
+          .append('\n');
+    }
+    Files.write(fichier, contenu.toString().getBytes());
+    
+    DnsPagine dns = new DnsPagine(fichier.toString(), 8);
+    try {
+      assertEquals(20_000, dns.size());
+      assertTrue(dns.getPages().getNombrePages() > dns.getPages().getNombreCadres());
+      int hauteur = dns.hauteur();
+      assertTrue(hauteur >= 2);
+      for (int i = 0; i < 20_000; i += 997) {
+        long lectures = dns.getPages().getLectures();
+        DnsItem item = dns.getItem(new NomMachine("machine" + i + ".d" + (i % 50) + ".uvsq.fr"));
+        assertNotNull(item);
+        // The first page and one page per level of the tree
+        assertTrue(dns.getPages().getLectures() - lectures <= hauteur + 1);
+        assertEquals(item, dns.getItem(item.getAdresseIp()));
+      }
+      assertEquals(400, dns.getItems("d7.uvsq.fr").size());
+      assertEquals(dns.getPages().tailleMemoire(),
+          dns.empreinteMemoire().getOctets(EmpreinteMemoire.POOL_PAGES));
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testImportSkipsUsedEntries() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      LecteurHosts lecteur = new LecteurHosts(new BufferedReader(new StringReader(
+          "193.51.31.90 www.uvsq.fr\n10.0.0.5 importe.uvsq.fr\n10.0.0.6 www.uvsq.fr\n")));
+      assertEquals(1, dns.importer(lecteur));
+      assertEquals(7, dns.size());
+      assertNotNull(dns.getItem(new NomMachine("importe.uvsq.fr")));
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testDuplicateInDatabaseLeavesNoFile() throws Exception {
+    Files.write(fichier, "a.uvsq.fr 10.0.0.1\nb.uvsq.fr 10.0.0.1\n".getBytes());
+    try {
+      new DnsPagine(fichier.toString(), 4);
+      fail("Entrée en double");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("Entrée en double ligne 2"));
+    }
+    assertEquals(0, Files.size(DnsPagine.fichierPages(fichier)));
+  }
+  
+  @Test
+  public void testExportWritesThePages() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      dns.addItem("10.0.0.1", "ajout.uvsq.fr");
+      Path cible = repertoire.resolve("export.txt");
+      long octets = new Exportateur(dns).exporter(cible, null, null);
+      
+      assertEquals(Files.size(cible), octets);
+      List<DnsItem> relus = Dns.readDatabase(cible);
+      Collections.sort(relus);
+      List<DnsItem> attendus = new ArrayList<>(dns.getAllItems());
+      Collections.sort(attendus);
+      assertEquals(7, relus.size());
+      assertEquals(attendus, relus);
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testCompressedIndexIsRefused() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      new CommandeTailleIndex(dns).execute();
+      fail("Index compressé en mode paginé");
+    } catch (DnsException e) {
+      assertEquals("L'index compressé n'est pas disponible en mode paginé", e.getMessage());
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testReloadIsRefused() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      dns.recharger();
+      fail("Rechargement en mode paginé");
+    } catch (DnsException e) {
+      assertEquals("Rechargement impossible en mode paginé", e.getMessage());
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testChangePublicationIsRefused() throws Exception {
+    DnsPagine dns = new DnsPagine(fichier.toString(), 4);
+    try {
+      dns.publierChangements(16, PublicateurChangements.Politique.DECONNECTER);
+      fail("Publication en mode paginé");
+    } catch (DnsException e) {
+      assertEquals("Les changements ne sont pas publiés en mode paginé", e.getMessage());
+    }
+    try {
+      dns.ajouterEcouteur(changement -> { });
+      fail("Écouteur en mode paginé");
+    } catch (DnsException e) {
+      assertEquals("Les changements ne sont pas publiés en mode paginé", e.getMessage());
+    } finally {
+      dns.fermer();
+    }
+  }
+  
+  @Test
+  public void testOpenFromProperties() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("database.pages", "16");
+    Dns dns = Dns.ouvrir(fichier.toString(), props, null);
+    assertTrue(dns instanceof DnsPagine);
+    assertEquals(6, dns.size());
+    ((DnsPagine) dns).fermer();
+    
+    props.setProperty("database.shards", "2");
+    try {
+      Dns.ouvrir(fichier.toString(), props, null);
+      fail("Partitions en mode paginé");
+    } catch (DnsException e) {
+      assertEquals("Le mode paginé ne gère pas les partitions", e.getMessage());
+    }
+  }
+}
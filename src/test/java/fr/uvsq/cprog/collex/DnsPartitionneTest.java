@@ -0,0 +1,343 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DnsPartitionne class.
+ */
+public class DnsPartitionneTest {
+  
+  private static final int PARTITIONS = 4;
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+        + "poste.uvsq.fr 193.51.31.154\n"
+        + "www.example.com 93.184.216.34\n"
+        + "mail.example.com 93.184.216.35\n"
+        + "ns.test.org 10.0.0.1\n").getBytes());
+  }
+  
+  @Test
+  public void testPartitionFileNames() {
+    assertEquals(repertoire.resolve("dns_database.2.txt"),
+        DnsPartitionne.fichierPartition(fichier, 2));
+    assertEquals(repertoire.resolve("base.0"),
+        DnsPartitionne.fichierPartition(repertoire.resolve("base"), 0));
+  }
+  
+  @Test
+  public void testMemoryFootprintSumsPartitions() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    EmpreinteMemoire empreinte = dns.empreinteMemoire();
+    assertEquals(5, empreinte.getNombreEntrees());
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.ENTREES) > 0);
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.INDEX_ADRESSES) > 0);
+  }
+  
+  @Test
+  public void testDatabaseIsDistributed() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    assertEquals(PARTITIONS, dns.getNombrePartitions());
+    assertEquals(5, dns.size());
+    
+    int total = 0;
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path partition = DnsPartitionne.fichierPartition(fichier, i);
+      assertTrue(Files.exists(partition));
+      total += Dns.readDatabase(partition).size();
+    }
+    assertEquals(5, total);
+  }
+  
+  @Test
+  public void testLookups() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    
+    DnsItem item = dns.getItem(new NomMachine("mail.example.com"));
+    assertNotNull(item);
+    assertEquals("93.184.216.35", item.getAdresseIp().getAdresse());
+    
+    item = dns.getItem(new AdresseIP("10.0.0.1"));
+    assertNotNull(item);
+    assertEquals("ns.test.org", item.getNomMachine().getNomComplet());
+    
+    List<DnsItem> uvsq = dns.getItems("uvsq.fr");
+    assertEquals(2, uvsq.size());
+    assertEquals("poste.uvsq.fr", uvsq.get(0).getNomMachine().getNomComplet());
+    
+    List<DnsItem> parIp = dns.getItemsSortedByIp("UVSQ.FR");
+    assertEquals("193.51.31.90", parIp.get(0).getAdresseIp().getAdresse());
+    
+    assertEquals(2, dns.findItems(new MotifGlob("*.example.com")).size());
+    assertEquals(5, dns.findItems(new MotifGlob("*")).size());
+    assertEquals(5, dns.getAllItems().size());
+    assertEquals(5, dns.instantane().size());
+  }
+  
+  @Test
+  public void testSuggestionsAcrossPartitions() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    List<NomMachine> suggestions = dns.suggerer(new NomMachine("www.uvsq.fx"), 1);
+    assertEquals(1, suggestions.size());
+    assertEquals("www.uvsq.fr", suggestions.get(0).getNomComplet());
+  }
+  
+  @Test
+  public void testAddItemIsPersistedInItsPartition() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    dns.addItem("193.51.25.12", "ecampus.uvsq.fr");
+    assertEquals(6, dns.size());
+    assertNotNull(dns.getItem(new AdresseIP("193.51.25.12")));
+    
+    DnsPartitionne relu = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    assertEquals(6, relu.size());
+    assertEquals(3, relu.getItems("uvsq.fr").size());
+  }
+  
+  @Test
+  public void testDuplicateAddressAcrossPartitions() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    try {
+      dns.addItem("10.0.0.1", "autre.example.net");
+      fail("Should throw DnsException");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("L'adresse IP existe déjà"));
+    }
+    assertEquals(5, dns.size());
+    assertEquals("ns.test.org",
+        dns.getItem(new AdresseIP("10.0.0.1")).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testFailedAddReleasesAddress() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    try {
+      dns.addItem("10.0.0.2", "www.uvsq.fr");
+      fail("Should throw DnsException");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("Le nom de machine existe déjà"));
+    }
+    assertNull(dns.getItem(new AdresseIP("10.0.0.2")));
+    dns.addItem("10.0.0.2", "ns2.test.org");
+    assertNotNull(dns.getItem(new AdresseIP("10.0.0.2")));
+  }
+  
+  @Test
+  public void testReloadUpdatesAddressIndex() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    Path partition = null;
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path candidat = DnsPartitionne.fichierPartition(fichier, i);
+      if (Files.readString(candidat).contains("ns.test.org")) {
+        partition = candidat;
+      }
+    }
+    assertNotNull(partition);
+    Files.writeString(partition, Files.readString(partition)
+        .replace("ns.test.org 10.0.0.1", "ns.test.org 10.0.0.9"));
+    
+    assertEquals(2, dns.recharger());
+    assertNull(dns.getItem(new AdresseIP("10.0.0.1")));
+    assertEquals("ns.test.org",
+        dns.getItem(new AdresseIP("10.0.0.9")).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testAdditionWaitingForReloadSeesItsAddresses() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    NomMachine nom = new NomMachine("nouveau.uvsq.fr");
+    Dns cible = dns.partition(nom);
+    String domaine = null;
+    for (String existant : new String[] {"www.example.com", "ns.test.org"}) {
+      if (domaine == null && dns.partition(new NomMachine(existant)) != cible) {
+        domaine = existant.substring(existant.indexOf('.') + 1);
+      }
+    }
+    assertNotNull(domaine);
+    
+    // Holds the partition as a reload would, while the addition reserves its address
+    DnsException[] erreur = new DnsException[1];
+    Thread ajout = new Thread(() -> {
+      try {
+        dns.addItem(new AdresseIP("10.7.7.7"), nom);
+      } catch (DnsException e) {
+        erreur[0] = e;
+      }
+    });
+    cible.debuterImport();
+    try {
+      ajout.start();
+      while (ajout.getState() != Thread.State.WAITING && ajout.isAlive()) {
+        Thread.sleep(5);
+      }
+      Path autre = fichierDe(domaine);
+      Files.writeString(autre, Files.readString(autre) + "ns2." + domaine + " 10.7.7.7\n");
+      dns.recharger();
+    } finally {
+      cible.terminerImport(false);
+    }
+    ajout.join();
+    
+    assertNotNull(erreur[0]);
+    assertEquals("ERREUR : L'adresse IP existe déjà !", erreur[0].getMessage());
+    assertNull(dns.getItem(nom));
+    assertEquals("ns2." + domaine,
+        dns.getItem(new AdresseIP("10.7.7.7")).getNomMachine().getNomComplet());
+  }
+  
+  /**
+   * Returns the file of the partition holding a domain.
+   */
+  private Path fichierDe(String domaine) throws Exception {
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path candidat = DnsPartitionne.fichierPartition(fichier, i);
+      if (Files.readString(candidat).contains("." + domaine + " ")) {
+        return candidat;
+      }
+    }
+    throw new AssertionError("Aucune partition pour " + domaine);
+  }
+  
+  @Test
+  public void testReloadRejectsEntryInWrongPartition() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path partition = DnsPartitionne.fichierPartition(fichier, i);
+      if (!Files.readString(partition).contains("uvsq.fr")) {
+        Files.writeString(partition, Files.readString(partition)
+            + "intrus.uvsq.fr 10.9.9.9\n");
+        break;
+      }
+    }
+    
+    try {
+      dns.recharger();
+      fail("Entrée hors de sa partition");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().startsWith("Entrée hors de sa partition"));
+    }
+    assertEquals(5, dns.size());
+    assertNull(dns.getItem(new AdresseIP("10.9.9.9")));
+    assertNull(dns.getItem(new NomMachine("intrus.uvsq.fr")));
+  }
+  
+  @Test
+  public void testReloadRejectsAddressInTwoPartitions() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path partition = DnsPartitionne.fichierPartition(fichier, i);
+      if (Files.readString(partition).contains("ns.test.org")) {
+        Files.writeString(partition, Files.readString(partition)
+            .replace("ns.test.org 10.0.0.1", "ns.test.org 193.51.31.90"));
+      }
+    }
+    
+    try {
+      dns.recharger();
+      fail("Adresse en double");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("double"));
+    }
+    assertEquals("www.uvsq.fr",
+        dns.getItem(new AdresseIP("193.51.31.90")).getNomMachine().getNomComplet());
+    assertEquals("ns.test.org",
+        dns.getItem(new AdresseIP("10.0.0.1")).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testSnapshotReadsPartitionsInPlace() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    InstantaneDns instantane = dns.instantane();
+    assertEquals(5, instantane.size());
+    int parcourues = 0;
+    for (DnsItem item : instantane) {
+      assertEquals(item, instantane.getItem(item.getNomMachine()));
+      assertEquals(item, instantane.getItem(item.getAdresseIp()));
+      parcourues++;
+    }
+    assertEquals(5, parcourues);
+    assertNull(instantane.getItem(new NomMachine("absent.uvsq.fr")));
+    assertNull(instantane.getItem(new AdresseIP("10.9.9.9")));
+    
+    dns.addItem("10.9.9.9", "nouveau.uvsq.fr");
+    assertEquals(5, instantane.size());
+    assertNull(instantane.getItem(new NomMachine("nouveau.uvsq.fr")));
+    InstantaneDns suivant = dns.instantane();
+    assertEquals(6, suivant.size());
+    assertTrue(suivant.getSequence() > instantane.getSequence());
+    assertNotNull(suivant.getItem(new AdresseIP("10.9.9.9")));
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testEntryInWrongPartitionIsRejected() throws Exception {
+    new DnsPartitionne(fichier.toString(), PARTITIONS);
+    for (int i = 0; i < PARTITIONS; i++) {
+      Path partition = DnsPartitionne.fichierPartition(fichier, i);
+      if (!Files.readString(partition).contains("uvsq.fr")) {
+        Files.writeString(partition, "intrus.uvsq.fr 10.9.9.9\n");
+        break;
+      }
+    }
+    new DnsPartitionne(fichier.toString(), PARTITIONS);
+  }
+  
+  @Test
+  public void testReplicationIsNotSupported() throws Exception {
+    try {
+      new DnsPartitionne(fichier.toString(), PARTITIONS).ajouterEcouteur(changement -> { });
+      fail("Écouteur sur une base partitionnée");
+    } catch (DnsException e) {
+      assertEquals("La publication des changements n'est pas disponible pour une base "
+          + "partitionnée", e.getMessage());
+    }
+  }
+  
+  @Test
+  public void testChangePublicationIsRefused() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    try {
+      dns.publierChangements(16, PublicateurChangements.Politique.DECONNECTER);
+      fail("Publication sur une base partitionnée");
+    } catch (DnsException e) {
+      assertEquals("La publication des changements n'est pas disponible pour une base"
+          + " partitionnée", e.getMessage());
+    }
+  }
+  
+  @Test
+  public void testImportIntoPartitions() throws Exception {
+    DnsPartitionne dns = new DnsPartitionne(fichier.toString(), PARTITIONS);
+    String hosts = "10.0.0.1 autre.test.org\n"
+        + "10.3.0.1 a.uvsq.fr\n"
+        + "10.3.0.2 b.example.com\n"
+        + "10.3.0.3 c.test.org\n";
+    int ajoutees = dns.importer(new LecteurHosts(new BufferedReader(new StringReader(hosts))));
+    assertEquals(3, ajoutees);
+    assertEquals(8, dns.size());
+    assertEquals("ns.test.org",
+        dns.getItem(new AdresseIP("10.0.0.1")).getNomMachine().getNomComplet());
+    assertEquals("c.test.org",
+        dns.getItem(new AdresseIP("10.3.0.3")).getNomMachine().getNomComplet());
+    assertEquals(8, new DnsPartitionne(fichier.toString(), PARTITIONS).size());
+  }
+}
@@ -0,0 +1,117 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DnsProjete class.
+ */
+public class DnsProjeteTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+        + "poste.uvsq.fr 193.51.31.154\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n"
+        + "mail.google.com 172.217.20.5\n"
+        + "v6.uvsq.fr 2001:db8::1\n").getBytes());
+  }
+  
+  @Test
+  public void testLookups() throws Exception {
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    
+    assertEquals(5, dns.size());
+    assertEquals(new DnsItem("193.51.31.90", "www.uvsq.fr"),
+        dns.getItem(new NomMachine("www.uvsq.fr")));
+    assertEquals(new DnsItem("2001:db8::1", "v6.uvsq.fr"),
+        dns.getItem(new AdresseIP("2001:db8::1")));
+    assertNull(dns.getItem(new NomMachine("absent.uvsq.fr")));
+    assertNull(dns.getItem(new AdresseIP("10.0.0.1")));
+  }
+  
+  @Test
+  public void testDomainListings() throws Exception {
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    Dns reference = new Dns(fichier.toString());
+    
+    assertEquals(reference.getItems("uvsq.fr"), dns.getItems("uvsq.fr"));
+    assertEquals(reference.getItemsSortedByIp("uvsq.fr"), dns.getItemsSortedByIp("uvsq.fr"));
+    assertTrue(dns.getItems("").isEmpty());
+  }
+  
+  @Test
+  public void testIndexIsReused() throws Exception {
+    assertTrue(new DnsProjete(fichier.toString()).estIndexReconstruit());
+    assertTrue(Files.exists(DnsProjete.fichierIndex(fichier)));
+    
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    assertFalse(dns.estIndexReconstruit());
+    assertNotNull(dns.getItem(new NomMachine("mail.google.com")));
+  }
+  
+  @Test
+  public void testStaleIndexIsRebuilt() throws Exception {
+    new DnsProjete(fichier.toString());
+    Files.write(fichier, "nouveau.uvsq.fr 10.0.0.1\n".getBytes(),
+        StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(fichier, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+    
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    assertTrue(dns.estIndexReconstruit());
+    assertEquals(6, dns.size());
+    assertNotNull(dns.getItem(new AdresseIP("10.0.0.1")));
+  }
+  
+  @Test
+  public void testCorruptIndexIsRebuilt() throws Exception {
+    new DnsProjete(fichier.toString());
+    Path index = DnsProjete.fichierIndex(fichier);
+    byte[] octets = Files.readAllBytes(index);
+    Arrays.fill(octets, 16, 24, (byte) 0);
+    Files.write(index, octets);
+    
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    assertTrue(dns.estIndexReconstruit());
+    assertEquals(5, dns.size());
+  }
+  
+  @Test
+  public void testOtherOperationsDecodeIndex() throws Exception {
+    DnsProjete dns = new DnsProjete(fichier.toString());
+    
+    List<DnsItem> items = dns.findItems(new MotifGlob("*.uvsq.fr"));
+    assertEquals(4, items.size());
+    assertEquals(5, dns.getAllItems().size());
+    assertEquals(5, dns.instantane().size());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testReadOnly() throws Exception {
+    new DnsProjete(fichier.toString()).addItem("10.0.0.2", "autre.uvsq.fr");
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testMissingDatabase() throws Exception {
+    new DnsProjete(repertoire.resolve("absent.txt").toString());
+  }
+}
@@ -80,6 +80,18 @@ public class DnsTUITest {
     assertEquals("193.51.31.90", result);
   }
   
+  @Test
+  public void testNextCommandeSearchByIpv6() throws Exception {
+    dns.addItem("2001:db8::1", "v6.uvsq.fr");
+    tui = createTuiWithInput("2001:db8:0::1");
+    
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeRechercheParIp);
+    
+    String result = cmd.execute();
+    assertEquals("v6.uvsq.fr", result);
+  }
+  
   @Test
   public void testNextCommandeListDomain() throws Exception {
     tui = createTuiWithInput("ls uvsq.fr");
@@ -107,6 +119,49 @@ public class DnsTUITest {
     assertTrue(lines[1].contains("193.51.31.90"));
   }
   
+  @Test
+  public void testNextCommandeListDomainPaged() throws Exception {
+    tui = createTuiWithInput("ls -a uvsq.fr --limit 1\n"
+        + "ls -a uvsq.fr --limit 1 --after 193.51.25.12");
+    
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeListeDomaine);
+    assertEquals("193.51.25.12 ecampus.uvsq.fr\nSuite: --after 193.51.25.12", cmd.execute());
+    
+    cmd = tui.nextCommande();
+    assertEquals("193.51.31.90 www.uvsq.fr", cmd.execute());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testNextCommandeListDomainInvalidLimit() throws Exception {
+    tui = createTuiWithInput("ls uvsq.fr --limit 0");
+    tui.nextCommande();
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testNextCommandeListDomainAfterWithoutLimit() throws Exception {
+    tui = createTuiWithInput("ls uvsq.fr --after www.uvsq.fr");
+    tui.nextCommande();
+  }
+  
+  @Test
+  public void testNextCommandeFind() throws Exception {
+    tui = createTuiWithInput("find *.uvsq.fr");
+    
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeRechercheMotif);
+    
+    String result = cmd.execute();
+    assertTrue(result.contains("www.uvsq.fr"));
+    assertFalse(result.contains("mail.google.com"));
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testFindCommandMissingPattern() throws Exception {
+    tui = createTuiWithInput("find");
+    tui.nextCommande();
+  }
+  
   @Test
   public void testNextCommandeAddEntry() throws Exception {
     tui = createTuiWithInput("add 10.0.0.1 test.uvsq.fr");
@@ -208,6 +263,109 @@ public class DnsTUITest {
     assertTrue(cmd instanceof CommandeAjouterEntree);
   }
   
+  @Test
+  public void testParseStatsCommand() throws Exception {
+    tui = createTuiWithInput("stats");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeStatistiques);
+  }
+  
+  @Test
+  public void testParseStatsMemCommand() throws Exception {
+    tui = createTuiWithInput("stats mem");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeEmpreinteMemoire);
+  }
+  
+  @Test
+  public void testParseStatsIndexCommand() throws Exception {
+    tui = createTuiWithInput("stats index");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeTailleIndex);
+  }
+  
+  @Test
+  public void testParseTopCommand() throws Exception {
+    tui = createTuiWithInput("top\ntop 5");
+    assertTrue(tui.nextCommande() instanceof CommandeRequetesFrequentes);
+    assertTrue(tui.nextCommande() instanceof CommandeRequetesFrequentes);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testParseTopCommandInvalidNumber() throws Exception {
+    tui = createTuiWithInput("top 0");
+    tui.nextCommande();
+  }
+  
+  @Test
+  public void testUseCommandSwitchesZone() throws Exception {
+    Zones zones = new Zones();
+    Dns premiere = Dns.replique();
+    Dns seconde = Dns.replique();
+    zones.ajouter("premiere", premiere);
+    zones.ajouter("seconde", seconde);
+    tui = new DnsTUI(zones, new Scanner(new ByteArrayInputStream("use seconde\n".getBytes())));
+    assertEquals("premiere", tui.getZoneCourante());
+    
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeUtiliserZone);
+    assertEquals("Zone courante: seconde (0 entrées)", cmd.execute());
+    assertEquals("seconde", tui.getZoneCourante());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testUseCommandUnknownZone() throws Exception {
+    Zones zones = new Zones();
+    zones.ajouter("premiere", Dns.replique());
+    tui = new DnsTUI(zones, new Scanner(new ByteArrayInputStream("use autre\n".getBytes())));
+    tui.nextCommande().execute();
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testUseCommandWithSingleStore() throws Exception {
+    tui = createTuiWithInput("use seconde");
+    tui.nextCommande().execute();
+  }
+  
+  @Test
+  public void testParseImportCommand() throws Exception {
+    tui = createTuiWithInput("import --format=zone uvsq.zone");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeImport);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testParseImportCommandWithoutFormat() throws Exception {
+    tui = createTuiWithInput("import uvsq.zone");
+    tui.nextCommande();
+  }
+  
+  @Test
+  public void testParseExportCommand() throws Exception {
+    tui = createTuiWithInput("export sortie.txt --domain=uvsq.fr --sorted-by=ip");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeExport);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testParseExportCommandInvalidSort() throws Exception {
+    tui = createTuiWithInput("export sortie.txt --sorted-by=age");
+    tui.nextCommande();
+  }
+  
+  @Test
+  public void testParseResolveManyCommand() throws Exception {
+    tui = createTuiWithInput("resolve-many ips.txt noms.txt");
+    Commande cmd = tui.nextCommande();
+    assertTrue(cmd instanceof CommandeResolutionMasse);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testParseResolveManyCommandMissingOutput() throws Exception {
+    tui = createTuiWithInput("resolve-many ips.txt");
+    tui.nextCommande();
+  }
+  
   private DnsTUI createTuiWithInput(String input) {
     ByteArrayInputStream inputStream = new ByteArrayInputStream(input.getBytes());
     Scanner scanner = new Scanner(inputStream);
@@ -4,10 +4,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -120,6 +123,34 @@ public class DnsTest {
     assertTrue(items.isEmpty());
   }
   
+  @Test
+  public void testGetPageCursorIsStableWhileAdding() throws Exception {
+    PageDomaine page = dns.getPage("UVSQ.fr", false, null, 2);
+    assertEquals(2, page.getItems().size());
+    assertEquals("poste.uvsq.fr", page.getCurseurSuivant());
+    
+    // Added before and after the cursor between two pages
+    dns.addItem("193.51.31.1", "aaa.uvsq.fr");
+    dns.addItem("193.51.31.2", "zzz.uvsq.fr");
+    page = dns.getPage("uvsq.fr", false, page.getCurseurSuivant(), 2);
+    assertEquals("www.uvsq.fr", page.getItems().get(0).getNomMachine().getNomComplet());
+    assertEquals("zzz.uvsq.fr", page.getItems().get(1).getNomMachine().getNomComplet());
+    assertNull(page.getCurseurSuivant());
+  }
+  
+  @Test
+  public void testGetPageSortedByIp() throws Exception {
+    PageDomaine page = dns.getPage("uvsq.fr", true, "193.51.25.12", 1);
+    assertEquals("193.51.31.90", page.getItems().get(0).getAdresseIp().getAdresse());
+    assertEquals("193.51.31.90", page.getCurseurSuivant());
+    assertTrue(dns.getPage("notfound.com", true, null, 5).getItems().isEmpty());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testGetPageInvalidLimit() throws Exception {
+    dns.getPage("uvsq.fr", false, null, 0);
+  }
+  
   @Test
   public void testGetItemsSortedByIp() throws Exception {
     List<DnsItem> items = dns.getItemsSortedByIp("uvsq.fr");
@@ -131,6 +162,55 @@ public class DnsTest {
     assertEquals("193.51.31.154", items.get(2).getAdresseIp().getAdresse());
   }
   
+  @Test
+  public void testSuggererAfterAdd() throws Exception {
+    dns.addItem("10.0.0.1", "intranet.uvsq.fr");
+    
+    List<NomMachine> suggestions = dns.suggerer(new NomMachine("intranett.uvsq.fr"), 3);
+    
+    assertFalse(suggestions.isEmpty());
+    assertEquals("intranet.uvsq.fr", suggestions.get(0).getNomComplet());
+    assertTrue(dns.suggerer(null, 3).isEmpty());
+  }
+  
+  @Test
+  public void testFindItemsByPrefix() throws Exception {
+    dns.addItem("193.51.31.91", "web2.uvsq.fr");
+    dns.addItem("193.51.31.92", "web1.uvsq.fr");
+    
+    List<DnsItem> items = dns.findItems(new MotifGlob("web*.uvsq.fr"));
+    
+    assertEquals(2, items.size());
+    assertEquals("web1.uvsq.fr", items.get(0).getNomMachine().getNomComplet());
+    assertEquals("web2.uvsq.fr", items.get(1).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testFindItemsBySuffix() throws Exception {
+    dns.addItem("10.0.0.1", "b.info.uvsq.fr");
+    dns.addItem("10.0.0.2", "a.info.uvsq.fr");
+    
+    List<DnsItem> items = dns.findItems(new MotifGlob("*.info.uvsq.fr"));
+    
+    assertEquals(2, items.size());
+    assertEquals("a.info.uvsq.fr", items.get(0).getNomMachine().getNomComplet());
+    assertEquals("b.info.uvsq.fr", items.get(1).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testFindItemsWithoutLiteralPart() throws Exception {
+    List<DnsItem> items = dns.findItems(new MotifGlob("*"));
+    assertEquals(4, items.size());
+    assertEquals("ecampus.uvsq.fr", items.get(0).getNomMachine().getNomComplet());
+  }
+  
+  @Test
+  public void testFindItemsExactAndMissing() throws Exception {
+    assertEquals(1, dns.findItems(new MotifGlob("www.uvsq.fr")).size());
+    assertTrue(dns.findItems(new MotifGlob("nothing*")).isEmpty());
+    assertTrue(dns.findItems(null).isEmpty());
+  }
+  
   @Test
   public void testAddItemSuccess() throws Exception {
     int initialSize = dns.size();
@@ -163,6 +243,33 @@ public class DnsTest {
     assertNotNull(dns.getItem(ip));
   }
   
+  @Test
+  public void testAddItemIpv6() throws Exception {
+    dns.addItem("2001:DB8:0:0::10", "v6.uvsq.fr");
+    
+    DnsItem item = dns.getItem(new AdresseIP("2001:db8::10"));
+    assertNotNull(item);
+    assertEquals("v6.uvsq.fr", item.getNomMachine().getNomComplet());
+    
+    // Saved in canonical form and reloaded
+    assertTrue(Files.readAllLines(Paths.get(TEST_DB_FILE)).contains("v6.uvsq.fr 2001:db8::10"));
+    Dns reloadedDns = new Dns(TEST_DB_FILE);
+    assertNotNull(reloadedDns.getItem(new AdresseIP("2001:db8::10")));
+  }
+  
+  @Test
+  public void testGetItemsSortedByIpMixedFamilies() throws Exception {
+    dns.addItem("2001:db8::2", "v6b.uvsq.fr");
+    dns.addItem("2001:db8::1", "v6a.uvsq.fr");
+    
+    List<DnsItem> items = dns.getItemsSortedByIp("uvsq.fr");
+    
+    assertEquals(5, items.size());
+    assertEquals("193.51.31.154", items.get(2).getAdresseIp().getAdresse());
+    assertEquals("2001:db8::1", items.get(3).getAdresseIp().getAdresse());
+    assertEquals("2001:db8::2", items.get(4).getAdresseIp().getAdresse());
+  }
+  
   @Test(expected = DnsException.class)
   public void testAddItemDuplicateIp() throws Exception {
     dns.addItem("193.51.31.90", "duplicate.uvsq.fr");
@@ -209,6 +316,25 @@ public class DnsTest {
     }
   }
   
+  @Test
+  public void testInstantaneIsNotAffectedByLaterWrites() throws Exception {
+    InstantaneDns avant = dns.instantane();
+    
+    dns.addItem("10.0.0.1", "test.uvsq.fr");
+    
+    assertEquals(4, avant.size());
+    assertNull(avant.getItem(new NomMachine("test.uvsq.fr")));
+    assertEquals(5, dns.instantane().size());
+    assertNotNull(dns.instantane().getItem(new AdresseIP("10.0.0.1")));
+    
+    int compte = 0;
+    for (DnsItem item : avant) {
+      assertNotNull(item);
+      compte++;
+    }
+    assertEquals(4, compte);
+  }
+  
   @Test
   public void testEmptyDatabaseFile() throws Exception {
     // Create empty file
@@ -253,4 +379,146 @@ public class DnsTest {
       Files.deleteIfExists(Paths.get(invalidFile));
     }
   }
+  
+  @Test(expected = DnsException.class)
+  public void testDuplicateEntriesInDatabase() throws Exception {
+    String duplicateFile = "duplicate_test.txt";
+    String content = "www.test.com 1.2.3.4\n" +
+                    "mail.test.com 1.2.3.4\n";
+    Files.write(Paths.get(duplicateFile), content.getBytes());
+    
+    try {
+      new Dns(duplicateFile);
+    } finally {
+      Files.deleteIfExists(Paths.get(duplicateFile));
+    }
+  }
+  
+  @Test
+  public void testRechargerAppliesDifferences() throws Exception {
+    String content = "www.uvsq.fr 193.51.31.90\n" +
+                    "ecampus.uvsq.fr 193.51.25.13\n" +
+                    "mail.google.com 172.217.20.5\n" +
+                    "new.uvsq.fr 10.0.0.1\n";
+    Files.write(Paths.get(TEST_DB_FILE), content.getBytes());
+    
+    // poste removed, new added, ecampus changed its address
+    assertEquals(4, dns.recharger());
+    
+    assertEquals(4, dns.size());
+    assertNull(dns.getItem(new NomMachine("poste.uvsq.fr")));
+    assertNull(dns.getItem(new AdresseIP("193.51.25.12")));
+    assertEquals("ecampus.uvsq.fr",
+        dns.getItem(new AdresseIP("193.51.25.13")).getNomMachine().getNomComplet());
+    assertNotNull(dns.getItem(new NomMachine("new.uvsq.fr")));
+    assertEquals(1, dns.findItems(new MotifGlob("new*")).size());
+    assertTrue(dns.findItems(new MotifGlob("poste*")).isEmpty());
+  }
+  
+  @Test
+  public void testRechargerUnchangedFile() throws Exception {
+    assertEquals(0, dns.recharger());
+    assertEquals(4, dns.size());
+  }
+  
+  @Test
+  public void testRechargerInvalidFileKeepsStore() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), "invalid line format\n".getBytes());
+    
+    try {
+      dns.recharger();
+      fail("Should throw DnsException");
+    } catch (DnsException e) {
+      // Expected
+    }
+    assertEquals(4, dns.size());
+    assertNotNull(dns.getItem(new NomMachine("www.uvsq.fr")));
+  }
+  
+  @Test
+  public void testBloomFiltersRejectMisses() throws Exception {
+    assertNull(dns.getStatistiquesFiltreNoms());
+    dns.activerFiltres(0.01);
+    
+    assertNotNull(dns.getItem(new NomMachine("www.uvsq.fr")));
+    assertNotNull(dns.getItem(new AdresseIP("172.217.20.5")));
+    for (int i = 0; i < 100; i++) {
+      assertNull(dns.getItem(new NomMachine("absent" + i + ".uvsq.fr")));
+      assertNull(dns.getItem(new AdresseIP("10.0.0." + i)));
+    }
+    
+    FiltreBloom.Statistiques noms = dns.getStatistiquesFiltreNoms();
+    assertEquals(101, noms.getRequetes());
+    assertEquals(100, noms.getRejets() + noms.getFauxPositifs());
+    assertTrue(noms.getRejets() >= 90);
+    assertTrue(dns.getStatistiquesFiltreAdresses().getRejets() >= 90);
+  }
+  
+  @Test
+  public void testBloomFiltersFollowAdditions() throws Exception {
+    dns.activerFiltres(0.01);
+    for (int i = 0; i < 1100; i++) {
+      dns.addItem("10.0." + (i >> 8) + "." + (i & 255), "m" + i + ".uvsq.fr");
+    }
+    for (int i = 0; i < 1100; i++) {
+      assertNotNull(dns.getItem(new NomMachine("m" + i + ".uvsq.fr")));
+      assertNotNull(dns.getItem(new AdresseIP("10.0." + (i >> 8) + "." + (i & 255))));
+    }
+    FiltreBloom.Statistiques noms = dns.getStatistiquesFiltreNoms();
+    assertEquals(1104, noms.getNombreElements());
+    assertTrue(noms.getCapacite() > 1104);
+    assertEquals(1100, noms.getRequetes());
+  }
+  
+  @Test
+  public void testBloomFiltersAreRebuiltOnReload() throws Exception {
+    dns.activerFiltres(0.01);
+    Files.write(Paths.get(TEST_DB_FILE), ("www.uvsq.fr 193.51.31.90\n"
+        + "moodle.uvsq.fr 193.51.25.13\n").getBytes());
+    assertEquals(4, dns.recharger());
+    assertNotNull(dns.getItem(new NomMachine("moodle.uvsq.fr")));
+    assertNull(dns.getItem(new NomMachine("poste.uvsq.fr")));
+    
+    Dns relu = new Dns(TEST_DB_FILE);
+    relu.activerFiltres(0.01);
+    assertEquals(2, relu.getStatistiquesFiltreNoms().getNombreElements());
+  }
+  
+  @Test
+  public void testImportInBatches() throws Exception {
+    StringBuilder hosts = new StringBuilder("193.51.31.90 www.uvsq.fr\n");
+    for (int i = 0; i < 25_000; i++) {
+      hosts.append("10.").append(i >> 16).append('.').append((i >> 8) & 255).append('.')
+          .append(i & 255).append(" m").append(i).append(".import.fr\n");
+    }
+    List<Long> sequences = new ArrayList<>();
+    dns.ajouterEcouteur(changement -> sequences.add(changement.getSequence()));
+    
+    int ajoutees = dns.importer(new LecteurHosts(
+        new BufferedReader(new StringReader(hosts.toString()))));
+    assertEquals(25_000, ajoutees);
+    assertEquals(25_004, dns.size());
+    assertEquals(25_000, sequences.size());
+    assertNotNull(dns.getItem(new NomMachine("m24999.import.fr")));
+    assertEquals(10, dns.findItems(new MotifGlob("m2499?.import.fr")).size());
+    
+    Dns relu = new Dns(TEST_DB_FILE);
+    assertEquals(25_004, relu.size());
+  }
+  
+  @Test
+  public void testImportKeepsEntriesBeforeError() throws Exception {
+    String hosts = "10.0.0.1 a.import.fr\n"
+        + "10.0.0.2 b.import.fr\n"
+        + "pas-une-adresse c.import.fr\n";
+    try {
+      dns.importer(new LecteurHosts(
+          new BufferedReader(new StringReader(hosts))));
+      fail("Should throw DnsException");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("ligne 3"));
+    }
+    assertEquals(6, dns.size());
+    assertEquals(6, new Dns(TEST_DB_FILE).size());
+  }
 }
@@ -0,0 +1,114 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EmpreinteMemoire class.
+ */
+public class EmpreinteMemoireTest {
+  
+  private static final int NOMBRE_ENTREES = 100_000;
+  
+  /**
+   * Builds a replica holding generated entries, with the Bloom filters enabled.
+   *
+   * @return the replica, the only reference to the entries
+   */
+  private static Dns construire() {
+    List<DnsItem> items = new ArrayList<>(NOMBRE_ENTREES);
+    for (int i = 0; i < NOMBRE_ENTREES; i++) {
+      AdresseIP adresse =
+          new AdresseIP("10." + (i >> 16) + "." + ((i >> 8) & 255) + "." + (i & 255));
+      NomMachine nom = new NomMachine("poste" + i + ".site" + (i % 97) + ".uvsq.fr");
+      items.add(new DnsItem(adresse, nom));
+    }
+    Dns dns = Dns.replique();
+    dns.remplacer(items, NOMBRE_ENTREES);
+    dns.activerFiltres(0.01);
+    return dns;
+  }
+  
+  /**
+   * Returns the used heap once the garbage has been collected.
+   *
+   * @return the used heap, in bytes
+   */
+  private static long memoireUtilisee() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long utilisee = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(50);
+      utilisee = Math.min(utilisee, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return utilisee;
+  }
+  
+  @Test
+  public void testEstimateMatchesMeasuredHeap() throws Exception {
+    long avant = memoireUtilisee();
+    Dns dns = construire();
+    long mesuree = memoireUtilisee() - avant;
+    
+    EmpreinteMemoire empreinte = dns.empreinteMemoire();
+    assertEquals(NOMBRE_ENTREES, empreinte.getNombreEntrees());
+    // G1 reports whole regions as used, so the measure exceeds the objects a little
+    double ecart = Math.abs(empreinte.getTotal() - mesuree) / (double) mesuree;
+    assertTrue("Estimé " + empreinte.getTotal() + " octets, mesuré " + mesuree,
+        ecart < 0.25);
+    assertEquals(NOMBRE_ENTREES, dns.size());
+  }
+  
+  @Test
+  public void testPartsOfTheStore() {
+    Dns dns = Dns.replique();
+    EmpreinteMemoire vide = dns.empreinteMemoire();
+    assertEquals(0, vide.getOctets(EmpreinteMemoire.ENTREES));
+    assertEquals(0, vide.getOctetsParEntree(), 0);
+    
+    List<DnsItem> items = new ArrayList<>();
+    items.add(new DnsItem(new AdresseIP("10.0.0.1"), new NomMachine("a.uvsq.fr")));
+    items.add(new DnsItem(new AdresseIP("2001:db8::1"), new NomMachine("b.uvsq.fr")));
+    dns.remplacer(items, 2);
+    EmpreinteMemoire empreinte = dns.empreinteMemoire();
+    
+    assertEquals(2, empreinte.getNombreEntrees());
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.ENTREES) > 0);
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.INSTANTANE) > 0);
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.INDEX_ORDONNES) > 0);
+    assertTrue(empreinte.getOctets(EmpreinteMemoire.INDEX_TRIGRAMMES) > 0);
+    assertFalse(empreinte.getParties().containsKey(EmpreinteMemoire.FILTRES));
+    assertEquals(empreinte.getTotal() / 2.0, empreinte.getOctetsParEntree(), 1e-9);
+    
+    dns.activerFiltres(0.01);
+    assertTrue(dns.empreinteMemoire().getOctets(EmpreinteMemoire.FILTRES) > 0);
+  }
+  
+  @Test
+  public void testPlus() {
+    EmpreinteMemoire a = new EmpreinteMemoire(2);
+    a.ajouter(EmpreinteMemoire.ENTREES, 100);
+    EmpreinteMemoire b = new EmpreinteMemoire(3);
+    b.ajouter(EmpreinteMemoire.ENTREES, 50);
+    b.ajouter(EmpreinteMemoire.FILTRES, 10);
+    
+    EmpreinteMemoire somme = a.plus(b);
+    assertEquals(5, somme.getNombreEntrees());
+    assertEquals(150, somme.getOctets(EmpreinteMemoire.ENTREES));
+    assertEquals(160, somme.getTotal());
+    assertSame(a, a.plus(null));
+  }
+  
+  @Test
+  public void testStringSizes() {
+    assertTrue(EmpreinteMemoire.chaine("abcdefghijklmnopq")
+        > EmpreinteMemoire.chaine("a"));
+    assertTrue(EmpreinteMemoire.chaine("中文中文中文中文中")
+        >= EmpreinteMemoire.chaine("abcdefghi"));
+  }
+}
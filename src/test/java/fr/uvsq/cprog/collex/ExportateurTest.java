@@ -0,0 +1,152 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Exportateur class.
+ */
+public class ExportateurTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  private Path cible;
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    cible = repertoire.resolve("export.txt");
+    Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+        + "poste.uvsq.fr 193.51.31.154\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n"
+        + "mail.google.com 172.217.20.5\n").getBytes());
+    dns = new Dns(fichier.toString());
+  }
+  
+  @Test
+  public void testExportCopiesDatabaseFile() throws Exception {
+    long octets = new Exportateur(dns).exporter(cible, null, null);
+    
+    assertArrayEquals(Files.readAllBytes(fichier), Files.readAllBytes(cible));
+    assertEquals(Files.size(fichier), octets);
+  }
+  
+  @Test
+  public void testExportSortedByName() throws Exception {
+    new Exportateur(dns).exporter(cible, Exportateur.Tri.NOM, null);
+    
+    assertEquals(Arrays.asList("ecampus.uvsq.fr 193.51.25.12",
+        "mail.google.com 172.217.20.5",
+        "poste.uvsq.fr 193.51.31.154",
+        "www.uvsq.fr 193.51.31.90"), Files.readAllLines(cible));
+  }
+  
+  @Test
+  public void testExportSortedByIp() throws Exception {
+    new Exportateur(dns).exporter(cible, Exportateur.Tri.IP, null);
+    
+    assertEquals(Arrays.asList("mail.google.com 172.217.20.5",
+        "ecampus.uvsq.fr 193.51.25.12",
+        "www.uvsq.fr 193.51.31.90",
+        "poste.uvsq.fr 193.51.31.154"), Files.readAllLines(cible));
+  }
+  
+  @Test
+  public void testExportDomain() throws Exception {
+    new Exportateur(dns).exporter(cible, Exportateur.Tri.IP, "uvsq.fr");
+    
+    assertEquals(Arrays.asList("ecampus.uvsq.fr 193.51.25.12",
+        "www.uvsq.fr 193.51.31.90",
+        "poste.uvsq.fr 193.51.31.154"), Files.readAllLines(cible));
+  }
+  
+  @Test
+  public void testExportIsReadableAsDatabase() throws Exception {
+    dns.addItem(new AdresseIP("2001:db8::1"), new NomMachine("v6.exemple.fr"));
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("café.exemple.fr"));
+    new Exportateur(dns).exporter(cible, Exportateur.Tri.NOM, null);
+    
+    List<DnsItem> relus = Dns.readDatabase(cible);
+    List<DnsItem> attendus = new ArrayList<>(dns.getAllItems());
+    Collections.sort(attendus);
+    assertEquals(attendus, relus);
+    assertTrue(Files.readAllLines(cible, StandardCharsets.UTF_8)
+        .contains("café.exemple.fr 10.0.0.1"));
+  }
+  
+  @Test
+  public void testExportLargerThanBuffer() throws Exception {
+    List<DnsItem> items = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      items.add(new DnsItem("10.1." + (i / 256) + "." + (i % 256), "h" + i + ".exemple.fr"));
+    }
+    Dns grande = Dns.replique();
+    grande.remplacer(items, 1);
+    long octets = new Exportateur(grande).exporter(cible, null, null);
+    
+    assertTrue(octets > Exportateur.TAILLE_TAMPON);
+    assertEquals(octets, Files.size(cible));
+    assertEquals(5000, Dns.readDatabase(cible).size());
+  }
+  
+  @Test
+  public void testExportPartitionedCopiesAllPartitions() throws Exception {
+    Dns partitionne = new DnsPartitionne(fichier.toString(), 3);
+    new Exportateur(partitionne).exporter(cible, null, null);
+    
+    List<DnsItem> relus = Dns.readDatabase(cible);
+    Collections.sort(relus);
+    List<DnsItem> attendus = new ArrayList<>(partitionne.getAllItems());
+    Collections.sort(attendus);
+    assertEquals(attendus, relus);
+  }
+  
+  @Test
+  public void testExportOntoDatabaseIsRefused() throws Exception {
+    byte[] contenu = Files.readAllBytes(fichier);
+    try {
+      new Exportateur(dns).exporter(repertoire.resolve(".").resolve("dns_database.txt"),
+          null, null);
+      fail("Export sur la base");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage(), e.getMessage().endsWith("est utilisé par le service"));
+    }
+    assertArrayEquals(contenu, Files.readAllBytes(fichier));
+    assertEquals(4, dns.size());
+  }
+  
+  @Test
+  public void testExportReplacesTargetAtOnce() throws Exception {
+    Files.write(cible, "ancien contenu\n".getBytes());
+    new Exportateur(dns).exporter(cible, Exportateur.Tri.NOM, "uvsq.fr");
+    
+    assertEquals(3, Dns.readDatabase(cible).size());
+    try (Stream<Path> fichiers = Files.list(repertoire)) {
+      assertEquals(2, fichiers.count());
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testExportToMissingDirectory() throws Exception {
+    new Exportateur(dns).exporter(repertoire.resolve("absent").resolve("export.txt"),
+        Exportateur.Tri.NOM, null);
+  }
+}
@@ -0,0 +1,82 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for FiltreBloom class.
+ */
+public class FiltreBloomTest {
+  
+  @Test
+  public void testNoFalseNegative() {
+    FiltreBloom filtre = new FiltreBloom(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filtre.ajouter(FiltreBloom.empreinte(new NomMachine("m" + i + ".uvsq.fr")));
+    }
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(filtre.peutContenir(FiltreBloom.empreinte(new NomMachine("m" + i + ".uvsq.fr"))));
+    }
+    assertEquals(0, filtre.getStatistiques().getRejets());
+  }
+  
+  @Test
+  public void testFalsePositiveRateAtCapacity() {
+    FiltreBloom filtre = new FiltreBloom(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filtre.ajouter(FiltreBloom.empreinte(new AdresseIP("10.0." + (i >> 8) + "." + (i & 255))));
+    }
+    assertTrue(filtre.estSature());
+    
+    int positifs = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (filtre.peutContenir(
+          FiltreBloom.empreinte(new AdresseIP("10.1." + (i >> 8) + "." + (i & 255))))) {
+        positifs++;
+      }
+    }
+    assertTrue("Faux positifs: " + positifs, positifs < 300);
+    
+    FiltreBloom.Statistiques statistiques = filtre.getStatistiques();
+    assertEquals(10_000, statistiques.getRequetes());
+    assertEquals(10_000 - positifs, statistiques.getRejets());
+  }
+  
+  @Test
+  public void testFamiliesHaveDistinctFingerprints() {
+    assertNotEquals(FiltreBloom.empreinte(new AdresseIP("0.0.0.1")),
+        FiltreBloom.empreinte(new AdresseIP("::1")));
+  }
+  
+  @Test
+  public void testStatistics() {
+    FiltreBloom filtre = new FiltreBloom(100, 0.01);
+    filtre.ajouter(FiltreBloom.empreinte(new NomMachine("www.uvsq.fr")));
+    filtre.peutContenir(FiltreBloom.empreinte(new NomMachine("www.uvsq.fr")));
+    filtre.peutContenir(FiltreBloom.empreinte(new NomMachine("absent.uvsq.fr")));
+    filtre.signalerFauxPositif();
+    
+    FiltreBloom.Statistiques statistiques = filtre.getStatistiques();
+    assertEquals(1, statistiques.getNombreElements());
+    assertEquals(2, statistiques.getRequetes());
+    assertEquals(1, statistiques.getFauxPositifs());
+    assertEquals(0.5, statistiques.getTauxRejet(), 1e-9);
+    assertEquals(0.5, statistiques.getTauxFauxPositifs(), 1e-9);
+    
+    FiltreBloom.Statistiques total = statistiques.plus(statistiques);
+    assertEquals(4, total.getRequetes());
+    assertEquals(200, total.getCapacite());
+    assertSame(statistiques, statistiques.plus(null));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRate() {
+    new FiltreBloom(100, 1.0);
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new FiltreBloom(0, 0.01);
+  }
+}
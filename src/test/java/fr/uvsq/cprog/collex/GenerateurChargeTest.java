@@ -0,0 +1,128 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for GenerateurCharge class.
+ */
+public class GenerateurChargeTest {
+  
+  private static final String TEST_DB_FILE = "test_charge_dns.txt";
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), ("www.uvsq.fr 193.51.31.90\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n"
+        + "poste.uvsq.fr 193.51.31.154\n"
+        + "mail.google.com 172.217.20.5\n").getBytes());
+    dns = new Dns(TEST_DB_FILE);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+  }
+  
+  @Test
+  public void testReadLog() throws Exception {
+    String journal = "# requêtes enregistrées\n"
+        + "www.uvsq.fr\n"
+        + "\n"
+        + "193.51.25.12\n"
+        + "ls -a uvsq.fr\n"
+        + "add 10.0.0.1 nouveau.uvsq.fr\n"
+        + "quit\n";
+    List<Commande> commandes = GenerateurCharge.lireJournal(dns,
+        new BufferedReader(new StringReader(journal)));
+    
+    assertEquals(4, commandes.size());
+    assertTrue(commandes.get(0) instanceof CommandeRechercheParNom);
+    assertTrue(commandes.get(3) instanceof CommandeAjouterEntree);
+  }
+  
+  @Test
+  public void testReadLogInvalidLine() {
+    try {
+      GenerateurCharge.lireJournal(dns,
+          new BufferedReader(new StringReader("www.uvsq.fr\nadd 10.0.0.1\n")));
+      fail("Une ligne invalide doit être signalée");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Ligne 2 du journal invalide"));
+    }
+  }
+  
+  @Test
+  public void testSynthesizedLookupsFavorPopularEntries() throws Exception {
+    List<Commande> commandes = GenerateurCharge.synthetiser(dns, 1000, 2.0, 42);
+    
+    assertEquals(1000, commandes.size());
+    int resultatsDistincts = (int) commandes.stream()
+        .map(commande -> {
+          try {
+            return commande.execute();
+          } catch (DnsException e) {
+            return e.getMessage();
+          }
+        })
+        .distinct().count();
+    // 4 entries looked up by name or address, 2 domains listed
+    assertTrue(resultatsDistincts <= 10);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testSynthesizeWithoutEntries() throws Exception {
+    GenerateurCharge.synthetiser(Dns.replique(), 10, 1.0, 42);
+  }
+  
+  @Test
+  public void testRunAtTargetRate() {
+    List<Commande> commandes = Arrays.asList(new CommandeRechercheParNom(dns, "www.uvsq.fr"),
+        new CommandeRechercheParIp(dns, "193.51.25.12"));
+    GenerateurCharge.Rapport rapport = new GenerateurCharge(commandes, 1000, 4).executer(0.2);
+    
+    assertEquals(200, rapport.getNombre());
+    assertEquals(0, rapport.getErreurs());
+    assertTrue(rapport.getDebit() > 500);
+    assertTrue(rapport.toString(), rapport.toString().startsWith("Requêtes: 200 en "));
+  }
+  
+  @Test
+  public void testStallCountsForWaitingCommands() {
+    AtomicInteger appels = new AtomicInteger();
+    Commande commande = () -> {
+      if (appels.incrementAndGet() == 1) {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return "";
+    };
+    GenerateurCharge.Rapport rapport = new GenerateurCharge(Collections.singletonList(commande),
+        1000, 1).executer(0.2);
+    
+    // About 100 commands were due while the first one stalled
+    assertTrue(rapport.getLatences().getCentile(75) > 10_000_000);
+    assertTrue(rapport.getServices().getCentile(75) < 10_000_000);
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyCommands() {
+    new GenerateurCharge(Collections.emptyList(), 100, 1);
+  }
+}
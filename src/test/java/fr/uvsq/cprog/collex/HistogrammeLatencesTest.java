@@ -0,0 +1,64 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for HistogrammeLatences class.
+ */
+public class HistogrammeLatencesTest {
+  
+  @Test
+  public void testEmptyHistogram() {
+    HistogrammeLatences histogramme = new HistogrammeLatences();
+    assertEquals(0, histogramme.getNombre());
+    assertEquals(0, histogramme.getCentile(99));
+    assertEquals(0, histogramme.getMaximum());
+  }
+  
+  @Test
+  public void testSmallValuesAreExact() {
+    HistogrammeLatences histogramme = new HistogrammeLatences();
+    for (int i = 1; i <= 100; i++) {
+      histogramme.enregistrer(i);
+    }
+    assertEquals(50, histogramme.getCentile(50));
+    assertEquals(99, histogramme.getCentile(99));
+    assertEquals(100, histogramme.getCentile(100));
+  }
+  
+  @Test
+  public void testRelativePrecision() {
+    HistogrammeLatences histogramme = new HistogrammeLatences();
+    for (long i = 1; i <= 100_000; i++) {
+      histogramme.enregistrer(i * 1_000);
+    }
+    assertEquals(50_000_000, histogramme.getCentile(50), 50_000_000 * 0.02);
+    assertEquals(99_000_000, histogramme.getCentile(99), 99_000_000 * 0.02);
+    assertEquals(99_900_000, histogramme.getCentile(99.9), 99_900_000 * 0.02);
+    assertEquals(100_000_000, histogramme.getMaximum());
+  }
+  
+  @Test
+  public void testExtremeValues() {
+    HistogrammeLatences histogramme = new HistogrammeLatences();
+    histogramme.enregistrer(-5);
+    histogramme.enregistrer(Long.MAX_VALUE);
+    assertEquals(0, histogramme.getCentile(50));
+    assertEquals(Long.MAX_VALUE, histogramme.getCentile(100));
+  }
+  
+  @Test
+  public void testMerge() {
+    HistogrammeLatences a = new HistogrammeLatences();
+    HistogrammeLatences b = new HistogrammeLatences();
+    a.enregistrer(10);
+    b.enregistrer(20);
+    b.enregistrer(30);
+    a.ajouter(b);
+    assertEquals(3, a.getNombre());
+    assertEquals(20, a.getCentile(50));
+    assertEquals(30, a.getMaximum());
+  }
+}
@@ -0,0 +1,114 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for IndexCompresse class.
+ */
+public class IndexCompresseTest {
+  
+  private List<DnsItem> items;
+  private IndexCompresse index;
+  
+  @Before
+  public void setUp() {
+    items = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      items.add(new DnsItem("10.1." + (i / 256) + "." + (i % 256),
+          "h" + i + ".d" + (i % 7) + ".exemple.fr"));
+    }
+    items.add(new DnsItem("2001:db8::1", "v6.exemple.fr"));
+    items.add(new DnsItem("2001:db8::2:0:1", "v6b.exemple.fr"));
+    items.add(new DnsItem("193.51.31.90", "www.uvsq.fr"));
+    items.add(new DnsItem("193.51.31.154", "poste.uvsq.fr"));
+    items.add(new DnsItem("193.51.25.12", "ecampus.uvsq.fr"));
+    index = IndexCompresse.construire(items);
+  }
+  
+  @Test
+  public void testLookupEveryEntry() {
+    assertEquals(items.size(), index.size());
+    for (DnsItem item : items) {
+      assertEquals(item, index.getItem(item.getNomMachine()));
+      assertEquals(item, index.getItem(item.getAdresseIp()));
+    }
+  }
+  
+  @Test
+  public void testLookupAbsent() {
+    assertNull(index.getItem(new NomMachine("absent.uvsq.fr")));
+    assertNull(index.getItem(new NomMachine("aaa.aaa")));
+    assertNull(index.getItem(new NomMachine("zzz.zzz")));
+    assertNull(index.getItem(new NomMachine("uvsq.fr")));
+    assertNull(index.getItem(new AdresseIP("10.1.3.233")));
+    assertNull(index.getItem(new AdresseIP("0.0.0.0")));
+    assertNull(index.getItem(new AdresseIP("ffff::1")));
+  }
+  
+  @Test
+  public void testIterationByAddress() {
+    List<DnsItem> attendus = new ArrayList<>(items);
+    attendus.sort((a, b) -> a.getAdresseIp().compareTo(b.getAdresseIp()));
+    assertEquals(attendus, lister(index.parAdresse()));
+  }
+  
+  @Test
+  public void testIterationByReversedName() {
+    List<DnsItem> lus = lister(index.parNom());
+    assertEquals(items.size(), lus.size());
+    for (int i = 1; i < lus.size(); i++) {
+      String precedent = IndexCompresse.inverser(lus.get(i - 1).getNomMachine().getNomComplet());
+      String courant = IndexCompresse.inverser(lus.get(i).getNomMachine().getNomComplet());
+      assertTrue(precedent.compareTo(courant) < 0);
+    }
+  }
+  
+  @Test
+  public void testItemsOfDomain() {
+    assertEquals(Arrays.asList(new DnsItem("193.51.25.12", "ecampus.uvsq.fr"),
+        new DnsItem("193.51.31.154", "poste.uvsq.fr"),
+        new DnsItem("193.51.31.90", "www.uvsq.fr")), index.getItems("UVSQ.fr"));
+    assertEquals(2, index.getItems("exemple.fr").size());
+    assertEquals(143, index.getItems("d3.exemple.fr").size());
+    assertTrue(index.getItems("absent.fr").isEmpty());
+  }
+  
+  @Test
+  public void testEmptyIndex() {
+    IndexCompresse vide = IndexCompresse.construire(Collections.emptyList());
+    assertEquals(0, vide.size());
+    assertNull(vide.getItem(new NomMachine("www.uvsq.fr")));
+    assertNull(vide.getItem(new AdresseIP("10.0.0.1")));
+    assertFalse(vide.parNom().hasNext());
+    assertFalse(vide.parAdresse().hasNext());
+    assertTrue(vide.getItems("uvsq.fr").isEmpty());
+  }
+  
+  @Test
+  public void testCompression() {
+    // The strings alone take more than 30 bytes per entry
+    assertTrue("" + index.getOctetsParEntree(), index.getOctetsParEntree() < 15);
+  }
+  
+  @Test
+  public void testReverseLabels() {
+    assertEquals("fr.uvsq.www", IndexCompresse.inverser("www.uvsq.fr"));
+    assertEquals("www.uvsq.fr", IndexCompresse.inverser("fr.uvsq.www"));
+    assertEquals("fr.", IndexCompresse.inverser(".fr"));
+  }
+  
+  private static List<DnsItem> lister(Iterator<DnsItem> iterateur) {
+    List<DnsItem> liste = new ArrayList<>();
+    iterateur.forEachRemaining(liste::add);
+    return liste;
+  }
+}
@@ -0,0 +1,102 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for IndexTrigrammes class.
+ */
+public class IndexTrigrammesTest {
+  
+  private IndexTrigrammes index;
+  
+  @Before
+  public void setUp() {
+    index = new IndexTrigrammes();
+    index.ajouter("www.uvsq.fr");
+    index.ajouter("ecampus.uvsq.fr");
+    index.ajouter("poste.uvsq.fr");
+    index.ajouter("mail.google.com");
+  }
+  
+  @Test
+  public void testSuggestTypo() {
+    List<String> suggestions = index.suggerer("ww.uvsq.fr", 3);
+    assertFalse(suggestions.isEmpty());
+    assertEquals("www.uvsq.fr", suggestions.get(0));
+  }
+  
+  @Test
+  public void testSuggestionsOrderedByDistance() {
+    index.ajouter("postes.uvsq.fr");
+    List<String> suggestions = index.suggerer("poste.uvsq.fr", 2);
+    assertEquals("poste.uvsq.fr", suggestions.get(0));
+    assertEquals("postes.uvsq.fr", suggestions.get(1));
+  }
+  
+  @Test
+  public void testSuggestLimit() {
+    assertEquals(1, index.suggerer("ww.uvsq.fr", 1).size());
+  }
+  
+  @Test
+  public void testNoSuggestionForUnrelatedName() {
+    assertTrue(index.suggerer("zzzzzzzzzzzz.example.org", 3).isEmpty());
+    assertTrue(index.suggerer("", 3).isEmpty());
+    assertTrue(index.suggerer(null, 3).isEmpty());
+  }
+  
+  @Test
+  public void testRemovedNameIsNotSuggested() {
+    index.retirer("www.uvsq.fr");
+    
+    assertEquals(3, index.size());
+    assertFalse(index.suggerer("ww.uvsq.fr", 3).contains("www.uvsq.fr"));
+    
+    index.ajouter("www.uvsq.fr");
+    assertEquals("www.uvsq.fr", index.suggerer("ww.uvsq.fr", 3).get(0));
+  }
+  
+  @Test
+  public void testSuggestAmongManyCandidates() {
+    for (int i = 0; i < 5000; i++) {
+      index.ajouter("poste" + i + ".uvsq.fr");
+    }
+    List<String> suggestions = index.suggerer("poste4999.uvsq.f", 2);
+    assertEquals("poste4999.uvsq.fr", suggestions.get(0));
+    assertEquals(2, suggestions.size());
+  }
+  
+  @Test
+  public void testChurnIsCompacted() {
+    long initiale = index.tailleMemoire();
+    for (int i = 0; i < 1000; i++) {
+      index.ajouter("poste" + i + ".uvsq.fr");
+      index.retirer("poste" + i + ".uvsq.fr");
+    }
+    
+    assertEquals(4, index.size());
+    assertTrue(index.tailleMemoire() < 2 * initiale);
+    assertEquals("www.uvsq.fr", index.suggerer("ww.uvsq.fr", 3).get(0));
+    assertEquals("poste.uvsq.fr", index.suggerer("poste.uvsq.fr", 3).get(0));
+  }
+  
+  @Test
+  public void testEmptyIndex() {
+    index.vider();
+    assertEquals(0, index.size());
+    assertTrue(index.suggerer("www.uvsq.fr", 3).isEmpty());
+  }
+  
+  @Test
+  public void testDistance() {
+    assertEquals(0, IndexTrigrammes.distance("abc", "abc", 5));
+    assertEquals(1, IndexTrigrammes.distance("abc", "abd", 5));
+    assertEquals(3, IndexTrigrammes.distance("kitten", "sitting", 5));
+    assertTrue(IndexTrigrammes.distance("a", "abcdef", 2) > 2);
+  }
+}
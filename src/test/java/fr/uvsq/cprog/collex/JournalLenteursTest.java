@@ -0,0 +1,205 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for JournalLenteurs class.
+ */
+public class JournalLenteursTest {
+  
+  private static final String TEST_DB_FILE = "test_lenteurs_dns.txt";
+  private static final String TEST_LOG_FILE = "test_lenteurs.log";
+  private Dns dns;
+  private StringWriter sortie;
+  
+  @Before
+  public void setUp() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), ("www.uvsq.fr 193.51.31.90\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n").getBytes());
+    dns = new Dns(TEST_DB_FILE);
+    sortie = new StringWriter();
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+    Files.deleteIfExists(Paths.get(TEST_LOG_FILE));
+  }
+  
+  @Test
+  public void testSlowCommandIsLoggedWithItsPhases() throws Exception {
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    String resultat = journal.tracer(new CommandeListeDomaine(dns, "uvsq.fr", true),
+        "ls -a uvsq.fr", 1_500_000).execute();
+    journal.close();
+    
+    assertTrue(resultat.contains("www.uvsq.fr"));
+    assertEquals(1, journal.getEcrites());
+    String ligne = sortie.toString().trim();
+    assertTrue(ligne, ligne.contains(" \"ls -a uvsq.fr\" analyse 1.500 ms recherche "));
+    assertTrue(ligne, ligne.contains(" ms (2) tri "));
+    assertTrue(ligne, ligne.contains(" ms (2) rendu "));
+    assertFalse(ligne, ligne.contains("persistance"));
+  }
+  
+  @Test
+  public void testAdditionLogsPersistence() throws Exception {
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    journal.tracer(new CommandeAjouterEntree(dns, "10.0.0.1", "poste.uvsq.fr"),
+        "add 10.0.0.1 poste.uvsq.fr", 0).execute();
+    journal.close();
+    
+    String ligne = sortie.toString().trim();
+    assertTrue(ligne, ligne.contains("\"add 10.0.0.1 poste.uvsq.fr\""));
+    assertTrue(ligne, ligne.contains(" ms (3) persistance "));
+    assertTrue(ligne, ligne.endsWith(" ms (3)"));
+  }
+  
+  @Test
+  public void testBatchedAdditionsAreLoggedAsOneBatch() throws Exception {
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    try (PipelineCommandes pipeline = new PipelineCommandes()) {
+      assertEquals("Entrée ajoutée avec succès: 10.0.0.1 poste.uvsq.fr", pipeline.executer(
+          journal.tracer(new CommandeAjouterEntree(dns, "10.0.0.1", "poste.uvsq.fr"),
+              "add 10.0.0.1 poste.uvsq.fr", 0)));
+    }
+    journal.close();
+    
+    assertEquals(1, journal.getEcrites());
+    String ligne = sortie.toString().trim();
+    assertTrue(ligne, ligne.contains(" \"add 10.0.0.1 poste.uvsq.fr\" lot 1 analyse "));
+    assertTrue(ligne, ligne.contains(" ms (3) persistance "));
+  }
+  
+  @Test
+  public void testFastCommandIsNotLogged() throws Exception {
+    JournalLenteurs journal = new JournalLenteurs(1, TimeUnit.HOURS, 10, sortie);
+    assertEquals("193.51.31.90",
+        journal.tracer(new CommandeRechercheParNom(dns, "www.uvsq.fr"), "www.uvsq.fr", 0)
+            .execute());
+    journal.close();
+    
+    assertEquals(0, journal.getEcrites());
+    assertEquals(0, journal.getIgnorees());
+    assertEquals("", sortie.toString());
+  }
+  
+  @Test
+  public void testNestedPhaseIsNotCountedTwice() throws Exception {
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    journal.tracer(() -> {
+      long debut = JournalLenteurs.debut();
+      long tri = JournalLenteurs.debut();
+      dormir(50);
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.TRI, tri, 4);
+      JournalLenteurs.mesurer(JournalLenteurs.Phase.PERSISTANCE, debut, 4);
+      return null;
+    }, "imbrique", 0).execute();
+    journal.close();
+    
+    String ligne = sortie.toString();
+    assertTrue(duree(ligne, "tri") >= 50);
+    assertTrue(ligne, duree(ligne, "persistance") < 50);
+  }
+  
+  @Test
+  public void testRateIsCapped() throws Exception {
+    AtomicLong horloge = new AtomicLong();
+    JournalLenteurs journal = new JournalLenteurs(0, 2, sortie, horloge::get);
+    Commande commande = journal.tracer(() -> "ok", "lent", 0);
+    for (int i = 0; i < 5; i++) {
+      commande.execute();
+    }
+    assertEquals(3, journal.getIgnorees());
+    
+    horloge.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    commande.execute();
+    journal.close();
+    
+    assertEquals(3, journal.getEcrites());
+    String[] lignes = sortie.toString().split(System.lineSeparator());
+    assertEquals(3, lignes.length);
+    assertTrue(lignes[2], lignes[2].endsWith(" [3 trace(s) ignorée(s)]"));
+    assertFalse(lignes[1].contains("ignorée"));
+  }
+  
+  @Test
+  public void testMeasuresWithoutTraceAreIgnored() throws Exception {
+    long debut = JournalLenteurs.debut();
+    assertEquals(0, debut);
+    JournalLenteurs.mesurer(JournalLenteurs.Phase.RECHERCHE, debut, 1);
+    
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    journal.tracer(() -> "ok", "ok", 0).execute();
+    assertEquals(0, JournalLenteurs.debut());
+    journal.close();
+  }
+  
+  @Test
+  public void testTracedCommandKeepsReadOnlyFlag() {
+    JournalLenteurs journal = new JournalLenteurs(0, TimeUnit.MILLISECONDS, 10, sortie);
+    assertTrue(journal.tracer(new CommandeRechercheParNom(dns, "www.uvsq.fr"), "", 0)
+        .estLecture());
+    assertFalse(journal.tracer(new CommandeAjouterEntree(dns, "10.0.0.1", "a.uvsq.fr"), "", 0)
+        .estLecture());
+    journal.close();
+  }
+  
+  @Test
+  public void testOpenFromProperties() throws Exception {
+    Properties props = new Properties();
+    assertNull(JournalLenteurs.ouvrir(props));
+    
+    props.setProperty("slowlog.threshold", "abc");
+    try {
+      JournalLenteurs.ouvrir(props);
+      fail("Seuil invalide");
+    } catch (DnsException e) {
+      assertEquals("Seuil du journal des lenteurs invalide: abc", e.getMessage());
+    }
+    
+    Files.write(Paths.get(TEST_LOG_FILE), "ancienne\n".getBytes());
+    props.setProperty("slowlog.threshold", "1");
+    props.setProperty("slowlog.file", TEST_LOG_FILE);
+    JournalLenteurs journal = JournalLenteurs.ouvrir(props);
+    journal.tracer(() -> {
+      dormir(5);
+      return null;
+    }, "lent", 0).execute();
+    journal.close();
+    
+    List<String> lignes = Files.readAllLines(Paths.get(TEST_LOG_FILE), StandardCharsets.UTF_8);
+    assertEquals(2, lignes.size());
+    assertEquals("ancienne", lignes.get(0));
+    assertTrue(lignes.get(1).contains("\"lent\""));
+  }
+  
+  private static double duree(String ligne, String phase) {
+    Matcher matcher = Pattern.compile(" " + phase + " ([0-9.]+) ms").matcher(ligne);
+    assertTrue(ligne, matcher.find());
+    return Double.parseDouble(matcher.group(1));
+  }
+  
+  private static void dormir(long millisecondes) {
+    try {
+      Thread.sleep(millisecondes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
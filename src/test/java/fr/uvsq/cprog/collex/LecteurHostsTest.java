@@ -0,0 +1,48 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for LecteurHosts class.
+ */
+public class LecteurHostsTest {
+  
+  @Test
+  public void testHostsFile() throws Exception {
+    String hosts = "# /etc/hosts\n"
+        + "127.0.0.1   localhost\n"
+        + "::1         localhost ip6-localhost\n"
+        + "\n"
+        + "193.51.31.90  www.uvsq.fr www   # serveur web\n"
+        + "10.0.0.5    serveur serveur.local.net\n"
+        + "2001:db8::2 v6.uvsq.fr\n";
+    try (LecteurHosts lecteur = new LecteurHosts(new BufferedReader(new StringReader(hosts)))) {
+      assertEquals("193.51.31.90 www.uvsq.fr", lecteur.suivante().toDisplayString());
+      assertEquals("10.0.0.5 serveur.local.net", lecteur.suivante().toDisplayString());
+      assertEquals("2001:db8::2 v6.uvsq.fr", lecteur.suivante().toDisplayString());
+      assertNull(lecteur.suivante());
+      assertEquals(2, lecteur.getNombreIgnores());
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testInvalidAddress() throws Exception {
+    try (LecteurHosts lecteur = new LecteurHosts(
+        new BufferedReader(new StringReader("www.uvsq.fr 193.51.31.90\n")))) {
+      lecteur.suivante();
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testMissingName() throws Exception {
+    try (LecteurHosts lecteur = new LecteurHosts(
+        new BufferedReader(new StringReader("193.51.31.90\n")))) {
+      lecteur.suivante();
+    }
+  }
+}
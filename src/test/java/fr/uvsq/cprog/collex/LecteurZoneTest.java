@@ -0,0 +1,120 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for LecteurZone class.
+ */
+public class LecteurZoneTest {
+  
+  private static List<String> lire(String zone, String origine) throws Exception {
+    List<String> entrees = new ArrayList<>();
+    try (LecteurZone lecteur = new LecteurZone(new BufferedReader(new StringReader(zone)),
+        origine)) {
+      DnsItem item;
+      while ((item = lecteur.suivante()) != null) {
+        entrees.add(item.toDisplayString());
+      }
+    }
+    return entrees;
+  }
+  
+  @Test
+  public void testForwardZone() throws Exception {
+    String zone = "$ORIGIN uvsq.fr.\n"
+        + "$TTL 3600\n"
+        + "@ IN SOA ns.uvsq.fr. admin.uvsq.fr. (\n"
+        + "    2024010101 ; serial\n"
+        + "    3600 900 604800 86400 )\n"
+        + "@        IN NS   ns.uvsq.fr.\n"
+        + "www      IN A    193.51.31.90 ; web\n"
+        + "         IN MX   10 mail\n"
+        + "ecampus  300 IN A 193.51.25.12\n"
+        + "poste.uvsq.fr. A 193.51.31.154\n"
+        + "v6       IN AAAA 2001:DB8::1\n"
+        + "alias    IN CNAME www\n"
+        + "txt      IN TXT  \"a ; b\"\n";
+    List<String> entrees = lire(zone, null);
+    assertEquals(4, entrees.size());
+    assertEquals("193.51.31.90 www.uvsq.fr", entrees.get(0));
+    assertEquals("193.51.25.12 ecampus.uvsq.fr", entrees.get(1));
+    assertEquals("193.51.31.154 poste.uvsq.fr", entrees.get(2));
+    assertEquals("2001:db8::1 v6.uvsq.fr", entrees.get(3));
+  }
+  
+  @Test
+  public void testReverseZone() throws Exception {
+    String zone = "$ORIGIN 31.51.193.in-addr.arpa.\n"
+        + "90   IN PTR www.uvsq.fr.\n"
+        + "154  IN PTR poste\n"
+        + "$ORIGIN 8.b.d.0.1.0.0.2.ip6.arpa.\n"
+        + "1.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0 IN PTR v6.uvsq.fr.\n"
+        + "$ORIGIN 51.193.in-addr.arpa.\n"
+        + "25 IN PTR partiel.uvsq.fr.\n";
+    List<String> entrees = lire(zone, null);
+    assertEquals(3, entrees.size());
+    assertEquals("193.51.31.90 www.uvsq.fr", entrees.get(0));
+    assertEquals("193.51.31.154 poste.31.51.193.in-addr.arpa", entrees.get(1));
+    assertEquals("2001:db8::1 v6.uvsq.fr", entrees.get(2));
+  }
+  
+  @Test
+  public void testInitialOriginAndRelativeOrigin() throws Exception {
+    String zone = "www A 10.0.0.1\n"
+        + "$ORIGIN info\n"
+        + "www A 10.0.0.2\n";
+    List<String> entrees = lire(zone, "uvsq.fr");
+    assertEquals("10.0.0.1 www.uvsq.fr", entrees.get(0));
+    assertEquals("10.0.0.2 www.info.uvsq.fr", entrees.get(1));
+  }
+  
+  @Test
+  public void testSkippedRecordsAreCounted() throws Exception {
+    String zone = "$ORIGIN uvsq.fr.\n"
+        + "@ NS ns\n"
+        + "* A 10.0.0.9\n"
+        + "www A 10.0.0.1\n";
+    try (LecteurZone lecteur = new LecteurZone(new BufferedReader(new StringReader(zone)),
+        null)) {
+      assertNotNull(lecteur.suivante());
+      assertNull(lecteur.suivante());
+      assertEquals(2, lecteur.getNombreIgnores());
+    }
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testRelativeNameWithoutOrigin() throws Exception {
+    lire("www A 10.0.0.1\n", null);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testInvalidAddress() throws Exception {
+    lire("www.uvsq.fr. A 10.0.0.300\n", null);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testUnclosedParenthesis() throws Exception {
+    lire("$ORIGIN uvsq.fr.\n@ SOA ns admin ( 1 2 3\n", null);
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testUnsupportedDirective() throws Exception {
+    lire("$INCLUDE autre.zone\n", null);
+  }
+  
+  @Test
+  public void testReverseNames() {
+    assertEquals("193.51.31.90", LecteurZone.adresseInverse("90.31.51.193.in-addr.arpa"));
+    assertNull(LecteurZone.adresseInverse("31.51.193.in-addr.arpa"));
+    assertNull(LecteurZone.adresseInverse("www.uvsq.fr"));
+    assertEquals("0000:0000:0000:0000:0000:0000:0000:0001", LecteurZone.adresseInverse(
+        "1.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.ip6.arpa"));
+  }
+}
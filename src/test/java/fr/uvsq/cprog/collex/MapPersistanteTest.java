@@ -0,0 +1,125 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MapPersistante class.
+ */
+public class MapPersistanteTest {
+  
+  /**
+   * Key with a deliberately poor hash code, to exercise collisions.
+   */
+  private static final class CleCollision {
+    private final int valeur;
+    
+    CleCollision(int valeur) {
+      this.valeur = valeur;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof CleCollision && ((CleCollision) obj).valeur == valeur;
+    }
+    
+    @Override
+    public int hashCode() {
+      return valeur % 3;
+    }
+  }
+  
+  @Test
+  public void testEmptyMap() {
+    MapPersistante<String, String> map = MapPersistante.vide();
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertNull(map.get("a"));
+    assertFalse(map.iterator().hasNext());
+  }
+  
+  @Test
+  public void testAddReplaceAndRemove() {
+    MapPersistante<String, Integer> map = MapPersistante.<String, Integer>vide()
+        .avec("a", 1).avec("b", 2).avec("a", 3);
+    
+    assertEquals(2, map.size());
+    assertEquals(Integer.valueOf(3), map.get("a"));
+    assertEquals(Integer.valueOf(2), map.get("b"));
+    
+    MapPersistante<String, Integer> sansA = map.sans("a");
+    assertEquals(1, sansA.size());
+    assertNull(sansA.get("a"));
+    assertSame(sansA, sansA.sans("absent"));
+  }
+  
+  @Test
+  public void testOlderVersionsAreUnchanged() {
+    MapPersistante<Integer, Integer> v1 = MapPersistante.vide();
+    for (int i = 0; i < 1000; i++) {
+      v1 = v1.avec(i, i);
+    }
+    MapPersistante<Integer, Integer> v2 = v1.avec(1000, 1000).sans(0);
+    
+    assertEquals(1000, v1.size());
+    assertEquals(Integer.valueOf(0), v1.get(0));
+    assertNull(v1.get(1000));
+    assertEquals(1000, v2.size());
+    assertNull(v2.get(0));
+    assertEquals(Integer.valueOf(1000), v2.get(1000));
+  }
+  
+  @Test
+  public void testCollisions() {
+    MapPersistante<CleCollision, Integer> map = MapPersistante.vide();
+    for (int i = 0; i < 30; i++) {
+      map = map.avec(new CleCollision(i), i);
+    }
+    assertEquals(30, map.size());
+    for (int i = 0; i < 30; i++) {
+      assertEquals(Integer.valueOf(i), map.get(new CleCollision(i)));
+    }
+    for (int i = 0; i < 30; i += 2) {
+      map = map.sans(new CleCollision(i));
+    }
+    assertEquals(15, map.size());
+    assertNull(map.get(new CleCollision(4)));
+    assertEquals(Integer.valueOf(5), map.get(new CleCollision(5)));
+  }
+  
+  @Test
+  public void testRandomOperationsMatchHashMap() {
+    Random random = new Random(42);
+    Map<Integer, Integer> reference = new HashMap<>();
+    MapPersistante<Integer, Integer> map = MapPersistante.vide();
+    
+    for (int i = 0; i < 20_000; i++) {
+      int cle = random.nextInt(5_000);
+      if (random.nextInt(3) == 0) {
+        reference.remove(cle);
+        map = map.sans(cle);
+      } else {
+        reference.put(cle, i);
+        map = map.avec(cle, i);
+      }
+    }
+    
+    assertEquals(reference.size(), map.size());
+    Map<Integer, Integer> parcourue = new HashMap<>();
+    for (Map.Entry<Integer, Integer> entree : map) {
+      assertNull(parcourue.put(entree.getKey(), entree.getValue()));
+    }
+    assertEquals(reference, parcourue);
+  }
+  
+  @Test(expected = UnsupportedOperationException.class)
+  public void testEntriesAreImmutable() {
+    MapPersistante<String, Integer> map = MapPersistante.<String, Integer>vide().avec("a", 1);
+    map.iterator().next().setValue(2);
+  }
+}
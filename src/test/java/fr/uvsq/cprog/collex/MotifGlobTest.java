@@ -0,0 +1,62 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MotifGlob class.
+ */
+public class MotifGlobTest {
+  
+  @Test
+  public void testPrefixPattern() {
+    MotifGlob motif = new MotifGlob("web*.uvsq.fr");
+    assertEquals("web", motif.getPrefixe());
+    assertEquals(".uvsq.fr", motif.getSuffixe());
+    assertFalse(motif.estExact());
+    assertTrue(motif.correspond("web1.uvsq.fr"));
+    assertTrue(motif.correspond("web.uvsq.fr"));
+    assertFalse(motif.correspond("www.uvsq.fr"));
+  }
+  
+  @Test
+  public void testSuffixPattern() {
+    MotifGlob motif = new MotifGlob("*.info.uvsq.fr");
+    assertEquals("", motif.getPrefixe());
+    assertEquals(".info.uvsq.fr", motif.getSuffixe());
+    assertTrue(motif.correspond("a.info.uvsq.fr"));
+    assertFalse(motif.correspond("info.uvsq.fr"));
+  }
+  
+  @Test
+  public void testSingleCharacterWildcard() {
+    MotifGlob motif = new MotifGlob("web?.uvsq.fr");
+    assertTrue(motif.correspond("web1.uvsq.fr"));
+    assertFalse(motif.correspond("web12.uvsq.fr"));
+  }
+  
+  @Test
+  public void testLiteralDotsAreNotRegex() {
+    MotifGlob motif = new MotifGlob("www.uvsq.*");
+    assertFalse(motif.correspond("wwwxuvsq.fr"));
+    assertTrue(motif.correspond("www.uvsq.fr"));
+  }
+  
+  @Test
+  public void testExactPatternIsNormalized() {
+    MotifGlob motif = new MotifGlob("  WWW.UVSQ.FR ");
+    assertTrue(motif.estExact());
+    assertEquals("www.uvsq.fr", motif.getMotif());
+    assertTrue(motif.correspond("www.uvsq.fr"));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyPattern() {
+    new MotifGlob("  ");
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullPattern() {
+    new MotifGlob(null);
+  }
+}
@@ -0,0 +1,69 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PageDomaine class.
+ */
+public class PageDomaineTest {
+  
+  private static List<DnsItem> melanges(int nombre) {
+    List<DnsItem> items = new ArrayList<>();
+    for (int i = 0; i < nombre; i++) {
+      items.add(new DnsItem(new AdresseIP("10.0." + (i / 256) + "." + (i % 256)),
+          new NomMachine("m" + (nombre - i) + ".uvsq.fr")));
+    }
+    Collections.shuffle(items, new Random(42));
+    return items;
+  }
+  
+  @Test
+  public void testSelectionWalksAllEntriesInOrder() throws Exception {
+    List<DnsItem> items = melanges(1000);
+    for (boolean trierParIp : new boolean[] {false, true}) {
+      List<DnsItem> attendus = new ArrayList<>(items);
+      attendus.sort(trierParIp
+          ? (a, b) -> a.getAdresseIp().compareTo(b.getAdresseIp()) : DnsItem::compareTo);
+      
+      List<DnsItem> lus = new ArrayList<>();
+      String curseur = null;
+      do {
+        PageDomaine page = PageDomaine.selectionner(items, trierParIp, curseur, 37);
+        assertTrue(page.getItems().size() <= 37);
+        lus.addAll(page.getItems());
+        curseur = page.getCurseurSuivant();
+      } while (curseur != null);
+      assertEquals(attendus, lus);
+    }
+  }
+  
+  @Test
+  public void testLastPageHasNoCursor() throws Exception {
+    List<DnsItem> items = melanges(10);
+    PageDomaine page = PageDomaine.selectionner(items, false, null, 10);
+    assertEquals(10, page.getItems().size());
+    assertNull(page.getCurseurSuivant());
+    
+    page = PageDomaine.premiers(items, true, 9);
+    assertEquals(9, page.getItems().size());
+    assertEquals(page.getItems().get(8).getAdresseIp().getAdresse(),
+        page.getCurseurSuivant());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testInvalidAddressCursor() throws Exception {
+    PageDomaine.selectionner(melanges(3), true, "m1.uvsq.fr", 2);
+  }
+  
+  @Test(expected = UnsupportedOperationException.class)
+  public void testPageIsUnmodifiable() throws Exception {
+    PageDomaine.selectionner(melanges(3), false, null, 2).getItems().clear();
+  }
+}
@@ -0,0 +1,288 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PipelineCommandes class.
+ */
+public class PipelineCommandesTest {
+  
+  private static final String TEST_DB_FILE = "test_pipeline_dns.txt";
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), ("www.uvsq.fr 193.51.31.90\n"
+        + "ecampus.uvsq.fr 193.51.25.12\n").getBytes());
+    dns = new Dns(TEST_DB_FILE);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+  }
+  
+  @Test
+  public void testReadsRunOnReadersAndChangesOnWriter() throws Exception {
+    try (PipelineCommandes pipeline = new PipelineCommandes(8, 2)) {
+      Commande lecture = new Commande() {
+        @Override
+        public String execute() {
+          return Thread.currentThread().getName();
+        }
+        
+        @Override
+        public boolean estLecture() {
+          return true;
+        }
+      };
+      Commande ecriture = () -> Thread.currentThread().getName();
+      
+      assertEquals("dns-lecteur", pipeline.executer(lecture));
+      assertEquals("dns-ecrivain", pipeline.executer(ecriture));
+      assertEquals(2, pipeline.getStatistiques().getNombre());
+      assertEquals(1, pipeline.getStatistiques().getLectures());
+    }
+  }
+  
+  @Test
+  public void testReadSeesEarlierAddition() throws Exception {
+    try (PipelineCommandes pipeline = new PipelineCommandes()) {
+      CompletableFuture<String> ajout = pipeline.publier(
+          new CommandeAjouterEntree(dns, "193.51.31.154", "poste.uvsq.fr"));
+      CompletableFuture<String> recherche = pipeline.publier(
+          new CommandeRechercheParNom(dns, "poste.uvsq.fr"));
+      
+      assertEquals("Entrée ajoutée avec succès: 193.51.31.154 poste.uvsq.fr", ajout.get());
+      assertEquals("193.51.31.154", recherche.get());
+    }
+  }
+  
+  @Test
+  public void testWaitingAdditionsAreAppliedAsOneBatch() throws Exception {
+    CountDownLatch bloque = new CountDownLatch(1);
+    CountDownLatch libere = new CountDownLatch(1);
+    try (PipelineCommandes pipeline = new PipelineCommandes(64, 1)) {
+      pipeline.publier(() -> {
+        bloque.countDown();
+        attendre(libere);
+        return null;
+      });
+      assertTrue(bloque.await(5, TimeUnit.SECONDS));
+      
+      List<CompletableFuture<String>> resultats = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        resultats.add(pipeline.publier(
+            new CommandeAjouterEntree(dns, "10.0.0." + i, "m" + i + ".uvsq.fr")));
+      }
+      CompletableFuture<String> ipPrise = pipeline.publier(
+          new CommandeAjouterEntree(dns, "10.0.0.1", "autre.uvsq.fr"));
+      CompletableFuture<String> nomPris = pipeline.publier(
+          new CommandeAjouterEntree(dns, "10.0.1.1", "www.uvsq.fr"));
+      CompletableFuture<String> invalide = pipeline.publier(
+          new CommandeAjouterEntree(dns, "10.0.0.300", "x.uvsq.fr"));
+      libere.countDown();
+      
+      for (int i = 0; i < 10; i++) {
+        assertEquals("Entrée ajoutée avec succès: 10.0.0." + i + " m" + i + ".uvsq.fr",
+            resultats.get(i).get());
+      }
+      assertEchec("ERREUR : L'adresse IP existe déjà !", ipPrise);
+      assertEchec("ERREUR : Le nom de machine existe déjà !", nomPris);
+      assertTrue(invalide.isCompletedExceptionally());
+      
+      PipelineCommandes.Statistiques statistiques = pipeline.getStatistiques();
+      assertEquals(1, statistiques.getNombreLots());
+      assertEquals(13, statistiques.getTailleMaxLot());
+      assertEquals(13.0, statistiques.getTailleMoyenneLot(), 0.0);
+      assertEquals(14, statistiques.getNombre());
+      assertTrue(statistiques.toString().contains("1 lot(s) d'ajouts"));
+    }
+    assertEquals(12, dns.size());
+    assertEquals(12, Files.readAllLines(Paths.get(TEST_DB_FILE)).size());
+  }
+  
+  @Test
+  public void testProducersWaitWhenRingIsFull() throws Exception {
+    CountDownLatch bloque = new CountDownLatch(1);
+    CountDownLatch libere = new CountDownLatch(1);
+    try (PipelineCommandes pipeline = new PipelineCommandes(2, 1)) {
+      pipeline.publier(() -> {
+        bloque.countDown();
+        attendre(libere);
+        return "premier";
+      });
+      assertTrue(bloque.await(5, TimeUnit.SECONDS));
+      
+      List<CompletableFuture<String>> resultats = new ArrayList<>();
+      Thread producteur = new Thread(() -> {
+        for (int i = 0; i < 5; i++) {
+          String valeur = "commande" + i;
+          resultats.add(pipeline.publier(() -> valeur));
+        }
+      });
+      producteur.start();
+      producteur.join(200);
+      assertTrue("Le producteur attend une place", producteur.isAlive());
+      
+      libere.countDown();
+      producteur.join();
+      for (int i = 0; i < 5; i++) {
+        assertEquals("commande" + i, resultats.get(i).get());
+      }
+    }
+  }
+  
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    int producteurs = 4;
+    int ajouts = 250;
+    List<CompletableFuture<String>> resultats = new ArrayList<>();
+    try (PipelineCommandes pipeline = new PipelineCommandes(16, 2)) {
+      Thread[] threads = new Thread[producteurs];
+      for (int p = 0; p < producteurs; p++) {
+        int numero = p;
+        threads[p] = new Thread(() -> {
+          for (int i = 0; i < ajouts; i++) {
+            CompletableFuture<String> resultat = pipeline.publier(new CommandeAjouterEntree(
+                dns, "10." + numero + "." + (i / 256) + "." + (i % 256),
+                "m" + i + ".p" + numero + ".test"));
+            synchronized (resultats) {
+              resultats.add(resultat);
+            }
+          }
+        });
+        threads[p].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (CompletableFuture<String> resultat : resultats) {
+        assertTrue(resultat.get().startsWith("Entrée ajoutée avec succès"));
+      }
+      assertEquals(producteurs * ajouts, pipeline.getStatistiques().getNombre());
+    }
+    assertEquals(2 + producteurs * ajouts, dns.size());
+    assertEquals(2 + producteurs * ajouts, new Dns(TEST_DB_FILE).size());
+  }
+  
+  @Test
+  public void testCloseRunsPublishedCommandsThenRefusesNewOnes() throws Exception {
+    PipelineCommandes pipeline = new PipelineCommandes(8, 1);
+    CompletableFuture<String> publiee = pipeline.publier(
+        new CommandeAjouterEntree(dns, "193.51.31.154", "poste.uvsq.fr"));
+    pipeline.close();
+    
+    assertTrue(publiee.isDone());
+    assertNotNull(dns.getItem(new NomMachine("poste.uvsq.fr")));
+    assertEchec("Pipeline de commandes arrêté", pipeline.publier(() -> "trop tard"));
+  }
+  
+  @Test
+  public void testPublishersRacingWithCloseNeverHang() throws Exception {
+    for (int essai = 0; essai < 50; essai++) {
+      PipelineCommandes pipeline = new PipelineCommandes(8, 1);
+      List<CompletableFuture<String>> resultats = new ArrayList<>();
+      Thread[] threads = new Thread[4];
+      for (int p = 0; p < threads.length; p++) {
+        threads[p] = new Thread(() -> {
+          for (int i = 0; i < 100; i++) {
+            CompletableFuture<String> resultat = pipeline.publier(() -> "ok");
+            synchronized (resultats) {
+              resultats.add(resultat);
+            }
+          }
+        });
+        threads[p].start();
+      }
+      pipeline.close();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (CompletableFuture<String> resultat : resultats) {
+        try {
+          assertEquals("ok", resultat.get(5, TimeUnit.SECONDS));
+        } catch (ExecutionException e) {
+          assertEquals("Pipeline de commandes arrêté", e.getCause().getMessage());
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testTracedAdditionsAreBatched() throws Exception {
+    CountDownLatch bloque = new CountDownLatch(1);
+    CountDownLatch libere = new CountDownLatch(1);
+    JournalLenteurs journal = new JournalLenteurs(1, TimeUnit.HOURS, 10, new StringWriter());
+    try (PipelineCommandes pipeline = new PipelineCommandes(64, 1)) {
+      pipeline.publier(() -> {
+        bloque.countDown();
+        attendre(libere);
+        return null;
+      });
+      assertTrue(bloque.await(5, TimeUnit.SECONDS));
+      
+      List<CompletableFuture<String>> resultats = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        String texte = "add 10.0.0." + i + " m" + i + ".uvsq.fr";
+        resultats.add(pipeline.publier(journal.tracer(
+            new CommandeAjouterEntree(dns, "10.0.0." + i, "m" + i + ".uvsq.fr"), texte, 0)));
+      }
+      libere.countDown();
+      for (CompletableFuture<String> resultat : resultats) {
+        assertTrue(resultat.get().startsWith("Entrée ajoutée avec succès"));
+      }
+      assertEquals(1, pipeline.getStatistiques().getNombreLots());
+      assertEquals(5, pipeline.getStatistiques().getTailleMaxLot());
+    } finally {
+      journal.close();
+    }
+  }
+  
+  @Test
+  public void testFailureIsRethrown() throws Exception {
+    try (PipelineCommandes pipeline = new PipelineCommandes(8, 1)) {
+      pipeline.executer(new CommandeAjouterEntree(dns, "193.51.31.90", "autre.uvsq.fr"));
+      fail("Adresse en double");
+    } catch (DnsException e) {
+      assertEquals("ERREUR : L'adresse IP existe déjà !", e.getMessage());
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityMustBePowerOfTwo() {
+    new PipelineCommandes(12, 1);
+  }
+  
+  private static void assertEchec(String message, CompletableFuture<String> resultat)
+      throws InterruptedException {
+    try {
+      resultat.get();
+      fail("Échec attendu: " + message);
+    } catch (ExecutionException e) {
+      assertEquals(message, e.getCause().getMessage());
+    }
+  }
+  
+  private static void attendre(CountDownLatch verrou) {
+    try {
+      verrou.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
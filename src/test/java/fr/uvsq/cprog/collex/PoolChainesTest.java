@@ -0,0 +1,55 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PoolChaines class.
+ */
+public class PoolChainesTest {
+  
+  @Test
+  public void testEqualStringsAreShared() {
+    PoolChaines pool = new PoolChaines();
+    String premiere = new String("uvsq.fr");
+    String seconde = new String("uvsq.fr");
+    
+    assertSame(premiere, pool.partager(premiere));
+    assertSame(premiere, pool.partager(seconde));
+    assertEquals(1, pool.size());
+    assertEquals("exemple.fr", pool.partager("exemple.fr"));
+    assertEquals(2, pool.size());
+  }
+  
+  @Test
+  public void testTrigramsAreShared() {
+    PoolChaines pool = new PoolChaines();
+    new IndexTrigrammes(pool).ajouter("www.uvsq.fr");
+    int taille = pool.size();
+    new IndexTrigrammes(pool).ajouter("www.uvsq.fr");
+    assertEquals(taille, pool.size());
+    assertTrue(taille > 0);
+  }
+  
+  @Test
+  public void testIndexKeysAreShared() throws Exception {
+    Path fichier = Files.createTempFile("dns-pool", ".txt");
+    try {
+      Files.write(fichier, "www.uvsq.fr 193.51.31.90\n".getBytes());
+      PoolChaines pool = new PoolChaines();
+      new Dns(fichier.toString(), pool);
+      
+      // Already pooled: the pool returns its own copy
+      String domaine = new String("uvsq.fr");
+      assertNotSame(domaine, pool.partager(domaine));
+      String inverse = new String("rf.qsvu.www");
+      assertNotSame(inverse, pool.partager(inverse));
+    } finally {
+      Files.delete(fichier);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PoolPages class.
+ */
+public class PoolPagesTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("test.pages");
+  }
+  
+  @Test
+  public void testPagesAreKeptAcrossOpenings() throws Exception {
+    try (PoolPages pool = new PoolPages(fichier, 4)) {
+      for (int i = 0; i < 10; i++) {
+        ecrire(pool, pool.allouer(), i);
+      }
+      pool.valider();
+      assertEquals(10, pool.getNombrePages());
+    }
+    assertEquals(10L * PoolPages.TAILLE_PAGE, Files.size(fichier));
+    
+    try (PoolPages pool = new PoolPages(fichier, 4)) {
+      assertEquals(10, pool.getNombrePages());
+      for (int i = 0; i < 10; i++) {
+        assertEquals(i, lire(pool, i));
+      }
+    }
+  }
+  
+  @Test
+  public void testClockEvictsPagesNotUsedRecently() throws Exception {
+    try (PoolPages pool = new PoolPages(fichier, 3)) {
+      for (int i = 0; i < 6; i++) {
+        ecrire(pool, pool.allouer(), i);
+      }
+      pool.valider();
+      
+      long lectures = pool.getLectures();
+      lire(pool, 0);
+      lire(pool, 1);
+      lire(pool, 2);
+      assertEquals(lectures + 3, pool.getLectures());
+      lire(pool, 0);
+      lire(pool, 1);
+      lire(pool, 2);
+      assertEquals("Pages en mémoire relues", lectures + 3, pool.getLectures());
+      
+      lire(pool, 3);
+      assertEquals(lectures + 4, pool.getLectures());
+      assertEquals(13, pool.getAcces());
+    }
+  }
+  
+  @Test
+  public void testPinnedPagesAreNotEvicted() throws Exception {
+    try (PoolPages pool = new PoolPages(fichier, 2)) {
+      for (int i = 0; i < 3; i++) {
+        ecrire(pool, pool.allouer(), i);
+      }
+      pool.valider();
+      
+      ByteBuffer page = pool.epingler(0);
+      ByteBuffer autre = pool.epingler(1);
+      try {
+        pool.epingler(2);
+        fail("Toutes les pages sont épinglées");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      pool.relacher(1);
+      assertEquals(2, lire(pool, 2));
+      assertEquals(0, page.getInt(0));
+      assertNotNull(autre);
+      pool.relacher(0);
+    }
+  }
+  
+  @Test
+  public void testRollbackRestoresChangedAndAllocatedPages() throws Exception {
+    try (PoolPages pool = new PoolPages(fichier, 2)) {
+      for (int i = 0; i < 4; i++) {
+        ecrire(pool, pool.allouer(), i);
+      }
+      pool.valider();
+      
+      // More changed pages than frames, so some are written before the rollback
+      for (int i = 0; i < 4; i++) {
+        ecrire(pool, i, 100 + i);
+      }
+      ecrire(pool, pool.allouer(), 104);
+      pool.annuler();
+      
+      assertEquals(4, pool.getNombrePages());
+      for (int i = 0; i < 4; i++) {
+        assertEquals(i, lire(pool, i));
+      }
+    }
+    assertEquals(4L * PoolPages.TAILLE_PAGE, Files.size(fichier));
+  }
+  
+  @Test
+  public void testCrashBeforeCommitIsRolledBackAtOpening() throws Exception {
+    PoolPages pool = new PoolPages(fichier, 2);
+    for (int i = 0; i < 4; i++) {
+      ecrire(pool, pool.allouer(), i);
+    }
+    pool.valider();
+    for (int i = 0; i < 4; i++) {
+      ecrire(pool, i, 100 + i);
+    }
+    ecrire(pool, pool.allouer(), 104);
+    pool.abandonner();
+    assertTrue(Files.size(PoolPages.fichierJournal(fichier)) > 0);
+    
+    try (PoolPages restaure = new PoolPages(fichier, 2)) {
+      assertEquals(4, restaure.getNombrePages());
+      for (int i = 0; i < 4; i++) {
+        assertEquals(i, lire(restaure, i));
+      }
+    }
+    assertEquals(0, Files.size(PoolPages.fichierJournal(fichier)));
+  }
+  
+  @Test
+  public void testCrashAfterCommitKeepsChanges() throws Exception {
+    PoolPages pool = new PoolPages(fichier, 2);
+    ecrire(pool, pool.allouer(), 1);
+    pool.valider();
+    ecrire(pool, 0, 2);
+    pool.valider();
+    pool.abandonner();
+    
+    try (PoolPages restaure = new PoolPages(fichier, 2)) {
+      assertEquals(2, lire(restaure, 0));
+    }
+  }
+  
+  @Test
+  public void testTornJournalRecordIsIgnored() throws Exception {
+    PoolPages pool = new PoolPages(fichier, 2);
+    for (int i = 0; i < 3; i++) {
+      ecrire(pool, pool.allouer(), i);
+    }
+    pool.valider();
+    ecrire(pool, 0, 100);
+    ecrire(pool, 1, 101);
+    pool.abandonner();
+    
+    // The second image was being appended when the crash happened
+    Path journal = PoolPages.fichierJournal(fichier);
+    byte[] octets = Files.readAllBytes(journal);
+    octets[octets.length - 1] ^= 1;
+    Files.write(journal, octets);
+    
+    try (PoolPages restaure = new PoolPages(fichier, 2)) {
+      assertEquals(0, lire(restaure, 0));
+      assertEquals(1, lire(restaure, 1));
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingPage() throws Exception {
+    try (PoolPages pool = new PoolPages(fichier, 2)) {
+      pool.epingler(0);
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooFewFrames() throws Exception {
+    new PoolPages(fichier, 1);
+  }
+  
+  private static void ecrire(PoolPages pool, int numero, int valeur) throws Exception {
+    ByteBuffer page = pool.epingler(numero);
+    try {
+      pool.modifier(numero);
+      page.putInt(0, valeur);
+      page.putInt(PoolPages.TAILLE_PAGE - 4, valeur);
+    } finally {
+      pool.relacher(numero);
+    }
+  }
+  
+  private static int lire(PoolPages pool, int numero) throws Exception {
+    ByteBuffer page = pool.epingler(numero);
+    try {
+      assertEquals(page.getInt(0), page.getInt(PoolPages.TAILLE_PAGE - 4));
+      return page.getInt(0);
+    } finally {
+      pool.relacher(numero);
+    }
+  }
+}
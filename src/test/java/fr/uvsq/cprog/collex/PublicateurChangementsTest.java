@@ -0,0 +1,219 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PublicateurChangements class.
+ */
+public class PublicateurChangementsTest {
+  
+  private static final String TEST_DB_FILE = "test_publicateur_dns.txt";
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    Files.write(Paths.get(TEST_DB_FILE), "www.uvsq.fr 193.51.31.90\n".getBytes());
+    dns = new Dns(TEST_DB_FILE);
+  }
+  
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(Paths.get(TEST_DB_FILE));
+  }
+  
+  /**
+   * Subscriber recording its signals, requesting a fixed number of changes at first.
+   */
+  private static final class Enregistreur implements Flow.Subscriber<DnsChange> {
+    private final long demandeInitiale;
+    private final List<DnsChange> recus = new ArrayList<>();
+    private Flow.Subscription abonnement;
+    private Throwable erreur;
+    private boolean complete;
+    
+    Enregistreur(long demandeInitiale) {
+      this.demandeInitiale = demandeInitiale;
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription abonnement) {
+      this.abonnement = abonnement;
+      if (demandeInitiale > 0) {
+        abonnement.request(demandeInitiale);
+      }
+    }
+    
+    @Override
+    public void onNext(DnsChange changement) {
+      recus.add(changement);
+    }
+    
+    @Override
+    public void onError(Throwable erreur) {
+      this.erreur = erreur;
+    }
+    
+    @Override
+    public void onComplete() {
+      complete = true;
+    }
+  }
+  
+  private PublicateurChangements publicateur(int taille,
+      PublicateurChangements.Politique politique) throws DnsException {
+    return new PublicateurChangements(dns, Runnable::run, taille, politique);
+  }
+  
+  private void ajouter(String nom, String ip) throws DnsException {
+    dns.addItem(new AdresseIP(ip), new NomMachine(nom));
+  }
+  
+  @Test
+  public void testAdditionsInSequenceOrder() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(16,
+        PublicateurChangements.Politique.DECONNECTER)) {
+      Enregistreur abonne = new Enregistreur(Long.MAX_VALUE);
+      publicateur.subscribe(abonne);
+      long depart = dns.instantane().getSequence();
+      ajouter("poste.uvsq.fr", "193.51.31.154");
+      ajouter("imprimante.uvsq.fr", "193.51.31.155");
+      
+      assertEquals(2, abonne.recus.size());
+      assertEquals(DnsChange.Type.AJOUT, abonne.recus.get(0).getType());
+      assertEquals("poste.uvsq.fr",
+          abonne.recus.get(0).getItem().getNomMachine().getNomComplet());
+      assertEquals(depart + 1, abonne.recus.get(0).getSequence());
+      assertEquals(depart + 2, abonne.recus.get(1).getSequence());
+    }
+  }
+  
+  @Test
+  public void testRemovalOnReload() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(16,
+        PublicateurChangements.Politique.DECONNECTER)) {
+      Enregistreur abonne = new Enregistreur(Long.MAX_VALUE);
+      publicateur.subscribe(abonne);
+      Files.write(Paths.get(TEST_DB_FILE), "mail.uvsq.fr 193.51.31.91\n".getBytes());
+      dns.recharger();
+      
+      assertEquals(2, abonne.recus.size());
+      assertTrue(abonne.recus.stream().anyMatch(c -> c.getType() == DnsChange.Type.RETRAIT
+          && c.getItem().getNomMachine().getNomComplet().equals("www.uvsq.fr")));
+      assertTrue(abonne.recus.stream().anyMatch(c -> c.getType() == DnsChange.Type.AJOUT
+          && c.getItem().getNomMachine().getNomComplet().equals("mail.uvsq.fr")));
+    }
+  }
+  
+  @Test
+  public void testBackpressure() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(16,
+        PublicateurChangements.Politique.DECONNECTER)) {
+      Enregistreur abonne = new Enregistreur(1);
+      publicateur.subscribe(abonne);
+      ajouter("poste.uvsq.fr", "193.51.31.154");
+      ajouter("imprimante.uvsq.fr", "193.51.31.155");
+      ajouter("serveur.uvsq.fr", "193.51.31.156");
+      assertEquals(1, abonne.recus.size());
+      
+      abonne.abonnement.request(5);
+      assertEquals(3, abonne.recus.size());
+      assertNull(abonne.erreur);
+    }
+  }
+  
+  @Test
+  public void testSlowSubscriberDisconnected() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(2,
+        PublicateurChangements.Politique.DECONNECTER)) {
+      Enregistreur abonne = new Enregistreur(0);
+      publicateur.subscribe(abonne);
+      ajouter("poste.uvsq.fr", "193.51.31.154");
+      ajouter("imprimante.uvsq.fr", "193.51.31.155");
+      ajouter("serveur.uvsq.fr", "193.51.31.156");
+      assertNull(abonne.erreur);
+      assertEquals(1, publicateur.getNombreAbonnes());
+      
+      abonne.abonnement.request(10);
+      assertEquals(2, abonne.recus.size());
+      assertTrue(abonne.erreur instanceof DnsException);
+      assertEquals(0, publicateur.getNombreAbonnes());
+    }
+  }
+  
+  @Test
+  public void testOldestChangesDropped() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(2,
+        PublicateurChangements.Politique.ABANDONNER_ANCIENS)) {
+      Enregistreur abonne = new Enregistreur(0);
+      publicateur.subscribe(abonne);
+      ajouter("poste.uvsq.fr", "193.51.31.154");
+      ajouter("imprimante.uvsq.fr", "193.51.31.155");
+      ajouter("serveur.uvsq.fr", "193.51.31.156");
+      
+      abonne.abonnement.request(10);
+      assertEquals(2, abonne.recus.size());
+      assertEquals("imprimante.uvsq.fr",
+          abonne.recus.get(0).getItem().getNomMachine().getNomComplet());
+      assertEquals("serveur.uvsq.fr",
+          abonne.recus.get(1).getItem().getNomMachine().getNomComplet());
+      assertNull(abonne.erreur);
+    }
+  }
+  
+  @Test
+  public void testNewestChangesDropped() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(1,
+        PublicateurChangements.Politique.ABANDONNER_NOUVEAUX)) {
+      Enregistreur abonne = new Enregistreur(0);
+      publicateur.subscribe(abonne);
+      ajouter("poste.uvsq.fr", "193.51.31.154");
+      ajouter("imprimante.uvsq.fr", "193.51.31.155");
+      
+      abonne.abonnement.request(10);
+      assertEquals(1, abonne.recus.size());
+      assertEquals("poste.uvsq.fr",
+          abonne.recus.get(0).getItem().getNomMachine().getNomComplet());
+    }
+  }
+  
+  @Test
+  public void testCloseCompletesAfterBufferedChanges() throws Exception {
+    PublicateurChangements publicateur = publicateur(16,
+        PublicateurChangements.Politique.DECONNECTER);
+    Enregistreur abonne = new Enregistreur(0);
+    publicateur.subscribe(abonne);
+    ajouter("poste.uvsq.fr", "193.51.31.154");
+    publicateur.close();
+    ajouter("imprimante.uvsq.fr", "193.51.31.155");
+    assertFalse(abonne.complete);
+    
+    abonne.abonnement.request(10);
+    assertEquals(1, abonne.recus.size());
+    assertTrue(abonne.complete);
+    
+    Enregistreur tardif = new Enregistreur(1);
+    publicateur.subscribe(tardif);
+    assertTrue(tardif.complete);
+  }
+  
+  @Test
+  public void testNonPositiveRequestSignalsError() throws Exception {
+    try (PublicateurChangements publicateur = publicateur(16,
+        PublicateurChangements.Politique.DECONNECTER)) {
+      Enregistreur abonne = new Enregistreur(0);
+      publicateur.subscribe(abonne);
+      abonne.abonnement.request(0);
+      assertTrue(abonne.erreur instanceof IllegalArgumentException);
+    }
+  }
+}
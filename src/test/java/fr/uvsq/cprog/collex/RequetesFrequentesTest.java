@@ -0,0 +1,134 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for RequetesFrequentes class.
+ */
+public class RequetesFrequentesTest {
+  
+  private static final long FENETRE = TimeUnit.SECONDS.toNanos(60);
+  
+  @Test
+  public void testExactCountsWithFewKeys() {
+    RequetesFrequentes requetes = new RequetesFrequentes(4, FENETRE, () -> 0L);
+    for (int i = 0; i < 5; i++) {
+      requetes.enregistrer("www.uvsq.fr");
+    }
+    requetes.enregistrer("mail.uvsq.fr");
+    requetes.enregistrer("mail.uvsq.fr");
+    
+    List<RequetesFrequentes.Frequence> top = requetes.getPlusFrequentes(10);
+    assertEquals(2, top.size());
+    assertEquals("www.uvsq.fr", top.get(0).getCle());
+    assertEquals(5, top.get(0).getCompte());
+    assertEquals("mail.uvsq.fr", top.get(1).getCle());
+    assertEquals(2, top.get(1).getCompte());
+    assertEquals(5, requetes.estimer("www.uvsq.fr"));
+    assertEquals(0, requetes.estimer("absent.uvsq.fr"));
+  }
+  
+  @Test
+  public void testHeavyHittersAmongManyRareKeys() {
+    RequetesFrequentes requetes = new RequetesFrequentes(5, FENETRE, () -> 0L);
+    Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      int tirage = random.nextInt(100);
+      if (tirage < 30) {
+        requetes.enregistrer("populaire" + random.nextInt(3) + ".uvsq.fr");
+      } else {
+        requetes.enregistrer("rare" + random.nextInt(100_000) + ".uvsq.fr");
+      }
+    }
+    
+    List<String> cles = new ArrayList<>();
+    for (RequetesFrequentes.Frequence frequence : requetes.getPlusFrequentes(3)) {
+      cles.add(frequence.getCle());
+      // About 20 000 each, overestimated by at most a small share of the total
+      assertTrue("Compte: " + frequence.getCompte(),
+          frequence.getCompte() > 19_000 && frequence.getCompte() < 22_000);
+    }
+    assertEquals(3, cles.size());
+    assertTrue(cles.contains("populaire0.uvsq.fr"));
+    assertTrue(cles.contains("populaire1.uvsq.fr"));
+    assertTrue(cles.contains("populaire2.uvsq.fr"));
+  }
+  
+  @Test
+  public void testCountsHalvedEveryWindow() {
+    AtomicLong horloge = new AtomicLong();
+    RequetesFrequentes requetes = new RequetesFrequentes(4, FENETRE, horloge::get);
+    for (int i = 0; i < 8; i++) {
+      requetes.enregistrer("www.uvsq.fr");
+    }
+    requetes.enregistrer("mail.uvsq.fr");
+    
+    horloge.set(FENETRE);
+    List<RequetesFrequentes.Frequence> top = requetes.getPlusFrequentes(10);
+    assertEquals(1, top.size());
+    assertEquals("www.uvsq.fr", top.get(0).getCle());
+    assertEquals(4, top.get(0).getCompte());
+    
+    // Two more windows elapsed at once
+    horloge.set(3 * FENETRE + 1);
+    assertEquals(1, requetes.estimer("www.uvsq.fr"));
+    
+    horloge.set(4 * FENETRE);
+    assertTrue(requetes.getPlusFrequentes(10).isEmpty());
+    assertEquals(0, requetes.estimer("www.uvsq.fr"));
+  }
+  
+  @Test
+  public void testNewHeavyHitterReplacesFadedOne() {
+    AtomicLong horloge = new AtomicLong();
+    RequetesFrequentes requetes = new RequetesFrequentes(1, FENETRE, horloge::get);
+    for (int i = 0; i < 100; i++) {
+      requetes.enregistrer("ancien.uvsq.fr");
+    }
+    horloge.set(5 * FENETRE);
+    for (int i = 0; i < 10; i++) {
+      requetes.enregistrer("nouveau.uvsq.fr");
+    }
+    
+    List<RequetesFrequentes.Frequence> top = requetes.getPlusFrequentes(1);
+    assertEquals("nouveau.uvsq.fr", top.get(0).getCle());
+  }
+  
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    RequetesFrequentes requetes = new RequetesFrequentes(8, TimeUnit.HOURS.toNanos(1),
+        System::nanoTime);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int graine = t;
+      threads[t] = new Thread(() -> {
+        Random random = new Random(graine);
+        for (int i = 0; i < 50_000; i++) {
+          requetes.enregistrer("www.uvsq.fr");
+          requetes.enregistrer("m" + random.nextInt(10_000) + ".uvsq.fr");
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    
+    RequetesFrequentes.Frequence premiere = requetes.getPlusFrequentes(1).get(0);
+    assertEquals("www.uvsq.fr", premiere.getCle());
+    assertTrue("Compte: " + premiere.getCompte(), premiere.getCompte() >= 200_000);
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new RequetesFrequentes(0, 1, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,92 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ResolveurMasse class.
+ */
+public class ResolveurMasseTest {
+  
+  private ForkJoinPool pool;
+  private InstantaneDns instantane;
+  
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+    instantane = InstantaneDns.VIDE;
+    for (int i = 0; i < 1000; i++) {
+      AdresseIP adresse = new AdresseIP("10.0." + (i / 256) + "." + (i % 256));
+      instantane = instantane.avec(new DnsItem(adresse, new NomMachine("machine" + i + ".uvsq.fr")));
+    }
+    instantane = instantane.avec(new DnsItem(new AdresseIP("2001:db8::1"),
+        new NomMachine("v6.uvsq.fr")));
+  }
+  
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+  
+  private String resoudre(ResolveurMasse resolveur, String entree) throws DnsException {
+    StringWriter sortie = new StringWriter();
+    resolveur.resoudre(instantane, new BufferedReader(new StringReader(entree)), sortie);
+    return sortie.toString();
+  }
+  
+  @Test
+  public void testResolvesAddressesAndNames() throws Exception {
+    String resultat = resoudre(new ResolveurMasse(pool),
+        "10.0.0.5\nMachine7.UVSQ.fr\n2001:DB8::1\nv6.uvsq.fr\n");
+    assertEquals("10.0.0.5 machine5.uvsq.fr\nMachine7.UVSQ.fr 10.0.0.7\n"
+        + "2001:DB8::1 v6.uvsq.fr\nv6.uvsq.fr 2001:db8::1\n", resultat);
+  }
+  
+  @Test
+  public void testAbsentAndInvalidEntries() throws Exception {
+    StringWriter sortie = new StringWriter();
+    ResolveurMasse.Bilan bilan = new ResolveurMasse(pool).resoudre(instantane,
+        new BufferedReader(new StringReader("  10.0.0.1  \n\n# commentaire\n"
+            + "192.168.1.1\nabsent.uvsq.fr\n300.1.1.1\nsans-point\n")), sortie);
+    
+    assertEquals("10.0.0.1 machine1.uvsq.fr\n192.168.1.1 -\nabsent.uvsq.fr -\n"
+        + "300.1.1.1 -\nsans-point ?\n", sortie.toString());
+    assertEquals(1, bilan.getResolues());
+    assertEquals(3, bilan.getIntrouvables());
+    assertEquals(1, bilan.getInvalides());
+  }
+  
+  @Test
+  public void testKeepsInputOrderAcrossChunks() throws Exception {
+    StringBuilder entree = new StringBuilder();
+    StringBuilder attendu = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      int rang = (i * 7919) % 1200;
+      String adresse = "10.0." + (rang / 256) + "." + (rang % 256);
+      entree.append(adresse).append('\n');
+      attendu.append(adresse).append(' ')
+          .append(rang < 1000 ? "machine" + rang + ".uvsq.fr" : "-").append('\n');
+    }
+    
+    assertEquals(attendu.toString(), resoudre(new ResolveurMasse(pool, 97, 3),
+        entree.toString()));
+  }
+  
+  @Test
+  public void testEmptyInput() throws Exception {
+    assertEquals("", resoudre(new ResolveurMasse(pool), "\n# rien\n"));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidChunkSize() {
+    new ResolveurMasse(pool, 0, 1);
+  }
+}
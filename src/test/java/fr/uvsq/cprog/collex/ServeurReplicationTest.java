@@ -0,0 +1,287 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ServeurReplication and ClientReplication classes.
+ */
+public class ServeurReplicationTest {
+  
+  private static final long ATTENTE_MAX_MS = 10_000;
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  private Dns primaire;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+        + "poste.uvsq.fr 193.51.31.154\n").getBytes());
+    primaire = new Dns(fichier.toString());
+  }
+  
+  private static void attendre(BooleanSupplier condition) throws InterruptedException {
+    long limite = System.currentTimeMillis() + ATTENTE_MAX_MS;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < limite) {
+      Thread.sleep(20);
+    }
+  }
+  
+  @Test
+  public void testFullTransferThenLiveChanges() throws Exception {
+    Dns secondaire = Dns.replique();
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      try (ClientReplication client =
+          new ClientReplication(secondaire, "127.0.0.1", serveur.getPort())) {
+        client.demarrer();
+        attendre(() -> secondaire.size() == 2);
+        assertEquals(2, secondaire.size());
+        assertEquals(1, client.getNombreTransfertsComplets());
+        
+        primaire.addItem("193.51.25.12", "ecampus.uvsq.fr");
+        attendre(() -> secondaire.size() == 3);
+        DnsItem item = secondaire.getItem(new NomMachine("ecampus.uvsq.fr"));
+        assertNotNull(item);
+        assertEquals("193.51.25.12", item.getAdresseIp().getAdresse());
+        assertEquals(primaire.instantane().getSequence(),
+            secondaire.instantane().getSequence());
+        assertEquals(1, secondaire.findItems(new MotifGlob("ecampus.*")).size());
+      }
+    }
+  }
+  
+  @Test
+  public void testReloadIsReplicated() throws Exception {
+    Dns secondaire = Dns.replique();
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      try (ClientReplication client =
+          new ClientReplication(secondaire, "127.0.0.1", serveur.getPort())) {
+        client.demarrer();
+        attendre(() -> secondaire.size() == 2);
+        
+        Files.write(fichier, "www.uvsq.fr 193.51.31.91\n".getBytes());
+        primaire.recharger();
+        attendre(() -> secondaire.size() == 1
+            && secondaire.getItem(new AdresseIP("193.51.31.91")) != null);
+        assertEquals(1, secondaire.size());
+        assertNull(secondaire.getItem(new NomMachine("poste.uvsq.fr")));
+        assertNotNull(secondaire.getItem(new AdresseIP("193.51.31.91")));
+      }
+    }
+  }
+  
+  @Test
+  public void testIncrementalCatchUp() throws Exception {
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      long sequence = primaire.instantane().getSequence();
+      primaire.addItem("193.51.25.12", "ecampus.uvsq.fr");
+      primaire.addItem("193.51.25.13", "moodle.uvsq.fr");
+      
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serveur.getPort())) {
+        BufferedReader lecteur = demander(socket, serveur.getEpoque(), sequence);
+        assertEquals("IXFR " + serveur.getEpoque(), lecteur.readLine());
+        assertEquals("+ " + (sequence + 1) + " 193.51.25.12 ecampus.uvsq.fr",
+            lecteur.readLine());
+        assertEquals("+ " + (sequence + 2) + " 193.51.25.13 moodle.uvsq.fr",
+            lecteur.readLine());
+      }
+    }
+  }
+  
+  @Test
+  public void testFullTransferOnUnknownEpoch() throws Exception {
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      long sequence = primaire.instantane().getSequence();
+      
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serveur.getPort())) {
+        BufferedReader lecteur = demander(socket, serveur.getEpoque() + 1, sequence);
+        assertEquals("AXFR " + serveur.getEpoque() + " " + sequence + " 2",
+            lecteur.readLine());
+      }
+    }
+  }
+  
+  @Test
+  public void testFullTransferWhenJournalIsTooShort() throws Exception {
+    try (ServeurReplication serveur = new ServeurReplication(primaire, 1)) {
+      serveur.demarrer(0);
+      long sequence = primaire.instantane().getSequence();
+      primaire.addItem("193.51.25.12", "ecampus.uvsq.fr");
+      primaire.addItem("193.51.25.13", "moodle.uvsq.fr");
+      
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serveur.getPort())) {
+        BufferedReader lecteur = demander(socket, serveur.getEpoque(), sequence);
+        assertEquals("AXFR " + serveur.getEpoque() + " " + (sequence + 2) + " 4",
+            lecteur.readLine());
+      }
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serveur.getPort())) {
+        BufferedReader lecteur = demander(socket, serveur.getEpoque(), sequence + 1);
+        assertEquals("IXFR " + serveur.getEpoque(), lecteur.readLine());
+      }
+    }
+  }
+  
+  @Test
+  public void testSilentSecondaryIsDisconnected() throws Exception {
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serveur.getPort())) {
+        socket.setSoTimeout(3 * ServeurReplication.DELAI_DEMANDE_MS);
+        long debut = System.nanoTime();
+        assertEquals(-1, socket.getInputStream().read());
+        long duree = (System.nanoTime() - debut) / 1_000_000;
+        assertTrue("déconnecté après " + duree + " ms",
+            duree >= ServeurReplication.DELAI_DEMANDE_MS / 2);
+      }
+    }
+  }
+  
+  private static BufferedReader demander(Socket socket, long epoque, long sequence)
+      throws Exception {
+    Writer ecrivain = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    ecrivain.write("SYNC " + epoque + " " + sequence + "\n");
+    ecrivain.flush();
+    return new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+  }
+  
+  @Test
+  public void testSilentPrimaryIsLeft() throws Exception {
+    List<Socket> acceptees = new ArrayList<>();
+    try (ServerSocket muet = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      Thread accepteur = new Thread(() -> {
+        try {
+          while (true) {
+            Socket connexion = muet.accept();
+            synchronized (acceptees) {
+              acceptees.add(connexion);
+            }
+          }
+        } catch (Exception e) {
+          // Server closed
+        }
+      });
+      accepteur.start();
+      
+      try (ClientReplication client =
+          new ClientReplication(Dns.replique(), "127.0.0.1", muet.getLocalPort())) {
+        client.demarrer();
+        attendre(() -> {
+          synchronized (acceptees) {
+            return acceptees.size() >= 2;
+          }
+        });
+        synchronized (acceptees) {
+          assertTrue(acceptees.size() >= 2);
+        }
+        assertNotNull(client.getDerniereErreur());
+      }
+    } finally {
+      synchronized (acceptees) {
+        for (Socket connexion : acceptees) {
+          connexion.close();
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testReplicaIsReadOnly() {
+    Dns secondaire = Dns.replique();
+    assertTrue(secondaire.estLectureSeule());
+    try {
+      secondaire.addItem("193.51.25.12", "ecampus.uvsq.fr");
+      fail("Should throw DnsException");
+    } catch (DnsException e) {
+      assertTrue(e.getMessage().contains("lecture seule"));
+    }
+    assertEquals(0, secondaire.size());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testOutOfSequenceChangeIsRejected() throws Exception {
+    Dns secondaire = Dns.replique();
+    secondaire.appliquer(new DnsChange(DnsChange.Type.AJOUT,
+        new DnsItem("193.51.25.12", "ecampus.uvsq.fr"), 5));
+  }
+  
+  @Test
+  public void testSecondaryProcess() throws Exception {
+    try (ServeurReplication serveur = new ServeurReplication(primaire)) {
+      serveur.demarrer(0);
+      
+      String java = System.getProperty("java.home") + File.separator + "bin"
+          + File.separator + "java";
+      Process processus = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+          DnsApp.class.getName(), "--secondaire", "127.0.0.1:" + serveur.getPort())
+          .redirectErrorStream(true)
+          .start();
+      StringBuffer sortie = new StringBuffer();
+      Thread lecteur = new Thread(() -> {
+        try (BufferedReader in = new BufferedReader(
+            new InputStreamReader(processus.getInputStream(), StandardCharsets.UTF_8))) {
+          String ligne;
+          while ((ligne = in.readLine()) != null) {
+            sortie.append(ligne).append('\n');
+          }
+        } catch (Exception e) {
+          // Process ended
+        }
+      });
+      lecteur.start();
+      
+      try (Writer entree = new OutputStreamWriter(processus.getOutputStream(),
+          StandardCharsets.UTF_8)) {
+        attendre(() -> serveur.getNombreAbonnes() == 1);
+        assertEquals(1, serveur.getNombreAbonnes());
+        
+        primaire.addItem("193.51.25.12", "ecampus.uvsq.fr");
+        long limite = System.currentTimeMillis() + ATTENTE_MAX_MS;
+        while (sortie.indexOf("193.51.25.12") < 0 && System.currentTimeMillis() < limite) {
+          entree.write("ecampus.uvsq.fr\n");
+          entree.flush();
+          Thread.sleep(100);
+        }
+        assertTrue(sortie.toString(), sortie.indexOf("193.51.25.12") >= 0);
+        
+        entree.write("add 193.51.25.13 moodle.uvsq.fr\n");
+        entree.write("quit\n");
+        entree.flush();
+        lecteur.join(ATTENTE_MAX_MS);
+        assertTrue(sortie.toString(), sortie.indexOf("lecture seule") >= 0);
+        assertNull(primaire.getItem(new NomMachine("moodle.uvsq.fr")));
+      } finally {
+        processus.destroy();
+      }
+    }
+  }
+}
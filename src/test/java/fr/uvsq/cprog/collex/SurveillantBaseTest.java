@@ -0,0 +1,84 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SurveillantBase class.
+ */
+public class SurveillantBaseTest {
+  
+  private static final long ATTENTE_MAX_MS = 10_000;
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path fichier;
+  private Dns dns;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    fichier = repertoire.resolve("dns_database.txt");
+    Files.write(fichier, "www.uvsq.fr 193.51.31.90\n".getBytes());
+    dns = new Dns(fichier.toString());
+  }
+  
+  @Test
+  public void testReloadOnExternalEdit() throws Exception {
+    try (SurveillantBase surveillant = dns.surveiller()) {
+      Files.write(fichier, ("www.uvsq.fr 193.51.31.90\n"
+          + "poste.uvsq.fr 193.51.31.154\n").getBytes());
+      
+      long limite = System.currentTimeMillis() + ATTENTE_MAX_MS;
+      while (dns.size() < 2 && System.currentTimeMillis() < limite) {
+        Thread.sleep(20);
+      }
+      
+      assertEquals(2, dns.size());
+      assertNotNull(dns.getItem(new NomMachine("poste.uvsq.fr")));
+      assertTrue(surveillant.getNombreRechargements() >= 1);
+    }
+  }
+  
+  @Test
+  public void testInvalidEditIsReported() throws Exception {
+    try (SurveillantBase surveillant = dns.surveiller()) {
+      Files.write(fichier, "invalid line format\n".getBytes());
+      
+      long limite = System.currentTimeMillis() + ATTENTE_MAX_MS;
+      while (surveillant.getDerniereErreur() == null && System.currentTimeMillis() < limite) {
+        Thread.sleep(20);
+      }
+      
+      assertNotNull(surveillant.getDerniereErreur());
+      assertEquals(1, dns.size());
+    }
+  }
+  
+  @Test
+  public void testOwnSaveIsNotReloaded() throws Exception {
+    try (SurveillantBase surveillant = dns.surveiller()) {
+      dns.addItem("10.0.0.1", "poste.uvsq.fr");
+      Thread.sleep(500);
+      assertEquals(0, surveillant.getNombreRechargements());
+      
+      Files.write(fichier, "www.uvsq.fr 193.51.31.90\n".getBytes());
+      long limite = System.currentTimeMillis() + ATTENTE_MAX_MS;
+      while (dns.size() > 1 && System.currentTimeMillis() < limite) {
+        Thread.sleep(20);
+      }
+      
+      assertEquals(1, dns.size());
+      assertTrue(surveillant.getNombreRechargements() >= 1);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package fr.uvsq.cprog.collex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Zones class.
+ */
+public class ZonesTest {
+  
+  @Rule
+  public TemporaryFolder dossier = new TemporaryFolder();
+  
+  private Path repertoire;
+  private Path interne;
+  private Path externe;
+  
+  @Before
+  public void setUp() throws Exception {
+    repertoire = dossier.getRoot().toPath();
+    interne = repertoire.resolve("interne.txt");
+    externe = repertoire.resolve("externe.txt");
+    Files.write(interne, ("www.uvsq.fr 10.0.0.1\n"
+        + "intranet.uvsq.fr 10.0.0.2\n").getBytes());
+    Files.write(externe, "www.uvsq.fr 193.51.31.90\n".getBytes());
+  }
+  
+  @Test
+  public void testZonesAreIndependent() throws Exception {
+    Zones zones = new Zones();
+    Dns dnsInterne = zones.charger("interne", interne.toString());
+    Dns dnsExterne = zones.charger("externe", externe.toString());
+    
+    assertEquals(Arrays.asList("interne", "externe"), zones.getNoms().stream().toList());
+    assertEquals("interne", zones.getPremiere());
+    assertSame(dnsExterne, zones.get("externe"));
+    NomMachine www = new NomMachine("www.uvsq.fr");
+    assertEquals("10.0.0.1", dnsInterne.getItem(www).getAdresseIp().getAdresse());
+    assertEquals("193.51.31.90", dnsExterne.getItem(www).getAdresseIp().getAdresse());
+    
+    dnsExterne.addItem("193.51.31.91", "mail.uvsq.fr");
+    assertNull(dnsInterne.getItem(new NomMachine("mail.uvsq.fr")));
+    assertTrue(new String(Files.readAllBytes(externe)).contains("mail.uvsq.fr"));
+    assertFalse(new String(Files.readAllBytes(interne)).contains("mail.uvsq.fr"));
+  }
+  
+  @Test
+  public void testNamesAreSharedAcrossZones() throws Exception {
+    Zones zones = new Zones();
+    Dns dnsInterne = zones.charger("interne", interne.toString());
+    Dns dnsExterne = zones.charger("externe", externe.toString());
+    
+    NomMachine www = new NomMachine("www.uvsq.fr");
+    assertSame(dnsInterne.getItem(www).getNomMachine().getNomComplet(),
+        dnsExterne.getItem(www).getNomMachine().getNomComplet());
+    
+    dnsInterne.addItem("10.0.0.3", "mail.uvsq.fr");
+    dnsExterne.addItem("193.51.31.91", "mail.uvsq.fr");
+    NomMachine mail = new NomMachine("mail.uvsq.fr");
+    assertSame(dnsInterne.getItem(mail).getNomMachine().getNomComplet(),
+        dnsExterne.getItem(mail).getNomMachine().getNomComplet());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testDuplicateZone() throws Exception {
+    Zones zones = new Zones();
+    zones.charger("interne", interne.toString());
+    zones.charger("interne", externe.toString());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testUnknownZone() throws Exception {
+    Zones zones = new Zones();
+    zones.charger("interne", interne.toString());
+    zones.get("absente");
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testInvalidZoneName() throws Exception {
+    new Zones().charger("zone invalide", interne.toString());
+  }
+  
+  @Test(expected = DnsException.class)
+  public void testNoZone() throws Exception {
+    new Zones().getPremiere();
+  }
+}